@@ -51,23 +51,21 @@ import android.widget.LinearLayout;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
 
-import com.bluelinelabs.logansquare.LoganSquare;
 import com.evernote.android.job.JobRequest;
 import com.evernote.android.job.util.Device;
+import com.nextcloud.talk.BuildConfig;
 import com.nextcloud.talk.R;
 import com.nextcloud.talk.api.NcApi;
 import com.nextcloud.talk.api.helpers.api.ApiHelper;
 import com.nextcloud.talk.api.models.json.call.CallOverall;
 import com.nextcloud.talk.api.models.json.generic.GenericOverall;
+import com.nextcloud.talk.api.models.json.participants.Participant;
 import com.nextcloud.talk.api.models.json.rooms.Room;
 import com.nextcloud.talk.api.models.json.rooms.RoomsOverall;
 import com.nextcloud.talk.api.models.json.signaling.DataChannelMessage;
 import com.nextcloud.talk.api.models.json.signaling.NCIceCandidate;
 import com.nextcloud.talk.api.models.json.signaling.NCMessagePayload;
-import com.nextcloud.talk.api.models.json.signaling.NCMessageWrapper;
 import com.nextcloud.talk.api.models.json.signaling.NCSignalingMessage;
-import com.nextcloud.talk.api.models.json.signaling.Signaling;
-import com.nextcloud.talk.api.models.json.signaling.SignalingOverall;
 import com.nextcloud.talk.api.models.json.signaling.settings.IceServer;
 import com.nextcloud.talk.api.models.json.signaling.settings.SignalingSettingsOverall;
 import com.nextcloud.talk.application.NextcloudTalkApplication;
@@ -77,12 +75,20 @@ import com.nextcloud.talk.events.SessionDescriptionSendEvent;
 import com.nextcloud.talk.persistence.entities.UserEntity;
 import com.nextcloud.talk.utils.animations.PulseAnimation;
 import com.nextcloud.talk.utils.database.user.UserUtils;
+import com.nextcloud.talk.utils.notifications.NotificationAggregator;
+import com.nextcloud.talk.utils.schedulers.SchedulerProvider;
 import com.nextcloud.talk.webrtc.MagicAudioManager;
 import com.nextcloud.talk.webrtc.MagicPeerConnectionWrapper;
-import com.nextcloud.talk.webrtc.MagicWebRTCUtils;
 import com.nextcloud.talk.webrtc.MagicWebRtcLists;
+import com.nextcloud.talk.webrtc.PeerConnectionRegistry;
+import com.nextcloud.talk.webrtc.PeerConnectionStatsSampler;
+import com.nextcloud.talk.webrtc.PeerStatsRingBuffer;
+import com.nextcloud.talk.webrtc.Sdp;
+import com.nextcloud.talk.webrtc.CaptureFormatPolicy;
+import com.nextcloud.talk.webrtc.HttpSignalingTransport;
+import com.nextcloud.talk.webrtc.SignalingTransport;
+import com.nextcloud.talk.webrtc.WebSocketSignalingTransport;
 
-import org.apache.commons.lang3.StringEscapeUtils;
 import org.greenrobot.eventbus.EventBus;
 import org.greenrobot.eventbus.Subscribe;
 import org.greenrobot.eventbus.ThreadMode;
@@ -108,10 +114,8 @@ import org.webrtc.VideoRenderer;
 import org.webrtc.VideoSource;
 import org.webrtc.VideoTrack;
 
-import java.io.IOException;
 import java.net.CookieManager;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -125,17 +129,21 @@ import butterknife.ButterKnife;
 import butterknife.OnClick;
 import butterknife.OnLongClick;
 import io.reactivex.Observer;
+import io.reactivex.Scheduler;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.Disposable;
-import io.reactivex.schedulers.Schedulers;
 import me.zhanghai.android.effortlesspermissions.AfterPermissionDenied;
 import me.zhanghai.android.effortlesspermissions.EffortlessPermissions;
 import me.zhanghai.android.effortlesspermissions.OpenAppDetailsDialogFragment;
+import okhttp3.OkHttpClient;
 import pub.devrel.easypermissions.AfterPermissionGranted;
 
 @AutoInjector(NextcloudTalkApplication.class)
 public class CallActivity extends AppCompatActivity {
     private static final String TAG = "CallActivity";
+    private static final long STATS_INTERVAL_MS = 2000;
+    // Two minutes of history per peer
+    private static final int STATS_HISTORY_SIZE = 60;
     private static final String[] PERMISSIONS_CALL = {
             android.Manifest.permission.CAMERA,
             android.Manifest.permission.RECORD_AUDIO,
@@ -167,12 +175,19 @@ public class CallActivity extends AppCompatActivity {
 
     @Inject
     NcApi ncApi;
+
+    @Inject
+    SchedulerProvider schedulerProvider;
     @Inject
     EventBus eventBus;
     @Inject
     UserUtils userUtils;
     @Inject
     CookieManager cookieManager;
+    @Inject
+    OkHttpClient okHttpClient;
+    @Inject
+    NotificationAggregator notificationAggregator;
 
     PeerConnectionFactory peerConnectionFactory;
     MediaConstraints audioConstraints;
@@ -186,9 +201,10 @@ public class CallActivity extends AppCompatActivity {
     VideoCapturer videoCapturer;
     VideoRenderer localRenderer;
     EglBase rootEglBase;
-    boolean leavingCall = false;
-    boolean inCall = false;
-    Disposable signalingDisposable;
+    volatile boolean leavingCall = false;
+    volatile boolean inCall = false;
+    SignalingTransport signalingTransport;
+    PeerConnectionStatsSampler peerConnectionStatsSampler;
     Disposable pingDisposable;
     List<PeerConnection.IceServer> iceServers;
     private CameraEnumerator cameraEnumerator;
@@ -197,7 +213,16 @@ public class CallActivity extends AppCompatActivity {
     private String callSession;
     private MediaStream localMediaStream;
     private String credentials;
-    private List<MagicPeerConnectionWrapper> magicPeerConnectionWrapperList = new ArrayList<>();
+    private String externalSignalingServer;
+    private String externalSignalingTicket;
+    private final CaptureFormatPolicy captureFormatPolicy = new CaptureFormatPolicy();
+    private boolean videoCapturing;
+    // Every change to the peer connections happens here, UI updates are posted to the main thread
+    private Scheduler signalingScheduler;
+    private final PeerConnectionRegistry<MagicPeerConnectionWrapper> peerConnectionRegistry =
+            new PeerConnectionRegistry<>(sessionId -> leavingCall ? null :
+                    new MagicPeerConnectionWrapper(peerConnectionFactory, iceServers, sdpConstraints, sessionId,
+                            getLocalSessionId(), localMediaStream));
 
     private boolean videoOn = false;
     private boolean audioOn = false;
@@ -222,6 +247,8 @@ public class CallActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         NextcloudTalkApplication.getSharedApplication().getComponentApplication().inject(this);
 
+        signalingScheduler = schedulerProvider.signaling();
+
         requestWindowFeature(Window.FEATURE_NO_TITLE);
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_FULLSCREEN |
                 WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON
@@ -243,6 +270,9 @@ public class CallActivity extends AppCompatActivity {
         roomToken = getIntent().getExtras().getString("roomToken", "");
         userEntity = Parcels.unwrap(getIntent().getExtras().getParcelable("userEntity"));
         callSession = "0";
+        if (!TextUtils.isEmpty(roomToken)) {
+            notificationAggregator.clearRoom(userEntity, roomToken);
+        }
         credentials = ApiHelper.getCredentials(userEntity.getUsername(), userEntity.getToken());
 
         networkBroadcastReceier = new BroadcastReceiver() {
@@ -303,16 +333,18 @@ public class CallActivity extends AppCompatActivity {
     }
 
     private void performIceRestart() {
-        for (int i = 0; i < magicPeerConnectionWrapperList.size(); i++) {
-            sdpConstraints.optional.add(new MediaConstraints.KeyValuePair("IceRestart", "true"));
-            PeerConnection.RTCConfiguration rtcConfiguration = new PeerConnection.RTCConfiguration(iceServers);
-            magicPeerConnectionWrapperList.get(i).getPeerConnection().setConfiguration(rtcConfiguration);
-        }
+        signalingScheduler.scheduleDirect(() -> {
+            for (MagicPeerConnectionWrapper magicPeerConnectionWrapper : peerConnectionRegistry.getAll()) {
+                sdpConstraints.optional.add(new MediaConstraints.KeyValuePair("IceRestart", "true"));
+                PeerConnection.RTCConfiguration rtcConfiguration = new PeerConnection.RTCConfiguration(iceServers);
+                magicPeerConnectionWrapper.getPeerConnection().setConfiguration(rtcConfiguration);
+            }
+        });
     }
 
     private void handleFromNotification() {
         ncApi.getRooms(credentials, ApiHelper.getUrlForGetRooms(userEntity.getBaseUrl()))
-                .subscribeOn(Schedulers.newThread())
+                .subscribeOn(schedulerProvider.network())
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(new Observer<RoomsOverall>() {
                     @Override
@@ -356,13 +388,7 @@ public class CallActivity extends AppCompatActivity {
                 startVideoCapture();
             } else {
                 cameraControlButton.setAlpha(0.7f);
-                if (videoCapturer != null) {
-                    try {
-                        videoCapturer.stopCapture();
-                    } catch (InterruptedException e) {
-                        Log.d(TAG, "Failed to stop capturing video while sensor is near the ear");
-                    }
-                }
+                stopVideoCapture();
             }
 
             if (localMediaStream != null && localMediaStream.videoTracks.size() > 0) {
@@ -389,8 +415,8 @@ public class CallActivity extends AppCompatActivity {
         }
 
         if (inCall) {
-            for (int i = 0; i < magicPeerConnectionWrapperList.size(); i++) {
-                magicPeerConnectionWrapperList.get(i).sendChannelData(new DataChannelMessage(message));
+            for (MagicPeerConnectionWrapper magicPeerConnectionWrapper : peerConnectionRegistry.getAll()) {
+                magicPeerConnectionWrapper.sendChannelData(new DataChannelMessage(message));
             }
         }
     }
@@ -712,7 +738,7 @@ public class CallActivity extends AppCompatActivity {
 
         ncApi.getSignalingSettings(ApiHelper.getCredentials(userEntity.getUsername(), userEntity.getToken()),
                 ApiHelper.getUrlForSignalingSettings(userEntity.getBaseUrl()))
-                .subscribeOn(Schedulers.newThread())
+                .subscribeOn(schedulerProvider.network())
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(new Observer<SignalingSettingsOverall>() {
                     @Override
@@ -722,6 +748,11 @@ public class CallActivity extends AppCompatActivity {
 
                     @Override
                     public void onNext(SignalingSettingsOverall signalingSettingsOverall) {
+                        externalSignalingServer = signalingSettingsOverall.getOcs().getSettings()
+                                .getExternalSignalingServer();
+                        externalSignalingTicket = signalingSettingsOverall.getOcs().getSettings()
+                                .getExternalSignalingTicket();
+
                         IceServer iceServer;
                         for (int i = 0; i < signalingSettingsOverall.getOcs().getSettings().getStunServers().size();
                              i++) {
@@ -769,13 +800,37 @@ public class CallActivity extends AppCompatActivity {
 
     private void startVideoCapture() {
         if (videoCapturer != null) {
-            videoCapturer.startCapture(1280, 720, 30);
+            CaptureFormatPolicy.CaptureFormat captureFormat = captureFormatPolicy.getCaptureFormat();
+            videoCapturer.startCapture(captureFormat.getWidth(), captureFormat.getHeight(),
+                    captureFormat.getFramerate());
+            videoCapturing = true;
+        }
+    }
+
+    private void stopVideoCapture() {
+        if (videoCapturer != null) {
+            try {
+                videoCapturer.stopCapture();
+            } catch (InterruptedException e) {
+                Log.e(TAG, "Failed to stop capturing video");
+            }
+        }
+        videoCapturing = false;
+    }
+
+    private void applyCaptureFormat() {
+        // changeCaptureFormat restarts the camera, so leave it alone while it's stopped
+        if (videoCapturer != null && videoCapturing) {
+            CaptureFormatPolicy.CaptureFormat captureFormat = captureFormatPolicy.getCaptureFormat();
+            Log.d(TAG, "Changing capture format to " + captureFormat);
+            videoCapturer.changeCaptureFormat(captureFormat.getWidth(), captureFormat.getHeight(),
+                    captureFormat.getFramerate());
         }
     }
 
     private void joinRoomAndCall() {
         ncApi.joinRoom(credentials, ApiHelper.getUrlForRoom(userEntity.getBaseUrl(), roomToken))
-                .subscribeOn(Schedulers.newThread())
+                .subscribeOn(schedulerProvider.network())
                 .observeOn(AndroidSchedulers.mainThread())
                 .retry(3)
                 .subscribe(new Observer<CallOverall>() {
@@ -788,7 +843,7 @@ public class CallActivity extends AppCompatActivity {
                     public void onNext(CallOverall callOverall) {
                         ncApi.joinCall(credentials,
                                 ApiHelper.getUrlForCall(userEntity.getBaseUrl(), roomToken))
-                                .subscribeOn(Schedulers.newThread())
+                                .subscribeOn(schedulerProvider.network())
                                 .retry(3)
                                 .observeOn(AndroidSchedulers.mainThread())
                                 .subscribe(new Observer<GenericOverall>() {
@@ -806,7 +861,7 @@ public class CallActivity extends AppCompatActivity {
                                         // start pinging the call
                                         ncApi.pingCall(ApiHelper.getCredentials(userEntity.getUsername(), userEntity.getToken()),
                                                 ApiHelper.getUrlForCallPing(userEntity.getBaseUrl(), roomToken))
-                                                .subscribeOn(Schedulers.newThread())
+                                                .subscribeOn(schedulerProvider.network())
                                                 .observeOn(AndroidSchedulers.mainThread())
                                                 .repeatWhen(observable -> observable.delay(5000, TimeUnit.MILLISECONDS))
                                                 .takeWhile(observable -> inCall)
@@ -833,46 +888,47 @@ public class CallActivity extends AppCompatActivity {
                                                     }
                                                 });
 
-                                        // Start pulling signaling messages
-                                        ncApi.pullSignalingMessages(ApiHelper.getCredentials(userEntity.getUsername(),
-                                                userEntity.getToken()), ApiHelper.getUrlForSignaling(userEntity.getBaseUrl()))
-                                                .subscribeOn(Schedulers.newThread())
-                                                .observeOn(AndroidSchedulers.mainThread())
-                                                .repeatWhen(observable -> observable)
-                                                .takeWhile(observable -> inCall)
-                                                .retry(3, observable -> inCall)
-                                                .subscribe(new Observer<SignalingOverall>() {
+                                        SignalingTransport.Listener signalingTransportListener =
+                                                new SignalingTransport.Listener() {
                                                     @Override
-                                                    public void onSubscribe(Disposable d) {
-                                                        signalingDisposable = d;
+                                                    public void onUsersInRoom(List<Participant> participants) {
+                                                        if (!leavingCall) {
+                                                            processUsersInRoom(participants);
+                                                        }
                                                     }
 
                                                     @Override
-                                                    public void onNext(SignalingOverall signalingOverall) {
-                                                        if (signalingOverall.getOcs().getSignalings() != null) {
-                                                            for (int i = 0; i < signalingOverall.getOcs().getSignalings().size(); i++) {
-                                                                try {
-                                                                    receivedSignalingMessage(signalingOverall.getOcs().getSignalings().get(i));
-                                                                } catch (IOException e) {
-                                                                    Log.e(TAG, "Failed to process received signaling" +
-                                                                            " message");
-                                                                }
-                                                            }
+                                                    public void onSignalingMessage(NCSignalingMessage
+                                                                                           ncSignalingMessage) {
+                                                        if (!leavingCall) {
+                                                            receivedSignalingMessage(ncSignalingMessage);
                                                         }
                                                     }
+                                                };
+
+                                        if (!TextUtils.isEmpty(externalSignalingServer)) {
+                                            signalingTransport = new WebSocketSignalingTransport(okHttpClient,
+                                                    externalSignalingServer, userEntity.getBaseUrl(),
+                                                    userEntity.getUserId(), externalSignalingTicket, roomToken,
+                                                    callSession, signalingScheduler,
+                                                    signalingTransportListener);
+                                        } else {
+                                            signalingTransport = new HttpSignalingTransport(ncApi, credentials,
+                                                    ApiHelper.getUrlForSignaling(userEntity.getBaseUrl()),
+                                                    callSession, signalingScheduler,
+                                                    signalingTransportListener);
+                                        }
 
-                                                    @Override
-                                                    public void onError(Throwable e) {
-                                                        dispose(signalingDisposable);
-                                                    }
+                                        signalingTransport.connect();
 
-                                                    @Override
-                                                    public void onComplete() {
-                                                        dispose(signalingDisposable);
+                                        peerConnectionStatsSampler = new PeerConnectionStatsSampler(
+                                                peerConnectionRegistry, signalingScheduler, STATS_INTERVAL_MS,
+                                                STATS_HISTORY_SIZE, kbps -> {
+                                                    if (captureFormatPolicy.onOutboundBandwidthMeasured(kbps)) {
+                                                        runOnUiThread(CallActivity.this::applyCaptureFormat);
                                                     }
                                                 });
-
-
+                                        peerConnectionStatsSampler.start();
                                     }
 
                                     @Override
@@ -898,61 +954,50 @@ public class CallActivity extends AppCompatActivity {
                 });
     }
 
-    private void receivedSignalingMessage(Signaling signaling) throws IOException {
-        String messageType = signaling.getType();
-
-        if (leavingCall) {
-            return;
-        }
+    private void receivedSignalingMessage(NCSignalingMessage ncSignalingMessage) {
+        if ("video".equals(ncSignalingMessage.getRoomType())) {
+            MagicPeerConnectionWrapper magicPeerConnectionWrapper = peerConnectionRegistry.getOrCreate
+                    (ncSignalingMessage.getFrom());
+            if (magicPeerConnectionWrapper == null) {
+                // Hanging up
+                return;
+            }
 
-        if ("usersInRoom".equals(messageType)) {
-            processUsersInRoom((List<HashMap<String, String>>) signaling.getMessageWrapper());
-        } else if ("message".equals(messageType)) {
-            NCSignalingMessage ncSignalingMessage = LoganSquare.parse(signaling.getMessageWrapper().toString(),
-                    NCSignalingMessage.class);
-            if (ncSignalingMessage.getRoomType().equals("video")) {
-                MagicPeerConnectionWrapper magicPeerConnectionWrapper = alwaysGetPeerConnectionWrapperForSessionId
-                        (ncSignalingMessage.getFrom());
-
-                String type = null;
-                if (ncSignalingMessage.getPayload() != null && ncSignalingMessage.getPayload().getType() !=
-                        null) {
-                    type = ncSignalingMessage.getPayload().getType();
-                } else if (ncSignalingMessage.getType() != null) {
-                    type = ncSignalingMessage.getType();
-                }
+            String type = null;
+            if (ncSignalingMessage.getPayload() != null && ncSignalingMessage.getPayload().getType() !=
+                    null) {
+                type = ncSignalingMessage.getPayload().getType();
+            } else if (ncSignalingMessage.getType() != null) {
+                type = ncSignalingMessage.getType();
+            }
 
-                if (type != null) {
-                    switch (type) {
-                        case "offer":
-                        case "answer":
-                            magicPeerConnectionWrapper.setNick(ncSignalingMessage.getPayload().getNick());
-                            String sessionDescriptionStringWithPreferredCodec = MagicWebRTCUtils.preferCodec
-                                    (ncSignalingMessage.getPayload().getSdp(),
-                                            "VP8", false);
-
-                            SessionDescription sessionDescriptionWithPreferredCodec = new SessionDescription(
-                                    SessionDescription.Type.fromCanonicalForm(type),
-                                    sessionDescriptionStringWithPreferredCodec);
-
-                            magicPeerConnectionWrapper.getPeerConnection().setRemoteDescription(magicPeerConnectionWrapper
-                                    .getMagicSdpObserver(), sessionDescriptionWithPreferredCodec);
-                            break;
-                        case "candidate":
-                            NCIceCandidate ncIceCandidate = ncSignalingMessage.getPayload().getIceCandidate();
-                            IceCandidate iceCandidate = new IceCandidate(ncIceCandidate.getSdpMid(),
-                                    ncIceCandidate.getSdpMLineIndex(), ncIceCandidate.getCandidate());
-                            magicPeerConnectionWrapper.addCandidate(iceCandidate);
-                            break;
-                        case "endOfCandidates":
-                            magicPeerConnectionWrapper.drainIceCandidates();
-                            break;
-                        default:
-                            break;
-                    }
+            if (type != null) {
+                switch (type) {
+                    case "offer":
+                    case "answer":
+                        magicPeerConnectionWrapper.setNick(ncSignalingMessage.getPayload().getNick());
+                        String sessionDescriptionStringWithPreferredCodec = Sdp.parse(ncSignalingMessage
+                                .getPayload().getSdp()).preferCodec(Sdp.VIDEO, "VP8").toString();
+
+                        SessionDescription sessionDescriptionWithPreferredCodec = new SessionDescription(
+                                SessionDescription.Type.fromCanonicalForm(type),
+                                sessionDescriptionStringWithPreferredCodec);
+
+                        magicPeerConnectionWrapper.getPeerConnection().setRemoteDescription(magicPeerConnectionWrapper
+                                .getMagicSdpObserver(), sessionDescriptionWithPreferredCodec);
+                        break;
+                    case "candidate":
+                        NCIceCandidate ncIceCandidate = ncSignalingMessage.getPayload().getIceCandidate();
+                        IceCandidate iceCandidate = new IceCandidate(ncIceCandidate.getSdpMid(),
+                                ncIceCandidate.getSdpMLineIndex(), ncIceCandidate.getCandidate());
+                        magicPeerConnectionWrapper.addCandidate(iceCandidate);
+                        break;
+                    case "endOfCandidates":
+                        magicPeerConnectionWrapper.drainIceCandidates();
+                        break;
+                    default:
+                        break;
                 }
-            } else {
-                Log.d(TAG, "Something went very very wrong");
             }
         } else {
             Log.d(TAG, "Something went very very wrong");
@@ -967,115 +1012,81 @@ public class CallActivity extends AppCompatActivity {
                 + "selected: " + device);
     }
 
-    private void processUsersInRoom(List<HashMap<String, String>> users) {
-        List<String> newSessions = new ArrayList<>();
-        Set<String> oldSesssions = new HashSet<>();
+    private void processUsersInRoom(List<Participant> participants) {
+        Set<String> sessionsInCall = new HashSet<>();
+        String ownSessionId = getLocalSessionId();
 
-        for (HashMap<String, String> participant : users) {
-            if (!participant.get("sessionId").equals(callSession) && !participant.get("userId").equals(userEntity
-                    .getUserId())) {
-                Object inCallObject = participant.get("inCall");
-                if ((boolean) inCallObject) {
-                    newSessions.add(participant.get("sessionId"));
-                } else {
-                    oldSesssions.add(participant.get("sessionId"));
-                }
+        for (Participant participant : participants) {
+            String sessionId = participant.getSessionId();
+            if (participant.isInCall() && sessionId != null && !sessionId.equals(ownSessionId) &&
+                    !userEntity.getUserId().equals(participant.getUserId())) {
+                sessionsInCall.add(sessionId);
             }
         }
 
-        for (MagicPeerConnectionWrapper magicPeerConnectionWrapper : magicPeerConnectionWrapperList) {
-            oldSesssions.add(magicPeerConnectionWrapper.getSessionId());
-        }
-
-        // Calculate sessions that left the call
-        oldSesssions.removeAll(newSessions);
-
-        // Calculate sessions that join the call
-        newSessions.removeAll(oldSesssions);
-
         if (leavingCall) {
             return;
         }
 
-        for (String sessionId : newSessions) {
-            alwaysGetPeerConnectionWrapperForSessionId(sessionId);
+        PeerConnectionRegistry.RosterDiff rosterDiff = peerConnectionRegistry.reconcile(sessionsInCall);
+
+        for (String sessionId : rosterDiff.getJoined()) {
+            peerConnectionRegistry.getOrCreate(sessionId);
         }
 
-        for (String sessionId : oldSesssions) {
+        for (String sessionId : rosterDiff.getLeft()) {
             endPeerConnection(sessionId);
         }
-    }
-
 
-    private void deleteMagicPeerConnection(MagicPeerConnectionWrapper magicPeerConnectionWrapper) {
-        magicPeerConnectionWrapper.removePeerConnection();
-        magicPeerConnectionWrapperList.remove(magicPeerConnectionWrapper);
-    }
-
-    private MagicPeerConnectionWrapper alwaysGetPeerConnectionWrapperForSessionId(String sessionId) {
-        MagicPeerConnectionWrapper magicPeerConnectionWrapper;
-        if ((magicPeerConnectionWrapper = getPeerConnectionWrapperForSessionId(sessionId)) != null) {
-            return magicPeerConnectionWrapper;
-        } else {
-            magicPeerConnectionWrapper = new MagicPeerConnectionWrapper(peerConnectionFactory,
-                    iceServers, sdpConstraints, sessionId, callSession, localMediaStream);
-            magicPeerConnectionWrapperList.add(magicPeerConnectionWrapper);
-            return magicPeerConnectionWrapper;
+        if (captureFormatPolicy.onPeerCountChanged(peerConnectionRegistry.size())) {
+            runOnUiThread(this::applyCaptureFormat);
         }
     }
 
-    private MagicPeerConnectionWrapper getPeerConnectionWrapperForSessionId(String sessionId) {
-        for (MagicPeerConnectionWrapper magicPeerConnectionWrapper : magicPeerConnectionWrapperList) {
-            if (magicPeerConnectionWrapper.getSessionId().equals(sessionId)) {
-                return magicPeerConnectionWrapper;
-            }
+    private String getLocalSessionId() {
+        if (signalingTransport != null && signalingTransport.getSessionId() != null) {
+            return signalingTransport.getSessionId();
         }
-        return null;
+
+        return callSession;
     }
 
     private void hangup(boolean dueToNetworkChange) {
 
         leavingCall = true;
         inCall = false;
+        dispose(null);
 
         if (videoCapturer != null) {
-            try {
-                videoCapturer.stopCapture();
-            } catch (InterruptedException e) {
-                Log.e(TAG, "Failed to stop capturing while hanging up");
-            }
+            stopVideoCapture();
             videoCapturer.dispose();
             videoCapturer = null;
         }
 
-        for (int i = 0; i < magicPeerConnectionWrapperList.size(); i++) {
-            endPeerConnection(magicPeerConnectionWrapperList.get(i).getSessionId());
-
-        }
-
         pipVideoView.release();
 
-        if (audioSource != null) {
-            audioSource.dispose();
-            audioSource = null;
-        }
-
         if (audioManager != null) {
             audioManager.stop();
             audioManager = null;
         }
 
-        if (videoSource != null) {
-            videoSource = null;
-        }
+        // The sources and the factory are used by the peer connections, so they go after them
+        signalingScheduler.scheduleDirect(() -> {
+            for (MagicPeerConnectionWrapper magicPeerConnectionWrapper : peerConnectionRegistry.getAll()) {
+                endPeerConnection(magicPeerConnectionWrapper.getSessionId());
+            }
 
-        if (peerConnectionFactory != null) {
-            peerConnectionFactory = null;
-        }
+            if (audioSource != null) {
+                audioSource.dispose();
+                audioSource = null;
+            }
 
-        localMediaStream = null;
-        localAudioTrack = null;
-        localVideoTrack = null;
+            videoSource = null;
+            localMediaStream = null;
+            localAudioTrack = null;
+            localVideoTrack = null;
+            peerConnectionFactory = null;
+        });
 
         hangupNetworkCalls();
     }
@@ -1083,7 +1094,7 @@ public class CallActivity extends AppCompatActivity {
     private void hangupNetworkCalls() {
         String credentials = ApiHelper.getCredentials(userEntity.getUsername(), userEntity.getToken());
         ncApi.leaveCall(credentials, ApiHelper.getUrlForCall(userEntity.getBaseUrl(), roomToken))
-                .subscribeOn(Schedulers.newThread())
+                .subscribeOn(schedulerProvider.network())
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(new Observer<GenericOverall>() {
                     @Override
@@ -1094,7 +1105,7 @@ public class CallActivity extends AppCompatActivity {
                     @Override
                     public void onNext(GenericOverall genericOverall) {
                         ncApi.leaveRoom(credentials, ApiHelper.getUrlForRoom(userEntity.getBaseUrl(), roomToken))
-                                .subscribeOn(Schedulers.newThread())
+                                .subscribeOn(schedulerProvider.network())
                                 .observeOn(AndroidSchedulers.mainThread())
                                 .subscribe(new Observer<GenericOverall>() {
                                     @Override
@@ -1180,7 +1191,10 @@ public class CallActivity extends AppCompatActivity {
                 VideoRenderer remoteRenderer = new VideoRenderer(surfaceViewRenderer);
                 videoTrack.addRenderer(remoteRenderer);
                 remoteRenderersLayout.addView(relativeLayout);
-                gotNick(session, getPeerConnectionWrapperForSessionId(session).getNick());
+                MagicPeerConnectionWrapper magicPeerConnectionWrapper = peerConnectionRegistry.get(session);
+                if (magicPeerConnectionWrapper != null) {
+                    gotNick(session, magicPeerConnectionWrapper.getNick());
+                }
             } catch (Exception e) {
                 Log.d(TAG, "Failed to create a new video view");
             }
@@ -1209,9 +1223,55 @@ public class CallActivity extends AppCompatActivity {
                 pingDisposable = null;
             }
 
-            if (signalingDisposable != null && !signalingDisposable.isDisposed()) {
-                signalingDisposable.dispose();
-                signalingDisposable = null;
+            if (signalingTransport != null) {
+                signalingTransport.disconnect();
+                signalingTransport = null;
+            }
+
+            if (peerConnectionStatsSampler != null) {
+                peerConnectionStatsSampler.stop();
+                if (BuildConfig.DEBUG) {
+                    logPeerStats();
+                }
+                peerConnectionStatsSampler = null;
+            }
+        }
+    }
+
+    /**
+     * Sums up how the connection to every peer that is still around went, the peers are ended after this.
+     */
+    private void logPeerStats() {
+        for (String sessionId : peerConnectionRegistry.getSessionIds()) {
+            PeerStatsRingBuffer.Snapshot snapshot = peerConnectionStatsSampler.getSnapshot(sessionId);
+            if (snapshot == null || snapshot.size() == 0) {
+                continue;
+            }
+
+            int maxRttMs = PeerStatsRingBuffer.UNKNOWN;
+            int maxPacketLossPermille = PeerStatsRingBuffer.UNKNOWN;
+            for (int i = 0; i < snapshot.size(); i++) {
+                maxRttMs = Math.max(maxRttMs, snapshot.getRttMs(i));
+                maxPacketLossPermille = Math.max(maxPacketLossPermille, snapshot.getPacketLossPermille(i));
+            }
+
+            int latest = snapshot.size() - 1;
+            Log.d(TAG, "Peer " + sessionId + ": " + snapshot.size() + " samples, max rtt " + maxRttMs
+                    + "ms, max loss " + maxPacketLossPermille + " permille, last out "
+                    + snapshot.getOutboundKbps(latest) + "kbps, last in " + snapshot.getInboundKbps(latest) + "kbps");
+        }
+    }
+
+    @Override
+    protected void onNewIntent(Intent intent) {
+        super.onNewIntent(intent);
+
+        // singleTask, so a notification tapped during a call ends up here instead of in onCreate
+        if (intent.getExtras() != null && intent.getExtras().containsKey("userEntity")) {
+            String notifiedRoomToken = intent.getExtras().getString("roomToken", "");
+            if (!TextUtils.isEmpty(notifiedRoomToken)) {
+                notificationAggregator.clearRoom(
+                        Parcels.unwrap(intent.getExtras().getParcelable("userEntity")), notifiedRoomToken);
             }
         }
     }
@@ -1229,12 +1289,8 @@ public class CallActivity extends AppCompatActivity {
     public void onStop() {
         super.onStop();
         eventBus.unregister(this);
-        if (videoCapturer != null && EffortlessPermissions.hasPermissions(this, PERMISSIONS_CAMERA)) {
-            try {
-                videoCapturer.stopCapture();
-            } catch (InterruptedException e) {
-                Log.e(TAG, "Failed to stop the capturing process");
-            }
+        if (EffortlessPermissions.hasPermissions(this, PERMISSIONS_CAMERA)) {
+            stopVideoCapture();
         }
     }
 
@@ -1242,7 +1298,7 @@ public class CallActivity extends AppCompatActivity {
     public void onMessageEvent(PeerConnectionEvent peerConnectionEvent) {
         if (peerConnectionEvent.getPeerConnectionEventType().equals(PeerConnectionEvent.PeerConnectionEventType
                 .CLOSE_PEER)) {
-            endPeerConnection(peerConnectionEvent.getSessionId());
+            signalingScheduler.scheduleDirect(() -> endPeerConnection(peerConnectionEvent.getSessionId()));
         } else if (peerConnectionEvent.getPeerConnectionEventType().equals(PeerConnectionEvent
                 .PeerConnectionEventType.SENSOR_FAR) ||
                 peerConnectionEvent.getPeerConnectionEventType().equals(PeerConnectionEvent
@@ -1269,9 +1325,9 @@ public class CallActivity extends AppCompatActivity {
 
     private void endPeerConnection(String sessionId) {
         MagicPeerConnectionWrapper magicPeerConnectionWrapper;
-        if ((magicPeerConnectionWrapper = getPeerConnectionWrapperForSessionId(sessionId)) != null) {
+        if ((magicPeerConnectionWrapper = peerConnectionRegistry.remove(sessionId)) != null) {
             runOnUiThread(() -> removeMediaStream(sessionId));
-            deleteMagicPeerConnection(magicPeerConnectionWrapper);
+            magicPeerConnectionWrapper.removePeerConnection();
         }
     }
 
@@ -1299,11 +1355,7 @@ public class CallActivity extends AppCompatActivity {
     }
 
     @Subscribe(threadMode = ThreadMode.BACKGROUND)
-    public void onMessageEvent(SessionDescriptionSendEvent sessionDescriptionSend) throws IOException {
-        String credentials = ApiHelper.getCredentials(userEntity.getUsername(), userEntity.getToken());
-        NCMessageWrapper ncMessageWrapper = new NCMessageWrapper();
-        ncMessageWrapper.setEv("message");
-        ncMessageWrapper.setSessionId(callSession);
+    public void onMessageEvent(SessionDescriptionSendEvent sessionDescriptionSend) {
         NCSignalingMessage ncSignalingMessage = new NCSignalingMessage();
         ncSignalingMessage.setTo(sessionDescriptionSend.getPeerId());
         ncSignalingMessage.setRoomType("video");
@@ -1318,60 +1370,13 @@ public class CallActivity extends AppCompatActivity {
             ncMessagePayload.setIceCandidate(sessionDescriptionSend.getNcIceCandidate());
         }
 
-
         // Set all we need
         ncSignalingMessage.setPayload(ncMessagePayload);
-        ncMessageWrapper.setSignalingMessage(ncSignalingMessage);
-
-
-        StringBuilder stringBuilder = new StringBuilder();
-        stringBuilder.append("{");
-        stringBuilder.append("\"fn\":\"");
-        stringBuilder.append(StringEscapeUtils.escapeJson(LoganSquare.serialize(ncMessageWrapper
-                .getSignalingMessage()))).append("\"");
-        stringBuilder.append(",");
-        stringBuilder.append("\"sessionId\":");
-        stringBuilder.append("\"").append(StringEscapeUtils.escapeJson(callSession)).append("\"");
-        stringBuilder.append(",");
-        stringBuilder.append("\"ev\":\"message\"");
-        stringBuilder.append("}");
-
-        List<String> strings = new ArrayList<>();
-        String stringToSend = stringBuilder.toString();
-        strings.add(stringToSend);
-
-        ncApi.sendSignalingMessages(credentials, ApiHelper.getUrlForSignaling(userEntity.getBaseUrl()),
-                strings.toString())
-                .retry(3)
-                .subscribeOn(Schedulers.newThread())
-                .subscribe(new Observer<SignalingOverall>() {
-                    @Override
-                    public void onSubscribe(Disposable d) {
-
-                    }
 
-                    @Override
-                    public void onNext(SignalingOverall signalingOverall) {
-                        if (signalingOverall.getOcs().getSignalings() != null) {
-                            for (int i = 0; i < signalingOverall.getOcs().getSignalings().size(); i++) {
-                                try {
-                                    receivedSignalingMessage(signalingOverall.getOcs().getSignalings().get(i));
-                                } catch (IOException e) {
-                                    e.printStackTrace();
-                                }
-                            }
-                        }
-                    }
-
-                    @Override
-                    public void onError(Throwable e) {
-                    }
-
-                    @Override
-                    public void onComplete() {
-
-                    }
-                });
+        SignalingTransport currentSignalingTransport = signalingTransport;
+        if (currentSignalingTransport != null) {
+            currentSignalingTransport.sendMessage(ncSignalingMessage);
+        }
     }
 
     @Override
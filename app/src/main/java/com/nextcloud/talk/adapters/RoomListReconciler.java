@@ -0,0 +1,225 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.adapters;
+
+import android.support.annotation.Nullable;
+
+import com.nextcloud.talk.adapters.items.CallItem;
+import com.nextcloud.talk.api.models.json.rooms.Room;
+import com.nextcloud.talk.persistence.entities.UserEntity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import eu.davidea.flexibleadapter.FlexibleAdapter;
+
+/**
+ * Works out how to get from one room list to the next, keyed by {@link Room#getToken()}.
+ * <p>
+ * {@link #calculateDiff(List, List)} doesn't touch the adapter and is meant to run in the background; the
+ * resulting {@link Diff} is then applied on the main thread as individual removes, moves, inserts and
+ * changes, so only the rows that actually changed get rebound.
+ */
+public class RoomListReconciler {
+
+    /**
+     * @param previous what the adapter currently shows
+     * @param next     the new list, already in display order
+     */
+    public static Diff calculateDiff(List<Room> previous, List<Room> next) {
+        List<Operation> operations = new ArrayList<>();
+
+        Set<String> nextTokens = new HashSet<>();
+        for (Room room : next) {
+            nextTokens.add(room.getToken());
+        }
+
+        List<Room> current = new ArrayList<>(previous);
+        for (int i = current.size() - 1; i >= 0; i--) {
+            if (!nextTokens.contains(current.get(i).getToken())) {
+                current.remove(i);
+                operations.add(new Operation(Operation.REMOVE, i, i, null, null));
+            }
+        }
+
+        for (int i = 0; i < next.size(); i++) {
+            Room room = next.get(i);
+            int currentIndex = indexOfToken(current, room.getToken(), i);
+
+            if (currentIndex == -1) {
+                current.add(i, room);
+                operations.add(new Operation(Operation.INSERT, i, i, room, null));
+                continue;
+            }
+
+            if (currentIndex != i) {
+                current.add(i, current.remove(currentIndex));
+                operations.add(new Operation(Operation.MOVE, currentIndex, i, null, null));
+            }
+
+            Room currentRoom = current.get(i);
+            if (!currentRoom.equals(room)) {
+                current.set(i, room);
+                operations.add(new Operation(Operation.CHANGE, i, i, room, getChangePayload(currentRoom, room)));
+            }
+        }
+
+        return new Diff(next, operations);
+    }
+
+    /**
+     * The participants aren't shown in the list, so changes to them don't need a full rebind either.
+     *
+     * @return {@link CallItem#PAYLOAD_LAST_PING} if that's all that changed, null for a full rebind
+     */
+    @Nullable
+    static Object getChangePayload(Room previous, Room next) {
+        Room withPreviousPing = copyOf(next);
+        withPreviousPing.setLastPing(previous.getLastPing());
+        withPreviousPing.setParticipants(previous.getParticipants());
+        return withPreviousPing.equals(previous) ? CallItem.PAYLOAD_LAST_PING : null;
+    }
+
+    private static int indexOfToken(List<Room> rooms, String token, int fromIndex) {
+        for (int i = fromIndex; i < rooms.size(); i++) {
+            if (token.equals(rooms.get(i).getToken())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Copies every field by hand, a new field of {@link Room} has to be added here too.
+     */
+    static Room copyOf(Room room) {
+        Room copy = new Room();
+        copy.setRoomId(room.getRoomId());
+        copy.setToken(room.getToken());
+        copy.setName(room.getName());
+        copy.setDisplayName(room.getDisplayName());
+        copy.setType(room.getType());
+        copy.setCount(room.getCount());
+        copy.setLastPing(room.getLastPing());
+        copy.setNumberOfGuests(room.getNumberOfGuests());
+        copy.setGuestList(room.getGuestList());
+        copy.setParticipants(room.getParticipants());
+        copy.setParticipantType(room.getParticipantType());
+        copy.setHasPassword(room.isHasPassword());
+        copy.setSessionId(room.getSessionId());
+        return copy;
+    }
+
+    public static class Diff {
+        private final List<Room> rooms;
+        private final List<Operation> operations;
+
+        Diff(List<Room> rooms, List<Operation> operations) {
+            this.rooms = Collections.unmodifiableList(new ArrayList<>(rooms));
+            this.operations = operations;
+        }
+
+        /**
+         * @return the rooms the adapter shows once the diff is applied, the next diff's {@code previous}
+         */
+        public List<Room> getRooms() {
+            return rooms;
+        }
+
+        public boolean isEmpty() {
+            return operations.isEmpty();
+        }
+
+        public List<Operation> getOperations() {
+            return Collections.unmodifiableList(operations);
+        }
+
+        public void applyTo(FlexibleAdapter<CallItem> adapter, UserEntity userEntity) {
+            for (Operation operation : operations) {
+                switch (operation.getType()) {
+                    case Operation.REMOVE:
+                        adapter.removeItem(operation.getFromPosition());
+                        break;
+                    case Operation.MOVE:
+                        adapter.moveItem(operation.getFromPosition(), operation.getToPosition());
+                        break;
+                    case Operation.INSERT:
+                        adapter.addItem(operation.getToPosition(), new CallItem(operation.getRoom(), userEntity));
+                        break;
+                    case Operation.CHANGE:
+                        adapter.updateItem(operation.getToPosition(), new CallItem(operation.getRoom(), userEntity),
+                                operation.getPayload());
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+    }
+
+    public static class Operation {
+        public static final int REMOVE = 0;
+        public static final int MOVE = 1;
+        public static final int INSERT = 2;
+        public static final int CHANGE = 3;
+
+        private final int type;
+        private final int fromPosition;
+        private final int toPosition;
+        @Nullable
+        private final Room room;
+        @Nullable
+        private final Object payload;
+
+        Operation(int type, int fromPosition, int toPosition, @Nullable Room room, @Nullable Object payload) {
+            this.type = type;
+            this.fromPosition = fromPosition;
+            this.toPosition = toPosition;
+            this.room = room;
+            this.payload = payload;
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        public int getFromPosition() {
+            return fromPosition;
+        }
+
+        public int getToPosition() {
+            return toPosition;
+        }
+
+        @Nullable
+        public Room getRoom() {
+            return room;
+        }
+
+        @Nullable
+        public Object getPayload() {
+            return payload;
+        }
+    }
+}
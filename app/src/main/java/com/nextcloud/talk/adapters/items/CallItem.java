@@ -40,7 +40,6 @@ import com.nextcloud.talk.events.MoreMenuClickEvent;
 import com.nextcloud.talk.persistence.entities.UserEntity;
 import com.nextcloud.talk.utils.glide.GlideApp;
 
-import org.apache.commons.lang3.StringUtils;
 import org.greenrobot.eventbus.EventBus;
 
 import java.util.List;
@@ -54,6 +53,8 @@ import eu.davidea.flexibleadapter.utils.FlexibleUtils;
 import eu.davidea.viewholders.FlexibleViewHolder;
 
 public class CallItem extends AbstractFlexibleItem<CallItem.RoomItemViewHolder> implements IFilterable {
+    // Only the last ping changed, everything else in the row stays as it is
+    public static final String PAYLOAD_LAST_PING = "lastPing";
 
     private Room room;
     private UserEntity userEntity;
@@ -101,19 +102,18 @@ public class CallItem extends AbstractFlexibleItem<CallItem.RoomItemViewHolder>
 
     @Override
     public void bindViewHolder(final FlexibleAdapter adapter, RoomItemViewHolder holder, int position, List payloads) {
+        if (payloads.contains(PAYLOAD_LAST_PING)) {
+            bindLastPing(holder);
+            return;
+        }
+
         if (adapter.hasSearchText()) {
             FlexibleUtils.highlightText(holder.roomDisplayName, room.getDisplayName(), adapter.getSearchText());
         } else {
             holder.roomDisplayName.setText(room.getDisplayName());
         }
 
-        if (room.getLastPing() == 0) {
-            holder.roomLastPing.setText(R.string.nc_never);
-        } else {
-            holder.roomLastPing.setText(DateUtils.getRelativeTimeSpanString(room.getLastPing() * 1000L,
-                    System.currentTimeMillis(), 0, DateUtils.FORMAT_ABBREV_RELATIVE));
-        }
-
+        bindLastPing(holder);
 
         switch (room.getType()) {
             case ROOM_TYPE_ONE_TO_ONE_CALL:
@@ -155,11 +155,18 @@ public class CallItem extends AbstractFlexibleItem<CallItem.RoomItemViewHolder>
         holder.moreMenuButton.setOnClickListener(view -> EventBus.getDefault().post(new MoreMenuClickEvent(room)));
     }
 
+    private void bindLastPing(RoomItemViewHolder holder) {
+        if (room.getLastPing() == 0) {
+            holder.roomLastPing.setText(R.string.nc_never);
+        } else {
+            holder.roomLastPing.setText(DateUtils.getRelativeTimeSpanString(room.getLastPing() * 1000L,
+                    System.currentTimeMillis(), 0, DateUtils.FORMAT_ABBREV_RELATIVE));
+        }
+    }
+
     @Override
     public boolean filter(String constraint) {
-        return room.getDisplayName() != null &&
-                StringUtils.containsIgnoreCase(room.getDisplayName().trim(), constraint);
-
+        return RoomFilter.matches(room, constraint);
     }
 
     static class RoomItemViewHolder extends FlexibleViewHolder {
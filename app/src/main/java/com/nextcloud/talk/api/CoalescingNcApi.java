@@ -0,0 +1,198 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.api;
+
+import com.nextcloud.talk.api.models.json.call.CallOverall;
+import com.nextcloud.talk.api.models.json.generic.GenericOverall;
+import com.nextcloud.talk.api.models.json.generic.Status;
+import com.nextcloud.talk.api.models.json.participants.AddParticipantOverall;
+import com.nextcloud.talk.api.models.json.participants.ParticipantsOverall;
+import com.nextcloud.talk.api.models.json.push.PushRegistrationOverall;
+import com.nextcloud.talk.api.models.json.rooms.RoomOverall;
+import com.nextcloud.talk.api.models.json.rooms.RoomsOverall;
+import com.nextcloud.talk.api.models.json.sharees.ShareesOverall;
+import com.nextcloud.talk.api.models.json.signaling.settings.SignalingSettingsOverall;
+import com.nextcloud.talk.api.models.json.userprofile.UserProfileOverall;
+import com.nextcloud.talk.utils.network.ConditionalRequestInterceptor;
+
+import java.util.Map;
+
+import io.reactivex.Observable;
+import okhttp3.ResponseBody;
+
+/**
+ * {@link NcApi} that shares identical in-flight GETs between subscribers, see {@link RequestCoalescer}.
+ * <p>
+ * Signaling pulls are passed straight through since their body can only be read once. Anything that
+ * changes rooms drops the results kept for that account, here and in the {@link ConditionalRequestInterceptor}.
+ */
+public class CoalescingNcApi implements NcApi {
+    private final NcApi ncApi;
+    private final RequestCoalescer requestCoalescer;
+    private final ConditionalRequestInterceptor conditionalRequestInterceptor;
+
+    public CoalescingNcApi(NcApi ncApi, long resultTtlMs,
+                           ConditionalRequestInterceptor conditionalRequestInterceptor) {
+        this.ncApi = ncApi;
+        this.requestCoalescer = new RequestCoalescer(resultTtlMs);
+        this.conditionalRequestInterceptor = conditionalRequestInterceptor;
+    }
+
+    @Override
+    public Observable<ShareesOverall> getContactsWithSearchParam(String authorization, String url,
+                                                                 Map<String, String> options) {
+        return requestCoalescer.coalesce(RequestCoalescer.getKey(authorization, url, options),
+                ncApi.getContactsWithSearchParam(authorization, url, options));
+    }
+
+    @Override
+    public Observable<RoomsOverall> getRooms(String authorization, String url) {
+        return requestCoalescer.coalesce(RequestCoalescer.getKey(authorization, url, null),
+                ncApi.getRooms(authorization, url));
+    }
+
+    @Override
+    public Observable<RoomOverall> getRoom(String authorization, String url) {
+        return requestCoalescer.coalesce(RequestCoalescer.getKey(authorization, url, null),
+                ncApi.getRoom(authorization, url));
+    }
+
+    @Override
+    public Observable<RoomOverall> createRoom(String authorization, String url, Map<String, String> options) {
+        return invalidating(authorization, ncApi.createRoom(authorization, url, options));
+    }
+
+    @Override
+    public Observable<Void> renameRoom(String authorization, String url, Map<String, String> options) {
+        return invalidating(authorization, ncApi.renameRoom(authorization, url, options));
+    }
+
+    @Override
+    public Observable<AddParticipantOverall> addParticipant(String authorization, String url,
+                                                            Map<String, String> options) {
+        return invalidating(authorization, ncApi.addParticipant(authorization, url, options));
+    }
+
+    @Override
+    public Observable<Void> removeSelfFromRoom(String authorization, String url) {
+        return invalidating(authorization, ncApi.removeSelfFromRoom(authorization, url));
+    }
+
+    @Override
+    public Observable<Void> makeRoomPublic(String authorization, String url) {
+        return invalidating(authorization, ncApi.makeRoomPublic(authorization, url));
+    }
+
+    @Override
+    public Observable<Void> makeRoomPrivate(String authorization, String url) {
+        return invalidating(authorization, ncApi.makeRoomPrivate(authorization, url));
+    }
+
+    @Override
+    public Observable<ParticipantsOverall> getPeersForCall(String authorization, String url) {
+        return requestCoalescer.coalesce(RequestCoalescer.getKey(authorization, url, null),
+                ncApi.getPeersForCall(authorization, url));
+    }
+
+    @Override
+    public Observable<CallOverall> joinRoom(String authorization, String url) {
+        return invalidating(authorization, ncApi.joinRoom(authorization, url));
+    }
+
+    @Override
+    public Observable<GenericOverall> leaveRoom(String authorization, String url) {
+        return invalidating(authorization, ncApi.leaveRoom(authorization, url));
+    }
+
+    @Override
+    public Observable<GenericOverall> joinCall(String authorization, String url) {
+        return invalidating(authorization, ncApi.joinCall(authorization, url));
+    }
+
+    @Override
+    public Observable<GenericOverall> leaveCall(String authorization, String url) {
+        return invalidating(authorization, ncApi.leaveCall(authorization, url));
+    }
+
+    @Override
+    public Observable<GenericOverall> pingCall(String authorization, String url) {
+        return ncApi.pingCall(authorization, url);
+    }
+
+    @Override
+    public Observable<SignalingSettingsOverall> getSignalingSettings(String authorization, String url) {
+        return requestCoalescer.coalesce(RequestCoalescer.getKey(authorization, url, null),
+                ncApi.getSignalingSettings(authorization, url));
+    }
+
+    @Override
+    public Observable<ResponseBody> sendSignalingMessages(String authorization, String url, String messages) {
+        return ncApi.sendSignalingMessages(authorization, url, messages);
+    }
+
+    @Override
+    public Observable<ResponseBody> pullSignalingMessages(String authorization, String url) {
+        return ncApi.pullSignalingMessages(authorization, url);
+    }
+
+    @Override
+    public Observable<UserProfileOverall> getUserProfile(String authorization, String url) {
+        return requestCoalescer.coalesce(RequestCoalescer.getKey(authorization, url, null),
+                ncApi.getUserProfile(authorization, url));
+    }
+
+    @Override
+    public Observable<Status> getServerStatus(String url) {
+        return requestCoalescer.coalesce(RequestCoalescer.getKey(null, url, null),
+                ncApi.getServerStatus(url));
+    }
+
+    @Override
+    public Observable<PushRegistrationOverall> registerDeviceForNotificationsWithNextcloud(
+            String authorization, String url, Map<String, String> options) {
+        return ncApi.registerDeviceForNotificationsWithNextcloud(authorization, url, options);
+    }
+
+    @Override
+    public Observable<GenericOverall> unregisterDeviceForNotificationsWithNextcloud(String authorization,
+                                                                                   String url) {
+        return ncApi.unregisterDeviceForNotificationsWithNextcloud(authorization, url);
+    }
+
+    @Override
+    public Observable<Void> registerDeviceForNotificationsWithProxy(String authorization, String url,
+                                                                    Map<String, String> fields) {
+        return ncApi.registerDeviceForNotificationsWithProxy(authorization, url, fields);
+    }
+
+    @Override
+    public Observable<Void> unregisterDeviceForNotificationsWithProxy(String authorization, String url,
+                                                                      Map<String, String> fields) {
+        return ncApi.unregisterDeviceForNotificationsWithProxy(authorization, url, fields);
+    }
+
+    private <T> Observable<T> invalidating(String authorization, Observable<T> source) {
+        return source.doOnTerminate(() -> {
+            requestCoalescer.invalidate(authorization);
+            conditionalRequestInterceptor.invalidateRooms(authorization);
+        });
+    }
+}
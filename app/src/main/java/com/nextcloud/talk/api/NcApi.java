@@ -29,13 +29,13 @@ import com.nextcloud.talk.api.models.json.push.PushRegistrationOverall;
 import com.nextcloud.talk.api.models.json.rooms.RoomOverall;
 import com.nextcloud.talk.api.models.json.rooms.RoomsOverall;
 import com.nextcloud.talk.api.models.json.sharees.ShareesOverall;
-import com.nextcloud.talk.api.models.json.signaling.SignalingOverall;
 import com.nextcloud.talk.api.models.json.signaling.settings.SignalingSettingsOverall;
 import com.nextcloud.talk.api.models.json.userprofile.UserProfileOverall;
 
 import java.util.Map;
 
 import io.reactivex.Observable;
+import okhttp3.ResponseBody;
 import retrofit2.http.DELETE;
 import retrofit2.http.Field;
 import retrofit2.http.FieldMap;
@@ -45,6 +45,7 @@ import retrofit2.http.Header;
 import retrofit2.http.POST;
 import retrofit2.http.PUT;
 import retrofit2.http.QueryMap;
+import retrofit2.http.Streaming;
 import retrofit2.http.Url;
 
 public interface NcApi {
@@ -172,14 +173,17 @@ public interface NcApi {
     */
     @FormUrlEncoded
     @POST
-    Observable<SignalingOverall> sendSignalingMessages(@Header("Authorization") String authorization, @Url String url,
-                                                       @Field("messages") String messages);
+    Observable<ResponseBody> sendSignalingMessages(@Header("Authorization") String authorization, @Url String url,
+                                                   @Field("messages") String messages);
 
     /*
         Server URL is: baseUrl + ocsApiVersion + spreedApiVersion + /signaling
+
+        The answer is decoded with SignalingDecoder
     */
+    @Streaming
     @GET
-    Observable<SignalingOverall> pullSignalingMessages(@Header("Authorization") String authorization, @Url String url);
+    Observable<ResponseBody> pullSignalingMessages(@Header("Authorization") String authorization, @Url String url);
 
      /*
         QueryMap items are as follows:
@@ -0,0 +1,77 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.api;
+
+import com.nextcloud.talk.utils.network.ConditionalRequestInterceptor;
+
+import java.net.CookieManager;
+import java.util.HashMap;
+import java.util.Map;
+
+import okhttp3.JavaNetCookieJar;
+import okhttp3.OkHttpClient;
+import retrofit2.Retrofit;
+
+/**
+ * Hands out an {@link NcApi} per account, each with its own cookies.
+ * <p>
+ * Every client is derived from the shared {@link OkHttpClient}, so they all use the same connection
+ * pool, dispatcher, cache and TLS session cache; only the cookie jar differs.
+ */
+public class NcApiFactory {
+    private final Retrofit retrofit;
+    private final OkHttpClient okHttpClient;
+    private final ConditionalRequestInterceptor conditionalRequestInterceptor;
+    private final long resultTtlMs;
+    private final Map<Long, NcApi> ncApis = new HashMap<>();
+
+    /**
+     * @param resultTtlMs how long completed GETs are shared, see {@link RequestCoalescer}
+     */
+    public NcApiFactory(Retrofit retrofit, OkHttpClient okHttpClient,
+                        ConditionalRequestInterceptor conditionalRequestInterceptor, long resultTtlMs) {
+        this.retrofit = retrofit;
+        this.okHttpClient = okHttpClient;
+        this.conditionalRequestInterceptor = conditionalRequestInterceptor;
+        this.resultTtlMs = resultTtlMs;
+    }
+
+    public synchronized NcApi getNcApi(long accountId) {
+        NcApi ncApi = ncApis.get(accountId);
+        if (ncApi == null) {
+            OkHttpClient accountOkHttpClient = okHttpClient.newBuilder()
+                    .cookieJar(new JavaNetCookieJar(new CookieManager()))
+                    .build();
+            ncApi = new CoalescingNcApi(retrofit.newBuilder().client(accountOkHttpClient).build().create(NcApi.class),
+                    resultTtlMs, conditionalRequestInterceptor);
+            ncApis.put(accountId, ncApi);
+        }
+
+        return ncApi;
+    }
+
+    /**
+     * Forgets the client of an account, along with its cookies.
+     */
+    public synchronized void removeNcApi(long accountId) {
+        ncApis.remove(accountId);
+    }
+}
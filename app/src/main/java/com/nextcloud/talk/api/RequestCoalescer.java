@@ -0,0 +1,146 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.api;
+
+import android.support.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import io.reactivex.Observable;
+
+/**
+ * Lets concurrent subscribers to the same GET share a single request.
+ * <p>
+ * Subscribers that come while a request is in flight join it, and the request is cancelled once all of them
+ * disposed. If a result TTL is set, the result of a completed request is handed out for that long afterwards.
+ * Errors are never kept around and expired results are dropped on the next call. Every subscription looks
+ * the key up again, so a {@code retry()} sends a new request once the shared one failed.
+ */
+public class RequestCoalescer {
+    private final long resultTtlMs;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    public RequestCoalescer(long resultTtlMs) {
+        this.resultTtlMs = resultTtlMs;
+    }
+
+    public static String getKey(@Nullable String authorization, String url, @Nullable Map<String, String> options) {
+        StringBuilder keyBuilder = new StringBuilder();
+        keyBuilder.append(authorization != null ? authorization : "").append(' ').append(url);
+        if (options != null && !options.isEmpty()) {
+            // Retrofit doesn't care about the order of a QueryMap, neither should the key
+            for (Map.Entry<String, String> option : new TreeMap<>(options).entrySet()) {
+                keyBuilder.append('&').append(option.getKey()).append('=').append(option.getValue());
+            }
+        }
+        return keyBuilder.toString();
+    }
+
+    public <T> Observable<T> coalesce(String key, Observable<T> source) {
+        return Observable.defer(() -> share(key, source));
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized <T> Observable<T> share(String key, Observable<T> source) {
+        removeExpired(System.currentTimeMillis());
+
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            return entry.result != null ? Observable.just((T) entry.result) : (Observable<T>) entry.observable;
+        }
+
+        Entry newEntry = new Entry();
+        newEntry.observable = source
+                .doOnNext(result -> newEntry.lastResult = result)
+                .doOnComplete(() -> onComplete(key, newEntry))
+                .doOnError(throwable -> remove(key, newEntry))
+                // Also called once the request completed, the kept result stays
+                .doOnDispose(() -> onDispose(key, newEntry))
+                .replay(1)
+                .refCount();
+        entries.put(key, newEntry);
+
+        return (Observable<T>) newEntry.observable;
+    }
+
+    /**
+     * Drops the results kept for an account, in-flight requests are left alone.
+     */
+    public synchronized void invalidate(@Nullable String authorization) {
+        String prefix = (authorization != null ? authorization : "") + " ";
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> entry = iterator.next();
+            if (entry.getKey().startsWith(prefix) && entry.getValue().result != null) {
+                iterator.remove();
+            }
+        }
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private void removeExpired(long now) {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isExpired(now)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private synchronized void onComplete(String key, Entry entry) {
+        if (resultTtlMs <= 0 || entry.lastResult == null) {
+            remove(key, entry);
+        } else {
+            entry.result = entry.lastResult;
+            entry.completedAt = System.currentTimeMillis();
+        }
+    }
+
+    private synchronized void onDispose(String key, Entry entry) {
+        if (entry.result == null) {
+            remove(key, entry);
+        }
+    }
+
+    private synchronized void remove(String key, Entry entry) {
+        if (entries.get(key) == entry) {
+            entries.remove(key);
+        }
+    }
+
+    private class Entry {
+        // The in-flight request, and once it completed what it returned
+        Observable<?> observable;
+        volatile Object lastResult;
+        Object result;
+        long completedAt = -1;
+
+        boolean isExpired(long now) {
+            return completedAt != -1 && now - completedAt >= resultTtlMs;
+        }
+    }
+}
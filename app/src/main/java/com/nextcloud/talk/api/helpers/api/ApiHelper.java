@@ -169,4 +169,56 @@ public class ApiHelper {
         return NextcloudTalkApplication.getSharedApplication().
                 getApplicationContext().getResources().getString(R.string.nc_push_server_url) + "/devices";
     }
+
+    /**
+     * Maps a request path back to the URL builder above it came from, with tokens, names and numeric ids
+     * replaced by placeholders, so requests can be grouped without every room getting its own bucket.
+     */
+    public static String getRouteForPath(String path) {
+        int ocsIndex = path.indexOf(ocsApiVersion);
+        if (ocsIndex != -1) {
+            String ocsPath = path.substring(ocsIndex + ocsApiVersion.length());
+            boolean isSpreed = ocsPath.startsWith(spreedApiVersion);
+            StringBuilder route = new StringBuilder(ocsApiVersion);
+            if (isSpreed) {
+                route.append(spreedApiVersion);
+                ocsPath = ocsPath.substring(spreedApiVersion.length());
+            }
+
+            String[] segments = ocsPath.split("/");
+            for (int i = 1; i < segments.length; i++) {
+                if (isSpreed && i == 2 && ("room".equals(segments[1]) || "call".equals(segments[1]))) {
+                    route.append("/{token}");
+                } else if (isNumeric(segments[i])) {
+                    route.append("/{id}");
+                } else {
+                    route.append('/').append(segments[i]);
+                }
+            }
+            return route.toString();
+        }
+
+        if (path.contains("/index.php/avatar/")) {
+            return "/index.php/avatar/{name}/{size}";
+        }
+
+        if (path.endsWith(getUrlPostfixForStatus()) || path.endsWith("/devices")) {
+            return path.substring(path.lastIndexOf('/'));
+        }
+
+        return "other";
+    }
+
+    private static boolean isNumeric(String segment) {
+        if (segment.isEmpty()) {
+            return false;
+        }
+
+        for (int i = 0; i < segment.length(); i++) {
+            if (!Character.isDigit(segment.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
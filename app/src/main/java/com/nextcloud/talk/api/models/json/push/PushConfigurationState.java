@@ -45,4 +45,8 @@ public class PushConfigurationState {
 
     @JsonField(name = "usesRegularPass")
     public boolean usesRegularPass;
+
+    // Registered with the server, but not with the push proxy yet
+    @JsonField(name = "proxyRegistrationPending")
+    public boolean proxyRegistrationPending;
 }
@@ -35,11 +35,18 @@ import com.nextcloud.talk.BuildConfig;
 import com.nextcloud.talk.dagger.modules.BusModule;
 import com.nextcloud.talk.dagger.modules.ContextModule;
 import com.nextcloud.talk.dagger.modules.DatabaseModule;
+import com.nextcloud.talk.dagger.modules.NotificationModule;
 import com.nextcloud.talk.dagger.modules.RestModule;
+import com.nextcloud.talk.dagger.modules.SchedulerModule;
 import com.nextcloud.talk.jobs.AccountRemovalJob;
 import com.nextcloud.talk.jobs.PushRegistrationJob;
 import com.nextcloud.talk.jobs.creator.MagicJobCreator;
+import com.nextcloud.talk.persistence.entities.UserEntity;
 import com.nextcloud.talk.utils.database.user.UserModule;
+import com.nextcloud.talk.utils.database.user.UserUtils;
+import com.nextcloud.talk.utils.network.ConnectionPrewarmer;
+import com.nextcloud.talk.utils.push.PushCryptoService;
+import com.nextcloud.talk.utils.schedulers.SchedulerProvider;
 import com.nextcloud.talk.webrtc.MagicWebRtcLists;
 import com.squareup.leakcanary.LeakCanary;
 import com.squareup.leakcanary.RefWatcher;
@@ -53,6 +60,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.security.GeneralSecurityException;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import autodagger.AutoComponent;
@@ -63,7 +71,9 @@ import autodagger.AutoInjector;
                 BusModule.class,
                 ContextModule.class,
                 DatabaseModule.class,
+                NotificationModule.class,
                 RestModule.class,
+                SchedulerModule.class,
                 UserModule.class,
         }
 )
@@ -83,6 +93,18 @@ public class NextcloudTalkApplication extends MultiDexApplication {
     protected NextcloudTalkApplicationComponent componentApplication;
     //endregion
 
+    @Inject
+    UserUtils userUtils;
+
+    @Inject
+    ConnectionPrewarmer connectionPrewarmer;
+
+    @Inject
+    SchedulerProvider schedulerProvider;
+
+    @Inject
+    PushCryptoService pushCryptoService;
+
     public static NextcloudTalkApplication getSharedApplication() {
         return sharedApplication;
     }
@@ -157,6 +179,15 @@ public class NextcloudTalkApplication extends MultiDexApplication {
         componentApplication.inject(this);
         refWatcher = LeakCanary.install(this);
 
+        schedulerProvider.database().scheduleDirect(() -> {
+            UserEntity userEntity = userUtils.getCurrentUser();
+            if (userEntity != null) {
+                connectionPrewarmer.prewarm(userEntity.getBaseUrl());
+            }
+        });
+        // Have the push keys ready, the process may have been started for an incoming call
+        schedulerProvider.database().scheduleDirect(pushCryptoService::warmUp);
+
         new JobRequest.Builder(PushRegistrationJob.TAG).setUpdateCurrent(true).startNow().build().schedule();
         new JobRequest.Builder(AccountRemovalJob.TAG).setUpdateCurrent(true).startNow().build().schedule();
 
@@ -52,6 +52,7 @@ import com.bluelinelabs.conductor.internal.NoOpControllerChangeHandler;
 import com.kennyc.bottomsheet.BottomSheet;
 import com.nextcloud.talk.R;
 import com.nextcloud.talk.activities.CallActivity;
+import com.nextcloud.talk.adapters.RoomListReconciler;
 import com.nextcloud.talk.adapters.items.CallItem;
 import com.nextcloud.talk.api.NcApi;
 import com.nextcloud.talk.api.helpers.api.ApiHelper;
@@ -61,7 +62,9 @@ import com.nextcloud.talk.controllers.base.BaseController;
 import com.nextcloud.talk.events.MoreMenuClickEvent;
 import com.nextcloud.talk.persistence.entities.UserEntity;
 import com.nextcloud.talk.utils.bundle.BundleBuilder;
+import com.nextcloud.talk.utils.database.room.RoomCache;
 import com.nextcloud.talk.utils.database.user.UserUtils;
+import com.nextcloud.talk.utils.schedulers.SchedulerProvider;
 
 import org.greenrobot.eventbus.EventBus;
 import org.greenrobot.eventbus.Subscribe;
@@ -71,6 +74,7 @@ import org.parceler.Parcels;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.inject.Inject;
 
@@ -78,9 +82,9 @@ import autodagger.AutoInjector;
 import butterknife.BindView;
 import eu.davidea.flexibleadapter.FlexibleAdapter;
 import eu.davidea.flexibleadapter.common.SmoothScrollLinearLayoutManager;
+import io.reactivex.Observable;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.Disposable;
-import io.reactivex.schedulers.Schedulers;
 import retrofit2.HttpException;
 
 @AutoInjector(NextcloudTalkApplication.class)
@@ -94,6 +98,12 @@ public class CallsListController extends BaseController implements SearchView.On
     @Inject
     UserUtils userUtils;
 
+    @Inject
+    SchedulerProvider schedulerProvider;
+
+    @Inject
+    RoomCache roomCache;
+
     @Inject
     EventBus eventBus;
 
@@ -109,6 +119,8 @@ public class CallsListController extends BaseController implements SearchView.On
     private Disposable roomsQueryDisposable;
     private FlexibleAdapter<CallItem> adapter;
     private List<CallItem> callItems = new ArrayList<>();
+    // What the adapter shows, the base for the next diff
+    private List<Room> rooms = new ArrayList<>();
 
     private BottomSheet bottomSheet;
     private MenuItem searchItem;
@@ -238,27 +250,47 @@ public class CallsListController extends BaseController implements SearchView.On
     private void fetchData() {
         dispose(null);
 
-        callItems = new ArrayList<>();
-
-        roomsQueryDisposable = ncApi.getRooms(ApiHelper.getCredentials(userEntity.getUsername(),
+        long accountId = userEntity.getId();
+        Observable<List<Room>> networkRooms = ncApi.getRooms(ApiHelper.getCredentials(userEntity.getUsername(),
                 userEntity.getToken()), ApiHelper.getUrlForGetRooms(userEntity.getBaseUrl()))
-                .subscribeOn(Schedulers.newThread())
+                .subscribeOn(schedulerProvider.network())
+                .map(roomsOverall -> {
+                    List<Room> newRooms = new ArrayList<>(roomsOverall.getOcs().getData());
+                    Collections.sort(newRooms, (room, t1) -> Long.compare(t1.getLastPing(), room.getLastPing()));
+                    return newRooms;
+                })
+                .doOnNext(newRooms -> roomCache.storeRooms(accountId, newRooms).onErrorComplete().subscribe());
+
+        // Nothing on screen yet, show what we had last time until the server answers
+        Observable<List<Room>> roomsSource = rooms.isEmpty() ? Observable.concat(roomCache.getRooms(accountId)
+                .onErrorReturnItem(new ArrayList<>())
+                .filter(cachedRooms -> !cachedRooms.isEmpty()), networkRooms) : networkRooms;
+
+        AtomicReference<List<Room>> diffBase = new AtomicReference<>(rooms);
+        roomsQueryDisposable = roomsSource
+                .map(newRooms -> {
+                    RoomListReconciler.Diff diff = RoomListReconciler.calculateDiff(diffBase.get(), newRooms);
+                    diffBase.set(diff.getRooms());
+                    return diff;
+                })
                 .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(roomsOverall -> {
-
-                    if (roomsOverall != null) {
-                        for (int i = 0; i < roomsOverall.getOcs().getData().size(); i++) {
-                            callItems.add(new CallItem(roomsOverall.getOcs().getData().get(i), userEntity));
-                        }
-
-                        adapter.updateDataSet(callItems, true);
+                .subscribe(diff -> {
+                    rooms = diff.getRooms();
+                    callItems = new ArrayList<>();
+                    for (Room room : rooms) {
+                        callItems.add(new CallItem(room, userEntity));
+                    }
 
-                        Collections.sort(callItems, (callItem, t1) ->
-                                Long.compare(t1.getModel().getLastPing(), callItem.getModel().getLastPing()));
+                    if (adapter.hasSearchText()) {
+                        // Positions in a filtered list don't match the diff, go the long way
+                        adapter.updateDataSet(callItems, false);
+                        adapter.filterItems();
+                    } else {
+                        diff.applyTo(adapter, userEntity);
+                    }
 
-                        if (searchItem != null) {
-                            searchItem.setVisible(callItems.size() > 0);
-                        }
+                    if (searchItem != null) {
+                        searchItem.setVisible(callItems.size() > 0);
                     }
 
                     swipeRefreshLayout.setRefreshing(false);
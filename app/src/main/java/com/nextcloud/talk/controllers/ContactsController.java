@@ -57,21 +57,19 @@ import com.nextcloud.talk.api.NcApi;
 import com.nextcloud.talk.api.helpers.api.ApiHelper;
 import com.nextcloud.talk.api.models.json.participants.Participant;
 import com.nextcloud.talk.api.models.json.rooms.RoomOverall;
-import com.nextcloud.talk.api.models.json.sharees.Sharee;
 import com.nextcloud.talk.application.NextcloudTalkApplication;
 import com.nextcloud.talk.controllers.base.BaseController;
 import com.nextcloud.talk.models.RetrofitBucket;
 import com.nextcloud.talk.persistence.entities.UserEntity;
 import com.nextcloud.talk.utils.bundle.BundleBuilder;
+import com.nextcloud.talk.utils.database.sharee.ShareeRepository;
 import com.nextcloud.talk.utils.database.user.UserUtils;
+import com.nextcloud.talk.utils.schedulers.SchedulerProvider;
 
 import org.parceler.Parcels;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 import javax.inject.Inject;
 
@@ -80,10 +78,11 @@ import butterknife.BindView;
 import eu.davidea.flexibleadapter.FlexibleAdapter;
 import eu.davidea.flexibleadapter.SelectableAdapter;
 import eu.davidea.flexibleadapter.common.SmoothScrollLinearLayoutManager;
+import io.reactivex.Observable;
 import io.reactivex.Observer;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.Disposable;
-import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.PublishSubject;
 import retrofit2.HttpException;
 
 @AutoInjector(NextcloudTalkApplication.class)
@@ -97,8 +96,15 @@ public class ContactsController extends BaseController implements SearchView.OnQ
     @Inject
     UserUtils userUtils;
 
+    @Inject
+    SchedulerProvider schedulerProvider;
+
     @Inject
     NcApi ncApi;
+
+    @Inject
+    ShareeRepository shareeRepository;
+
     @BindView(R.id.recycler_view)
     RecyclerView recyclerView;
 
@@ -110,6 +116,7 @@ public class ContactsController extends BaseController implements SearchView.OnQ
     private Disposable cacheQueryDisposable;
     private FlexibleAdapter<UserItem> adapter;
     private List<UserItem> contactItems = new ArrayList<>();
+    private PublishSubject<String> searchQueries = PublishSubject.create();
 
     private MenuItem searchItem;
     private SearchView searchView;
@@ -223,79 +230,52 @@ public class ContactsController extends BaseController implements SearchView.OnQ
     private void fetchData() {
         dispose(null);
 
-        Set<Sharee> shareeHashSet = new HashSet<>();
+        String query = adapter.hasSearchText() ? adapter.getSearchText() : "";
+        contactsQueryDisposable = searchQueries
+                .startWith(query)
+                .switchMap(searchText -> shareeRepository.search(userEntity, searchText)
+                        // Errors are handled on the main thread, the router must only be used from there
+                        .observeOn(AndroidSchedulers.mainThread())
+                        .doOnError(this::handleSearchError)
+                        .onErrorResumeNext(Observable.empty()))
+                .subscribe(this::showContacts);
+    }
 
+    private void showContacts(List<Participant> participants) {
         contactItems = new ArrayList<>();
+        for (Participant participant : participants) {
+            contactItems.add(new UserItem(participant, userEntity));
+        }
 
-        RetrofitBucket retrofitBucket = ApiHelper.getRetrofitBucketForContactsSearch(userEntity.getBaseUrl(),
-                "");
-        contactsQueryDisposable = ncApi.getContactsWithSearchParam(
-                ApiHelper.getCredentials(userEntity.getUsername(), userEntity.getToken()),
-                retrofitBucket.getUrl(), retrofitBucket.getQueryMap())
-                .subscribeOn(Schedulers.newThread())
-                .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(shareesOverall -> {
-                            if (shareesOverall != null) {
-
-                                if (shareesOverall.getOcs().getData().getUsers() != null) {
-                                    shareeHashSet.addAll(shareesOverall.getOcs().getData().getUsers());
-                                }
-
-                                if (shareesOverall.getOcs().getData().getExactUsers() != null &&
-                                        shareesOverall.getOcs().getData().getExactUsers().getExactSharees() != null) {
-                                    shareeHashSet.addAll(shareesOverall.getOcs().getData().
-                                            getExactUsers().getExactSharees());
-                                }
-
-                                Participant participant;
-                                for (Sharee sharee : shareeHashSet) {
-                                    if (!sharee.getValue().getShareWith().equals(userEntity.getUsername())) {
-                                        participant = new Participant();
-                                        participant.setName(sharee.getLabel());
-                                        participant.setUserId(sharee.getValue().getShareWith());
-                                        contactItems.add(new UserItem(participant, userEntity));
-                                    }
-
-                                }
-
-                                Collections.sort(contactItems, (userItem, t1) ->
-                                        userItem.getModel().getName().compareToIgnoreCase(t1.getModel().getName()));
-
-                                adapter.updateDataSet(contactItems, true);
-                                searchItem.setVisible(contactItems.size() > 0);
-                                swipeRefreshLayout.setRefreshing(false);
-                            }
-
-                        }, throwable -> {
-                            if (searchItem != null) {
-                                searchItem.setVisible(false);
-                            }
-
-                            if (throwable instanceof HttpException) {
-                                HttpException exception = (HttpException) throwable;
-                                switch (exception.code()) {
-                                    case 401:
-                                        if (getParentController() != null &&
-                                                getParentController().getRouter() != null) {
-                                            getParentController().getRouter().pushController((RouterTransaction.with
-                                                    (new WebViewLoginController(userEntity.getBaseUrl(),
-                                                            true))
-                                                    .pushChangeHandler(new VerticalChangeHandler())
-                                                    .popChangeHandler(new VerticalChangeHandler())));
-                                        }
-                                        break;
-                                    default:
-                                        break;
-                                }
-                            }
-
-                            swipeRefreshLayout.setRefreshing(false);
-                            dispose(contactsQueryDisposable);
-                        }
-                        , () -> {
-                            swipeRefreshLayout.setRefreshing(false);
-                            dispose(contactsQueryDisposable);
-                        });
+        adapter.updateDataSet(contactItems, true);
+        if (searchItem != null) {
+            searchItem.setVisible(contactItems.size() > 0 || adapter.hasSearchText());
+        }
+        swipeRefreshLayout.setRefreshing(false);
+    }
+
+    private void handleSearchError(Throwable throwable) {
+        if (throwable instanceof HttpException) {
+            HttpException exception = (HttpException) throwable;
+            switch (exception.code()) {
+                case 401:
+                    if (getParentController() != null &&
+                            getParentController().getRouter() != null) {
+                        getParentController().getRouter().pushController((RouterTransaction.with
+                                (new WebViewLoginController(userEntity.getBaseUrl(),
+                                        true))
+                                .pushChangeHandler(new VerticalChangeHandler())
+                                .popChangeHandler(new VerticalChangeHandler())));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        if (swipeRefreshLayout != null) {
+            swipeRefreshLayout.setRefreshing(false);
+        }
     }
 
     private void prepareViews() {
@@ -357,11 +337,10 @@ public class ContactsController extends BaseController implements SearchView.OnQ
             if (!TextUtils.isEmpty(searchQuery)) {
                 adapter.setSearchText(searchQuery);
                 searchQuery = "";
-                adapter.filterItems();
             } else {
                 adapter.setSearchText(newText);
-                adapter.filterItems(300);
             }
+            searchQueries.onNext(adapter.getSearchText());
         }
 
         if (swipeRefreshLayout != null) {
@@ -444,7 +423,7 @@ public class ContactsController extends BaseController implements SearchView.OnQ
                 userItem.getModel().getUserId());
         ncApi.createRoom(ApiHelper.getCredentials(userEntity.getUsername(), userEntity.getToken()),
                 retrofitBucket.getUrl(), retrofitBucket.getQueryMap())
-                .subscribeOn(Schedulers.newThread())
+                .subscribeOn(schedulerProvider.network())
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(new Observer<RoomOverall>() {
                     @Override
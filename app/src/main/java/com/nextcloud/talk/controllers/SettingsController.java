@@ -27,6 +27,7 @@ import android.net.Uri;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -51,8 +52,12 @@ import com.nextcloud.talk.persistence.entities.UserEntity;
 import com.nextcloud.talk.utils.ErrorMessageHolder;
 import com.nextcloud.talk.utils.database.user.UserUtils;
 import com.nextcloud.talk.utils.glide.GlideApp;
+import com.nextcloud.talk.utils.network.ConnectionPrewarmer;
+import com.nextcloud.talk.utils.network.HttpLatencyRecorder;
 import com.nextcloud.talk.utils.preferences.AppPreferences;
 import com.nextcloud.talk.utils.preferences.MagicUserInputModule;
+import com.nextcloud.talk.utils.schedulers.InstrumentedThreadPoolExecutor;
+import com.nextcloud.talk.utils.schedulers.SchedulerProvider;
 import com.yarolegovich.mp.MaterialChoicePreference;
 import com.yarolegovich.mp.MaterialEditTextPreference;
 import com.yarolegovich.mp.MaterialPreferenceCategory;
@@ -63,6 +68,7 @@ import net.orange_box.storebox.listeners.OnPreferenceValueChangedListener;
 
 import org.greenrobot.eventbus.EventBus;
 
+import java.io.IOException;
 import java.net.CookieManager;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -74,7 +80,6 @@ import autodagger.AutoInjector;
 import butterknife.BindView;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.Disposable;
-import io.reactivex.schedulers.Schedulers;
 
 @AutoInjector(NextcloudTalkApplication.class)
 public class SettingsController extends BaseController {
@@ -129,9 +134,24 @@ public class SettingsController extends BaseController {
     @BindView(R.id.message_text)
     TextView messageText;
 
+    @BindView(R.id.settings_debug_category)
+    MaterialPreferenceCategory debugCategory;
+
+    @BindView(R.id.settings_network_latency)
+    MaterialStandardPreference networkLatencyButton;
+
+    @BindView(R.id.settings_connection_prewarming)
+    MaterialStandardPreference connectionPrewarmingInfo;
+
+    @BindView(R.id.settings_thread_pools)
+    MaterialStandardPreference threadPoolsInfo;
+
     @Inject
     EventBus eventBus;
 
+    @Inject
+    SchedulerProvider schedulerProvider;
+
     @Inject
     AppPreferences appPreferences;
 
@@ -144,6 +164,12 @@ public class SettingsController extends BaseController {
     @Inject
     CookieManager cookieManager;
 
+    @Inject
+    HttpLatencyRecorder httpLatencyRecorder;
+
+    @Inject
+    ConnectionPrewarmer connectionPrewarmer;
+
     private UserEntity userEntity;
 
     private OnPreferenceValueChangedListener<String> proxyTypeChangeListener;
@@ -215,6 +241,21 @@ public class SettingsController extends BaseController {
 
         versionInfo.setSummary("v" + BuildConfig.VERSION_NAME);
 
+        if (BuildConfig.DEBUG) {
+            debugCategory.setVisibility(View.VISIBLE);
+            networkLatencyButton.addPreferenceClickListener(view17 -> {
+                try {
+                    Intent shareIntent = new Intent(Intent.ACTION_SEND);
+                    shareIntent.setType("application/json");
+                    shareIntent.putExtra(Intent.EXTRA_TEXT, httpLatencyRecorder.toJson());
+                    startActivity(Intent.createChooser(shareIntent, getResources().getString(R.string
+                            .nc_settings_network_latency_title)));
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to export network latency stats");
+                }
+            });
+        }
+
 
         addAccountButton.addPreferenceClickListener(view15 -> {
             addAccountButton.setEnabled(false);
@@ -242,6 +283,30 @@ public class SettingsController extends BaseController {
         dispose(null);
         userEntity = userUtils.getCurrentUser();
 
+        if (BuildConfig.DEBUG) {
+            List<HttpLatencyRecorder.RouteStats> routeStats = httpLatencyRecorder.getSnapshot();
+            long requestCount = 0;
+            for (HttpLatencyRecorder.RouteStats stats : routeStats) {
+                requestCount += stats.getPhase(HttpLatencyRecorder.PHASE_TOTAL).getCount();
+            }
+            networkLatencyButton.setSummary(String.format(getResources().getString(R.string
+                    .nc_settings_network_latency_summary), requestCount, routeStats.size()));
+            connectionPrewarmingInfo.setSummary(String.format(getResources().getString(R.string
+                            .nc_settings_connection_prewarming_summary), connectionPrewarmer.getPrewarmCount(),
+                    connectionPrewarmer.getConnectionsOpened(), connectionPrewarmer.getTotalSavedMs()));
+
+            StringBuilder threadPoolsSummary = new StringBuilder();
+            for (InstrumentedThreadPoolExecutor.Stats stats : schedulerProvider.getStats()) {
+                if (threadPoolsSummary.length() > 0) {
+                    threadPoolsSummary.append('\n');
+                }
+                threadPoolsSummary.append(String.format(getResources().getString(R.string
+                                .nc_settings_thread_pool_summary), stats.getName(), stats.getActiveCount(),
+                        stats.getQueueDepth(), stats.getAverageWaitMs(), stats.getMaxWaitMs()));
+            }
+            threadPoolsInfo.setSummary(threadPoolsSummary.toString());
+        }
+
         if ("No proxy".equals(appPreferences.getProxyType()) || appPreferences.getProxyType() == null) {
             hideProxySettings();
         } else {
@@ -276,7 +341,7 @@ public class SettingsController extends BaseController {
             profileQueryDisposable = ncApi.getUserProfile(ApiHelper.getCredentials(userEntity.getUsername(),
                     userEntity.getToken()),
                     ApiHelper.getUrlForUserProfile(userEntity.getBaseUrl()))
-                    .subscribeOn(Schedulers.newThread())
+                    .subscribeOn(schedulerProvider.network())
                     .observeOn(AndroidSchedulers.mainThread())
                     .subscribe(userProfileOverall -> {
 
@@ -301,7 +366,7 @@ public class SettingsController extends BaseController {
                                     null,
                                     null, displayName, null, true,
                                     userProfileOverall.getOcs().getData().getUserId(), userEntity.getId())
-                                    .subscribeOn(Schedulers.newThread())
+                                    .subscribeOn(schedulerProvider.database())
                                     .observeOn(AndroidSchedulers.mainThread())
                                     .subscribe(userEntityResult -> {
                                                 displayNameTextView.setText(userEntityResult.getDisplayName());
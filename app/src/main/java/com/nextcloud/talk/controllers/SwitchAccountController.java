@@ -47,6 +47,7 @@ import com.nextcloud.talk.utils.AccountUtils;
 import com.nextcloud.talk.utils.bundle.BundleBuilder;
 import com.nextcloud.talk.utils.bundle.BundleKeys;
 import com.nextcloud.talk.utils.database.user.UserUtils;
+import com.nextcloud.talk.utils.network.ConnectionPrewarmer;
 
 import java.net.CookieManager;
 import java.util.ArrayList;
@@ -72,6 +73,9 @@ public class SwitchAccountController extends BaseController {
     @Inject
     CookieManager cookieManager;
 
+    @Inject
+    ConnectionPrewarmer connectionPrewarmer;
+
     @BindView(R.id.recycler_view)
     RecyclerView recyclerView;
 
@@ -110,6 +114,7 @@ public class SwitchAccountController extends BaseController {
                                     public void onNext(UserEntity userEntity) {
                                         cookieManager.getCookieStore().removeAll();
                                         userUtils.disableAllUsersWithoutId(userEntity.getId());
+                                        connectionPrewarmer.prewarm(userEntity.getBaseUrl());
                                         getRouter().popCurrentController();
                                     }
 
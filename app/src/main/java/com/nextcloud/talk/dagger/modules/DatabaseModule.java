@@ -25,7 +25,9 @@ import android.support.annotation.NonNull;
 
 import com.nextcloud.talk.R;
 import com.nextcloud.talk.persistence.entities.Models;
+import com.nextcloud.talk.utils.database.room.RoomCache;
 import com.nextcloud.talk.utils.preferences.AppPreferences;
+import com.nextcloud.talk.utils.schedulers.SchedulerProvider;
 
 import net.orange_box.storebox.StoreBox;
 
@@ -42,6 +44,9 @@ import io.requery.sql.EntityDataStore;
 
 @Module
 public class DatabaseModule {
+    // 3: cached rooms
+    // 4: cached sharees
+    private static final int DATABASE_VERSION = 4;
 
     @Provides
     @Singleton
@@ -49,7 +54,7 @@ public class DatabaseModule {
         return new SqlCipherDatabaseSource(context, Models.DEFAULT,
                 context.getResources().getString(R.string.nc_app_name).toLowerCase()
                         .replace(" ", "_").trim() + ".sqlite",
-                context.getString(R.string.nc_talk_database_encryption_key), 2);
+                context.getString(R.string.nc_talk_database_encryption_key), DATABASE_VERSION);
     }
 
     @Provides
@@ -59,6 +64,13 @@ public class DatabaseModule {
         return ReactiveSupport.toReactiveStore(new EntityDataStore<Persistable>(configuration));
     }
 
+    @Provides
+    @Singleton
+    public RoomCache provideRoomCache(@NonNull final ReactiveEntityStore<Persistable> dataStore,
+                                      @NonNull final SchedulerProvider schedulerProvider) {
+        return new RoomCache(dataStore, schedulerProvider);
+    }
+
     @Provides
     @Singleton
     public AppPreferences providePreferences(@NonNull final Context poContext) {
@@ -0,0 +1,42 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nextcloud.talk.dagger.modules;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+
+import com.nextcloud.talk.utils.notifications.AndroidNotificationSink;
+import com.nextcloud.talk.utils.notifications.NotificationAggregator;
+
+import javax.inject.Singleton;
+
+import dagger.Module;
+import dagger.Provides;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+
+@Module
+public class NotificationModule {
+
+    @Provides
+    @Singleton
+    public NotificationAggregator provideNotificationAggregator(@NonNull final Context context) {
+        return new NotificationAggregator(new AndroidNotificationSink(context), AndroidSchedulers.mainThread());
+    }
+}
@@ -23,28 +23,38 @@ package com.nextcloud.talk.dagger.modules;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
-import android.util.Log;
 
 import com.github.aurae.retrofit2.LoganSquareConverterFactory;
 import com.nextcloud.talk.BuildConfig;
+import com.nextcloud.talk.api.CoalescingNcApi;
 import com.nextcloud.talk.api.NcApi;
+import com.nextcloud.talk.api.NcApiFactory;
 import com.nextcloud.talk.api.helpers.api.ApiHelper;
 import com.nextcloud.talk.application.NextcloudTalkApplication;
+import com.nextcloud.talk.utils.database.sharee.ShareeRepository;
+import com.nextcloud.talk.utils.database.user.UserUtils;
+import com.nextcloud.talk.utils.network.ConditionalRequestInterceptor;
+import com.nextcloud.talk.utils.network.ConnectionPrewarmer;
+import com.nextcloud.talk.utils.network.HttpLatencyRecorder;
+import com.nextcloud.talk.utils.network.PreferenceProxySelector;
 import com.nextcloud.talk.utils.preferences.AppPreferences;
+import com.nextcloud.talk.utils.push.NcApiPushRegistrationEndpoints;
+import com.nextcloud.talk.utils.push.PushRegistrationEngine;
+import com.nextcloud.talk.utils.push.UserPushRegistrationStore;
+import com.nextcloud.talk.utils.schedulers.SchedulerProvider;
 import com.nextcloud.talk.utils.ssl.MagicTrustManager;
 import com.nextcloud.talk.utils.ssl.SSLSocketFactoryCompat;
 
 import java.io.IOException;
 import java.net.CookieManager;
-import java.net.InetSocketAddress;
-import java.net.Proxy;
 import java.util.concurrent.TimeUnit;
 
 import javax.inject.Singleton;
 
 import dagger.Module;
 import dagger.Provides;
-import io.reactivex.schedulers.Schedulers;
+import io.requery.Persistable;
+import io.requery.reactivex.ReactiveEntityStore;
 import okhttp3.Authenticator;
 import okhttp3.Cache;
 import okhttp3.Credentials;
@@ -64,39 +74,57 @@ public class RestModule {
 
     private static final String TAG = "RestModule";
 
+    private static final long COALESCED_RESULT_TTL_MS = 1000;
+
     @Provides
     @Singleton
-    NcApi provideNcApi(Retrofit retrofit) {
-        return retrofit.create(NcApi.class);
+    NcApi provideNcApi(Retrofit retrofit, ConditionalRequestInterceptor conditionalRequestInterceptor) {
+        return new CoalescingNcApi(retrofit.create(NcApi.class), COALESCED_RESULT_TTL_MS,
+                conditionalRequestInterceptor);
     }
 
     @Provides
     @Singleton
-    Proxy provideProxy(AppPreferences appPreferences) {
-        if (!TextUtils.isEmpty(appPreferences.getProxyType()) && !"No proxy".equals(appPreferences.getProxyType())
-                && !TextUtils.isEmpty(appPreferences.getProxyHost())) {
-            GetProxyRunnable getProxyRunnable = new GetProxyRunnable(appPreferences);
-            Thread getProxyThread = new Thread(getProxyRunnable);
-            getProxyThread.start();
-            try {
-                getProxyThread.join();
-                return getProxyRunnable.getProxyValue();
-            } catch (InterruptedException e) {
-                Log.e(TAG, "Failed to join the thread while getting proxy: " + e.getLocalizedMessage());
-                return Proxy.NO_PROXY;
-            }
-        } else {
-            return Proxy.NO_PROXY;
-        }
+    NcApiFactory provideNcApiFactory(Retrofit retrofit, OkHttpClient okHttpClient,
+                                     ConditionalRequestInterceptor conditionalRequestInterceptor) {
+        return new NcApiFactory(retrofit, okHttpClient, conditionalRequestInterceptor, COALESCED_RESULT_TTL_MS);
+    }
+
+    @Provides
+    @Singleton
+    ShareeRepository provideShareeRepository(NcApi ncApi, ReactiveEntityStore<Persistable> dataStore,
+                                             SchedulerProvider schedulerProvider) {
+        return new ShareeRepository(ncApi, dataStore, schedulerProvider);
+    }
+
+    @Provides
+    @Singleton
+    PushRegistrationEngine providePushRegistrationEngine(NcApiFactory ncApiFactory, UserUtils userUtils,
+                                                         SchedulerProvider schedulerProvider) {
+        return new PushRegistrationEngine(new NcApiPushRegistrationEndpoints(ncApiFactory),
+                new UserPushRegistrationStore(userUtils), schedulerProvider.network());
+    }
+
+    @Provides
+    @Singleton
+    ConnectionPrewarmer provideConnectionPrewarmer(OkHttpClient okHttpClient) {
+        return new ConnectionPrewarmer(okHttpClient);
+    }
+
+    @Provides
+    @Singleton
+    PreferenceProxySelector provideProxySelector(AppPreferences appPreferences, SchedulerProvider schedulerProvider) {
+        return new PreferenceProxySelector(appPreferences, schedulerProvider.network());
     }
 
     @Provides
     @Singleton
     Retrofit provideRetrofit(OkHttpClient httpClient) {
+        // Enqueued on OkHttp's dispatcher, so a request in flight doesn't take up a thread of ours
         Retrofit.Builder retrofitBuilder = new Retrofit.Builder()
                 .client(httpClient)
                 .baseUrl("https://nextcloud.com")
-                .addCallAdapterFactory(RxJava2CallAdapterFactory.createWithScheduler(Schedulers.io()))
+                .addCallAdapterFactory(RxJava2CallAdapterFactory.createAsync())
                 .addConverterFactory(LoganSquareConverterFactory.create());
 
         return retrofitBuilder.build();
@@ -129,10 +157,24 @@ public class RestModule {
 
     @Provides
     @Singleton
-    OkHttpClient provideHttpClient(Proxy proxy, AppPreferences appPreferences,
+    ConditionalRequestInterceptor provideConditionalRequestInterceptor() {
+        return new ConditionalRequestInterceptor();
+    }
+
+    @Provides
+    @Singleton
+    HttpLatencyRecorder provideHttpLatencyRecorder() {
+        return new HttpLatencyRecorder();
+    }
+
+    @Provides
+    @Singleton
+    OkHttpClient provideHttpClient(PreferenceProxySelector proxySelector, AppPreferences appPreferences,
                                    MagicTrustManager magicTrustManager,
                                    SSLSocketFactoryCompat sslSocketFactoryCompat, Cache cache,
-                                   CookieManager cookieManager) {
+                                   CookieManager cookieManager,
+                                   ConditionalRequestInterceptor conditionalRequestInterceptor,
+                                   HttpLatencyRecorder httpLatencyRecorder) {
         OkHttpClient.Builder httpClient = new OkHttpClient.Builder();
 
         httpClient.connectTimeout(45, TimeUnit.SECONDS);
@@ -141,6 +183,10 @@ public class RestModule {
 
         httpClient.cookieJar(new JavaNetCookieJar(cookieManager));
         httpClient.cache(cache);
+        httpClient.eventListenerFactory(httpLatencyRecorder);
+
+        // Outermost, so the logging below still shows the 304s
+        httpClient.addInterceptor(conditionalRequestInterceptor);
 
         if (BuildConfig.DEBUG) {
             HttpLoggingInterceptor loggingInterceptor = new HttpLoggingInterceptor();
@@ -153,34 +199,36 @@ public class RestModule {
         httpClient.retryOnConnectionFailure(true);
         httpClient.hostnameVerifier(magicTrustManager.getHostnameVerifier(OkHostnameVerifier.INSTANCE));
 
-        if (!Proxy.NO_PROXY.equals(proxy)) {
-            httpClient.proxy(proxy);
-
-            if (appPreferences.getProxyCredentials() &&
-                    !TextUtils.isEmpty(appPreferences.getProxyUsername()) &&
-                    !TextUtils.isEmpty(appPreferences.getProxyPassword())) {
-                httpClient.proxyAuthenticator(new ProxyAuthenticator(Credentials.basic(
-                        appPreferences.getProxyUsername(),
-                        appPreferences.getProxyPassword())));
-            }
-        }
+        httpClient.proxySelector(proxySelector);
+        httpClient.proxyAuthenticator(new ProxyAuthenticator(appPreferences));
 
         httpClient.addInterceptor(new HeadersInterceptor());
 
-        return httpClient.build();
+        OkHttpClient okHttpClient = httpClient.build();
+        proxySelector.setConnectionPool(okHttpClient.connectionPool());
+
+        return okHttpClient;
     }
 
     private class ProxyAuthenticator implements Authenticator {
 
-        private String credentials;
+        private AppPreferences appPreferences;
 
-        private ProxyAuthenticator(String credentials) {
-            this.credentials = credentials;
+        private ProxyAuthenticator(AppPreferences appPreferences) {
+            this.appPreferences = appPreferences;
         }
 
         @Nullable
         @Override
         public Request authenticate(@NonNull Route route, @NonNull Response response) throws IOException {
+            // Read every time, so changes in the settings apply to the next request
+            if (!appPreferences.getProxyCredentials() || TextUtils.isEmpty(appPreferences.getProxyUsername())
+                    || TextUtils.isEmpty(appPreferences.getProxyPassword())) {
+                return null;
+            }
+
+            String credentials = Credentials.basic(appPreferences.getProxyUsername(),
+                    appPreferences.getProxyPassword());
             if (credentials.equals(response.request().header("Proxy-Authorization"))) {
                 return null;
             }
@@ -217,30 +265,4 @@ public class RestModule {
             return chain.proceed(request);
         }
     }
-
-    private class GetProxyRunnable implements Runnable {
-        private volatile Proxy proxy;
-        private AppPreferences appPreferences;
-
-        public GetProxyRunnable(AppPreferences appPreferences) {
-            this.appPreferences = appPreferences;
-        }
-
-        @Override
-        public void run() {
-            if (Proxy.Type.SOCKS.equals(Proxy.Type.valueOf(appPreferences.getProxyType()))) {
-                proxy = new Proxy(Proxy.Type.valueOf(appPreferences.getProxyType()),
-                        InetSocketAddress.createUnresolved(appPreferences.getProxyHost(), Integer.parseInt(
-                                appPreferences.getProxyPort())));
-            } else {
-                proxy = new Proxy(Proxy.Type.valueOf(appPreferences.getProxyType()),
-                        new InetSocketAddress(appPreferences.getProxyHost(),
-                                Integer.parseInt(appPreferences.getProxyPort())));
-            }
-        }
-
-        public Proxy getProxyValue() {
-            return proxy;
-        }
-    }
 }
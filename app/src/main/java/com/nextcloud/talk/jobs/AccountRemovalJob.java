@@ -28,15 +28,17 @@ import android.util.Log;
 import com.bluelinelabs.logansquare.LoganSquare;
 import com.evernote.android.job.Job;
 import com.nextcloud.talk.api.NcApi;
+import com.nextcloud.talk.api.NcApiFactory;
 import com.nextcloud.talk.api.helpers.api.ApiHelper;
 import com.nextcloud.talk.api.models.json.generic.GenericOverall;
 import com.nextcloud.talk.api.models.json.push.PushConfigurationState;
 import com.nextcloud.talk.application.NextcloudTalkApplication;
 import com.nextcloud.talk.persistence.entities.UserEntity;
+import com.nextcloud.talk.utils.database.room.RoomCache;
+import com.nextcloud.talk.utils.database.sharee.ShareeRepository;
 import com.nextcloud.talk.utils.database.user.UserUtils;
 
 import java.io.IOException;
-import java.net.CookieManager;
 import java.util.HashMap;
 
 import javax.inject.Inject;
@@ -45,9 +47,6 @@ import autodagger.AutoInjector;
 import io.reactivex.CompletableObserver;
 import io.reactivex.Observer;
 import io.reactivex.disposables.Disposable;
-import okhttp3.JavaNetCookieJar;
-import okhttp3.OkHttpClient;
-import retrofit2.Retrofit;
 
 @AutoInjector(NextcloudTalkApplication.class)
 public class AccountRemovalJob extends Job {
@@ -57,12 +56,13 @@ public class AccountRemovalJob extends Job {
     UserUtils userUtils;
 
     @Inject
-    Retrofit retrofit;
+    NcApiFactory ncApiFactory;
 
     @Inject
-    OkHttpClient okHttpClient;
+    RoomCache roomCache;
 
-    NcApi ncApi;
+    @Inject
+    ShareeRepository shareeRepository;
 
     @NonNull
     @Override
@@ -78,8 +78,7 @@ public class AccountRemovalJob extends Job {
                             PushConfigurationState.class);
                     PushConfigurationState finalPushConfigurationState = pushConfigurationState;
 
-                    ncApi = retrofit.newBuilder().client(okHttpClient.newBuilder().cookieJar(new
-                            JavaNetCookieJar(new CookieManager())).build()).build().create(NcApi.class);
+                    NcApi ncApi = ncApiFactory.getNcApi(userEntity.getId());
 
                     ncApi.unregisterDeviceForNotificationsWithNextcloud(ApiHelper.getCredentials(userEntity.getUsername(),
                             userEntity.getToken()), ApiHelper.getUrlNextcloudPush(userEntity.getBaseUrl()))
@@ -110,6 +109,11 @@ public class AccountRemovalJob extends Job {
 
                                                     @Override
                                                     public void onNext(Void aVoid) {
+                                                        ncApiFactory.removeNcApi(userEntity.getId());
+                                                        roomCache.deleteRooms(userEntity.getId())
+                                                                .onErrorComplete().subscribe();
+                                                        shareeRepository.deleteSharees(userEntity.getId())
+                                                                .onErrorComplete().subscribe();
                                                         userUtils.deleteUser(userEntity.getUsername(),
                                                                 userEntity.getBaseUrl()).subscribe(new CompletableObserver() {
                                                             @Override
@@ -0,0 +1,53 @@
+/*
+ *
+ *   Nextcloud Talk application
+ *
+ *   @author Mario Danic
+ *   Copyright (C) 2017 Mario Danic (mario@lovelyhq.com)
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nextcloud.talk.persistence.entities;
+
+import io.requery.Entity;
+import io.requery.Generated;
+import io.requery.Index;
+import io.requery.Key;
+import io.requery.Persistable;
+
+/**
+ * A room of an account as it was last seen, see {@link com.nextcloud.talk.utils.database.room.RoomCache}.
+ */
+@Entity
+public interface CachedRoom extends Persistable {
+    @Key
+    @Generated
+    long getId();
+
+    @Index("cached_room_account_index")
+    long getAccountId();
+
+    String getToken();
+
+    // Position in the list, rooms are stored in display order
+    int getPosition();
+
+    // Version of the format the room was serialized with
+    int getFormatVersion();
+
+    // The Room, participants included, as LoganSquare serialized it
+    String getRoomJson();
+
+    long getCachedAt();
+}
@@ -0,0 +1,47 @@
+/*
+ *
+ *   Nextcloud Talk application
+ *
+ *   @author Mario Danic
+ *   Copyright (C) 2017 Mario Danic (mario@lovelyhq.com)
+ *
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nextcloud.talk.persistence.entities;
+
+import io.requery.Entity;
+import io.requery.Generated;
+import io.requery.Index;
+import io.requery.Key;
+import io.requery.Persistable;
+
+/**
+ * A sharee an account's server returned, see {@link com.nextcloud.talk.utils.database.sharee.ShareeRepository}.
+ */
+@Entity
+public interface CachedSharee extends Persistable {
+    @Key
+    @Generated
+    long getId();
+
+    @Index("cached_sharee_account_index")
+    long getAccountId();
+
+    String getUserId();
+
+    String getLabel();
+
+    // When the server last returned this sharee
+    long getSeenAt();
+}
@@ -21,46 +21,45 @@
 package com.nextcloud.talk.services.firebase;
 
 import android.annotation.SuppressLint;
-import android.app.Notification;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
-import android.content.Context;
-import android.content.Intent;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.media.RingtoneManager;
-import android.net.Uri;
-import android.os.Build;
-import android.os.Bundle;
 import android.util.Base64;
 import android.util.Log;
 
 import com.bluelinelabs.logansquare.LoganSquare;
 import com.google.firebase.messaging.FirebaseMessagingService;
 import com.google.firebase.messaging.RemoteMessage;
-import com.nextcloud.talk.R;
-import com.nextcloud.talk.activities.CallActivity;
 import com.nextcloud.talk.api.models.json.push.DecryptedPushMessage;
 import com.nextcloud.talk.api.models.json.push.PushMessage;
+import com.nextcloud.talk.application.NextcloudTalkApplication;
 import com.nextcloud.talk.models.SignatureVerification;
-import com.nextcloud.talk.utils.NotificationUtils;
-import com.nextcloud.talk.utils.PushUtils;
-import com.nextcloud.talk.utils.bundle.BundleBuilder;
+import com.nextcloud.talk.utils.network.ConnectionPrewarmer;
+import com.nextcloud.talk.utils.notifications.NotificationAggregator;
+import com.nextcloud.talk.utils.push.PushCryptoService;
 
-import org.parceler.Parcels;
+import java.security.GeneralSecurityException;
 
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.security.PrivateKey;
-import java.util.Calendar;
-import java.util.zip.CRC32;
+import javax.inject.Inject;
 
-import javax.crypto.Cipher;
-import javax.crypto.NoSuchPaddingException;
+import autodagger.AutoInjector;
 
+@AutoInjector(NextcloudTalkApplication.class)
 public class MagicFirebaseMessagingService extends FirebaseMessagingService {
     private static final String TAG = "MagicFirebaseMessagingService";
 
+    @Inject
+    ConnectionPrewarmer connectionPrewarmer;
+
+    @Inject
+    PushCryptoService pushCryptoService;
+
+    @Inject
+    NotificationAggregator notificationAggregator;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        NextcloudTalkApplication.getSharedApplication().getComponentApplication().inject(this);
+    }
+
     @SuppressLint("LongLogTag")
     @Override
     public void onMessageReceived(RemoteMessage remoteMessage) {
@@ -72,135 +71,28 @@ public class MagicFirebaseMessagingService extends FirebaseMessagingService {
 
                 byte[] base64DecodedSubject = android.util.Base64.decode(pushMessage.getSubject(), Base64.DEFAULT);
                 byte[] base64DecodedSignature = android.util.Base64.decode(pushMessage.getSignature(), Base64.DEFAULT);
-                PushUtils pushUtils = new PushUtils();
-                PrivateKey privateKey = (PrivateKey) pushUtils.readKeyFromFile(false);
 
                 try {
-                    SignatureVerification signatureVerification = pushUtils.verifySignature(base64DecodedSignature,
-                            base64DecodedSubject);
+                    SignatureVerification signatureVerification = pushCryptoService.verifySignature(
+                            base64DecodedSignature, base64DecodedSubject);
 
                     if (signatureVerification.isSignatureValid()) {
-                        Cipher cipher = Cipher.getInstance("RSA/None/PKCS1Padding");
-                        cipher.init(Cipher.DECRYPT_MODE, privateKey);
-                        byte[] decryptedSubject = cipher.doFinal(base64DecodedSubject);
+                        byte[] decryptedSubject = pushCryptoService.decrypt(base64DecodedSubject);
                         DecryptedPushMessage decryptedPushMessage = LoganSquare.parse(new String(decryptedSubject),
                                 DecryptedPushMessage.class);
 
                         if (decryptedPushMessage.getApp().equals("spreed")) {
-                            int smallIcon;
-                            Bitmap largeIcon;
-                            String category = "";
-                            int priority = Notification.PRIORITY_DEFAULT;
-                            Uri soundUri = RingtoneManager.getDefaultUri(RingtoneManager.TYPE_NOTIFICATION);
-
-                            Intent intent = new Intent(this, CallActivity.class);
-                            BundleBuilder bundleBuilder = new BundleBuilder(new Bundle());
-                            bundleBuilder.putString("roomToken", decryptedPushMessage.getId());
-                            bundleBuilder.putParcelable("userEntity", Parcels.wrap(signatureVerification
-                                    .getUserEntity()));
-                            bundleBuilder.putBoolean("fromNotification", true);
-                            intent.putExtras(bundleBuilder.build());
-
-                            PendingIntent pendingIntent = PendingIntent.getActivity(this,
-                                    0, intent, PendingIntent.FLAG_CANCEL_CURRENT);
-
-                            NotificationManager notificationManager =
-                                    (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
-
-                            switch (decryptedPushMessage.getType()) {
-                                case "call":
-                                    smallIcon = R.drawable.ic_call_black_24dp;
-                                    category = Notification.CATEGORY_CALL;
-                                    priority = Notification.PRIORITY_HIGH;
-                                    soundUri = RingtoneManager.getDefaultUri(RingtoneManager.TYPE_RINGTONE);
-                                    break;
-                                case "room":
-                                    smallIcon = R.drawable.ic_notifications_black_24dp;
-                                    category = Notification.CATEGORY_CALL;
-                                    priority = Notification.PRIORITY_HIGH;
-                                    break;
-                                case "chat":
-                                    smallIcon = R.drawable.ic_chat_black_24dp;
-                                    category = Notification.CATEGORY_MESSAGE;
-                                    break;
-                                default:
-                                    smallIcon = R.drawable.ic_logo;
+                            if ("call".equals(decryptedPushMessage.getType())) {
+                                // The user is likely to pick up, have the connection ready by then
+                                connectionPrewarmer.prewarm(signatureVerification.getUserEntity().getBaseUrl());
                             }
 
-                            largeIcon = BitmapFactory.decodeResource(getResources(), smallIcon);
-                            CRC32 crc32 = new CRC32();
-
-                            Notification.Builder notificationBuilder = new Notification.Builder(this)
-                                    .setLargeIcon(largeIcon)
-                                    .setSmallIcon(smallIcon)
-                                    .setCategory(category)
-                                    .setPriority(priority)
-                                    .setWhen(Calendar.getInstance().getTimeInMillis())
-                                    .setShowWhen(true)
-                                    .setSubText(signatureVerification.getUserEntity().getDisplayName())
-                                    .setContentTitle(decryptedPushMessage.getSubject())
-                                    .setSound(soundUri)
-                                    .setAutoCancel(true);
-
-                            if (Build.VERSION.SDK_INT >= 23) {
-                                // This method should exist since API 21, but some phones don't have it
-                                // So as a safeguard, we don't use it until 23
-                                notificationBuilder.setColor(getResources().getColor(R.color.colorPrimary));
-                            }
-
-                            if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.O) {
-
-                                String groupName = String.format(getResources().getString(R.string
-                                        .nc_notification_channel), signatureVerification.getUserEntity()
-                                        .getDisplayName(), signatureVerification.getUserEntity().getBaseUrl());
-                                crc32.update(groupName.getBytes());
-
-                                NotificationUtils.createNotificationChannelGroup(notificationManager,
-                                        Long.toString(crc32.getValue()),
-                                        groupName);
-
-                                if (category.equals(Notification.CATEGORY_CALL)) {
-                                    NotificationUtils.createNotificationChannel(notificationManager,
-                                            NotificationUtils.NOTIFICATION_CHANNEL_CALLS, getResources().getString(R
-                                                    .string.nc_notification_channel_calls), getResources().getString
-                                                    (R.string.nc_notification_channel_calls_description), true,
-                                            NotificationManager.IMPORTANCE_HIGH, soundUri);
-
-                                    notificationBuilder.setChannelId(NotificationUtils.NOTIFICATION_CHANNEL_CALLS);
-                                } else {
-                                    NotificationUtils.createNotificationChannel(notificationManager,
-                                            NotificationUtils.NOTIFICATION_CHANNEL_MESSAGES, getResources().getString(R
-                                                    .string.nc_notification_channel_messages), getResources().getString
-                                                    (R.string.nc_notification_channel_messages_description), true,
-                                            NotificationManager.IMPORTANCE_DEFAULT, soundUri);
-
-                                    notificationBuilder.setChannelId(NotificationUtils.NOTIFICATION_CHANNEL_MESSAGES);
-                                }
-
-                                notificationBuilder.setGroup(Long.toString(crc32.getValue()));
-                            }
-
-                            notificationBuilder.setContentIntent(pendingIntent);
-
-                            String stringForCrc = decryptedPushMessage.getSubject() + " " + signatureVerification
-                                    .getUserEntity().getDisplayName() + " " + signatureVerification.getUserEntity
-                                    ().getBaseUrl();
-
-                            crc32 = new CRC32();
-                            crc32.update(stringForCrc.getBytes());
-
-                            if (notificationManager != null) {
-                                notificationManager.notify((int) crc32.getValue(), notificationBuilder.build());
-                            }
+                            notificationAggregator.onPush(signatureVerification.getUserEntity(),
+                                    decryptedPushMessage);
                         }
-
                     }
-                } catch (NoSuchAlgorithmException e1) {
-                    Log.d(TAG, "No proper algorithm to decrypt the message " + e1.getLocalizedMessage());
-                } catch (NoSuchPaddingException e1) {
-                    Log.d(TAG, "No proper padding to decrypt the message " + e1.getLocalizedMessage());
-                } catch (InvalidKeyException e1) {
-                    Log.d(TAG, "Invalid private key " + e1.getLocalizedMessage());
+                } catch (GeneralSecurityException e1) {
+                    Log.d(TAG, "Failed to decrypt the message " + e1.getLocalizedMessage());
                 }
             } catch (Exception exception) {
                 Log.d(TAG, "Something went very wrong" + exception.getLocalizedMessage());
@@ -25,33 +25,24 @@ import android.text.TextUtils;
 import android.util.Base64;
 import android.util.Log;
 
-import com.bluelinelabs.logansquare.LoganSquare;
 import com.nextcloud.talk.R;
-import com.nextcloud.talk.api.NcApi;
-import com.nextcloud.talk.api.helpers.api.ApiHelper;
-import com.nextcloud.talk.api.models.json.push.PushConfigurationState;
 import com.nextcloud.talk.application.NextcloudTalkApplication;
-import com.nextcloud.talk.models.SignatureVerification;
-import com.nextcloud.talk.persistence.entities.UserEntity;
 import com.nextcloud.talk.utils.database.user.UserUtils;
 import com.nextcloud.talk.utils.preferences.AppPreferences;
+import com.nextcloud.talk.utils.push.PushRegistrationEngine;
+import com.nextcloud.talk.utils.push.PushTokenHasher;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.net.CookieManager;
-import java.security.InvalidKeyException;
 import java.security.Key;
 import java.security.KeyFactory;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
-import java.security.Signature;
-import java.security.SignatureException;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
@@ -62,11 +53,6 @@ import java.util.Map;
 import javax.inject.Inject;
 
 import autodagger.AutoInjector;
-import io.reactivex.functions.Consumer;
-import io.reactivex.schedulers.Schedulers;
-import okhttp3.JavaNetCookieJar;
-import okhttp3.OkHttpClient;
-import retrofit2.Retrofit;
 
 @AutoInjector(NextcloudTalkApplication.class)
 public class PushUtils {
@@ -79,12 +65,7 @@ public class PushUtils {
     AppPreferences appPreferences;
 
     @Inject
-    OkHttpClient okHttpClient;
-
-    @Inject
-    Retrofit retrofit;
-
-    NcApi ncApi;
+    PushRegistrationEngine pushRegistrationEngine;
 
     private File keysFile;
     private File publicKeyFile;
@@ -105,46 +86,6 @@ public class PushUtils {
                 getString(R.string.nc_push_server_url);
     }
 
-    public SignatureVerification verifySignature(byte[] signatureBytes, byte[] subjectBytes) {
-        Signature signature = null;
-        PushConfigurationState pushConfigurationState;
-        PublicKey publicKey;
-        SignatureVerification signatureVerification = new SignatureVerification();
-        signatureVerification.setSignatureValid(false);
-
-        List<UserEntity> userEntities = userUtils.getUsers();
-        try {
-            signature = Signature.getInstance("SHA512withRSA");
-            if (userEntities != null && userEntities.size() > 0) {
-                for (UserEntity userEntity : userEntities) {
-                    if (!TextUtils.isEmpty(userEntity.getPushConfigurationState())) {
-                        pushConfigurationState = LoganSquare.parse(userEntity.getPushConfigurationState(),
-                                PushConfigurationState.class);
-                        publicKey = (PublicKey) readKeyFromString(true,
-                                pushConfigurationState.getUserPublicKey());
-                        signature.initVerify(publicKey);
-                        signature.update(subjectBytes);
-                        if (signature.verify(signatureBytes)) {
-                            signatureVerification.setSignatureValid(true);
-                            signatureVerification.setUserEntity(userEntity);
-                            return signatureVerification;
-                        }
-                    }
-                }
-            }
-        } catch (NoSuchAlgorithmException e) {
-            Log.d(TAG, "No such algorithm");
-        } catch (IOException e) {
-            Log.d(TAG, "Error while trying to parse push configuration state");
-        } catch (InvalidKeyException e) {
-            Log.d(TAG, "Invalid key while trying to verify");
-        } catch (SignatureException e) {
-            Log.d(TAG, "Signature exception while trying to verify");
-        }
-
-        return signatureVerification;
-    }
-
     private int saveKeyToFile(Key key, String path) {
         byte[] encoded = key.getEncoded();
         FileOutputStream keyFileOutputStream = null;
@@ -166,11 +107,8 @@ public class PushUtils {
     }
 
     public String generateSHA512Hash(String pushToken) {
-        MessageDigest messageDigest = null;
         try {
-            messageDigest = MessageDigest.getInstance("SHA-512");
-            messageDigest.update(pushToken.getBytes());
-            return bytesToHex(messageDigest.digest());
+            return PushTokenHasher.sha512Hex(pushToken);
         } catch (NoSuchAlgorithmException e) {
             Log.d(TAG, "SHA-512 algorithm not supported");
         }
@@ -178,12 +116,7 @@ public class PushUtils {
     }
 
     public String bytesToHex(byte[] bytes) {
-        StringBuilder result = new StringBuilder();
-        for (byte individualByte : bytes) {
-            result.append(Integer.toString((individualByte & 0xff) + 0x100, 16)
-                    .substring(1));
-        }
-        return result.toString();
+        return PushTokenHasher.bytesToHex(bytes);
     }
 
     public int generateRsa2048KeyPair() {
@@ -220,6 +153,10 @@ public class PushUtils {
         return -2;
     }
 
+    /**
+     * Registers every account that isn't registered for the current token yet, blocking until done. Accounts on
+     * servers that failed recently are left for a later run instead of being waited for.
+     */
     public void pushRegistrationToServer() {
         String token = appPreferences.getPushToken();
 
@@ -233,115 +170,22 @@ public class PushUtils {
 
                 publicKey = "-----BEGIN PUBLIC KEY-----\n" + publicKey + "\n-----END PUBLIC KEY-----\n";
 
-                if (userUtils.anyUserExists()) {
-                    String providerValue;
-                    PushConfigurationState accountPushData = null;
-                    for (Object userEntityObject : userUtils.getUsers()) {
-                        UserEntity userEntity = (UserEntity) userEntityObject;
-                        providerValue = userEntity.getPushConfigurationState();
-                        if (!TextUtils.isEmpty(providerValue)) {
-                            try {
-                                accountPushData = LoganSquare.parse(providerValue, PushConfigurationState.class);
-                            } catch (IOException e) {
-                                Log.d(TAG, "Failed to parse account push data");
-                                accountPushData = null;
-                            }
-                        } else {
-                            accountPushData = null;
-                        }
-
-                        if (accountPushData != null && !accountPushData.getPushToken().equals(token) &&
-                                !userEntity.getScheduledForDeletion() ||
-                                TextUtils.isEmpty(providerValue) && !userEntity.getScheduledForDeletion()) {
-
-
-                            Map<String, String> queryMap = new HashMap<>();
-                            queryMap.put("format", "json");
-                            queryMap.put("pushTokenHash", pushTokenHash);
-                            queryMap.put("devicePublicKey", publicKey);
-                            queryMap.put("proxyServer", proxyServer);
-
-                            ncApi = retrofit.newBuilder().client(okHttpClient.newBuilder().cookieJar(new
-                                    JavaNetCookieJar(new CookieManager())).build()).build().create(NcApi.class);
-
-                            ncApi.registerDeviceForNotificationsWithNextcloud(
-                                    ApiHelper.getCredentials(userEntity.getUsername(), userEntity.getToken()),
-                                    ApiHelper.getUrlNextcloudPush(userEntity.getBaseUrl()), queryMap)
-                                    .subscribeOn(Schedulers.newThread())
-                                    .subscribe(pushRegistrationOverall -> {
-                                        Map<String, String> proxyMap = new HashMap<>();
-                                        proxyMap.put("pushToken", token);
-                                        proxyMap.put("deviceIdentifier", pushRegistrationOverall.getOcs().getData().
-                                                getDeviceIdentifier());
-                                        proxyMap.put("deviceIdentifierSignature", pushRegistrationOverall.getOcs()
-                                                .getData().getSignature());
-                                        proxyMap.put("userPublicKey", pushRegistrationOverall.getOcs()
-                                                .getData().getPublicKey());
-
-
-                                        ncApi.registerDeviceForNotificationsWithProxy(ApiHelper.getCredentials
-                                                        (userEntity.getUsername(), userEntity.getToken()),
-                                                ApiHelper.getUrlPushProxy(), proxyMap)
-                                                .subscribeOn(Schedulers.newThread())
-                                                .subscribe(new Consumer<Void>() {
-                                                    @Override
-                                                    public void accept(Void aVoid) throws Exception {
-
-                                                        PushConfigurationState pushConfigurationState =
-                                                                new PushConfigurationState();
-                                                        pushConfigurationState.setPushToken(token);
-                                                        pushConfigurationState.setDeviceIdentifier(
-                                                                pushRegistrationOverall.getOcs()
-                                                                        .getData().getDeviceIdentifier());
-                                                        pushConfigurationState.setDeviceIdentifierSignature(
-                                                                pushRegistrationOverall
-                                                                        .getOcs().getData().getSignature());
-                                                        pushConfigurationState.setUserPublicKey(
-                                                                pushRegistrationOverall.getOcs()
-                                                                        .getData().getPublicKey());
-                                                        pushConfigurationState.setUsesRegularPass(false);
-
-                                                        userUtils.createOrUpdateUser(null,
-                                                                null, null,
-                                                                userEntity.getDisplayName(),
-                                                                LoganSquare.serialize(pushConfigurationState), null,
-                                                                null, userEntity.getId())
-                                                                .subscribe(new Consumer<UserEntity>() {
-                                                                    @Override
-                                                                    public void accept(UserEntity userEntity) throws Exception {
-                                                                        // all went well
-                                                                    }
-                                                                }, new Consumer<Throwable>() {
-                                                                    @Override
-                                                                    public void accept(Throwable throwable) throws Exception {
-                                                                    }
-                                                                });
-
-
-                                                    }
-                                                }, new Consumer<Throwable>() {
-                                                    @Override
-                                                    public void accept(Throwable throwable) throws Exception {
-                                                        // something went wrong
-                                                    }
-                                                });
-
-
-                                    }, new Consumer<Throwable>() {
-                                        @Override
-                                        public void accept(Throwable throwable) throws Exception {
-                                            // TODO: If 400, we're using regular token
-                                        }
-                                    });
-
-                        }
-                    }
+                Map<String, String> queryMap = new HashMap<>();
+                queryMap.put("format", "json");
+                queryMap.put("pushTokenHash", pushTokenHash);
+                queryMap.put("devicePublicKey", publicKey);
+                queryMap.put("proxyServer", proxyServer);
+
+                List<PushRegistrationEngine.Result> results = pushRegistrationEngine.register(
+                        userUtils.getUsers(), token, queryMap).blockingGet();
+                for (PushRegistrationEngine.Result result : results) {
+                    Log.d(TAG, "Push registration " + result);
                 }
             }
         }
     }
 
-    private Key readKeyFromString(boolean readPublicKey, String keyString) {
+    public Key readKeyFromString(boolean readPublicKey, String keyString) {
         keyString = keyString.replace("-----BEGIN PUBLIC KEY-----", "");
         keyString = keyString.replace("-----END PUBLIC KEY-----", "");
 
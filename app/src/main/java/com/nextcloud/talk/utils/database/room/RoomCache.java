@@ -0,0 +1,129 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.utils.database.room;
+
+import android.util.Log;
+
+import com.bluelinelabs.logansquare.LoganSquare;
+import com.nextcloud.talk.api.models.json.rooms.Room;
+import com.nextcloud.talk.persistence.entities.CachedRoom;
+import com.nextcloud.talk.persistence.entities.CachedRoomEntity;
+import com.nextcloud.talk.utils.schedulers.SchedulerProvider;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.reactivex.Completable;
+import io.reactivex.Observable;
+import io.requery.Persistable;
+import io.requery.reactivex.ReactiveEntityStore;
+
+/**
+ * Keeps the last known room list of every account, so it can be shown before the server answers.
+ * <p>
+ * Rooms are stored as JSON together with the version of the format they were written in; rows of another
+ * version are dropped when read. Only the first {@link #MAX_ROOMS_PER_ACCOUNT} rooms are kept.
+ */
+public class RoomCache {
+    private static final String TAG = "RoomCache";
+
+    // Bump whenever Room or Participant change in a way older JSON can't be read back
+    static final int FORMAT_VERSION = 1;
+    static final int MAX_ROOMS_PER_ACCOUNT = 200;
+
+    private final ReactiveEntityStore<Persistable> dataStore;
+    private final SchedulerProvider schedulerProvider;
+
+    public RoomCache(ReactiveEntityStore<Persistable> dataStore, SchedulerProvider schedulerProvider) {
+        this.dataStore = dataStore;
+        this.schedulerProvider = schedulerProvider;
+    }
+
+    /**
+     * @return the cached rooms in display order, possibly none
+     */
+    public Observable<List<Room>> getRooms(long accountId) {
+        return Observable.fromCallable(() -> readRooms(accountId))
+                .subscribeOn(schedulerProvider.database());
+    }
+
+    /**
+     * Replaces the cached rooms of an account with the given ones, expected in display order.
+     */
+    public Completable storeRooms(long accountId, List<Room> rooms) {
+        return Completable.fromAction(() -> writeRooms(accountId, rooms))
+                .subscribeOn(schedulerProvider.database());
+    }
+
+    public Completable deleteRooms(long accountId) {
+        return Completable.fromAction(() -> dataStore.toBlocking().delete(CachedRoom.class)
+                .where(CachedRoomEntity.ACCOUNT_ID.eq(accountId)).get().value())
+                .subscribeOn(schedulerProvider.database());
+    }
+
+    private List<Room> readRooms(long accountId) {
+        List<CachedRoom> cachedRooms = dataStore.toBlocking().select(CachedRoom.class)
+                .where(CachedRoomEntity.ACCOUNT_ID.eq(accountId))
+                .orderBy(CachedRoomEntity.POSITION.asc())
+                .get().toList();
+
+        List<Room> rooms = new ArrayList<>(cachedRooms.size());
+        for (CachedRoom cachedRoom : cachedRooms) {
+            if (cachedRoom.getFormatVersion() != FORMAT_VERSION) {
+                // Written by an older version of the app, the next refresh writes them anew
+                return new ArrayList<>();
+            }
+
+            try {
+                rooms.add(LoganSquare.parse(cachedRoom.getRoomJson(), Room.class));
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to read a cached room, ignoring the cache");
+                return new ArrayList<>();
+            }
+        }
+
+        return rooms;
+    }
+
+    private void writeRooms(long accountId, List<Room> rooms) throws IOException {
+        long now = System.currentTimeMillis();
+        List<CachedRoomEntity> cachedRooms = new ArrayList<>();
+        for (int i = 0; i < Math.min(rooms.size(), MAX_ROOMS_PER_ACCOUNT); i++) {
+            Room room = rooms.get(i);
+            CachedRoomEntity cachedRoom = new CachedRoomEntity();
+            cachedRoom.setAccountId(accountId);
+            cachedRoom.setToken(room.getToken());
+            cachedRoom.setPosition(i);
+            cachedRoom.setFormatVersion(FORMAT_VERSION);
+            cachedRoom.setRoomJson(LoganSquare.serialize(room));
+            cachedRoom.setCachedAt(now);
+            cachedRooms.add(cachedRoom);
+        }
+
+        dataStore.toBlocking().runInTransaction(() -> {
+            dataStore.toBlocking().delete(CachedRoom.class).where(CachedRoomEntity.ACCOUNT_ID.eq(accountId)).get()
+                    .value();
+            dataStore.toBlocking().insert(cachedRooms);
+            return null;
+        });
+    }
+}
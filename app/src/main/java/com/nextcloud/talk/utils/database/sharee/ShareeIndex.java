@@ -0,0 +1,198 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.utils.database.sharee;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * In-memory prefix index over the sharees of one account.
+ * <p>
+ * A sharee is found by a prefix of its user id, of its whole label, or of any word in the label, so
+ * "jo", "smi" and "john s" all find "John Smith".
+ */
+public class ShareeIndex {
+    // How far seeing an entry again has to move its time before the stored copy is worth updating
+    static final long SEEN_AT_RESOLUTION_MS = 60 * 60 * 1000;
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final TreeMap<String, Set<String>> userIdsByKey = new TreeMap<>();
+
+    /**
+     * @return the entries that were new, had a different label, or were seen again at least
+     * {@link #SEEN_AT_RESOLUTION_MS} after they were last returned from here, i.e. those to store
+     */
+    public synchronized List<Entry> merge(Collection<Entry> newEntries) {
+        List<Entry> changedEntries = new ArrayList<>();
+        for (Entry newEntry : newEntries) {
+            Entry entry = entries.get(newEntry.getUserId());
+            if (entry != null && entry.getLabel().equals(newEntry.getLabel())) {
+                entry.seenAt = Math.max(entry.seenAt, newEntry.seenAt);
+                if (entry.seenAt - entry.storedSeenAt >= SEEN_AT_RESOLUTION_MS) {
+                    entry.storedSeenAt = entry.seenAt;
+                    changedEntries.add(entry);
+                }
+                continue;
+            }
+
+            if (entry != null) {
+                removeKeys(entry);
+            }
+            entries.put(newEntry.getUserId(), newEntry);
+            addKeys(newEntry);
+            changedEntries.add(newEntry);
+        }
+        return changedEntries;
+    }
+
+    /**
+     * @return matching entries sorted by label, everything for an empty query
+     */
+    public synchronized List<Entry> search(@Nullable String query) {
+        String prefix = normalize(query);
+        Collection<Entry> matches;
+        if (prefix.isEmpty()) {
+            matches = entries.values();
+        } else {
+            Set<String> userIds = new HashSet<>();
+            NavigableMap<String, Set<String>> matchingKeys =
+                    userIdsByKey.subMap(prefix, true, prefix + Character.MAX_VALUE, true);
+            for (Set<String> keyUserIds : matchingKeys.values()) {
+                userIds.addAll(keyUserIds);
+            }
+
+            matches = new ArrayList<>(userIds.size());
+            for (String userId : userIds) {
+                matches.add(entries.get(userId));
+            }
+        }
+
+        List<Entry> result = new ArrayList<>(matches);
+        Collections.sort(result, (entry, t1) -> entry.getLabel().compareToIgnoreCase(t1.getLabel()));
+        return result;
+    }
+
+    /**
+     * Drops the entries that weren't seen for the longest time until at most {@code maxEntries} are left.
+     *
+     * @return the user ids of the dropped entries
+     */
+    public synchronized List<String> trim(int maxEntries) {
+        if (entries.size() <= maxEntries) {
+            return Collections.emptyList();
+        }
+
+        List<Entry> oldestFirst = new ArrayList<>(entries.values());
+        Collections.sort(oldestFirst, (entry, t1) -> Long.compare(entry.seenAt, t1.seenAt));
+
+        List<String> removedUserIds = new ArrayList<>();
+        for (int i = 0; i < oldestFirst.size() - maxEntries; i++) {
+            Entry entry = oldestFirst.get(i);
+            entries.remove(entry.getUserId());
+            removeKeys(entry);
+            removedUserIds.add(entry.getUserId());
+        }
+        return removedUserIds;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void addKeys(Entry entry) {
+        for (String key : getKeys(entry)) {
+            Set<String> userIds = userIdsByKey.get(key);
+            if (userIds == null) {
+                userIds = new HashSet<>();
+                userIdsByKey.put(key, userIds);
+            }
+            userIds.add(entry.getUserId());
+        }
+    }
+
+    private void removeKeys(Entry entry) {
+        for (String key : getKeys(entry)) {
+            Set<String> userIds = userIdsByKey.get(key);
+            if (userIds != null) {
+                userIds.remove(entry.getUserId());
+                if (userIds.isEmpty()) {
+                    userIdsByKey.remove(key);
+                }
+            }
+        }
+    }
+
+    private static Set<String> getKeys(Entry entry) {
+        Set<String> keys = new HashSet<>();
+        keys.add(normalize(entry.getUserId()));
+
+        String label = normalize(entry.getLabel());
+        keys.add(label);
+        for (String word : label.split("\\s+")) {
+            if (!word.isEmpty()) {
+                keys.add(word);
+            }
+        }
+        return keys;
+    }
+
+    private static String normalize(@Nullable String value) {
+        return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    public static class Entry {
+        private final String userId;
+        private final String label;
+        private long seenAt;
+        // The seenAt last handed out for storing
+        private long storedSeenAt;
+
+        public Entry(String userId, @Nullable String label, long seenAt) {
+            this.userId = userId;
+            this.label = label != null ? label : userId;
+            this.seenAt = seenAt;
+            this.storedSeenAt = seenAt;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public long getSeenAt() {
+            return seenAt;
+        }
+    }
+}
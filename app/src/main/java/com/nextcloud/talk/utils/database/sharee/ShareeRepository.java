@@ -0,0 +1,192 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.utils.database.sharee;
+
+import com.nextcloud.talk.api.NcApi;
+import com.nextcloud.talk.api.helpers.api.ApiHelper;
+import com.nextcloud.talk.api.models.json.participants.Participant;
+import com.nextcloud.talk.api.models.json.sharees.Sharee;
+import com.nextcloud.talk.api.models.json.sharees.ShareesOverall;
+import com.nextcloud.talk.api.models.json.sharees.SharesData;
+import com.nextcloud.talk.models.RetrofitBucket;
+import com.nextcloud.talk.persistence.entities.CachedSharee;
+import com.nextcloud.talk.persistence.entities.CachedShareeEntity;
+import com.nextcloud.talk.persistence.entities.UserEntity;
+import com.nextcloud.talk.utils.schedulers.SchedulerProvider;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Completable;
+import io.reactivex.Observable;
+import io.requery.Persistable;
+import io.requery.reactivex.ReactiveEntityStore;
+
+/**
+ * Contacts of every account, served from a local index and kept up to date by server searches.
+ * <p>
+ * {@link #search(UserEntity, String)} answers from the index right away and only asks the server after
+ * {@link #SEARCH_DEBOUNCE_MS}, so subscribing through {@code switchMap} for every keystroke debounces the
+ * server searches on its own. A search superseded while in flight is cancelled too, since the
+ * {@link com.nextcloud.talk.api.RequestCoalescer} only keeps a request going while someone waits for it.
+ * What the server returns is merged into the index and stored, at most {@link #MAX_SHAREES_PER_ACCOUNT} per
+ * account. Those the server returned least recently are dropped first; when a sharee was last returned is
+ * stored to within {@link ShareeIndex#SEEN_AT_RESOLUTION_MS}.
+ */
+public class ShareeRepository {
+    static final long SEARCH_DEBOUNCE_MS = 300;
+    static final int MAX_SHAREES_PER_ACCOUNT = 5000;
+
+    private final NcApi ncApi;
+    private final ReactiveEntityStore<Persistable> dataStore;
+    private final SchedulerProvider schedulerProvider;
+    private final Map<Long, ShareeIndex> shareeIndexes = new HashMap<>();
+
+    public ShareeRepository(NcApi ncApi, ReactiveEntityStore<Persistable> dataStore,
+                            SchedulerProvider schedulerProvider) {
+        this.ncApi = ncApi;
+        this.dataStore = dataStore;
+        this.schedulerProvider = schedulerProvider;
+    }
+
+    /**
+     * Emits the local matches first and, unless disposed before, the matches after the server was asked.
+     */
+    public Observable<List<Participant>> search(UserEntity userEntity, String query) {
+        Observable<List<Participant>> localMatches = Observable.fromCallable(() ->
+                toParticipants(getIndex(userEntity).search(query), userEntity))
+                .subscribeOn(schedulerProvider.database());
+
+        RetrofitBucket retrofitBucket = ApiHelper.getRetrofitBucketForContactsSearch(userEntity.getBaseUrl(),
+                query);
+        Observable<List<Participant>> serverMatches = Observable.timer(SEARCH_DEBOUNCE_MS, TimeUnit.MILLISECONDS)
+                .flatMap(tick -> ncApi.getContactsWithSearchParam(
+                        ApiHelper.getCredentials(userEntity.getUsername(), userEntity.getToken()),
+                        retrofitBucket.getUrl(), retrofitBucket.getQueryMap()))
+                .map(shareesOverall -> {
+                    ShareeIndex shareeIndex = getIndex(userEntity);
+                    merge(userEntity.getId(), shareeIndex, shareesOverall);
+                    return toParticipants(shareeIndex.search(query), userEntity);
+                });
+
+        return Observable.concat(localMatches, serverMatches);
+    }
+
+    public Completable deleteSharees(long accountId) {
+        return Completable.fromAction(() -> {
+            synchronized (shareeIndexes) {
+                shareeIndexes.remove(accountId);
+            }
+            dataStore.toBlocking().delete(CachedSharee.class).where(CachedShareeEntity.ACCOUNT_ID.eq(accountId))
+                    .get().value();
+        }).subscribeOn(schedulerProvider.database());
+    }
+
+    private ShareeIndex getIndex(UserEntity userEntity) {
+        synchronized (shareeIndexes) {
+            ShareeIndex shareeIndex = shareeIndexes.get(userEntity.getId());
+            if (shareeIndex == null) {
+                shareeIndex = new ShareeIndex();
+                shareeIndex.merge(readSharees(userEntity.getId()));
+                shareeIndexes.put(userEntity.getId(), shareeIndex);
+            }
+            return shareeIndex;
+        }
+    }
+
+    private List<ShareeIndex.Entry> readSharees(long accountId) {
+        List<ShareeIndex.Entry> entries = new ArrayList<>();
+        for (CachedSharee cachedSharee : dataStore.toBlocking().select(CachedSharee.class)
+                .where(CachedShareeEntity.ACCOUNT_ID.eq(accountId)).get().toList()) {
+            entries.add(new ShareeIndex.Entry(cachedSharee.getUserId(), cachedSharee.getLabel(),
+                    cachedSharee.getSeenAt()));
+        }
+        return entries;
+    }
+
+    private void merge(long accountId, ShareeIndex shareeIndex, ShareesOverall shareesOverall) {
+        long now = System.currentTimeMillis();
+        List<ShareeIndex.Entry> entries = new ArrayList<>();
+        SharesData sharesData = shareesOverall.getOcs().getData();
+        if (sharesData.getUsers() != null) {
+            addEntries(entries, sharesData.getUsers(), now);
+        }
+        if (sharesData.getExactUsers() != null && sharesData.getExactUsers().getExactSharees() != null) {
+            addEntries(entries, sharesData.getExactUsers().getExactSharees(), now);
+        }
+
+        List<ShareeIndex.Entry> changedEntries = shareeIndex.merge(entries);
+        List<String> removedUserIds = shareeIndex.trim(MAX_SHAREES_PER_ACCOUNT);
+        if (!changedEntries.isEmpty() || !removedUserIds.isEmpty()) {
+            store(accountId, changedEntries, removedUserIds).onErrorComplete().subscribe();
+        }
+    }
+
+    private Completable store(long accountId, List<ShareeIndex.Entry> changedEntries, List<String> removedUserIds) {
+        return Completable.fromAction(() -> {
+            List<String> replacedUserIds = new ArrayList<>(removedUserIds);
+            List<CachedShareeEntity> cachedSharees = new ArrayList<>();
+            for (ShareeIndex.Entry entry : changedEntries) {
+                replacedUserIds.add(entry.getUserId());
+
+                CachedShareeEntity cachedSharee = new CachedShareeEntity();
+                cachedSharee.setAccountId(accountId);
+                cachedSharee.setUserId(entry.getUserId());
+                cachedSharee.setLabel(entry.getLabel());
+                cachedSharee.setSeenAt(entry.getSeenAt());
+                cachedSharees.add(cachedSharee);
+            }
+
+            dataStore.toBlocking().runInTransaction(() -> {
+                dataStore.toBlocking().delete(CachedSharee.class)
+                        .where(CachedShareeEntity.ACCOUNT_ID.eq(accountId)
+                                .and(CachedShareeEntity.USER_ID.in(replacedUserIds)))
+                        .get().value();
+                dataStore.toBlocking().insert(cachedSharees);
+                return null;
+            });
+        }).subscribeOn(schedulerProvider.database());
+    }
+
+    private static void addEntries(List<ShareeIndex.Entry> entries, List<Sharee> sharees, long seenAt) {
+        for (Sharee sharee : sharees) {
+            if (sharee.getValue() != null && sharee.getValue().getShareWith() != null) {
+                entries.add(new ShareeIndex.Entry(sharee.getValue().getShareWith(), sharee.getLabel(), seenAt));
+            }
+        }
+    }
+
+    private static List<Participant> toParticipants(List<ShareeIndex.Entry> entries, UserEntity userEntity) {
+        List<Participant> participants = new ArrayList<>(entries.size());
+        for (ShareeIndex.Entry entry : entries) {
+            if (!entry.getUserId().equals(userEntity.getUsername())) {
+                Participant participant = new Participant();
+                participant.setName(entry.getLabel());
+                participant.setUserId(entry.getUserId());
+                participants.add(participant);
+            }
+        }
+        return participants;
+    }
+}
@@ -21,8 +21,12 @@ package com.nextcloud.talk.utils.database.user;
 
 import com.nextcloud.talk.application.NextcloudTalkApplication;
 import com.nextcloud.talk.dagger.modules.DatabaseModule;
+import com.nextcloud.talk.dagger.modules.SchedulerModule;
+import com.nextcloud.talk.utils.push.PushCryptoService;
+import com.nextcloud.talk.utils.schedulers.SchedulerProvider;
 
 import javax.inject.Inject;
+import javax.inject.Singleton;
 
 import autodagger.AutoInjector;
 import dagger.Module;
@@ -30,7 +34,7 @@ import dagger.Provides;
 import io.requery.Persistable;
 import io.requery.reactivex.ReactiveEntityStore;
 
-@Module(includes = DatabaseModule.class)
+@Module(includes = {DatabaseModule.class, SchedulerModule.class})
 @AutoInjector(NextcloudTalkApplication.class)
 public class UserModule {
 
@@ -39,7 +43,15 @@ public class UserModule {
     }
 
     @Provides
-    public UserUtils provideUserUtils(ReactiveEntityStore<Persistable> dataStore) {
-        return new UserUtils(dataStore);
+    @Singleton
+    public UserUtils provideUserUtils(ReactiveEntityStore<Persistable> dataStore,
+                                      SchedulerProvider schedulerProvider) {
+        return new UserUtils(dataStore, schedulerProvider);
+    }
+
+    @Provides
+    @Singleton
+    public PushCryptoService providePushCryptoService(UserUtils userUtils) {
+        return new PushCryptoService(userUtils);
     }
 }
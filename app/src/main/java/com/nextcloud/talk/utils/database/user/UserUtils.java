@@ -25,13 +25,15 @@ import android.text.TextUtils;
 
 import com.nextcloud.talk.persistence.entities.User;
 import com.nextcloud.talk.persistence.entities.UserEntity;
+import com.nextcloud.talk.utils.schedulers.SchedulerProvider;
 
 import java.util.List;
 
 import io.reactivex.Completable;
 import io.reactivex.Observable;
 import io.reactivex.android.schedulers.AndroidSchedulers;
-import io.reactivex.schedulers.Schedulers;
+import io.reactivex.subjects.PublishSubject;
+import io.reactivex.subjects.Subject;
 import io.requery.Persistable;
 import io.requery.query.Result;
 import io.requery.reactivex.ReactiveEntityStore;
@@ -39,10 +41,19 @@ import io.requery.reactivex.ReactiveEntityStore;
 public class UserUtils {
     private static final String TAG = "UserUtils";
     private ReactiveEntityStore<Persistable> dataStore;
+    private SchedulerProvider schedulerProvider;
+    private final Subject<Long> userChanges = PublishSubject.<Long>create().toSerialized();
 
-    UserUtils(ReactiveEntityStore<Persistable> dataStore) {
+    UserUtils(ReactiveEntityStore<Persistable> dataStore, SchedulerProvider schedulerProvider) {
         this.dataStore = dataStore;
+        this.schedulerProvider = schedulerProvider;
+    }
 
+    /**
+     * Emits the id of every user that was created, updated, scheduled for deletion or deleted through here.
+     */
+    public Observable<Long> getUserChanges() {
+        return userChanges;
     }
 
     public boolean anyUserExists() {
@@ -96,11 +107,32 @@ public class UserUtils {
         UserEntity user = (UserEntity) findUserQueryResult.firstOrNull();
 
         return dataStore.delete(user)
-                .subscribeOn(Schedulers.newThread())
+                .doOnComplete(() -> userChanges.onNext(user.getId()))
+                .subscribeOn(schedulerProvider.database())
                 .observeOn(AndroidSchedulers.mainThread());
 
     }
 
+    /**
+     * Unlike {@link #createOrUpdateUser}, this completes on the database scheduler, so it can be waited for
+     * from any thread.
+     */
+    public Completable savePushConfigurationState(long internalId, String pushConfigurationState) {
+        return Completable.defer(() -> {
+            UserEntity user = (UserEntity) dataStore.select(User.class).where(UserEntity.ID.eq(internalId))
+                    .get().firstOrNull();
+            if (user == null || pushConfigurationState.equals(user.getPushConfigurationState())) {
+                return Completable.complete();
+            }
+
+            user.setPushConfigurationState(pushConfigurationState);
+            return dataStore.update(user)
+                    .doOnSuccess(userEntity -> userChanges.onNext(userEntity.getId()))
+                    .toCompletable();
+        })
+                .subscribeOn(schedulerProvider.database());
+    }
+
     public void disableAllUsersWithoutId(long userId) {
         Result findUserQueryResult = dataStore.select(User.class).where(UserEntity.ID.notEqual(userId)).get();
 
@@ -142,6 +174,7 @@ public class UserUtils {
             userEntity.setScheduledForDeletion(true);
             userEntity.setCurrent(false);
             dataStore.update(userEntity).blockingGet();
+            userChanges.onNext(id);
         }
 
         return getAnyUserAndSetAsActive() != null;
@@ -209,8 +242,9 @@ public class UserUtils {
         }
 
         return dataStore.upsert(user)
+                .doOnSuccess(userEntity -> userChanges.onNext(userEntity.getId()))
                 .toObservable()
-                .subscribeOn(Schedulers.newThread())
+                .subscribeOn(schedulerProvider.database())
                 .observeOn(AndroidSchedulers.mainThread());
     }
 
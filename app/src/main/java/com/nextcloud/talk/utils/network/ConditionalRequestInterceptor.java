@@ -0,0 +1,324 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.utils.network;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Headers;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+
+/**
+ * Sends conditional requests for OCS GETs.
+ * <p>
+ * Validators and bodies are kept in memory per account and URL. When the server answers with a 304, the
+ * stored body is handed back as a regular 200, so callers can't tell the difference. The room list can
+ * optionally be served stale while it's revalidated in the background, until {@link #invalidateRooms(String)}
+ * says the rooms of the account changed. That is off unless enabled, since the revalidated list only
+ * reaches whoever asks next.
+ */
+public class ConditionalRequestInterceptor implements Interceptor {
+    private static final String TAG = "ConditionalRequest";
+
+    private static final String OCS_PATH = "/ocs/v2.php/";
+    private static final String SIGNALING_PATH_SUFFIX = "/apps/spreed/api/v1/signaling";
+    private static final String ROOM_LIST_PATH_SUFFIX = "/apps/spreed/api/v1/room";
+
+    // Marks our own background revalidations, never sent to the server
+    private static final String HEADER_REVALIDATION = "X-Nc-Revalidation";
+
+    private static final int MAX_ENTRIES = 64;
+    private static final long MAX_BODY_BYTES = 512 * 1024;
+
+    private final Map<String, CachedResponse> cachedResponses =
+            new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+    private final Set<String> pendingRevalidations = new HashSet<>();
+
+    private volatile Call.Factory revalidationCallFactory;
+    private volatile long roomListMaxStaleMs;
+
+    // Bumped on every room change, so responses that were on their way meanwhile aren't stored
+    private final AtomicLong roomInvalidationCount = new AtomicLong();
+    private final AtomicLong notModifiedCount = new AtomicLong();
+    private final AtomicLong staleServedCount = new AtomicLong();
+
+    /**
+     * Serve the room list from memory while it's revalidated through the given client, as long as the stored
+     * copy is younger than {@code maxStaleMs}. The client must have this interceptor installed. Requests with
+     * {@code Cache-Control: no-cache}, such as a pull to refresh, always wait for the server.
+     */
+    public void enableRoomListStaleWhileRevalidate(Call.Factory callFactory, long maxStaleMs) {
+        revalidationCallFactory = callFactory;
+        roomListMaxStaleMs = maxStaleMs;
+    }
+
+    public void disableRoomListStaleWhileRevalidate() {
+        revalidationCallFactory = null;
+        roomListMaxStaleMs = 0;
+    }
+
+    @Override
+    public Response intercept(@NonNull Chain chain) throws IOException {
+        Request request = chain.request();
+        boolean isRevalidation = request.header(HEADER_REVALIDATION) != null;
+        if (isRevalidation) {
+            request = request.newBuilder().removeHeader(HEADER_REVALIDATION).build();
+        }
+
+        if (!isCacheable(request)) {
+            return chain.proceed(request);
+        }
+
+        String key = getKey(request);
+        long roomInvalidations = roomInvalidationCount.get();
+        CachedResponse cachedResponse;
+        synchronized (cachedResponses) {
+            cachedResponse = cachedResponses.get(key);
+        }
+
+        if (cachedResponse == null) {
+            return store(key, chain.proceed(request), roomInvalidations);
+        }
+
+        if (!isRevalidation && canServeStale(request, cachedResponse)) {
+            revalidateInBackground(key, request);
+            staleServedCount.incrementAndGet();
+            return cachedResponse.toResponse(request);
+        }
+
+        Request.Builder conditionalRequestBuilder = request.newBuilder();
+        if (cachedResponse.etag != null) {
+            conditionalRequestBuilder.header("If-None-Match", cachedResponse.etag);
+        }
+        if (cachedResponse.lastModified != null) {
+            conditionalRequestBuilder.header("If-Modified-Since", cachedResponse.lastModified);
+        }
+
+        Response response = chain.proceed(conditionalRequestBuilder.build());
+        if (response.code() == 304) {
+            response.close();
+            notModifiedCount.incrementAndGet();
+
+            CachedResponse refreshedResponse = cachedResponse.refreshedBy(response.headers());
+            put(key, refreshedResponse, roomInvalidations);
+            return refreshedResponse.toResponse(request);
+        }
+
+        return store(key, response, roomInvalidations);
+    }
+
+    public long getNotModifiedCount() {
+        return notModifiedCount.get();
+    }
+
+    public long getStaleServedCount() {
+        return staleServedCount.get();
+    }
+
+    /**
+     * Drops what is kept about the rooms of an account, to be called whenever they were changed.
+     */
+    public void invalidateRooms(@Nullable String authorization) {
+        String prefix = (authorization != null ? authorization : "") + " ";
+        synchronized (cachedResponses) {
+            roomInvalidationCount.incrementAndGet();
+            Iterator<String> iterator = cachedResponses.keySet().iterator();
+            while (iterator.hasNext()) {
+                String key = iterator.next();
+                if (key.startsWith(prefix) && isRoomKey(key)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (cachedResponses) {
+            cachedResponses.clear();
+        }
+    }
+
+    private boolean isCacheable(Request request) {
+        if (!"GET".equals(request.method()) || request.header("If-None-Match") != null
+                || request.header("If-Modified-Since") != null) {
+            return false;
+        }
+
+        // Signaling pulls are long polls, there's nothing to validate
+        String path = request.url().encodedPath();
+        return path.contains(OCS_PATH) && !path.endsWith(SIGNALING_PATH_SUFFIX);
+    }
+
+    private boolean canServeStale(Request request, CachedResponse cachedResponse) {
+        return revalidationCallFactory != null
+                && !request.cacheControl().noCache()
+                && request.url().encodedPath().endsWith(ROOM_LIST_PATH_SUFFIX)
+                && System.currentTimeMillis() - cachedResponse.storedAt < roomListMaxStaleMs;
+    }
+
+    private void revalidateInBackground(String key, Request request) {
+        Call.Factory callFactory = revalidationCallFactory;
+        synchronized (pendingRevalidations) {
+            if (callFactory == null || !pendingRevalidations.add(key)) {
+                return;
+            }
+        }
+
+        callFactory.newCall(request.newBuilder().header(HEADER_REVALIDATION, "1").build())
+                .enqueue(new Callback() {
+                    @Override
+                    public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                        Log.d(TAG, "Failed to revalidate " + call.request().url().encodedPath());
+                        finishRevalidation(key);
+                    }
+
+                    @Override
+                    public void onResponse(@NonNull Call call, @NonNull Response response) {
+                        response.close();
+                        finishRevalidation(key);
+                    }
+                });
+    }
+
+    private void finishRevalidation(String key) {
+        synchronized (pendingRevalidations) {
+            pendingRevalidations.remove(key);
+        }
+    }
+
+    private Response store(String key, Response response, long roomInvalidations) throws IOException {
+        String etag = response.header("ETag");
+        String lastModified = response.header("Last-Modified");
+        ResponseBody responseBody = response.body();
+
+        if (response.code() != 200 || (etag == null && lastModified == null) || responseBody == null
+                || responseBody.contentLength() > MAX_BODY_BYTES) {
+            remove(key);
+            return response;
+        }
+
+        // The length isn't always known up front, so never buffer more than would be kept
+        BufferedSource source = responseBody.source();
+        if (source.request(MAX_BODY_BYTES + 1)) {
+            remove(key);
+            return response;
+        }
+
+        MediaType contentType = responseBody.contentType();
+        byte[] body = source.buffer().readByteArray();
+        responseBody.close();
+        put(key, new CachedResponse(response.headers(), contentType, body, etag, lastModified,
+                System.currentTimeMillis()), roomInvalidations);
+
+        return response.newBuilder()
+                .body(ResponseBody.create(contentType, body))
+                .build();
+    }
+
+    private void put(String key, CachedResponse cachedResponse, long roomInvalidations) {
+        synchronized (cachedResponses) {
+            if (isRoomKey(key) && roomInvalidationCount.get() != roomInvalidations) {
+                // The rooms changed while this was on its way, it may well be outdated
+                cachedResponses.remove(key);
+            } else {
+                cachedResponses.put(key, cachedResponse);
+            }
+        }
+    }
+
+    private void remove(String key) {
+        synchronized (cachedResponses) {
+            cachedResponses.remove(key);
+        }
+    }
+
+    private static boolean isRoomKey(String key) {
+        // The room list, single rooms and their participants
+        return key.contains(ROOM_LIST_PATH_SUFFIX);
+    }
+
+    private static String getKey(Request request) {
+        String authorization = request.header("Authorization");
+        return (authorization != null ? authorization : "") + " " + request.url();
+    }
+
+    private static class CachedResponse {
+        final Headers headers;
+        @Nullable
+        final MediaType contentType;
+        final byte[] body;
+        @Nullable
+        final String etag;
+        @Nullable
+        final String lastModified;
+        final long storedAt;
+
+        CachedResponse(Headers headers, @Nullable MediaType contentType, byte[] body, @Nullable String etag,
+                       @Nullable String lastModified, long storedAt) {
+            this.headers = headers;
+            this.contentType = contentType;
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.storedAt = storedAt;
+        }
+
+        CachedResponse refreshedBy(Headers notModifiedHeaders) {
+            String newEtag = notModifiedHeaders.get("ETag");
+            String newLastModified = notModifiedHeaders.get("Last-Modified");
+            return new CachedResponse(headers, contentType, body, newEtag != null ? newEtag : etag,
+                    newLastModified != null ? newLastModified : lastModified, System.currentTimeMillis());
+        }
+
+        Response toResponse(Request request) {
+            return new Response.Builder()
+                    .request(request)
+                    .protocol(Protocol.HTTP_1_1)
+                    .code(200)
+                    .message("OK")
+                    .headers(headers)
+                    .body(ResponseBody.create(contentType, body))
+                    .build();
+        }
+    }
+}
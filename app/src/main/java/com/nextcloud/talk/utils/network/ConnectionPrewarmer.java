@@ -0,0 +1,170 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.utils.network;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Opens a connection to a server before the first real request needs it.
+ * <p>
+ * A small request is sent through a client derived from the shared one, so the connection ends up in
+ * the shared pool and is picked up by whatever request comes next. The time spent on DNS, connecting,
+ * TLS and proxy negotiation is recorded as the latency saved for that next request.
+ */
+public class ConnectionPrewarmer {
+    private static final String TAG = "ConnectionPrewarmer";
+
+    // Idle connections stay in the pool for five minutes, don't bother sooner
+    private static final long MIN_PREWARM_INTERVAL_MS = 60 * 1000;
+
+    private final OkHttpClient okHttpClient;
+    private final Map<String, Long> lastPrewarmedAt = new HashMap<>();
+
+    private final AtomicLong prewarmCount = new AtomicLong();
+    private final AtomicLong connectionsOpened = new AtomicLong();
+    private final AtomicLong totalSavedMs = new AtomicLong();
+
+    public ConnectionPrewarmer(OkHttpClient okHttpClient) {
+        this.okHttpClient = okHttpClient;
+    }
+
+    public void prewarm(@Nullable String baseUrl) {
+        if (TextUtils.isEmpty(baseUrl)) {
+            return;
+        }
+
+        HttpUrl statusUrl = HttpUrl.parse(baseUrl + "/status.php");
+        if (statusUrl == null) {
+            return;
+        }
+
+        String key = statusUrl.scheme() + "://" + statusUrl.host() + ":" + statusUrl.port();
+        long now = SystemClock.elapsedRealtime();
+        synchronized (lastPrewarmedAt) {
+            Long last = lastPrewarmedAt.get(key);
+            if (last != null && now - last < MIN_PREWARM_INTERVAL_MS) {
+                return;
+            }
+            lastPrewarmedAt.put(key, now);
+        }
+
+        prewarmCount.incrementAndGet();
+        ConnectionSetupListener connectionSetupListener = new ConnectionSetupListener();
+        Request request = new Request.Builder().url(statusUrl).head().build();
+
+        okHttpClient.newBuilder()
+                .eventListener(connectionSetupListener)
+                .build()
+                .newCall(request)
+                .enqueue(new Callback() {
+                    @Override
+                    public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                        Log.d(TAG, "Failed to prewarm the connection to " + key);
+                        synchronized (lastPrewarmedAt) {
+                            lastPrewarmedAt.remove(key);
+                        }
+                    }
+
+                    @Override
+                    public void onResponse(@NonNull Call call, @NonNull Response response) {
+                        response.close();
+
+                        long setupMs = connectionSetupListener.getSetupMs();
+                        if (setupMs > 0) {
+                            connectionsOpened.incrementAndGet();
+                            totalSavedMs.addAndGet(setupMs);
+                            Log.d(TAG, "Prewarmed " + key + ", saved " + setupMs + "ms");
+                        }
+                    }
+                });
+    }
+
+    public long getPrewarmCount() {
+        return prewarmCount.get();
+    }
+
+    /**
+     * @return how many prewarms actually had to open a new connection
+     */
+    public long getConnectionsOpened() {
+        return connectionsOpened.get();
+    }
+
+    /**
+     * @return the connection setup time taken off the first requests, in ms
+     */
+    public long getTotalSavedMs() {
+        return totalSavedMs.get();
+    }
+
+    private static class ConnectionSetupListener extends EventListener {
+        private volatile long setupStartedAt = -1;
+        private volatile long setupMs;
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            markSetupStart();
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            markSetupStart();
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            // Only a connection we had to set up ourselves saved anything
+            if (setupStartedAt != -1) {
+                setupMs = SystemClock.elapsedRealtime() - setupStartedAt;
+            }
+        }
+
+        private void markSetupStart() {
+            if (setupStartedAt == -1) {
+                setupStartedAt = SystemClock.elapsedRealtime();
+            }
+        }
+
+        long getSetupMs() {
+            return setupMs;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.utils.network;
+
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+
+import com.bluelinelabs.logansquare.LoganSquare;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.nextcloud.talk.api.helpers.api.ApiHelper;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Response;
+
+/**
+ * Records where the time of every request goes, per route.
+ * <p>
+ * Routes come from {@link ApiHelper#getRouteForPath(String)}. For each one there's a histogram per phase:
+ * DNS, TCP connect, TLS, time to first byte, body and the whole call. Phases that didn't happen because a
+ * pooled connection was reused aren't recorded.
+ */
+public class HttpLatencyRecorder implements EventListener.Factory {
+    public static final String PHASE_DNS = "dns";
+    public static final String PHASE_CONNECT = "connect";
+    public static final String PHASE_TLS = "tls";
+    public static final String PHASE_TTFB = "ttfb";
+    public static final String PHASE_BODY = "body";
+    public static final String PHASE_TOTAL = "total";
+
+    private final Map<String, RouteStats> routeStats = new ConcurrentHashMap<>();
+
+    @Override
+    public EventListener create(Call call) {
+        return new CallLatencyListener(getRouteStats(call.request().method() + " "
+                + ApiHelper.getRouteForPath(call.request().url().encodedPath())));
+    }
+
+    /**
+     * @return the stats of every route seen so far, sorted by route
+     */
+    public List<RouteStats> getSnapshot() {
+        List<RouteStats> snapshot = new ArrayList<>(new TreeMap<>(routeStats).values());
+        return Collections.unmodifiableList(snapshot);
+    }
+
+    public String toJson() throws IOException {
+        StringWriter stringWriter = new StringWriter();
+        JsonGenerator jsonGenerator = LoganSquare.JSON_FACTORY.createGenerator(stringWriter);
+        jsonGenerator.writeStartObject();
+        jsonGenerator.writeArrayFieldStart("routes");
+        for (RouteStats stats : getSnapshot()) {
+            jsonGenerator.writeStartObject();
+            jsonGenerator.writeStringField("route", stats.getRoute());
+            jsonGenerator.writeNumberField("failures", stats.getFailures());
+            jsonGenerator.writeObjectFieldStart("phases");
+            for (Map.Entry<String, LatencyHistogram> phase : stats.getPhases().entrySet()) {
+                LatencyHistogram histogram = phase.getValue();
+                jsonGenerator.writeObjectFieldStart(phase.getKey());
+                jsonGenerator.writeNumberField("count", histogram.getCount());
+                jsonGenerator.writeNumberField("mean", histogram.getMean());
+                jsonGenerator.writeNumberField("p50", histogram.getPercentile(50));
+                jsonGenerator.writeNumberField("p90", histogram.getPercentile(90));
+                jsonGenerator.writeNumberField("p99", histogram.getPercentile(99));
+                jsonGenerator.writeNumberField("max", histogram.getMax());
+                jsonGenerator.writeEndObject();
+            }
+            jsonGenerator.writeEndObject();
+            jsonGenerator.writeEndObject();
+        }
+        jsonGenerator.writeEndArray();
+        jsonGenerator.writeEndObject();
+        jsonGenerator.close();
+
+        return stringWriter.toString();
+    }
+
+    public void reset() {
+        routeStats.clear();
+    }
+
+    private RouteStats getRouteStats(String route) {
+        RouteStats stats = routeStats.get(route);
+        if (stats == null) {
+            RouteStats newStats = new RouteStats(route);
+            stats = routeStats.putIfAbsent(route, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        return stats;
+    }
+
+    public static class RouteStats {
+        private final String route;
+        private final Map<String, LatencyHistogram> phases = new TreeMap<>();
+        private final AtomicLong failures = new AtomicLong();
+
+        RouteStats(String route) {
+            this.route = route;
+            for (String phase : new String[]{PHASE_DNS, PHASE_CONNECT, PHASE_TLS, PHASE_TTFB, PHASE_BODY,
+                    PHASE_TOTAL}) {
+                phases.put(phase, new LatencyHistogram());
+            }
+        }
+
+        public String getRoute() {
+            return route;
+        }
+
+        public long getFailures() {
+            return failures.get();
+        }
+
+        /**
+         * @return phase name to histogram, the map itself never changes
+         */
+        public Map<String, LatencyHistogram> getPhases() {
+            return Collections.unmodifiableMap(phases);
+        }
+
+        public LatencyHistogram getPhase(String phase) {
+            return phases.get(phase);
+        }
+    }
+
+    private static class CallLatencyListener extends EventListener {
+        private final RouteStats routeStats;
+
+        private long callStartedAt;
+        private long dnsStartedAt;
+        private long connectStartedAt;
+        private long tlsStartedAt;
+        private long requestStartedAt;
+        private long responseBodyStartedAt;
+
+        CallLatencyListener(RouteStats routeStats) {
+            this.routeStats = routeStats;
+        }
+
+        @Override
+        public void callStart(Call call) {
+            callStartedAt = SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            dnsStartedAt = SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public void dnsEnd(Call call, String domainName, @Nullable List<InetAddress> inetAddressList) {
+            record(PHASE_DNS, dnsStartedAt);
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            connectStartedAt = SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            tlsStartedAt = SystemClock.elapsedRealtime();
+            // TCP is done once TLS starts, the TLS handshake is counted separately
+            record(PHASE_CONNECT, connectStartedAt);
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, @Nullable Handshake handshake) {
+            record(PHASE_TLS, tlsStartedAt);
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress inetSocketAddress, @Nullable Proxy proxy,
+                               @Nullable Protocol protocol) {
+            if (tlsStartedAt == 0) {
+                record(PHASE_CONNECT, connectStartedAt);
+            }
+        }
+
+        @Override
+        public void requestHeadersStart(Call call) {
+            if (requestStartedAt == 0) {
+                requestStartedAt = SystemClock.elapsedRealtime();
+            }
+        }
+
+        @Override
+        public void responseHeadersStart(Call call) {
+            record(PHASE_TTFB, requestStartedAt);
+        }
+
+        @Override
+        public void responseHeadersEnd(Call call, Response response) {
+            // Redirects and auth challenges start another exchange on the same call
+            requestStartedAt = 0;
+        }
+
+        @Override
+        public void responseBodyStart(Call call) {
+            responseBodyStartedAt = SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public void responseBodyEnd(Call call, long byteCount) {
+            record(PHASE_BODY, responseBodyStartedAt);
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            record(PHASE_TOTAL, callStartedAt);
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            routeStats.failures.incrementAndGet();
+        }
+
+        private void record(String phase, long startedAt) {
+            if (startedAt != 0) {
+                routeStats.getPhase(phase).record(SystemClock.elapsedRealtime() - startedAt);
+            }
+        }
+    }
+}
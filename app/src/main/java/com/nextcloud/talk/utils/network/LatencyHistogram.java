@@ -0,0 +1,129 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.utils.network;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear histogram of millisecond values.
+ * <p>
+ * Every power of two is split into {@link #SUB_BUCKETS} linear buckets, which keeps the relative error under
+ * 12.5% from 8ms up to about two minutes; anything slower lands in the last bucket.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 16;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    static int getBucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) Math.max(value, 0);
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+
+        int subBucket = (int) (value >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long getBucketLowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    public void record(long valueMs) {
+        buckets.incrementAndGet(getBucketIndex(valueMs));
+        count.incrementAndGet();
+        sum.addAndGet(valueMs);
+
+        long currentMax;
+        do {
+            currentMax = max.get();
+        } while (valueMs > currentMax && !max.compareAndSet(currentMax, valueMs));
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getMean() {
+        long currentCount = count.get();
+        return currentCount == 0 ? 0 : sum.get() / currentCount;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the value at the percentile, interpolated linearly within its bucket and never above the
+     * largest value recorded, or 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+
+        if (total == 0) {
+            return 0;
+        }
+
+        long currentMax = max.get();
+        long rank = Math.min(total, Math.max(1, (long) Math.ceil(percentile / 100 * total)));
+        long seen = 0;
+        int index = 0;
+        while (seen + counts[index] < rank) {
+            seen += counts[index];
+            index++;
+        }
+
+        long lowerBound = getBucketLowerBound(index);
+        if (index == BUCKET_COUNT - 1) {
+            // Nothing bounds the last bucket but the largest value recorded, which is its last rank
+            return lowerBound + (long) ((Math.max(currentMax, lowerBound) - lowerBound) * (rank - seen)
+                    / (double) counts[index]);
+        }
+
+        // Values are assumed to be spread evenly over the bucket, each in the middle of its share
+        long upperBound = getBucketLowerBound(index + 1);
+        long value = lowerBound + (long) ((upperBound - lowerBound) * (rank - seen - 0.5) / counts[index]);
+        return Math.min(value, currentMax);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.utils.network;
+
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.nextcloud.talk.utils.preferences.AppPreferences;
+
+import net.orange_box.storebox.listeners.OnPreferenceValueChangedListener;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+
+import io.reactivex.Scheduler;
+import okhttp3.ConnectionPool;
+
+/**
+ * Picks the proxy configured in the settings.
+ * <p>
+ * The proxy is only built when the first connection needs it and is cached until one of the proxy
+ * preferences changes. The address is left unresolved, OkHttp resolves it on the calling thread
+ * like any other host.
+ */
+public class PreferenceProxySelector extends ProxySelector {
+    private static final String TAG = "PreferenceProxySelector";
+
+    private final AppPreferences appPreferences;
+    private final Scheduler evictionScheduler;
+    // Kept here so the preferences don't lose them, they're only weakly referenced there
+    private final OnPreferenceValueChangedListener<String> proxyTypeListener = newValue -> invalidate();
+    private final OnPreferenceValueChangedListener<String> proxyHostListener = newValue -> invalidate();
+    private final OnPreferenceValueChangedListener<String> proxyPortListener = newValue -> invalidate();
+
+    private volatile Proxy proxy;
+    @Nullable
+    private volatile ConnectionPool connectionPool;
+
+    public PreferenceProxySelector(AppPreferences appPreferences, Scheduler evictionScheduler) {
+        this.appPreferences = appPreferences;
+        this.evictionScheduler = evictionScheduler;
+
+        appPreferences.registerProxyTypeListener(proxyTypeListener);
+        appPreferences.registerProxyHostListener(proxyHostListener);
+        appPreferences.registerProxyPortListener(proxyPortListener);
+    }
+
+    /**
+     * Connections made through the old proxy are evicted from this pool when the proxy changes.
+     */
+    public void setConnectionPool(@Nullable ConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    @Override
+    public List<Proxy> select(URI uri) {
+        Proxy currentProxy = proxy;
+        if (currentProxy == null) {
+            synchronized (this) {
+                if (proxy == null) {
+                    proxy = readProxy();
+                }
+                currentProxy = proxy;
+            }
+        }
+
+        return Collections.singletonList(currentProxy);
+    }
+
+    @Override
+    public void connectFailed(URI uri, SocketAddress socketAddress, IOException e) {
+        Log.d(TAG, "Failed to connect to " + uri.getHost() + " through " + socketAddress);
+    }
+
+    public void invalidate() {
+        synchronized (this) {
+            proxy = null;
+        }
+
+        ConnectionPool currentConnectionPool = connectionPool;
+        if (currentConnectionPool != null) {
+            // Closing sockets may hit the network, preferences change on the main thread
+            evictionScheduler.scheduleDirect(currentConnectionPool::evictAll);
+        }
+    }
+
+    private Proxy readProxy() {
+        String proxyType = appPreferences.getProxyType();
+        if (TextUtils.isEmpty(proxyType) || "No proxy".equals(proxyType)
+                || TextUtils.isEmpty(appPreferences.getProxyHost())) {
+            return Proxy.NO_PROXY;
+        }
+
+        try {
+            Proxy.Type type = Proxy.Type.valueOf(proxyType);
+            if (Proxy.Type.DIRECT.equals(type)) {
+                return Proxy.NO_PROXY;
+            }
+
+            return new Proxy(type, InetSocketAddress.createUnresolved(appPreferences.getProxyHost(),
+                    Integer.parseInt(appPreferences.getProxyPort())));
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Ignoring invalid proxy settings: " + e.getLocalizedMessage());
+            return Proxy.NO_PROXY;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.utils.notifications;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.RingtoneManager;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.util.SparseArray;
+
+import com.nextcloud.talk.R;
+import com.nextcloud.talk.activities.CallActivity;
+import com.nextcloud.talk.persistence.entities.UserEntity;
+import com.nextcloud.talk.utils.NotificationUtils;
+import com.nextcloud.talk.utils.bundle.BundleBuilder;
+
+import org.parceler.Parcels;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Posts the aggregated notifications to the {@link NotificationManager}.
+ * <p>
+ * Decoded icons and the channels and channel groups that were created are remembered for the lifetime of the
+ * process, so an update only builds and posts the notification.
+ */
+public class AndroidNotificationSink implements NotificationSink {
+    private final Context context;
+    private final NotificationManager notificationManager;
+
+    private final SparseArray<Bitmap> largeIcons = new SparseArray<>();
+    private final Set<String> createdChannels = new HashSet<>();
+    private final Set<String> createdChannelGroups = new HashSet<>();
+
+    public AndroidNotificationSink(Context context) {
+        this.context = context;
+        this.notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+    }
+
+    @Override
+    public synchronized void notifyRoom(NotificationAggregator.RoomNotification roomNotification) {
+        if (notificationManager == null) {
+            return;
+        }
+
+        int smallIcon;
+        String category;
+        int priority = Notification.PRIORITY_DEFAULT;
+        Uri soundUri = RingtoneManager.getDefaultUri(RingtoneManager.TYPE_NOTIFICATION);
+
+        switch (roomNotification.getType() != null ? roomNotification.getType() : "") {
+            case "call":
+                smallIcon = R.drawable.ic_call_black_24dp;
+                category = Notification.CATEGORY_CALL;
+                priority = Notification.PRIORITY_HIGH;
+                soundUri = RingtoneManager.getDefaultUri(RingtoneManager.TYPE_RINGTONE);
+                break;
+            case "room":
+                smallIcon = R.drawable.ic_notifications_black_24dp;
+                category = Notification.CATEGORY_CALL;
+                priority = Notification.PRIORITY_HIGH;
+                break;
+            case "chat":
+                smallIcon = R.drawable.ic_chat_black_24dp;
+                category = Notification.CATEGORY_MESSAGE;
+                break;
+            default:
+                smallIcon = R.drawable.ic_logo;
+                category = "";
+        }
+
+        List<String> lines = roomNotification.getLines();
+        String latestLine = lines.get(lines.size() - 1);
+
+        Notification.Builder notificationBuilder = createBuilder(roomNotification.getUserEntity(),
+                roomNotification.getGroupKey(), category.equals(Notification.CATEGORY_CALL), soundUri)
+                .setLargeIcon(getLargeIcon(smallIcon))
+                .setSmallIcon(smallIcon)
+                .setCategory(category)
+                .setPriority(priority)
+                .setContentTitle(latestLine)
+                .setNumber(roomNotification.getMessageCount())
+                .setOnlyAlertOnce(!roomNotification.isAlert())
+                .setSound(soundUri)
+                .setAutoCancel(true);
+
+        if (lines.size() > 1) {
+            Notification.InboxStyle inboxStyle = new Notification.InboxStyle();
+            for (String line : lines) {
+                inboxStyle.addLine(line);
+            }
+            notificationBuilder.setStyle(inboxStyle);
+        }
+
+        Intent intent = new Intent(context, CallActivity.class);
+        BundleBuilder bundleBuilder = new BundleBuilder(new Bundle());
+        bundleBuilder.putString("roomToken", roomNotification.getRoomToken());
+        bundleBuilder.putParcelable("userEntity", Parcels.wrap(roomNotification.getUserEntity()));
+        bundleBuilder.putBoolean("fromNotification", true);
+        intent.putExtras(bundleBuilder.build());
+
+        // One request code per room, otherwise the rooms would share the latest extras
+        notificationBuilder.setContentIntent(PendingIntent.getActivity(context,
+                roomNotification.getNotificationId(), intent, PendingIntent.FLAG_UPDATE_CURRENT));
+        notificationBuilder.setDeleteIntent(getDismissIntent(roomNotification.getNotificationId(),
+                roomNotification.getUserEntity(), roomNotification.getRoomToken()));
+
+        notificationManager.notify(roomNotification.getNotificationId(), notificationBuilder.build());
+    }
+
+    @Override
+    public synchronized void notifyAccountSummary(NotificationAggregator.AccountSummary accountSummary) {
+        if (notificationManager == null) {
+            return;
+        }
+
+        Notification.InboxStyle inboxStyle = new Notification.InboxStyle();
+        for (String line : accountSummary.getLines()) {
+            inboxStyle.addLine(line);
+        }
+
+        Notification.Builder notificationBuilder = createBuilder(accountSummary.getUserEntity(),
+                accountSummary.getGroupKey(), false, null)
+                .setSmallIcon(R.drawable.ic_logo)
+                .setContentTitle(accountSummary.getLines().get(0))
+                .setNumber(accountSummary.getMessageCount())
+                .setStyle(inboxStyle)
+                .setGroupSummary(true)
+                .setOnlyAlertOnce(true)
+                .setAutoCancel(true)
+                .setDeleteIntent(getDismissIntent(accountSummary.getNotificationId(),
+                        accountSummary.getUserEntity(), null));
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            // The room notifications alert, the summary is only there to hold them
+            notificationBuilder.setGroupAlertBehavior(Notification.GROUP_ALERT_CHILDREN);
+        }
+
+        notificationManager.notify(accountSummary.getNotificationId(), notificationBuilder.build());
+    }
+
+    @Override
+    public synchronized void cancel(int notificationId) {
+        if (notificationManager != null) {
+            notificationManager.cancel(notificationId);
+        }
+    }
+
+    private Notification.Builder createBuilder(UserEntity userEntity, String groupKey, boolean call,
+                                               Uri soundUri) {
+        Notification.Builder notificationBuilder = new Notification.Builder(context)
+                .setWhen(System.currentTimeMillis())
+                .setShowWhen(true)
+                .setSubText(userEntity.getDisplayName())
+                .setGroup(groupKey);
+
+        if (Build.VERSION.SDK_INT >= 23) {
+            // This method should exist since API 21, but some phones don't have it
+            // So as a safeguard, we don't use it until 23
+            notificationBuilder.setColor(context.getResources().getColor(R.color.colorPrimary));
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            if (createdChannelGroups.add(groupKey)) {
+                NotificationUtils.createNotificationChannelGroup(notificationManager, groupKey,
+                        String.format(context.getResources().getString(R.string.nc_notification_channel),
+                                userEntity.getDisplayName(), userEntity.getBaseUrl()));
+            }
+
+            String channelId = call ? NotificationUtils.NOTIFICATION_CHANNEL_CALLS :
+                    NotificationUtils.NOTIFICATION_CHANNEL_MESSAGES;
+            if (createdChannels.add(channelId)) {
+                if (call) {
+                    NotificationUtils.createNotificationChannel(notificationManager,
+                            NotificationUtils.NOTIFICATION_CHANNEL_CALLS, context.getResources().getString(R
+                                    .string.nc_notification_channel_calls), context.getResources().getString
+                                    (R.string.nc_notification_channel_calls_description), true,
+                            NotificationManager.IMPORTANCE_HIGH,
+                            RingtoneManager.getDefaultUri(RingtoneManager.TYPE_RINGTONE));
+                } else {
+                    NotificationUtils.createNotificationChannel(notificationManager,
+                            NotificationUtils.NOTIFICATION_CHANNEL_MESSAGES, context.getResources().getString(R
+                                    .string.nc_notification_channel_messages), context.getResources().getString
+                                    (R.string.nc_notification_channel_messages_description), true,
+                            NotificationManager.IMPORTANCE_DEFAULT,
+                            soundUri != null ? soundUri :
+                                    RingtoneManager.getDefaultUri(RingtoneManager.TYPE_NOTIFICATION));
+                }
+            }
+            notificationBuilder.setChannelId(channelId);
+        }
+
+        return notificationBuilder;
+    }
+
+    private PendingIntent getDismissIntent(int notificationId, UserEntity userEntity, String roomToken) {
+        Intent intent = new Intent(context, NotificationDismissReceiver.class);
+        intent.putExtra(NotificationDismissReceiver.KEY_USER_ENTITY, Parcels.wrap(userEntity));
+        if (roomToken != null) {
+            intent.putExtra(NotificationDismissReceiver.KEY_ROOM_TOKEN, roomToken);
+        }
+
+        return PendingIntent.getBroadcast(context, notificationId, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    private Bitmap getLargeIcon(int drawableId) {
+        Bitmap largeIcon = largeIcons.get(drawableId);
+        if (largeIcon == null) {
+            largeIcon = BitmapFactory.decodeResource(context.getResources(), drawableId);
+            largeIcons.put(drawableId, largeIcon);
+        }
+        return largeIcon;
+    }
+}
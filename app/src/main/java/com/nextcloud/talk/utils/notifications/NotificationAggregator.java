@@ -0,0 +1,360 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.utils.notifications;
+
+import com.nextcloud.talk.api.models.json.push.DecryptedPushMessage;
+import com.nextcloud.talk.persistence.entities.UserEntity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+
+/**
+ * Turns pushes into one notification per room and a group summary per account.
+ * <p>
+ * Chat pushes for a room are collected into the lines of its notification, which is updated at most once per
+ * {@link #MIN_UPDATE_INTERVAL_MS}: what comes in between is posted together when the interval is over. Calls
+ * and room invitations are posted right away. Only the first post of a room alerts, later ones just update it.
+ * <p>
+ * What a room collected is forgotten once its notification is opened or dismissed, see
+ * {@link #clearRoom(UserEntity, String)} and {@link #clearAccount(UserEntity)}. At most {@link #MAX_ROOMS} rooms
+ * are kept, the least recently updated ones and their notifications go first.
+ */
+public class NotificationAggregator {
+    static final long MIN_UPDATE_INTERVAL_MS = 1000;
+    static final int MAX_LINES = 5;
+    // Android doesn't show many more notifications per app anyway
+    static final int MAX_ROOMS = 40;
+
+    private static final String TYPE_CALL = "call";
+    private static final String TYPE_ROOM = "room";
+
+    private final NotificationSink notificationSink;
+    private final Scheduler scheduler;
+
+    // In the order rooms were last updated, so the summary shows the latest first
+    private final Map<String, RoomState> roomStates = new LinkedHashMap<>();
+
+    public NotificationAggregator(NotificationSink notificationSink, Scheduler scheduler) {
+        this.notificationSink = notificationSink;
+        this.scheduler = scheduler;
+    }
+
+    public synchronized void onPush(UserEntity userEntity, DecryptedPushMessage decryptedPushMessage) {
+        String accountKey = getAccountKey(userEntity);
+        String roomKey = getRoomKey(accountKey, decryptedPushMessage.getId());
+
+        RoomState roomState = roomStates.remove(roomKey);
+        if (roomState == null) {
+            roomState = new RoomState(accountKey, decryptedPushMessage.getId());
+        }
+        roomStates.put(roomKey, roomState);
+        evictOldestRooms(accountKey);
+
+        roomState.userEntity = userEntity;
+        roomState.type = decryptedPushMessage.getType();
+        roomState.messageCount++;
+        roomState.lines.add(decryptedPushMessage.getSubject());
+        if (roomState.lines.size() > MAX_LINES) {
+            roomState.lines.removeFirst();
+        }
+
+        boolean urgent = TYPE_CALL.equals(roomState.type) || TYPE_ROOM.equals(roomState.type);
+        long sinceLastPost = scheduler.now(TimeUnit.MILLISECONDS) - roomState.postedAt;
+        if (urgent || !roomState.posted || sinceLastPost >= MIN_UPDATE_INTERVAL_MS) {
+            post(roomState, urgent);
+        } else if (roomState.pendingPost == null) {
+            RoomState pendingRoomState = roomState;
+            roomState.pendingPost = scheduler.scheduleDirect(() -> postPending(pendingRoomState),
+                    MIN_UPDATE_INTERVAL_MS - sinceLastPost, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Forgets the room, usually because it was opened, and removes its notification.
+     */
+    public synchronized void clearRoom(UserEntity userEntity, String roomToken) {
+        String accountKey = getAccountKey(userEntity);
+        RoomState roomState = roomStates.remove(getRoomKey(accountKey, roomToken));
+        if (roomState == null) {
+            return;
+        }
+
+        if (roomState.pendingPost != null) {
+            roomState.pendingPost.dispose();
+        }
+
+        if (roomState.posted) {
+            notificationSink.cancel(roomState.notificationId);
+
+            AccountSummary accountSummary = getAccountSummary(accountKey, userEntity);
+            if (accountSummary.getRoomCount() > 0) {
+                notificationSink.notifyAccountSummary(accountSummary);
+            } else {
+                notificationSink.cancel(accountSummary.getNotificationId());
+            }
+        }
+    }
+
+    /**
+     * Forgets every room of the account, e.g. because its summary was dismissed.
+     */
+    public synchronized void clearAccount(UserEntity userEntity) {
+        String accountKey = getAccountKey(userEntity);
+        boolean posted = false;
+        Iterator<RoomState> iterator = roomStates.values().iterator();
+        while (iterator.hasNext()) {
+            RoomState roomState = iterator.next();
+            if (roomState.accountKey.equals(accountKey)) {
+                iterator.remove();
+                if (roomState.pendingPost != null) {
+                    roomState.pendingPost.dispose();
+                }
+                if (roomState.posted) {
+                    notificationSink.cancel(roomState.notificationId);
+                    posted = true;
+                }
+            }
+        }
+
+        if (posted) {
+            notificationSink.cancel(getNotificationId(accountKey));
+        }
+    }
+
+    private void evictOldestRooms(String updatedAccountKey) {
+        Map<String, UserEntity> evictedAccounts = new LinkedHashMap<>();
+        Iterator<RoomState> iterator = roomStates.values().iterator();
+        while (roomStates.size() > MAX_ROOMS && iterator.hasNext()) {
+            RoomState roomState = iterator.next();
+            iterator.remove();
+            if (roomState.pendingPost != null) {
+                roomState.pendingPost.dispose();
+            }
+            if (roomState.posted) {
+                notificationSink.cancel(roomState.notificationId);
+                evictedAccounts.put(roomState.accountKey, roomState.userEntity);
+            }
+        }
+
+        // The summary of the updated account is posted along with its room
+        evictedAccounts.remove(updatedAccountKey);
+        for (Map.Entry<String, UserEntity> evictedAccount : evictedAccounts.entrySet()) {
+            AccountSummary accountSummary = getAccountSummary(evictedAccount.getKey(), evictedAccount.getValue());
+            if (accountSummary.getRoomCount() > 0) {
+                notificationSink.notifyAccountSummary(accountSummary);
+            } else {
+                notificationSink.cancel(accountSummary.getNotificationId());
+            }
+        }
+    }
+
+    private synchronized void postPending(RoomState roomState) {
+        // Cleared in the meantime
+        if (roomState.pendingPost != null
+                && roomStates.get(getRoomKey(roomState.accountKey, roomState.roomToken)) == roomState) {
+            post(roomState, false);
+        }
+    }
+
+    private void post(RoomState roomState, boolean alert) {
+        if (roomState.pendingPost != null) {
+            roomState.pendingPost.dispose();
+            roomState.pendingPost = null;
+        }
+
+        notificationSink.notifyRoom(new RoomNotification(roomState.notificationId,
+                getGroupKey(roomState.accountKey), roomState.userEntity, roomState.roomToken, roomState.type,
+                new ArrayList<>(roomState.lines), roomState.messageCount, alert || !roomState.posted));
+        roomState.posted = true;
+        roomState.postedAt = scheduler.now(TimeUnit.MILLISECONDS);
+
+        notificationSink.notifyAccountSummary(getAccountSummary(roomState.accountKey, roomState.userEntity));
+    }
+
+    private AccountSummary getAccountSummary(String accountKey, UserEntity userEntity) {
+        List<String> lines = new ArrayList<>();
+        int roomCount = 0;
+        int messageCount = 0;
+        for (RoomState roomState : roomStates.values()) {
+            if (roomState.posted && roomState.accountKey.equals(accountKey)) {
+                lines.add(roomState.lines.getLast());
+                roomCount++;
+                messageCount += roomState.messageCount;
+            }
+        }
+        Collections.reverse(lines);
+
+        return new AccountSummary(getNotificationId(accountKey), getGroupKey(accountKey), userEntity, lines,
+                roomCount, messageCount);
+    }
+
+    private static String getAccountKey(UserEntity userEntity) {
+        return userEntity.getUsername() + "@" + userEntity.getBaseUrl();
+    }
+
+    private static String getRoomKey(String accountKey, String roomToken) {
+        return accountKey + " " + roomToken;
+    }
+
+    private static String getGroupKey(String accountKey) {
+        return Long.toString(getNotificationId(accountKey) & 0xffffffffL);
+    }
+
+    private static int getNotificationId(String key) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(key.getBytes());
+        return (int) crc32.getValue();
+    }
+
+    public static class RoomNotification {
+        private final int notificationId;
+        private final String groupKey;
+        private final UserEntity userEntity;
+        private final String roomToken;
+        private final String type;
+        private final List<String> lines;
+        private final int messageCount;
+        private final boolean alert;
+
+        RoomNotification(int notificationId, String groupKey, UserEntity userEntity, String roomToken, String type,
+                         List<String> lines, int messageCount, boolean alert) {
+            this.notificationId = notificationId;
+            this.groupKey = groupKey;
+            this.userEntity = userEntity;
+            this.roomToken = roomToken;
+            this.type = type;
+            this.lines = lines;
+            this.messageCount = messageCount;
+            this.alert = alert;
+        }
+
+        public int getNotificationId() {
+            return notificationId;
+        }
+
+        public String getGroupKey() {
+            return groupKey;
+        }
+
+        public UserEntity getUserEntity() {
+            return userEntity;
+        }
+
+        public String getRoomToken() {
+            return roomToken;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * @return the latest {@link #MAX_LINES} subjects, oldest first
+         */
+        public List<String> getLines() {
+            return lines;
+        }
+
+        public int getMessageCount() {
+            return messageCount;
+        }
+
+        public boolean isAlert() {
+            return alert;
+        }
+    }
+
+    public static class AccountSummary {
+        private final int notificationId;
+        private final String groupKey;
+        private final UserEntity userEntity;
+        private final List<String> lines;
+        private final int roomCount;
+        private final int messageCount;
+
+        AccountSummary(int notificationId, String groupKey, UserEntity userEntity, List<String> lines,
+                       int roomCount, int messageCount) {
+            this.notificationId = notificationId;
+            this.groupKey = groupKey;
+            this.userEntity = userEntity;
+            this.lines = lines;
+            this.roomCount = roomCount;
+            this.messageCount = messageCount;
+        }
+
+        public int getNotificationId() {
+            return notificationId;
+        }
+
+        public String getGroupKey() {
+            return groupKey;
+        }
+
+        public UserEntity getUserEntity() {
+            return userEntity;
+        }
+
+        /**
+         * @return the latest subject of every room, the most recently updated room first
+         */
+        public List<String> getLines() {
+            return lines;
+        }
+
+        public int getRoomCount() {
+            return roomCount;
+        }
+
+        public int getMessageCount() {
+            return messageCount;
+        }
+    }
+
+    private static class RoomState {
+        private final String accountKey;
+        private final String roomToken;
+        private final int notificationId;
+        private final LinkedList<String> lines = new LinkedList<>();
+
+        private UserEntity userEntity;
+        private String type;
+        private int messageCount;
+        private boolean posted;
+        private long postedAt;
+        private Disposable pendingPost;
+
+        private RoomState(String accountKey, String roomToken) {
+            this.accountKey = accountKey;
+            this.roomToken = roomToken;
+            this.notificationId = getNotificationId(getRoomKey(accountKey, roomToken));
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.utils.notifications;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+import com.nextcloud.talk.application.NextcloudTalkApplication;
+import com.nextcloud.talk.persistence.entities.UserEntity;
+
+import org.parceler.Parcels;
+
+import javax.inject.Inject;
+
+import autodagger.AutoInjector;
+
+/**
+ * Lets the {@link NotificationAggregator} forget a room, or a whole account, whose notification was dismissed.
+ */
+@AutoInjector(NextcloudTalkApplication.class)
+public class NotificationDismissReceiver extends BroadcastReceiver {
+    static final String KEY_USER_ENTITY = "userEntity";
+    static final String KEY_ROOM_TOKEN = "roomToken";
+
+    @Inject
+    NotificationAggregator notificationAggregator;
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        NextcloudTalkApplication.getSharedApplication().getComponentApplication().inject(this);
+
+        if (intent.getExtras() == null || !intent.hasExtra(KEY_USER_ENTITY)) {
+            return;
+        }
+
+        UserEntity userEntity = Parcels.unwrap(intent.getParcelableExtra(KEY_USER_ENTITY));
+        String roomToken = intent.getStringExtra(KEY_ROOM_TOKEN);
+        if (roomToken != null) {
+            notificationAggregator.clearRoom(userEntity, roomToken);
+        } else {
+            // The summary was dismissed, which takes the rooms with it
+            notificationAggregator.clearAccount(userEntity);
+        }
+    }
+}
@@ -50,6 +50,14 @@ public interface AppPreferences {
     @RemoveMethod
     void removeProxyType();
 
+    @KeyByString("proxy_host")
+    @RegisterChangeListenerMethod
+    void registerProxyHostListener(OnPreferenceValueChangedListener<String> listener);
+
+    @KeyByString("proxy_host")
+    @UnregisterChangeListenerMethod
+    void unregisterProxyHostListener(OnPreferenceValueChangedListener<String> listener);
+
     @KeyByString("proxy_host")
     String getProxyHost();
 
@@ -60,6 +68,14 @@ public interface AppPreferences {
     @RemoveMethod
     void removeProxyHost();
 
+    @KeyByString("proxy_port")
+    @RegisterChangeListenerMethod
+    void registerProxyPortListener(OnPreferenceValueChangedListener<String> listener);
+
+    @KeyByString("proxy_port")
+    @UnregisterChangeListenerMethod
+    void unregisterProxyPortListener(OnPreferenceValueChangedListener<String> listener);
+
     @KeyByString("proxy_port")
     String getProxyPort();
 
@@ -0,0 +1,55 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.utils.push;
+
+import com.nextcloud.talk.api.NcApiFactory;
+import com.nextcloud.talk.api.helpers.api.ApiHelper;
+import com.nextcloud.talk.api.models.json.push.PushRegistrationOverall;
+import com.nextcloud.talk.persistence.entities.UserEntity;
+
+import java.util.Map;
+
+import io.reactivex.Completable;
+import io.reactivex.Observable;
+
+public class NcApiPushRegistrationEndpoints implements PushRegistrationEndpoints {
+    private final NcApiFactory ncApiFactory;
+
+    public NcApiPushRegistrationEndpoints(NcApiFactory ncApiFactory) {
+        this.ncApiFactory = ncApiFactory;
+    }
+
+    @Override
+    public Observable<PushRegistrationOverall> registerWithNextcloud(UserEntity userEntity,
+                                                                     Map<String, String> queryMap) {
+        return ncApiFactory.getNcApi(userEntity.getId()).registerDeviceForNotificationsWithNextcloud(
+                ApiHelper.getCredentials(userEntity.getUsername(), userEntity.getToken()),
+                ApiHelper.getUrlNextcloudPush(userEntity.getBaseUrl()), queryMap);
+    }
+
+    @Override
+    public Completable registerWithProxy(UserEntity userEntity, Map<String, String> proxyMap) {
+        return ncApiFactory.getNcApi(userEntity.getId()).registerDeviceForNotificationsWithProxy(
+                ApiHelper.getCredentials(userEntity.getUsername(), userEntity.getToken()),
+                ApiHelper.getUrlPushProxy(), proxyMap)
+                .ignoreElements();
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.utils.push;
+
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the account a push was signed for.
+ * <p>
+ * Pushes carry nothing but the encrypted subject and its signature, so the account can only be told by
+ * verifying against the user public keys that the servers returned at registration. Accounts sharing a key are
+ * verified once, and the key that matched last is tried first: on a device with many accounts, pushes mostly
+ * come in bursts for the same one, and those need a single verification instead of one per account.
+ */
+public class PushAccountRouter {
+    public static final long NO_ACCOUNT = -1;
+
+    // Most recently matched first, replaced as a whole so routing never needs a lock
+    private volatile Route[] routes;
+
+    /**
+     * @param publicKeysByAccountId in the order accounts are tried when none matched yet
+     * @param preferredAccountId    the account to try first, usually the one the previous router matched
+     */
+    public PushAccountRouter(Map<Long, PublicKey> publicKeysByAccountId, long preferredAccountId) {
+        List<Route> routeList = new ArrayList<>(publicKeysByAccountId.size());
+        Set<String> knownKeys = new HashSet<>();
+        for (Map.Entry<Long, PublicKey> entry : publicKeysByAccountId.entrySet()) {
+            // The first account wins for a shared key, as with trying them one by one
+            if (knownKeys.add(Arrays.toString(entry.getValue().getEncoded()))) {
+                Route route = new Route(entry.getKey(), entry.getValue());
+                if (entry.getKey() == preferredAccountId) {
+                    routeList.add(0, route);
+                } else {
+                    routeList.add(route);
+                }
+            }
+        }
+
+        routes = routeList.toArray(new Route[routeList.size()]);
+    }
+
+    /**
+     * @param signature a Signature the caller owns, it is initialized here for every key that is tried
+     * @return the id of the account whose key verifies the signature, or {@link #NO_ACCOUNT}
+     */
+    public long route(Signature signature, byte[] signatureBytes, byte[] subjectBytes)
+            throws GeneralSecurityException {
+        Route[] currentRoutes = routes;
+        for (int i = 0; i < currentRoutes.length; i++) {
+            Route route = currentRoutes[i];
+            signature.initVerify(route.publicKey);
+            signature.update(subjectBytes);
+            if (signature.verify(signatureBytes)) {
+                if (i > 0) {
+                    moveToFront(route);
+                }
+                return route.accountId;
+            }
+        }
+
+        return NO_ACCOUNT;
+    }
+
+    /**
+     * @return the account that matched last, {@link #NO_ACCOUNT} when there are no keys
+     */
+    public long getMostRecentAccountId() {
+        Route[] currentRoutes = routes;
+        return currentRoutes.length > 0 ? currentRoutes[0].accountId : NO_ACCOUNT;
+    }
+
+    public int getKeyCount() {
+        return routes.length;
+    }
+
+    private synchronized void moveToFront(Route route) {
+        Route[] currentRoutes = routes;
+        Route[] reorderedRoutes = new Route[currentRoutes.length];
+        reorderedRoutes[0] = route;
+        int position = 1;
+        for (Route currentRoute : currentRoutes) {
+            if (currentRoute != route && position < reorderedRoutes.length) {
+                reorderedRoutes[position++] = currentRoute;
+            }
+        }
+        routes = reorderedRoutes;
+    }
+
+    private static class Route {
+        private final long accountId;
+        private final PublicKey publicKey;
+
+        private Route(long accountId, PublicKey publicKey) {
+            this.accountId = accountId;
+            this.publicKey = publicKey;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.utils.push;
+
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.bluelinelabs.logansquare.LoganSquare;
+import com.nextcloud.talk.api.models.json.push.PushConfigurationState;
+import com.nextcloud.talk.models.SignatureVerification;
+import com.nextcloud.talk.persistence.entities.UserEntity;
+import com.nextcloud.talk.utils.PushUtils;
+import com.nextcloud.talk.utils.database.user.UserUtils;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+
+/**
+ * Verifies and decrypts incoming pushes without touching the disk or the database on every message.
+ * <p>
+ * The device private key and the public key of every account are read once and kept for the lifetime of the
+ * process, the account keys are dropped whenever {@link UserUtils} reports a change to a user. Which account a
+ * push is for is left to {@link PushAccountRouter}. Cipher and Signature instances are kept per thread, since
+ * neither is thread safe.
+ */
+public class PushCryptoService {
+    private static final String TAG = "PushCryptoService";
+
+    private static final String CIPHER_TRANSFORMATION = "RSA/None/PKCS1Padding";
+    private static final String SIGNATURE_ALGORITHM = "SHA512withRSA";
+
+    private final UserUtils userUtils;
+
+    private final Object loadLock = new Object();
+    private final Object accountKeysLock = new Object();
+    private volatile PrivateKey privateKey;
+    private volatile AccountKeys accountKeys;
+    private int accountKeysGeneration;
+    // Survives reloading the keys, so the account that gets the pushes stays the first one tried
+    private volatile long mostRecentAccountId = PushAccountRouter.NO_ACCOUNT;
+
+    private final ThreadLocal<Cipher> ciphers = new ThreadLocal<>();
+    private final ThreadLocal<Signature> signatures = new ThreadLocal<>();
+
+    public PushCryptoService(UserUtils userUtils) {
+        this.userUtils = userUtils;
+        userUtils.getUserChanges().subscribe(userId -> invalidateAccountKeys());
+    }
+
+    /**
+     * Loads the keys ahead of the first push, so a cold process that is started for a call only has to decrypt.
+     */
+    public void warmUp() {
+        getPrivateKey();
+        getAccountKeys();
+        try {
+            getCipher();
+            getSignature();
+        } catch (GeneralSecurityException e) {
+            Log.d(TAG, "Failed to prepare the push crypto " + e.getLocalizedMessage());
+        }
+    }
+
+    public SignatureVerification verifySignature(byte[] signatureBytes, byte[] subjectBytes) {
+        SignatureVerification signatureVerification = new SignatureVerification();
+        signatureVerification.setSignatureValid(false);
+
+        try {
+            AccountKeys keys = getAccountKeys();
+            long accountId = keys.router.route(getSignature(), signatureBytes, subjectBytes);
+            if (accountId != PushAccountRouter.NO_ACCOUNT) {
+                mostRecentAccountId = accountId;
+                signatureVerification.setSignatureValid(true);
+                signatureVerification.setUserEntity(keys.userEntities.get(accountId));
+            }
+        } catch (GeneralSecurityException e) {
+            Log.d(TAG, "Failed to verify the signature " + e.getLocalizedMessage());
+        }
+
+        return signatureVerification;
+    }
+
+    public byte[] decrypt(byte[] encryptedBytes) throws GeneralSecurityException {
+        PrivateKey privateKey = getPrivateKey();
+        if (privateKey == null) {
+            throw new InvalidKeyException("No push key pair on this device");
+        }
+
+        Cipher cipher = getCipher();
+        cipher.init(Cipher.DECRYPT_MODE, privateKey);
+        return cipher.doFinal(encryptedBytes);
+    }
+
+    private void invalidateAccountKeys() {
+        synchronized (accountKeysLock) {
+            accountKeysGeneration++;
+            accountKeys = null;
+        }
+    }
+
+    private PrivateKey getPrivateKey() {
+        PrivateKey key = privateKey;
+        if (key == null) {
+            synchronized (loadLock) {
+                key = privateKey;
+                if (key == null) {
+                    // Not cached while missing, the key pair is generated on the first push registration
+                    key = privateKey = (PrivateKey) new PushUtils().readKeyFromFile(false);
+                }
+            }
+        }
+        return key;
+    }
+
+    private AccountKeys getAccountKeys() {
+        AccountKeys keys = accountKeys;
+        if (keys == null) {
+            synchronized (loadLock) {
+                keys = accountKeys;
+                if (keys == null) {
+                    int generation;
+                    synchronized (accountKeysLock) {
+                        generation = accountKeysGeneration;
+                    }
+
+                    keys = loadAccountKeys();
+
+                    synchronized (accountKeysLock) {
+                        // A user changed while loading, use what we have once and load again next time
+                        if (generation == accountKeysGeneration) {
+                            accountKeys = keys;
+                        }
+                    }
+                }
+            }
+        }
+        return keys;
+    }
+
+    private AccountKeys loadAccountKeys() {
+        Map<Long, UserEntity> userEntities = new HashMap<>();
+        Map<Long, PublicKey> publicKeys = new LinkedHashMap<>();
+        PushUtils pushUtils = null;
+
+        for (Object userEntityObject : userUtils.getUsers()) {
+            UserEntity userEntity = (UserEntity) userEntityObject;
+            if (TextUtils.isEmpty(userEntity.getPushConfigurationState())) {
+                continue;
+            }
+
+            try {
+                PushConfigurationState pushConfigurationState = LoganSquare.parse(
+                        userEntity.getPushConfigurationState(), PushConfigurationState.class);
+                if (pushConfigurationState == null
+                        || TextUtils.isEmpty(pushConfigurationState.getUserPublicKey())) {
+                    continue;
+                }
+
+                if (pushUtils == null) {
+                    pushUtils = new PushUtils();
+                }
+
+                PublicKey publicKey = (PublicKey) pushUtils.readKeyFromString(true,
+                        pushConfigurationState.getUserPublicKey());
+                if (publicKey != null) {
+                    userEntities.put(userEntity.getId(), userEntity);
+                    publicKeys.put(userEntity.getId(), publicKey);
+                }
+            } catch (IOException e) {
+                Log.d(TAG, "Error while trying to parse push configuration state");
+            }
+        }
+
+        return new AccountKeys(new PushAccountRouter(publicKeys, mostRecentAccountId), userEntities);
+    }
+
+    private Cipher getCipher() throws GeneralSecurityException {
+        Cipher cipher = ciphers.get();
+        if (cipher == null) {
+            cipher = Cipher.getInstance(CIPHER_TRANSFORMATION);
+            ciphers.set(cipher);
+        }
+        return cipher;
+    }
+
+    private Signature getSignature() throws GeneralSecurityException {
+        Signature signature = signatures.get();
+        if (signature == null) {
+            signature = Signature.getInstance(SIGNATURE_ALGORITHM);
+            signatures.set(signature);
+        }
+        return signature;
+    }
+
+    private static class AccountKeys {
+        private final PushAccountRouter router;
+        private final Map<Long, UserEntity> userEntities;
+
+        private AccountKeys(PushAccountRouter router, Map<Long, UserEntity> userEntities) {
+            this.router = router;
+            this.userEntities = userEntities;
+        }
+    }
+}
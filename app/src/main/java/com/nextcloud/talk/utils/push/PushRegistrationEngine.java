@@ -0,0 +1,309 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.utils.push;
+
+import android.support.annotation.Nullable;
+
+import com.nextcloud.talk.api.models.json.push.PushConfigurationState;
+import com.nextcloud.talk.api.models.json.push.PushRegistration;
+import com.nextcloud.talk.persistence.entities.UserEntity;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import retrofit2.HttpException;
+
+/**
+ * Registers the device for pushes on every account, first with its server and then with the push proxy.
+ * <p>
+ * Up to {@link #MAX_CONCURRENT_ACCOUNTS} accounts register at the same time. The state is saved after each of
+ * the two steps, so an account whose proxy registration failed, or was cut short, continues with it on the next
+ * run instead of registering with its server again. Accounts that are registered for the current token are left
+ * alone, as are accounts that are still registering from an earlier run.
+ * <p>
+ * Failed requests are retried up to {@link #MAX_ATTEMPTS} times. The delay doubles with every failure of the
+ * same server and is shared by all accounts on it, so a server that is down isn't asked once per account. A run
+ * never waits longer than {@link #MAX_WAIT_MS} for a server: accounts on a server that has to be left alone for
+ * longer are {@link Status#DEFERRED} to a later run. Failures are forgotten once a server was left alone for
+ * {@link #MAX_BACKOFF_MS} after its last delay.
+ */
+public class PushRegistrationEngine {
+    static final int MAX_CONCURRENT_ACCOUNTS = 3;
+    static final int MAX_ATTEMPTS = 4;
+    static final long INITIAL_BACKOFF_MS = 1000;
+    static final long MAX_BACKOFF_MS = 5 * 60 * 1000;
+    static final long MAX_WAIT_MS = 5 * 1000;
+
+    private static final String PUSH_PROXY_SERVER = "push proxy";
+
+    private final PushRegistrationEndpoints pushRegistrationEndpoints;
+    private final PushRegistrationStore pushRegistrationStore;
+    private final Scheduler scheduler;
+
+    private final Map<String, ServerBackoff> backoffByServer = new HashMap<>();
+    private final Set<String> registeringAccounts = new HashSet<>();
+
+    public PushRegistrationEngine(PushRegistrationEndpoints pushRegistrationEndpoints,
+                                  PushRegistrationStore pushRegistrationStore, Scheduler scheduler) {
+        this.pushRegistrationEndpoints = pushRegistrationEndpoints;
+        this.pushRegistrationStore = pushRegistrationStore;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @param deviceQueryMap what the servers are sent: the push token hash, the device public key and the proxy
+     * @return one result for every account that isn't scheduled for deletion
+     */
+    public Single<List<Result>> register(List<UserEntity> userEntities, String pushToken,
+                                         Map<String, String> deviceQueryMap) {
+        List<UserEntity> activeUserEntities = new ArrayList<>();
+        for (UserEntity userEntity : userEntities) {
+            if (!userEntity.getScheduledForDeletion()) {
+                activeUserEntities.add(userEntity);
+            }
+        }
+
+        return Observable.fromIterable(activeUserEntities)
+                .flatMap(userEntity -> registerAccount(userEntity, pushToken, deviceQueryMap),
+                        MAX_CONCURRENT_ACCOUNTS)
+                .toList();
+    }
+
+    private Observable<Result> registerAccount(UserEntity userEntity, String pushToken,
+                                               Map<String, String> deviceQueryMap) {
+        return Observable.defer(() -> {
+            long startedAt = scheduler.now(TimeUnit.MILLISECONDS);
+
+            PushConfigurationState pushConfigurationState = pushRegistrationStore.getState(userEntity);
+            boolean resumed;
+            if (pushConfigurationState == null || !pushToken.equals(pushConfigurationState.getPushToken())) {
+                resumed = false;
+            } else if (pushConfigurationState.isProxyRegistrationPending()) {
+                resumed = true;
+            } else {
+                return Observable.just(new Result(userEntity, Status.UP_TO_DATE, false, 0, null));
+            }
+
+            String accountKey = userEntity.getUsername() + "@" + userEntity.getBaseUrl();
+            synchronized (registeringAccounts) {
+                if (!registeringAccounts.add(accountKey)) {
+                    return Observable.just(new Result(userEntity, Status.IN_PROGRESS, resumed, 0, null));
+                }
+            }
+
+            Observable<PushConfigurationState> registration;
+            if (resumed) {
+                registration = registerWithProxy(userEntity, pushConfigurationState);
+            } else {
+                registration = registerWithNextcloud(userEntity, pushToken, deviceQueryMap)
+                        .flatMap(registeredState -> registerWithProxy(userEntity, registeredState));
+            }
+
+            return registration
+                    .map(registeredState -> new Result(userEntity, Status.REGISTERED, resumed,
+                            scheduler.now(TimeUnit.MILLISECONDS) - startedAt, null))
+                    .onErrorReturn(throwable -> new Result(userEntity,
+                            throwable instanceof DeferredException ? Status.DEFERRED : Status.FAILED, resumed,
+                            scheduler.now(TimeUnit.MILLISECONDS) - startedAt, throwable))
+                    .doFinally(() -> {
+                        synchronized (registeringAccounts) {
+                            registeringAccounts.remove(accountKey);
+                        }
+                    });
+        });
+    }
+
+    private Observable<PushConfigurationState> registerWithNextcloud(UserEntity userEntity, String pushToken,
+                                                                     Map<String, String> deviceQueryMap) {
+        return withBackoff(userEntity.getBaseUrl(),
+                pushRegistrationEndpoints.registerWithNextcloud(userEntity, deviceQueryMap))
+                .flatMap(pushRegistrationOverall -> {
+                    PushRegistration pushRegistration = pushRegistrationOverall.getOcs().getData();
+
+                    PushConfigurationState pushConfigurationState = new PushConfigurationState();
+                    pushConfigurationState.setPushToken(pushToken);
+                    pushConfigurationState.setDeviceIdentifier(pushRegistration.getDeviceIdentifier());
+                    pushConfigurationState.setDeviceIdentifierSignature(pushRegistration.getSignature());
+                    pushConfigurationState.setUserPublicKey(pushRegistration.getPublicKey());
+                    pushConfigurationState.setUsesRegularPass(false);
+                    pushConfigurationState.setProxyRegistrationPending(true);
+
+                    return pushRegistrationStore.saveState(userEntity, pushConfigurationState)
+                            .andThen(Observable.just(pushConfigurationState));
+                });
+    }
+
+    private Observable<PushConfigurationState> registerWithProxy(UserEntity userEntity,
+                                                                 PushConfigurationState pushConfigurationState) {
+        Map<String, String> proxyMap = new HashMap<>();
+        proxyMap.put("pushToken", pushConfigurationState.getPushToken());
+        proxyMap.put("deviceIdentifier", pushConfigurationState.getDeviceIdentifier());
+        proxyMap.put("deviceIdentifierSignature", pushConfigurationState.getDeviceIdentifierSignature());
+        proxyMap.put("userPublicKey", pushConfigurationState.getUserPublicKey());
+
+        return withBackoff(PUSH_PROXY_SERVER, pushRegistrationEndpoints.registerWithProxy(userEntity, proxyMap)
+                .andThen(Observable.just(pushConfigurationState)))
+                .flatMap(registeredState -> {
+                    registeredState.setProxyRegistrationPending(false);
+                    return pushRegistrationStore.saveState(userEntity, registeredState)
+                            .andThen(Observable.just(registeredState));
+                });
+    }
+
+    private <T> Observable<T> withBackoff(String server, Observable<T> request) {
+        return Observable.defer(() -> {
+            long backoffMs = getBackoffMs(server);
+            if (backoffMs > MAX_WAIT_MS) {
+                return Observable.error(new DeferredException(server, backoffMs));
+            } else if (backoffMs > 0) {
+                return Observable.timer(backoffMs, TimeUnit.MILLISECONDS, scheduler).flatMap(tick -> request);
+            }
+            return request;
+        })
+                .doOnNext(item -> onServerSucceeded(server))
+                .doOnError(throwable -> {
+                    if (isRetryable(throwable)) {
+                        onServerFailed(server);
+                    }
+                })
+                .retry(MAX_ATTEMPTS - 1, PushRegistrationEngine::isRetryable);
+    }
+
+    /**
+     * @return how long the server is still left alone
+     */
+    long getBackoffMs(String server) {
+        synchronized (backoffByServer) {
+            ServerBackoff serverBackoff = backoffByServer.get(server);
+            if (serverBackoff == null) {
+                return 0;
+            }
+            return Math.max(0, serverBackoff.retryAt - scheduler.now(TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private void onServerSucceeded(String server) {
+        synchronized (backoffByServer) {
+            backoffByServer.remove(server);
+        }
+    }
+
+    private void onServerFailed(String server) {
+        synchronized (backoffByServer) {
+            long now = scheduler.now(TimeUnit.MILLISECONDS);
+            ServerBackoff serverBackoff = backoffByServer.get(server);
+            if (serverBackoff == null || now - serverBackoff.retryAt >= MAX_BACKOFF_MS) {
+                serverBackoff = new ServerBackoff();
+                backoffByServer.put(server, serverBackoff);
+            }
+            serverBackoff.failures++;
+            serverBackoff.retryAt = now
+                    + Math.min(MAX_BACKOFF_MS, INITIAL_BACKOFF_MS << Math.min(serverBackoff.failures - 1, 20));
+        }
+    }
+
+    private static boolean isRetryable(Throwable throwable) {
+        if (throwable instanceof DeferredException) {
+            return false;
+        } else if (throwable instanceof HttpException) {
+            // The request itself is wrong, asking again won't help
+            int code = ((HttpException) throwable).code();
+            return code >= 500 || code == 429;
+        }
+        return true;
+    }
+
+    public enum Status {
+        UP_TO_DATE,
+        IN_PROGRESS,
+        REGISTERED,
+        // Its server is left alone for longer than a run waits, see getError() for how long
+        DEFERRED,
+        FAILED
+    }
+
+    private static class ServerBackoff {
+        private int failures;
+        private long retryAt;
+    }
+
+    static class DeferredException extends Exception {
+        DeferredException(String server, long backoffMs) {
+            super(server + " is left alone for another " + backoffMs + "ms");
+        }
+    }
+
+    public static class Result {
+        private final UserEntity userEntity;
+        private final Status status;
+        private final boolean resumed;
+        private final long durationMs;
+        @Nullable
+        private final Throwable error;
+
+        Result(UserEntity userEntity, Status status, boolean resumed, long durationMs, @Nullable Throwable error) {
+            this.userEntity = userEntity;
+            this.status = status;
+            this.resumed = resumed;
+            this.durationMs = durationMs;
+            this.error = error;
+        }
+
+        public UserEntity getUserEntity() {
+            return userEntity;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * @return whether the registration continued with the proxy step of an earlier run
+         */
+        public boolean isResumed() {
+            return resumed;
+        }
+
+        public long getDurationMs() {
+            return durationMs;
+        }
+
+        @Nullable
+        public Throwable getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return userEntity.getUsername() + "@" + userEntity.getBaseUrl() + ": " + status
+                    + (resumed ? " (resumed)" : "") + " in " + durationMs + "ms"
+                    + (error != null ? ", " + error.getLocalizedMessage() : "");
+        }
+    }
+}
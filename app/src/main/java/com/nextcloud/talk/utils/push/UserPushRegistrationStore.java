@@ -0,0 +1,68 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.utils.push;
+
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.bluelinelabs.logansquare.LoganSquare;
+import com.nextcloud.talk.api.models.json.push.PushConfigurationState;
+import com.nextcloud.talk.persistence.entities.UserEntity;
+import com.nextcloud.talk.utils.database.user.UserUtils;
+
+import java.io.IOException;
+
+import io.reactivex.Completable;
+
+/**
+ * Keeps the registration state in the push configuration state of the user.
+ */
+public class UserPushRegistrationStore implements PushRegistrationStore {
+    private static final String TAG = "UserPushRegistrationStore";
+
+    private final UserUtils userUtils;
+
+    public UserPushRegistrationStore(UserUtils userUtils) {
+        this.userUtils = userUtils;
+    }
+
+    @Nullable
+    @Override
+    public PushConfigurationState getState(UserEntity userEntity) {
+        if (TextUtils.isEmpty(userEntity.getPushConfigurationState())) {
+            return null;
+        }
+
+        try {
+            return LoganSquare.parse(userEntity.getPushConfigurationState(), PushConfigurationState.class);
+        } catch (IOException e) {
+            Log.d(TAG, "Failed to parse account push data");
+            return null;
+        }
+    }
+
+    @Override
+    public Completable saveState(UserEntity userEntity, PushConfigurationState pushConfigurationState) {
+        return Completable.defer(() -> userUtils.savePushConfigurationState(userEntity.getId(),
+                LoganSquare.serialize(pushConfigurationState)));
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.utils.schedulers;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.Data;
+
+/**
+ * Fixed size pool with named threads that keeps track of how long tasks wait and run.
+ * <p>
+ * Idle threads are let go after a while, so a pool that isn't used costs nothing.
+ */
+public class InstrumentedThreadPoolExecutor extends ThreadPoolExecutor {
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final String name;
+    private final AtomicLong completedTasks = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong totalRunNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    public InstrumentedThreadPoolExecutor(String name, int threads) {
+        super(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new NamedThreadFactory(name));
+        this.name = name;
+        allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public void execute(@NonNull Runnable command) {
+        super.execute(new TimedRunnable(command));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Stats getStats() {
+        long completed = completedTasks.get();
+        Stats stats = new Stats();
+        stats.setName(name);
+        stats.setPoolSize(getPoolSize());
+        stats.setActiveCount(getActiveCount());
+        stats.setQueueDepth(getQueue().size());
+        stats.setCompletedTasks(completed);
+        if (completed > 0) {
+            stats.setAverageWaitMs(TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get() / completed));
+            stats.setAverageRunMs(TimeUnit.NANOSECONDS.toMillis(totalRunNanos.get() / completed));
+        }
+        stats.setMaxWaitMs(TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()));
+        return stats;
+    }
+
+    private void recordTask(long waitNanos, long runNanos) {
+        completedTasks.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+        totalRunNanos.addAndGet(runNanos);
+
+        long currentMax;
+        do {
+            currentMax = maxWaitNanos.get();
+        } while (waitNanos > currentMax && !maxWaitNanos.compareAndSet(currentMax, waitNanos));
+    }
+
+    @Data
+    public static class Stats {
+        String name;
+        int poolSize;
+        int activeCount;
+        int queueDepth;
+        long completedTasks;
+        long averageWaitMs;
+        long averageRunMs;
+        long maxWaitMs;
+    }
+
+    private class TimedRunnable implements Runnable {
+        private final Runnable runnable;
+        private final long queuedAt = System.nanoTime();
+
+        TimedRunnable(Runnable runnable) {
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            long startedAt = System.nanoTime();
+            try {
+                runnable.run();
+            } finally {
+                recordTask(startedAt - queuedAt, System.nanoTime() - startedAt);
+            }
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        NamedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "nc-" + name + "-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.utils.schedulers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * The background schedulers everything in the app should subscribe on.
+ * <ul>
+ * <li>network: preparing and handling REST calls. Retrofit calls wait on OkHttp's dispatcher, not here, so
+ * long polls don't hold its threads</li>
+ * <li>database: requery reads and writes, a single writer keeps SQLite from contending</li>
+ * <li>signaling: a single thread so peer connection changes happen in order</li>
+ * </ul>
+ */
+public class SchedulerProvider {
+    private static final int NETWORK_THREADS = 4;
+    private static final int DATABASE_THREADS = 1;
+    private static final int SIGNALING_THREADS = 1;
+
+    private final InstrumentedThreadPoolExecutor networkExecutor =
+            new InstrumentedThreadPoolExecutor("network", NETWORK_THREADS);
+    private final InstrumentedThreadPoolExecutor databaseExecutor =
+            new InstrumentedThreadPoolExecutor("database", DATABASE_THREADS);
+    private final InstrumentedThreadPoolExecutor signalingExecutor =
+            new InstrumentedThreadPoolExecutor("signaling", SIGNALING_THREADS);
+
+    private final Scheduler networkScheduler = Schedulers.from(networkExecutor);
+    private final Scheduler databaseScheduler = Schedulers.from(databaseExecutor);
+    private final Scheduler signalingScheduler = Schedulers.from(signalingExecutor);
+
+    public Scheduler network() {
+        return networkScheduler;
+    }
+
+    public Scheduler database() {
+        return databaseScheduler;
+    }
+
+    public Scheduler signaling() {
+        return signalingScheduler;
+    }
+
+    public List<InstrumentedThreadPoolExecutor.Stats> getStats() {
+        List<InstrumentedThreadPoolExecutor.Stats> stats = new ArrayList<>();
+        stats.add(networkExecutor.getStats());
+        stats.add(databaseExecutor.getStats());
+        stats.add(signalingExecutor.getStats());
+        return stats;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.webrtc;
+
+/**
+ * Picks the capture format for the local camera.
+ * <p>
+ * In a mesh call every remote peer gets its own encode of the local stream, so the format is lowered
+ * as the call grows, and again when the measured outbound bandwidth can't carry one stream per peer.
+ * Going down happens right away; going up needs the bandwidth to stay comfortably above what the next
+ * format needs for a few samples in a row, so the camera isn't restarted back and forth.
+ */
+public class CaptureFormatPolicy {
+    static final CaptureFormat[] FORMATS = {
+            new CaptureFormat(1280, 720, 30, 1500),
+            new CaptureFormat(960, 540, 30, 800),
+            new CaptureFormat(640, 480, 24, 400),
+            new CaptureFormat(320, 240, 15, 150)
+    };
+
+    // Peers up to which each format is allowed, the last one covers everything above
+    private static final int[] MAX_PEERS = {1, 2, 4};
+
+    private static final double UPGRADE_HEADROOM = 1.3;
+    private static final int UPGRADE_SAMPLES = 3;
+
+    private int peerCount;
+    private int participantLevel;
+    private int bandwidthLevel;
+    private int upgradeSamples;
+
+    public synchronized CaptureFormat getCaptureFormat() {
+        return FORMATS[Math.max(participantLevel, bandwidthLevel)];
+    }
+
+    /**
+     * @param peerCount the number of remote peers we are sending to
+     * @return true if the capture format changed
+     */
+    public synchronized boolean onPeerCountChanged(int peerCount) {
+        int level = getCurrentLevel();
+        this.peerCount = peerCount;
+
+        participantLevel = FORMATS.length - 1;
+        for (int i = 0; i < MAX_PEERS.length; i++) {
+            if (peerCount <= MAX_PEERS[i]) {
+                participantLevel = i;
+                break;
+            }
+        }
+
+        return level != getCurrentLevel();
+    }
+
+    /**
+     * @param outboundKbps the currently available outbound bandwidth, for all peers together
+     * @return true if the capture format changed
+     */
+    public synchronized boolean onOutboundBandwidthMeasured(long outboundKbps) {
+        int level = getCurrentLevel();
+        long perPeerKbps = outboundKbps / Math.max(peerCount, 1);
+
+        int affordableLevel = FORMATS.length - 1;
+        for (int i = 0; i < FORMATS.length; i++) {
+            if (perPeerKbps >= FORMATS[i].minKbps) {
+                affordableLevel = i;
+                break;
+            }
+        }
+
+        if (affordableLevel > bandwidthLevel) {
+            bandwidthLevel = affordableLevel;
+            upgradeSamples = 0;
+        } else if (bandwidthLevel > 0 && perPeerKbps >= FORMATS[bandwidthLevel - 1].minKbps * UPGRADE_HEADROOM) {
+            if (++upgradeSamples >= UPGRADE_SAMPLES) {
+                bandwidthLevel--;
+                upgradeSamples = 0;
+            }
+        } else {
+            upgradeSamples = 0;
+        }
+
+        return level != getCurrentLevel();
+    }
+
+    private int getCurrentLevel() {
+        return Math.max(participantLevel, bandwidthLevel);
+    }
+
+    public static class CaptureFormat {
+        private final int width;
+        private final int height;
+        private final int framerate;
+        private final int minKbps;
+
+        CaptureFormat(int width, int height, int framerate, int minKbps) {
+            this.width = width;
+            this.height = height;
+            this.framerate = framerate;
+            this.minKbps = minKbps;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getFramerate() {
+            return framerate;
+        }
+
+        @Override
+        public String toString() {
+            return width + "x" + height + "@" + framerate;
+        }
+    }
+}
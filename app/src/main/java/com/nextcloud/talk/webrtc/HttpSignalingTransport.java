@@ -0,0 +1,86 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.webrtc;
+
+import com.nextcloud.talk.api.NcApi;
+import com.nextcloud.talk.api.models.json.participants.Participant;
+import com.nextcloud.talk.api.models.json.signaling.NCSignalingMessage;
+
+import java.util.List;
+
+import io.reactivex.Scheduler;
+
+/**
+ * Signaling over the OCS endpoints of the Talk app, long-polling for incoming messages.
+ */
+public class HttpSignalingTransport implements SignalingTransport {
+    private final String sessionId;
+    private final Listener listener;
+    private final SignalingClient signalingClient;
+    private final OutboundSignalingQueue outboundSignalingQueue;
+
+    public HttpSignalingTransport(NcApi ncApi, String credentials, String url, String sessionId,
+                                  Scheduler observeOnScheduler, Listener listener) {
+        this.sessionId = sessionId;
+        this.listener = listener;
+
+        SignalingDecoder.Callback callback = new SignalingDecoder.Callback() {
+            @Override
+            public void onUsersInRoom(List<Participant> participants) {
+                listener.onUsersInRoom(participants);
+            }
+
+            @Override
+            public void onSignalingMessage(NCSignalingMessage ncSignalingMessage) {
+                listener.onSignalingMessage(ncSignalingMessage);
+            }
+        };
+
+        signalingClient = new SignalingClient(ncApi, credentials, url, observeOnScheduler, callback);
+        outboundSignalingQueue = new OutboundSignalingQueue(ncApi, credentials, url, sessionId, observeOnScheduler,
+                callback);
+    }
+
+    @Override
+    public void connect() {
+        signalingClient.start();
+    }
+
+    @Override
+    public void disconnect() {
+        signalingClient.stop();
+        outboundSignalingQueue.release();
+    }
+
+    @Override
+    public void sendMessage(NCSignalingMessage ncSignalingMessage) {
+        outboundSignalingQueue.enqueue(ncSignalingMessage, !"candidate".equals(ncSignalingMessage.getType()));
+    }
+
+    @Override
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public SignalingClient getSignalingClient() {
+        return signalingClient;
+    }
+}
@@ -40,6 +40,7 @@ import org.webrtc.PeerConnectionFactory;
 import org.webrtc.RtpReceiver;
 import org.webrtc.SdpObserver;
 import org.webrtc.SessionDescription;
+import org.webrtc.StatsObserver;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -144,6 +145,15 @@ public class MagicPeerConnectionWrapper {
         }
     }
 
+    /**
+     * Asks for the connection statistics of all tracks, delivered to the observer on a WebRTC thread.
+     *
+     * @return false if the peer connection is already gone
+     */
+    public boolean requestStats(StatsObserver statsObserver) {
+        return peerConnection != null && peerConnection.getStats(statsObserver, null);
+    }
+
     public PeerConnection getPeerConnection() {
         return peerConnection;
     }
@@ -325,9 +335,8 @@ public class MagicPeerConnectionWrapper {
 
         @Override
         public void onCreateSuccess(SessionDescription sessionDescription) {
-            String sessionDescriptionStringWithPreferredCodec = MagicWebRTCUtils.preferCodec
-                    (sessionDescription.description,
-                            "VP8", false);
+            String sessionDescriptionStringWithPreferredCodec = Sdp.parse(sessionDescription.description)
+                    .preferCodec(Sdp.VIDEO, "VP8").toString();
 
             SessionDescription sessionDescriptionWithPreferredCodec = new SessionDescription(
                     sessionDescription.type,
@@ -0,0 +1,183 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.webrtc;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.nextcloud.talk.api.NcApi;
+import com.nextcloud.talk.api.models.json.signaling.NCSignalingMessage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Function;
+import io.reactivex.schedulers.Schedulers;
+import okhttp3.ResponseBody;
+
+/**
+ * Collects outgoing signaling messages and sends everything produced within a short window as a single
+ * request, as the "messages" field already takes a JSON array.
+ * <p>
+ * Only one request is in flight at a time and messages are sent in the order they were queued, so the
+ * order of candidates and descriptions for every peer is preserved. Offers and answers are sent without
+ * waiting for the window to close since nothing can happen on the remote side before they arrive. A batch
+ * that can't be sent goes back to the front of the queue and is sent again after {@link #RETRY_DELAY_MS}, or
+ * along with the next urgent message.
+ */
+public class OutboundSignalingQueue {
+    private static final String TAG = "OutboundSignalingQueue";
+
+    static final long BATCH_WINDOW_MS = 50;
+    static final int MAX_BATCH_SIZE = 64;
+    static final long RETRY_DELAY_MS = 1000;
+
+    private final Function<String, Observable<ResponseBody>> sendRequest;
+    private final String sessionId;
+    private final Scheduler observeOnScheduler;
+    private final Scheduler timeScheduler;
+    private final SignalingDecoder.Callback callback;
+
+    private final SignalingMessageWriter signalingMessageWriter = new SignalingMessageWriter();
+    private final List<NCSignalingMessage> pendingMessages = new ArrayList<>();
+    private Disposable windowDisposable;
+    private Disposable sendDisposable;
+    private boolean sending;
+    private boolean released;
+
+    public OutboundSignalingQueue(NcApi ncApi, String credentials, String url, String sessionId,
+                                  Scheduler observeOnScheduler, SignalingDecoder.Callback callback) {
+        this(messages -> ncApi.sendSignalingMessages(credentials, url, messages), sessionId, observeOnScheduler,
+                Schedulers.computation(), callback);
+    }
+
+    OutboundSignalingQueue(Function<String, Observable<ResponseBody>> sendRequest, String sessionId,
+                           Scheduler observeOnScheduler, Scheduler timeScheduler,
+                           SignalingDecoder.Callback callback) {
+        this.sendRequest = sendRequest;
+        this.sessionId = sessionId;
+        this.observeOnScheduler = observeOnScheduler;
+        this.timeScheduler = timeScheduler;
+        this.callback = callback;
+    }
+
+    /**
+     * @param ncSignalingMessage a single signaling message
+     * @param urgent             if true, the message and everything queued before it are sent right away
+     */
+    public synchronized void enqueue(NCSignalingMessage ncSignalingMessage, boolean urgent) {
+        if (released) {
+            return;
+        }
+
+        pendingMessages.add(ncSignalingMessage);
+
+        if (urgent || pendingMessages.size() >= MAX_BATCH_SIZE) {
+            flush();
+        } else if (windowDisposable == null) {
+            windowDisposable = Observable.timer(BATCH_WINDOW_MS, TimeUnit.MILLISECONDS, timeScheduler)
+                    .subscribe(tick -> flush());
+        }
+    }
+
+    public synchronized void flush() {
+        disposeWindow();
+
+        if (sending || released || pendingMessages.size() == 0) {
+            return;
+        }
+
+        int batchSize = Math.min(pendingMessages.size(), MAX_BATCH_SIZE);
+        List<NCSignalingMessage> pendingBatch = pendingMessages.subList(0, batchSize);
+        List<NCSignalingMessage> batch = new ArrayList<>(pendingBatch);
+        pendingBatch.clear();
+        String messages;
+        try {
+            messages = signalingMessageWriter.writeBatch(batch, sessionId);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to serialize a batch of " + batchSize + " signaling messages");
+            return;
+        }
+
+        // Once the server answered, the messages are not sent again even if the answer can't be read
+        AtomicBoolean delivered = new AtomicBoolean();
+        sending = true;
+        sendDisposable = Observable.defer(() -> sendRequest.apply(messages))
+                .retry(3)
+                .doOnNext(responseBody -> delivered.set(true))
+                .map(SignalingDecoder::decode)
+                .observeOn(observeOnScheduler)
+                .subscribe(decodedBatch -> {
+                    decodedBatch.dispatch(callback);
+                    onBatchSent(null);
+                }, throwable -> {
+                    Log.d(TAG, "Failed to send a batch of " + batchSize + " signaling messages");
+                    onBatchSent(delivered.get() ? null : batch);
+                });
+    }
+
+    /**
+     * Drops everything that was not sent yet and stops accepting new messages.
+     */
+    public synchronized void release() {
+        released = true;
+        pendingMessages.clear();
+        disposeWindow();
+
+        if (sendDisposable != null && !sendDisposable.isDisposed()) {
+            sendDisposable.dispose();
+        }
+
+        sendDisposable = null;
+    }
+
+    private synchronized void onBatchSent(@Nullable List<NCSignalingMessage> failedBatch) {
+        sending = false;
+        sendDisposable = null;
+
+        if (released) {
+            return;
+        }
+
+        if (failedBatch != null) {
+            pendingMessages.addAll(0, failedBatch);
+            disposeWindow();
+            windowDisposable = Observable.timer(RETRY_DELAY_MS, TimeUnit.MILLISECONDS, timeScheduler)
+                    .subscribe(tick -> flush());
+        } else if (pendingMessages.size() > 0) {
+            flush();
+        }
+    }
+
+    private void disposeWindow() {
+        if (windowDisposable != null && !windowDisposable.isDisposed()) {
+            windowDisposable.dispose();
+        }
+
+        windowDisposable = null;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.webrtc;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Holds the peer connections of a call, keyed by the session id of the remote participant.
+ * <p>
+ * Peers are only ever created through {@link #getOrCreate(String)} and dropped through
+ * {@link #remove(String)}, so there is never more than one peer for a session.
+ */
+public class PeerConnectionRegistry<T> {
+    private final Map<String, T> peers = new LinkedHashMap<>();
+    private final Factory<T> factory;
+
+    public PeerConnectionRegistry(Factory<T> factory) {
+        this.factory = factory;
+    }
+
+    @Nullable
+    public synchronized T get(String sessionId) {
+        return peers.get(sessionId);
+    }
+
+    /**
+     * @return the peer for the session, or null if there was none and the factory declined to create one
+     */
+    @Nullable
+    public synchronized T getOrCreate(String sessionId) {
+        T peer = peers.get(sessionId);
+        if (peer == null) {
+            peer = factory.create(sessionId);
+            if (peer != null) {
+                peers.put(sessionId, peer);
+            }
+        }
+
+        return peer;
+    }
+
+    /**
+     * @return the removed peer, or null if there was none for the session
+     */
+    @Nullable
+    public synchronized T remove(String sessionId) {
+        return peers.remove(sessionId);
+    }
+
+    /**
+     * Removes every peer, e.g. when hanging up.
+     */
+    public synchronized List<T> removeAll() {
+        List<T> removedPeers = new ArrayList<>(peers.values());
+        peers.clear();
+        return removedPeers;
+    }
+
+    public synchronized boolean contains(String sessionId) {
+        return peers.containsKey(sessionId);
+    }
+
+    public synchronized int size() {
+        return peers.size();
+    }
+
+    /**
+     * @return a snapshot of the current peers, safe to iterate while the registry changes
+     */
+    public synchronized List<T> getAll() {
+        return new ArrayList<>(peers.values());
+    }
+
+    public synchronized Set<String> getSessionIds() {
+        return new HashSet<>(peers.keySet());
+    }
+
+    /**
+     * Compares the sessions that should be in the call with the peers we have.
+     *
+     * @param sessionsInCall remote sessions currently in the call, without our own
+     */
+    public synchronized RosterDiff reconcile(Collection<String> sessionsInCall) {
+        return RosterDiff.between(peers.keySet(), sessionsInCall);
+    }
+
+    public interface Factory<T> {
+        /**
+         * @return the new peer, or null if no peer should be created, e.g. while hanging up
+         */
+        @Nullable
+        T create(String sessionId);
+    }
+
+    public static class RosterDiff {
+        private final Set<String> joined;
+        private final Set<String> left;
+
+        RosterDiff(Set<String> joined, Set<String> left) {
+            this.joined = joined;
+            this.left = left;
+        }
+
+        /**
+         * @param current sessions we have peers for
+         * @param desired sessions that should have a peer
+         */
+        public static RosterDiff between(Collection<String> current, Collection<String> desired) {
+            Set<String> desiredSet = desired instanceof Set ? (Set<String>) desired : new HashSet<>(desired);
+            Set<String> currentSet = current instanceof Set ? (Set<String>) current : new HashSet<>(current);
+
+            Set<String> joined = new HashSet<>();
+            for (String sessionId : desiredSet) {
+                if (!currentSet.contains(sessionId)) {
+                    joined.add(sessionId);
+                }
+            }
+
+            Set<String> left = new HashSet<>();
+            for (String sessionId : currentSet) {
+                if (!desiredSet.contains(sessionId)) {
+                    left.add(sessionId);
+                }
+            }
+
+            return new RosterDiff(Collections.unmodifiableSet(joined), Collections.unmodifiableSet(left));
+        }
+
+        public Set<String> getJoined() {
+            return joined;
+        }
+
+        public Set<String> getLeft() {
+            return left;
+        }
+
+        public boolean isEmpty() {
+            return joined.isEmpty() && left.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.webrtc;
+
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+
+import org.webrtc.StatsReport;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+
+/**
+ * Periodically asks every peer of a call for its connection statistics and keeps the recent history of
+ * each one in a {@link PeerStatsRingBuffer}.
+ */
+public class PeerConnectionStatsSampler {
+    private final PeerConnectionRegistry<MagicPeerConnectionWrapper> peerConnectionRegistry;
+    private final Scheduler scheduler;
+    private final long intervalMs;
+    private final int capacity;
+    private final Listener listener;
+
+    private final Map<String, PeerStatsRingBuffer> peerStats = new HashMap<>();
+    private Disposable samplingDisposable;
+
+    /**
+     * @param scheduler the scheduler the reports are reduced on, also used to notify the listener
+     * @param capacity  the number of samples to keep per peer
+     */
+    public PeerConnectionStatsSampler(PeerConnectionRegistry<MagicPeerConnectionWrapper> peerConnectionRegistry,
+                                      Scheduler scheduler, long intervalMs, int capacity,
+                                      @Nullable Listener listener) {
+        this.peerConnectionRegistry = peerConnectionRegistry;
+        this.scheduler = scheduler;
+        this.intervalMs = intervalMs;
+        this.capacity = capacity;
+        this.listener = listener;
+    }
+
+    public synchronized void start() {
+        if (samplingDisposable != null) {
+            return;
+        }
+
+        samplingDisposable = Observable.interval(intervalMs, intervalMs, TimeUnit.MILLISECONDS, scheduler)
+                .subscribe(tick -> sample());
+    }
+
+    public synchronized void stop() {
+        if (samplingDisposable != null) {
+            samplingDisposable.dispose();
+            samplingDisposable = null;
+        }
+    }
+
+    /**
+     * @return the recent history of the peer, oldest first, or null if it was never sampled
+     */
+    @Nullable
+    public synchronized PeerStatsRingBuffer.Snapshot getSnapshot(String sessionId) {
+        PeerStatsRingBuffer peerStatsRingBuffer = peerStats.get(sessionId);
+        return peerStatsRingBuffer != null ? peerStatsRingBuffer.getSnapshot() : null;
+    }
+
+    private synchronized void sample() {
+        List<MagicPeerConnectionWrapper> peers = peerConnectionRegistry.getAll();
+
+        // Forget peers that are gone and report what the last round measured
+        peerStats.keySet().retainAll(peerConnectionRegistry.getSessionIds());
+        long totalAvailableSendKbps = 0;
+        boolean bandwidthKnown = false;
+        for (PeerStatsRingBuffer peerStatsRingBuffer : peerStats.values()) {
+            int availableSendKbps = peerStatsRingBuffer.getLatestAvailableSendKbps();
+            if (availableSendKbps != PeerStatsRingBuffer.UNKNOWN) {
+                totalAvailableSendKbps += availableSendKbps;
+                bandwidthKnown = true;
+            }
+        }
+
+        if (bandwidthKnown && listener != null) {
+            listener.onOutboundBandwidthMeasured(totalAvailableSendKbps);
+        }
+
+        for (MagicPeerConnectionWrapper magicPeerConnectionWrapper : peers) {
+            PeerStatsRingBuffer peerStatsRingBuffer = peerStats.get(magicPeerConnectionWrapper.getSessionId());
+            if (peerStatsRingBuffer == null) {
+                peerStatsRingBuffer = new PeerStatsRingBuffer(capacity);
+                peerStats.put(magicPeerConnectionWrapper.getSessionId(), peerStatsRingBuffer);
+            }
+
+            final PeerStatsRingBuffer targetRingBuffer = peerStatsRingBuffer;
+            magicPeerConnectionWrapper.requestStats(statsReports -> {
+                long timestamp = SystemClock.elapsedRealtime();
+                scheduler.scheduleDirect(() -> reduce(statsReports, timestamp, targetRingBuffer));
+            });
+        }
+    }
+
+    /**
+     * Adds up the counters of all the streams of a peer and records them as one sample.
+     */
+    static void reduce(StatsReport[] statsReports, long timestamp, PeerStatsRingBuffer peerStatsRingBuffer) {
+        int rtt = PeerStatsRingBuffer.UNKNOWN;
+        int jitter = PeerStatsRingBuffer.UNKNOWN;
+        int availableSendKbps = PeerStatsRingBuffer.UNKNOWN;
+        long bytesSent = 0;
+        long bytesReceived = 0;
+        long packetsReceived = 0;
+        long packetsLost = 0;
+
+        for (StatsReport statsReport : statsReports) {
+            if ("ssrc".equals(statsReport.type)) {
+                for (StatsReport.Value value : statsReport.values) {
+                    switch (value.name) {
+                        case "bytesSent":
+                            bytesSent += parseLong(value.value);
+                            break;
+                        case "bytesReceived":
+                            bytesReceived += parseLong(value.value);
+                            break;
+                        case "packetsReceived":
+                            packetsReceived += parseLong(value.value);
+                            break;
+                        case "packetsLost":
+                            packetsLost += parseLong(value.value);
+                            break;
+                        case "googJitterReceived":
+                            jitter = Math.max(jitter, (int) parseLong(value.value));
+                            break;
+                        case "googRtt":
+                            rtt = Math.max(rtt, (int) parseLong(value.value));
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            } else if ("VideoBwe".equals(statsReport.type)) {
+                for (StatsReport.Value value : statsReport.values) {
+                    if ("googAvailableSendBandwidth".equals(value.name)) {
+                        availableSendKbps = (int) (parseLong(value.value) / 1000);
+                    }
+                }
+            }
+        }
+
+        peerStatsRingBuffer.record(timestamp, rtt, jitter, bytesSent, bytesReceived,
+                packetsReceived, packetsLost, availableSendKbps);
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public interface Listener {
+        /**
+         * @param kbps the bandwidth estimates for sending to all peers, added up
+         */
+        void onOutboundBandwidthMeasured(long kbps);
+    }
+}
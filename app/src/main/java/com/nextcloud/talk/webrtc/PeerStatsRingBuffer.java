@@ -0,0 +1,202 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.webrtc;
+
+/**
+ * Recent connection statistics of a single peer, kept in fixed-size primitive arrays.
+ * <p>
+ * The arrays are allocated up front, recording a sample only overwrites the oldest one. Rates are
+ * derived from the cumulative counters of two consecutive samples.
+ */
+public class PeerStatsRingBuffer {
+    public static final int UNKNOWN = -1;
+
+    private final long[] timestamps;
+    private final int[] rttMs;
+    private final int[] jitterMs;
+    private final int[] outboundKbps;
+    private final int[] inboundKbps;
+    private final int[] packetLossPermille;
+    private final int[] availableSendKbps;
+
+    private int next;
+    private int size;
+
+    private long lastTimestamp = -1;
+    private long lastBytesSent;
+    private long lastBytesReceived;
+    private long lastPacketsReceived;
+    private long lastPacketsLost;
+
+    public PeerStatsRingBuffer(int capacity) {
+        timestamps = new long[capacity];
+        rttMs = new int[capacity];
+        jitterMs = new int[capacity];
+        outboundKbps = new int[capacity];
+        inboundKbps = new int[capacity];
+        packetLossPermille = new int[capacity];
+        availableSendKbps = new int[capacity];
+    }
+
+    /**
+     * Records a sample out of cumulative counters, as reported by the peer connection.
+     *
+     * @param rtt               round trip time in ms, or {@link #UNKNOWN}
+     * @param jitter            receive jitter in ms, or {@link #UNKNOWN}
+     * @param availableSendKbps bandwidth estimate for sending, or {@link #UNKNOWN}
+     */
+    public synchronized void record(long timestamp, int rtt, int jitter, long bytesSent, long bytesReceived,
+                                    long packetsReceived, long packetsLost, int availableSendKbps) {
+        int outbound = UNKNOWN;
+        int inbound = UNKNOWN;
+        int loss = UNKNOWN;
+
+        long elapsed = timestamp - lastTimestamp;
+        if (lastTimestamp != -1 && elapsed > 0) {
+            // bytes per ms * 8 is kbit per s. A counter that went back was reset, a stream was
+            // renegotiated for example, so there is nothing to compare it to until the next sample
+            if (bytesSent >= lastBytesSent) {
+                outbound = (int) ((bytesSent - lastBytesSent) * 8 / elapsed);
+            }
+            if (bytesReceived >= lastBytesReceived) {
+                inbound = (int) ((bytesReceived - lastBytesReceived) * 8 / elapsed);
+            }
+
+            long received = packetsReceived - lastPacketsReceived;
+            long lost = packetsLost - lastPacketsLost;
+            if (received >= 0 && lost >= 0 && received + lost > 0) {
+                loss = (int) (lost * 1000 / (received + lost));
+            }
+        }
+
+        lastTimestamp = timestamp;
+        lastBytesSent = bytesSent;
+        lastBytesReceived = bytesReceived;
+        lastPacketsReceived = packetsReceived;
+        lastPacketsLost = packetsLost;
+
+        timestamps[next] = timestamp;
+        rttMs[next] = rtt;
+        jitterMs[next] = jitter;
+        outboundKbps[next] = outbound;
+        inboundKbps[next] = inbound;
+        packetLossPermille[next] = loss;
+        this.availableSendKbps[next] = availableSendKbps;
+
+        next = (next + 1) % timestamps.length;
+        if (size < timestamps.length) {
+            size++;
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return the bandwidth estimate of the latest sample, or {@link #UNKNOWN}
+     */
+    public synchronized int getLatestAvailableSendKbps() {
+        if (size == 0) {
+            return UNKNOWN;
+        }
+
+        return availableSendKbps[(next - 1 + timestamps.length) % timestamps.length];
+    }
+
+    public Snapshot getSnapshot() {
+        Snapshot snapshot = new Snapshot(timestamps.length);
+        copyTo(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Copies the samples, oldest first, into a snapshot of at least the same capacity.
+     */
+    public synchronized void copyTo(Snapshot snapshot) {
+        int capacity = timestamps.length;
+        int start = (next - size + capacity) % capacity;
+        for (int i = 0; i < size; i++) {
+            int index = (start + i) % capacity;
+            snapshot.timestamps[i] = timestamps[index];
+            snapshot.rttMs[i] = rttMs[index];
+            snapshot.jitterMs[i] = jitterMs[index];
+            snapshot.outboundKbps[i] = outboundKbps[index];
+            snapshot.inboundKbps[i] = inboundKbps[index];
+            snapshot.packetLossPermille[i] = packetLossPermille[index];
+            snapshot.availableSendKbps[i] = availableSendKbps[index];
+        }
+        snapshot.size = size;
+    }
+
+    public static class Snapshot {
+        final long[] timestamps;
+        final int[] rttMs;
+        final int[] jitterMs;
+        final int[] outboundKbps;
+        final int[] inboundKbps;
+        final int[] packetLossPermille;
+        final int[] availableSendKbps;
+        int size;
+
+        public Snapshot(int capacity) {
+            timestamps = new long[capacity];
+            rttMs = new int[capacity];
+            jitterMs = new int[capacity];
+            outboundKbps = new int[capacity];
+            inboundKbps = new int[capacity];
+            packetLossPermille = new int[capacity];
+            availableSendKbps = new int[capacity];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long getTimestamp(int index) {
+            return timestamps[index];
+        }
+
+        public int getRttMs(int index) {
+            return rttMs[index];
+        }
+
+        public int getJitterMs(int index) {
+            return jitterMs[index];
+        }
+
+        public int getOutboundKbps(int index) {
+            return outboundKbps[index];
+        }
+
+        public int getInboundKbps(int index) {
+            return inboundKbps[index];
+        }
+
+        public int getPacketLossPermille(int index) {
+            return packetLossPermille[index];
+        }
+
+        public int getAvailableSendKbps(int index) {
+            return availableSendKbps[index];
+        }
+    }
+}
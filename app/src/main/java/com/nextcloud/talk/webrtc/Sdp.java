@@ -0,0 +1,349 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.webrtc;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * A session description split into its session part and media sections.
+ * <p>
+ * The description is parsed once, any number of transforms can be applied to it and it is written back
+ * once with {@link #toString()}. Transforms change the description in place and return it, so they can
+ * be chained:
+ * <pre>
+ *     Sdp.parse(description).preferCodec(Sdp.VIDEO, "VP8").setBandwidth(Sdp.VIDEO, 500).toString();
+ * </pre>
+ */
+public class Sdp {
+    public static final String AUDIO = "audio";
+    public static final String VIDEO = "video";
+
+    private static final String LINE_SEPARATOR = "\r\n";
+
+    private final List<String> sessionLines = new ArrayList<>();
+    private final List<MediaSection> mediaSections = new ArrayList<>();
+    private final int length;
+
+    private Sdp(int length) {
+        this.length = length;
+    }
+
+    public static Sdp parse(String description) {
+        Sdp sdp = new Sdp(description.length());
+        MediaSection mediaSection = null;
+
+        int start = 0;
+        int length = description.length();
+        while (start < length) {
+            int end = description.indexOf('\n', start);
+            if (end == -1) {
+                end = length;
+            }
+
+            int lineEnd = end > start && description.charAt(end - 1) == '\r' ? end - 1 : end;
+            if (lineEnd > start) {
+                String line = description.substring(start, lineEnd);
+                if (line.startsWith("m=")) {
+                    mediaSection = new MediaSection(line);
+                    sdp.mediaSections.add(mediaSection);
+                } else if (mediaSection != null) {
+                    mediaSection.addLine(line);
+                } else {
+                    sdp.sessionLines.add(line);
+                }
+            }
+
+            start = end + 1;
+        }
+
+        return sdp;
+    }
+
+    public List<MediaSection> getMediaSections() {
+        return mediaSections;
+    }
+
+    /**
+     * Moves all payload types of the codec to the front of every section of the given media.
+     */
+    public Sdp preferCodec(String media, String codec) {
+        for (int i = 0; i < mediaSections.size(); i++) {
+            MediaSection mediaSection = mediaSections.get(i);
+            if (mediaSection.media.equals(media)) {
+                mediaSection.preferCodec(codec);
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * Caps the bandwidth of every section of the given media, both as b=AS (kbps) and b=TIAS (bps).
+     *
+     * @param kbps the cap, or 0 to remove an existing one
+     */
+    public Sdp setBandwidth(String media, int kbps) {
+        for (int i = 0; i < mediaSections.size(); i++) {
+            MediaSection mediaSection = mediaSections.get(i);
+            if (mediaSection.media.equals(media)) {
+                mediaSection.setBandwidth(kbps);
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * Drops every codec of the given media that is not listed, together with its rtpmap, fmtp and
+     * rtcp-fb attributes. Retransmission payload types of kept codecs are kept as well.
+     */
+    public Sdp retainCodecs(String media, Collection<String> codecs) {
+        Set<String> codecNames = new HashSet<>();
+        for (String codec : codecs) {
+            codecNames.add(codec.toUpperCase(Locale.US));
+        }
+
+        for (int i = 0; i < mediaSections.size(); i++) {
+            MediaSection mediaSection = mediaSections.get(i);
+            if (mediaSection.media.equals(media)) {
+                mediaSection.retainCodecs(codecNames);
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * Rejects every section of the given media by setting its port to 0.
+     */
+    public Sdp disableMedia(String media) {
+        for (int i = 0; i < mediaSections.size(); i++) {
+            MediaSection mediaSection = mediaSections.get(i);
+            if (mediaSection.media.equals(media)) {
+                mediaSection.port = "0";
+            }
+        }
+
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder stringBuilder = new StringBuilder(length + 64);
+        for (int i = 0; i < sessionLines.size(); i++) {
+            stringBuilder.append(sessionLines.get(i)).append(LINE_SEPARATOR);
+        }
+
+        for (int i = 0; i < mediaSections.size(); i++) {
+            mediaSections.get(i).appendTo(stringBuilder);
+        }
+
+        return stringBuilder.toString();
+    }
+
+    public static class MediaSection {
+        private final String media;
+        private final String proto;
+        private final List<String> payloadTypes = new ArrayList<>();
+        private final List<String> lines = new ArrayList<>();
+        private String port;
+
+        MediaSection(String mLine) {
+            // m=<media> <port> <proto> <fmt> ...
+            String[] parts = mLine.substring(2).split(" ");
+            media = parts[0];
+            port = parts.length > 1 ? parts[1] : "0";
+            proto = parts.length > 2 ? parts[2] : "";
+            for (int i = 3; i < parts.length; i++) {
+                payloadTypes.add(parts[i]);
+            }
+        }
+
+        void addLine(String line) {
+            lines.add(line);
+        }
+
+        public String getMedia() {
+            return media;
+        }
+
+        public List<String> getPayloadTypes() {
+            return payloadTypes;
+        }
+
+        /**
+         * @return the encoding name of the payload type in upper case, or null if it has no rtpmap
+         */
+        public String getCodec(String payloadType) {
+            String prefix = "a=rtpmap:" + payloadType + " ";
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i);
+                if (line.startsWith(prefix)) {
+                    int slash = line.indexOf('/', prefix.length());
+                    return line.substring(prefix.length(), slash == -1 ? line.length() : slash)
+                            .toUpperCase(Locale.US);
+                }
+            }
+
+            return null;
+        }
+
+        void preferCodec(String codec) {
+            List<String> preferred = new ArrayList<>();
+            for (int i = 0; i < lines.size(); i++) {
+                String payloadType = getRtpmapPayloadType(lines.get(i));
+                if (payloadType != null && codec.equalsIgnoreCase(getCodec(lines.get(i), payloadType))) {
+                    preferred.add(payloadType);
+                }
+            }
+
+            if (preferred.isEmpty()) {
+                return;
+            }
+
+            payloadTypes.removeAll(preferred);
+            payloadTypes.addAll(0, preferred);
+        }
+
+        void setBandwidth(int kbps) {
+            int insertAt = 0;
+            for (int i = lines.size() - 1; i >= 0; i--) {
+                String line = lines.get(i);
+                if (line.startsWith("b=AS:") || line.startsWith("b=TIAS:")) {
+                    lines.remove(i);
+                }
+            }
+
+            // b= lines go after the optional i= and c= lines of the section
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i);
+                if (line.startsWith("i=") || line.startsWith("c=")) {
+                    insertAt = i + 1;
+                } else {
+                    break;
+                }
+            }
+
+            if (kbps > 0) {
+                lines.add(insertAt, "b=AS:" + kbps);
+                lines.add(insertAt + 1, "b=TIAS:" + (kbps * 1000L));
+            }
+        }
+
+        void retainCodecs(Set<String> codecNames) {
+            Set<String> kept = new HashSet<>();
+            for (int i = 0; i < lines.size(); i++) {
+                String payloadType = getRtpmapPayloadType(lines.get(i));
+                if (payloadType != null && codecNames.contains(getCodec(lines.get(i), payloadType))) {
+                    kept.add(payloadType);
+                }
+            }
+
+            // Keep rtx streams that retransmit one of the kept codecs
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i);
+                int aptIndex = line.indexOf("apt=");
+                if (line.startsWith("a=fmtp:") && aptIndex != -1) {
+                    int end = aptIndex + 4;
+                    while (end < line.length() && Character.isDigit(line.charAt(end))) {
+                        end++;
+                    }
+
+                    if (kept.contains(line.substring(aptIndex + 4, end))) {
+                        kept.add(line.substring("a=fmtp:".length(), line.indexOf(' ')));
+                    }
+                }
+            }
+
+            Set<String> removed = new HashSet<>();
+            for (int i = 0; i < payloadTypes.size(); i++) {
+                String payloadType = payloadTypes.get(i);
+                // Static payload types without rtpmap can't be identified, leave them alone
+                if (!kept.contains(payloadType) && getCodec(payloadType) != null) {
+                    removed.add(payloadType);
+                }
+            }
+
+            if (removed.isEmpty() || removed.size() == payloadTypes.size()) {
+                return;
+            }
+
+            payloadTypes.removeAll(removed);
+            for (int i = lines.size() - 1; i >= 0; i--) {
+                String payloadType = getAttributePayloadType(lines.get(i));
+                if (payloadType != null && removed.contains(payloadType)) {
+                    lines.remove(i);
+                }
+            }
+        }
+
+        void appendTo(StringBuilder stringBuilder) {
+            stringBuilder.append("m=").append(media).append(' ').append(port).append(' ').append(proto);
+            for (int i = 0; i < payloadTypes.size(); i++) {
+                stringBuilder.append(' ').append(payloadTypes.get(i));
+            }
+            stringBuilder.append(LINE_SEPARATOR);
+
+            for (int i = 0; i < lines.size(); i++) {
+                stringBuilder.append(lines.get(i)).append(LINE_SEPARATOR);
+            }
+        }
+
+        private static String getRtpmapPayloadType(String line) {
+            if (!line.startsWith("a=rtpmap:")) {
+                return null;
+            }
+
+            int space = line.indexOf(' ');
+            return space == -1 ? null : line.substring("a=rtpmap:".length(), space);
+        }
+
+        private static String getCodec(String rtpmapLine, String payloadType) {
+            int start = "a=rtpmap:".length() + payloadType.length() + 1;
+            int slash = rtpmapLine.indexOf('/', start);
+            return rtpmapLine.substring(start, slash == -1 ? rtpmapLine.length() : slash).toUpperCase(Locale.US);
+        }
+
+        /**
+         * @return the payload type of an rtpmap, fmtp or rtcp-fb attribute, or null for other lines
+         */
+        private static String getAttributePayloadType(String line) {
+            int start;
+            if (line.startsWith("a=rtpmap:")) {
+                start = "a=rtpmap:".length();
+            } else if (line.startsWith("a=fmtp:")) {
+                start = "a=fmtp:".length();
+            } else if (line.startsWith("a=rtcp-fb:")) {
+                start = "a=rtcp-fb:".length();
+            } else {
+                return null;
+            }
+
+            int space = line.indexOf(' ', start);
+            return space == -1 ? null : line.substring(start, space);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.webrtc;
+
+import android.util.Log;
+
+import com.nextcloud.talk.api.NcApi;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+import okhttp3.ResponseBody;
+import retrofit2.HttpException;
+
+/**
+ * Owns the long-poll loop against the internal signaling endpoint.
+ * <p>
+ * A poll that returns messages is immediately followed by the next one. The roster the server adds to every
+ * answer doesn't count as a message. A poll that fails, or comes back without messages before the server could
+ * have held it open, is followed by an exponentially growing and jittered pause so that a misbehaving server is
+ * not hammered by every client in the call. A 404 means we are no longer in the room and ends the polling.
+ */
+public class SignalingClient {
+    private static final String TAG = "SignalingClient";
+
+    // An empty answer that took less than this was not held open by the server
+    private static final long MIN_LONG_POLL_DURATION_MS = 1000;
+
+    private static final long MIN_BACKOFF_MS = 250;
+    private static final long MAX_IDLE_BACKOFF_MS = 5000;
+    private static final long MAX_ERROR_BACKOFF_MS = 30000;
+
+    private final Observable<ResponseBody> pullRequest;
+    private final Scheduler observeOnScheduler;
+    private final Scheduler timeScheduler;
+    private final SignalingDecoder.Callback callback;
+
+    private final Random random = new Random();
+    private final AtomicLong pollCount = new AtomicLong();
+    private final AtomicLong messageCount = new AtomicLong();
+
+    private volatile boolean running;
+    private Disposable pollDisposable;
+    private int consecutiveIdlePolls;
+    private int consecutiveFailedPolls;
+    private long startedAt;
+
+    public SignalingClient(NcApi ncApi, String credentials, String url, Scheduler observeOnScheduler,
+                           SignalingDecoder.Callback callback) {
+        // Retrofit sends the request again for every subscription
+        this(ncApi.pullSignalingMessages(credentials, url), observeOnScheduler, Schedulers.computation(), callback);
+    }
+
+    SignalingClient(Observable<ResponseBody> pullRequest, Scheduler observeOnScheduler, Scheduler timeScheduler,
+                    SignalingDecoder.Callback callback) {
+        this.pullRequest = pullRequest;
+        this.observeOnScheduler = observeOnScheduler;
+        this.timeScheduler = timeScheduler;
+        this.callback = callback;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+
+        running = true;
+        consecutiveIdlePolls = 0;
+        consecutiveFailedPolls = 0;
+        pollCount.set(0);
+        messageCount.set(0);
+        startedAt = timeScheduler.now(TimeUnit.MILLISECONDS);
+        schedulePoll(0);
+    }
+
+    public synchronized void stop() {
+        running = false;
+
+        if (pollDisposable != null && !pollDisposable.isDisposed()) {
+            pollDisposable.dispose();
+        }
+
+        pollDisposable = null;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return the average number of polls per second since {@link #start()} was called
+     */
+    public double getPollsPerSecond() {
+        long elapsed = timeScheduler.now(TimeUnit.MILLISECONDS) - startedAt;
+        if (elapsed <= 0) {
+            return 0;
+        }
+
+        return pollCount.get() * 1000d / elapsed;
+    }
+
+    /**
+     * @return the average number of signaling messages delivered by a single poll
+     */
+    public double getMessagesPerPoll() {
+        long polls = pollCount.get();
+        if (polls == 0) {
+            return 0;
+        }
+
+        return (double) messageCount.get() / polls;
+    }
+
+    public long getPollCount() {
+        return pollCount.get();
+    }
+
+    private synchronized void schedulePoll(long delayMs) {
+        if (!running) {
+            return;
+        }
+
+        final long[] pollStartedAt = new long[1];
+        pollDisposable = Observable.timer(delayMs, TimeUnit.MILLISECONDS, timeScheduler)
+                .flatMap(tick -> {
+                    pollStartedAt[0] = timeScheduler.now(TimeUnit.MILLISECONDS);
+                    return pullRequest;
+                })
+                .map(SignalingDecoder::decode)
+                .observeOn(observeOnScheduler)
+                .subscribe(batch -> onPollSucceeded(batch,
+                        timeScheduler.now(TimeUnit.MILLISECONDS) - pollStartedAt[0]),
+                        this::onPollFailed);
+    }
+
+    private void onPollSucceeded(SignalingDecoder.Batch batch, long pollDuration) {
+        if (!running) {
+            return;
+        }
+
+        pollCount.incrementAndGet();
+        consecutiveFailedPolls = 0;
+
+        batch.dispatch(callback);
+
+        if (batch.getMessageCount() > 0) {
+            messageCount.addAndGet(batch.getMessageCount());
+            consecutiveIdlePolls = 0;
+            schedulePoll(0);
+        } else if (pollDuration >= MIN_LONG_POLL_DURATION_MS) {
+            // A proper long poll that simply timed out, reconnect right away
+            consecutiveIdlePolls = 0;
+            schedulePoll(0);
+        } else {
+            schedulePoll(getBackoffDelay(++consecutiveIdlePolls, MAX_IDLE_BACKOFF_MS));
+        }
+    }
+
+    private void onPollFailed(Throwable throwable) {
+        if (!running) {
+            return;
+        }
+
+        pollCount.incrementAndGet();
+        if (throwable instanceof HttpException && ((HttpException) throwable).code() == 404) {
+            // Our session is gone from the room, polling again won't bring it back
+            Log.d(TAG, "Not in the room anymore, stopped pulling signaling messages");
+            stop();
+            return;
+        }
+
+        long delay = getBackoffDelay(++consecutiveFailedPolls, MAX_ERROR_BACKOFF_MS);
+        Log.d(TAG, "Failed to pull signaling messages, retrying in " + delay + "ms");
+        schedulePoll(delay);
+    }
+
+    private long getBackoffDelay(int attempt, long maxDelay) {
+        long ceiling = Math.min(maxDelay, MIN_BACKOFF_MS << Math.min(attempt - 1, 16));
+        // equal jitter: keep half of the ceiling, randomize the other half
+        return ceiling / 2 + (long) (random.nextDouble() * (ceiling / 2));
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.webrtc;
+
+import com.bluelinelabs.logansquare.JsonMapper;
+import com.bluelinelabs.logansquare.LoganSquare;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.nextcloud.talk.api.models.json.participants.Participant;
+import com.nextcloud.talk.api.models.json.signaling.NCSignalingMessage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.ResponseBody;
+
+/**
+ * Decodes the answer of the internal signaling endpoint in a single streaming pass.
+ * <p>
+ * The type of every entry is known before its "data" is reached, so the data is read straight into
+ * the matching model instead of going through an untyped {@code Object}, back to a string and through
+ * the parser a second time. Message payloads the server sends as an embedded JSON string are parsed
+ * once, directly from that string.
+ */
+public class SignalingDecoder {
+    private static final JsonMapper<NCSignalingMessage> NC_SIGNALING_MESSAGE_MAPPER =
+            LoganSquare.mapperFor(NCSignalingMessage.class);
+
+    private SignalingDecoder() {
+    }
+
+    /**
+     * Decodes and closes the body, keeping the entries for delivery on another thread.
+     */
+    public static Batch decode(ResponseBody responseBody) throws IOException {
+        Batch batch = new Batch();
+        try {
+            decode(responseBody.byteStream(), batch);
+        } finally {
+            responseBody.close();
+        }
+        return batch;
+    }
+
+    /**
+     * @return the number of entries handed to the callback
+     */
+    public static int decode(InputStream inputStream, Callback callback) throws IOException {
+        try (JsonParser jsonParser = LoganSquare.JSON_FACTORY.createParser(inputStream)) {
+            return decode(jsonParser, callback);
+        }
+    }
+
+    public static int decode(String json, Callback callback) throws IOException {
+        try (JsonParser jsonParser = LoganSquare.JSON_FACTORY.createParser(json)) {
+            return decode(jsonParser, callback);
+        }
+    }
+
+    private static int decode(JsonParser jsonParser, Callback callback) throws IOException {
+        if (jsonParser.nextToken() != JsonToken.START_OBJECT) {
+            return 0;
+        }
+
+        int count = 0;
+        while (jsonParser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = jsonParser.getCurrentName();
+            jsonParser.nextToken();
+            if ("ocs".equals(fieldName) && jsonParser.getCurrentToken() == JsonToken.START_OBJECT) {
+                count += decodeOcs(jsonParser, callback);
+            } else {
+                jsonParser.skipChildren();
+            }
+        }
+
+        return count;
+    }
+
+    private static int decodeOcs(JsonParser jsonParser, Callback callback) throws IOException {
+        int count = 0;
+        while (jsonParser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = jsonParser.getCurrentName();
+            jsonParser.nextToken();
+            if ("data".equals(fieldName) && jsonParser.getCurrentToken() == JsonToken.START_ARRAY) {
+                while (jsonParser.nextToken() != JsonToken.END_ARRAY) {
+                    if (jsonParser.getCurrentToken() == JsonToken.START_OBJECT) {
+                        if (decodeSignaling(jsonParser, callback)) {
+                            count++;
+                        }
+                    } else {
+                        jsonParser.skipChildren();
+                    }
+                }
+            } else {
+                jsonParser.skipChildren();
+            }
+        }
+
+        return count;
+    }
+
+    private static boolean decodeSignaling(JsonParser jsonParser, Callback callback) throws IOException {
+        String type = null;
+        String bufferedData = null;
+        boolean dispatched = false;
+
+        while (jsonParser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = jsonParser.getCurrentName();
+            jsonParser.nextToken();
+            if ("type".equals(fieldName)) {
+                type = jsonParser.getValueAsString();
+                if (type != null && bufferedData != null) {
+                    // "data" came first, which the server doesn't do, but don't lose it
+                    try (JsonParser dataParser = LoganSquare.JSON_FACTORY.createParser(bufferedData)) {
+                        dataParser.nextToken();
+                        dispatched = decodeData(type, dataParser, callback);
+                    }
+                    bufferedData = null;
+                }
+            } else if ("data".equals(fieldName)) {
+                if (type != null) {
+                    dispatched = decodeData(type, jsonParser, callback);
+                } else {
+                    bufferedData = copyCurrentStructure(jsonParser);
+                }
+            } else {
+                jsonParser.skipChildren();
+            }
+        }
+
+        return dispatched;
+    }
+
+    private static boolean decodeData(String type, JsonParser jsonParser, Callback callback) throws IOException {
+        switch (type) {
+            case "usersInRoom":
+                if (jsonParser.getCurrentToken() != JsonToken.START_ARRAY) {
+                    jsonParser.skipChildren();
+                    return false;
+                }
+
+                List<Participant> participants = new ArrayList<>();
+                while (jsonParser.nextToken() != JsonToken.END_ARRAY) {
+                    if (jsonParser.getCurrentToken() == JsonToken.START_OBJECT) {
+                        participants.add(parseParticipant(jsonParser));
+                    } else {
+                        jsonParser.skipChildren();
+                    }
+                }
+                callback.onUsersInRoom(participants);
+                return true;
+            case "message":
+                NCSignalingMessage ncSignalingMessage = null;
+                if (jsonParser.getCurrentToken() == JsonToken.VALUE_STRING) {
+                    try (JsonParser messageParser = LoganSquare.JSON_FACTORY.createParser(jsonParser.getText())) {
+                        messageParser.nextToken();
+                        ncSignalingMessage = NC_SIGNALING_MESSAGE_MAPPER.parse(messageParser);
+                    }
+                } else if (jsonParser.getCurrentToken() == JsonToken.START_OBJECT) {
+                    ncSignalingMessage = NC_SIGNALING_MESSAGE_MAPPER.parse(jsonParser);
+                } else {
+                    jsonParser.skipChildren();
+                }
+
+                if (ncSignalingMessage != null) {
+                    callback.onSignalingMessage(ncSignalingMessage);
+                    return true;
+                }
+                return false;
+            default:
+                jsonParser.skipChildren();
+                return false;
+        }
+    }
+
+    private static Participant parseParticipant(JsonParser jsonParser) throws IOException {
+        Participant participant = new Participant();
+        while (jsonParser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = jsonParser.getCurrentName();
+            jsonParser.nextToken();
+            switch (fieldName) {
+                case "userId":
+                    participant.setUserId(jsonParser.getValueAsString());
+                    break;
+                case "sessionId":
+                    participant.setSessionId(jsonParser.getValueAsString());
+                    break;
+                case "inCall":
+                    // a boolean on older servers, call flags on newer ones
+                    participant.setInCall(jsonParser.getValueAsBoolean());
+                    break;
+                case "lastPing":
+                    participant.setLastPing(jsonParser.getValueAsLong());
+                    break;
+                case "roomId":
+                    participant.setRoomId(jsonParser.getValueAsLong());
+                    break;
+                default:
+                    jsonParser.skipChildren();
+                    break;
+            }
+        }
+
+        return participant;
+    }
+
+    /**
+     * Builds a participant out of an entry of an already decoded roster, as delivered by the standalone
+     * signaling server.
+     */
+    public static Participant toParticipant(Map<String, Object> map) {
+        Participant participant = new Participant();
+        participant.setUserId(map.get("userId") instanceof String ? (String) map.get("userId") : null);
+        participant.setSessionId(map.get("sessionId") instanceof String ? (String) map.get("sessionId") : null);
+
+        Object inCall = map.get("inCall");
+        participant.setInCall(Boolean.TRUE.equals(inCall) || (inCall instanceof Number &&
+                ((Number) inCall).intValue() != 0));
+
+        if (map.get("lastPing") instanceof Number) {
+            participant.setLastPing(((Number) map.get("lastPing")).longValue());
+        }
+
+        return participant;
+    }
+
+    private static String copyCurrentStructure(JsonParser jsonParser) throws IOException {
+        StringWriter stringWriter = new StringWriter();
+        try (JsonGenerator jsonGenerator = LoganSquare.JSON_FACTORY.createGenerator(stringWriter)) {
+            jsonGenerator.copyCurrentStructure(jsonParser);
+        }
+        return stringWriter.toString();
+    }
+
+    public interface Callback {
+        void onUsersInRoom(List<Participant> participants);
+
+        void onSignalingMessage(NCSignalingMessage ncSignalingMessage);
+    }
+
+    /**
+     * Keeps decoded entries in order so that they can be decoded on one thread and delivered on another.
+     */
+    public static class Batch implements Callback {
+        private final List<Object> entries = new ArrayList<>();
+        private int messageCount;
+
+        @Override
+        public void onUsersInRoom(List<Participant> participants) {
+            entries.add(participants);
+        }
+
+        @Override
+        public void onSignalingMessage(NCSignalingMessage ncSignalingMessage) {
+            entries.add(ncSignalingMessage);
+            messageCount++;
+        }
+
+        public int size() {
+            return entries.size();
+        }
+
+        /**
+         * @return the number of signaling messages, without the rosters the server adds to every answer
+         */
+        public int getMessageCount() {
+            return messageCount;
+        }
+
+        @SuppressWarnings("unchecked")
+        public void dispatch(Callback callback) {
+            for (int i = 0; i < entries.size(); i++) {
+                Object entry = entries.get(i);
+                if (entry instanceof NCSignalingMessage) {
+                    callback.onSignalingMessage((NCSignalingMessage) entry);
+                } else {
+                    callback.onUsersInRoom((List<Participant>) entry);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.webrtc;
+
+import com.bluelinelabs.logansquare.JsonMapper;
+import com.bluelinelabs.logansquare.LoganSquare;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.nextcloud.talk.api.models.json.signaling.NCSignalingMessage;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import okio.Buffer;
+
+/**
+ * Writes outgoing signaling messages in the envelope the internal signaling endpoint expects:
+ * {@code {"fn":"<message as an escaped JSON string>","sessionId":"...","ev":"message"}}.
+ * <p>
+ * The message is serialized into a reused buffer and escaped from there straight into the output, so
+ * no intermediate strings are built for the payload. Not thread safe, every user should keep its own.
+ */
+public class SignalingMessageWriter {
+    private static final JsonMapper<NCSignalingMessage> NC_SIGNALING_MESSAGE_MAPPER =
+            LoganSquare.mapperFor(NCSignalingMessage.class);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] HEX_DIGITS = {
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+    };
+
+    private final Buffer payloadBuffer = new Buffer();
+    private final Buffer outputBuffer = new Buffer();
+    private final byte[] chunk = new byte[2048];
+
+    public String write(NCSignalingMessage ncSignalingMessage, String sessionId) throws IOException {
+        try {
+            writeEnvelope(ncSignalingMessage, sessionId);
+        } catch (IOException e) {
+            clear();
+            throw e;
+        }
+
+        return outputBuffer.readUtf8();
+    }
+
+    /**
+     * @return all messages as a single JSON array, ready to be used as the "messages" field
+     */
+    public String writeBatch(List<NCSignalingMessage> ncSignalingMessages, String sessionId) throws IOException {
+        try {
+            outputBuffer.writeByte('[');
+            for (int i = 0; i < ncSignalingMessages.size(); i++) {
+                if (i > 0) {
+                    outputBuffer.writeByte(',');
+                }
+                writeEnvelope(ncSignalingMessages.get(i), sessionId);
+            }
+            outputBuffer.writeByte(']');
+        } catch (IOException e) {
+            clear();
+            throw e;
+        }
+
+        return outputBuffer.readUtf8();
+    }
+
+    private void clear() {
+        payloadBuffer.clear();
+        outputBuffer.clear();
+    }
+
+    private void writeEnvelope(NCSignalingMessage ncSignalingMessage, String sessionId) throws IOException {
+        JsonGenerator jsonGenerator = LoganSquare.JSON_FACTORY.createGenerator(payloadBuffer.outputStream());
+        NC_SIGNALING_MESSAGE_MAPPER.serialize(ncSignalingMessage, jsonGenerator, true);
+        jsonGenerator.close();
+
+        outputBuffer.writeUtf8("{\"fn\":\"");
+        int read;
+        while ((read = payloadBuffer.read(chunk, 0, chunk.length)) > 0) {
+            writeEscaped(chunk, read);
+        }
+        outputBuffer.writeUtf8("\",\"sessionId\":\"");
+        if (sessionId != null) {
+            byte[] sessionIdBytes = sessionId.getBytes(UTF_8);
+            writeEscaped(sessionIdBytes, sessionIdBytes.length);
+        }
+        outputBuffer.writeUtf8("\",\"ev\":\"message\"}");
+    }
+
+    /**
+     * Escapes UTF-8 encoded JSON for use inside a JSON string. Multi-byte sequences never contain bytes
+     * below 0x80, so they are copied as they are.
+     */
+    private void writeEscaped(byte[] bytes, int length) {
+        int runStart = 0;
+        for (int i = 0; i < length; i++) {
+            byte b = bytes[i];
+            if (b == '"' || b == '\\' || (b >= 0 && b < 0x20)) {
+                if (i > runStart) {
+                    outputBuffer.write(bytes, runStart, i - runStart);
+                }
+                runStart = i + 1;
+
+                outputBuffer.writeByte('\\');
+                switch (b) {
+                    case '"':
+                    case '\\':
+                        outputBuffer.writeByte(b);
+                        break;
+                    case '\n':
+                        outputBuffer.writeByte('n');
+                        break;
+                    case '\r':
+                        outputBuffer.writeByte('r');
+                        break;
+                    case '\t':
+                        outputBuffer.writeByte('t');
+                        break;
+                    default:
+                        outputBuffer.writeByte('u').writeByte('0').writeByte('0')
+                                .writeByte(HEX_DIGITS[(b >> 4) & 0xf]).writeByte(HEX_DIGITS[b & 0xf]);
+                        break;
+                }
+            }
+        }
+
+        if (length > runStart) {
+            outputBuffer.write(bytes, runStart, length - runStart);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.webrtc;
+
+import com.nextcloud.talk.api.models.json.participants.Participant;
+import com.nextcloud.talk.api.models.json.signaling.NCSignalingMessage;
+
+import java.util.List;
+
+/**
+ * A way of exchanging signaling messages with the other participants of a call.
+ */
+public interface SignalingTransport {
+
+    void connect();
+
+    void disconnect();
+
+    void sendMessage(NCSignalingMessage ncSignalingMessage);
+
+    /**
+     * @return the session id the other participants know us by, or null if not connected yet
+     */
+    String getSessionId();
+
+    interface Listener {
+        void onUsersInRoom(List<Participant> participants);
+
+        void onSignalingMessage(NCSignalingMessage ncSignalingMessage);
+    }
+}
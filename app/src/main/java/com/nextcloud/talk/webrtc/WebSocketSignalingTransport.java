@@ -0,0 +1,366 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.webrtc;
+
+import android.util.Log;
+
+import com.bluelinelabs.logansquare.LoganSquare;
+import com.nextcloud.talk.api.models.json.participants.Participant;
+import com.nextcloud.talk.api.models.json.signaling.NCSignalingMessage;
+import com.nextcloud.talk.api.models.json.websocket.ActorWebSocketMessage;
+import com.nextcloud.talk.api.models.json.websocket.AuthParametersWebSocketMessage;
+import com.nextcloud.talk.api.models.json.websocket.AuthWebSocketMessage;
+import com.nextcloud.talk.api.models.json.websocket.BaseWebSocketMessage;
+import com.nextcloud.talk.api.models.json.websocket.CallOverallWebSocketMessage;
+import com.nextcloud.talk.api.models.json.websocket.CallWebSocketMessage;
+import com.nextcloud.talk.api.models.json.websocket.ErrorOverallWebSocketMessage;
+import com.nextcloud.talk.api.models.json.websocket.EventOverallWebSocketMessage;
+import com.nextcloud.talk.api.models.json.websocket.HelloOverallWebSocketMessage;
+import com.nextcloud.talk.api.models.json.websocket.HelloResponseOverallWebSocketMessage;
+import com.nextcloud.talk.api.models.json.websocket.HelloWebSocketMessage;
+import com.nextcloud.talk.api.models.json.websocket.RoomOverallWebSocketMessage;
+import com.nextcloud.talk.api.models.json.websocket.RoomWebSocketMessage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Observable;
+import io.reactivex.Scheduler;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+
+/**
+ * Signaling through a standalone signaling server, speaking its hello/room/message protocol over a
+ * single persistent WebSocket.
+ */
+public class WebSocketSignalingTransport extends WebSocketListener implements SignalingTransport {
+    private static final String TAG = "WebSocketSignalingTransport";
+
+    private static final String PROTOCOL_VERSION = "1.0";
+    private static final int NORMAL_CLOSURE = 1000;
+    private static final long MIN_RECONNECT_DELAY_MS = 500;
+    private static final long MAX_RECONNECT_DELAY_MS = 30000;
+
+    private final OkHttpClient okHttpClient;
+    private final String webSocketUrl;
+    private final String backendUrl;
+    private final String userId;
+    private final String ticket;
+    private final String roomToken;
+    private final String roomSessionId;
+    private final Scheduler observeOnScheduler;
+    private final Listener listener;
+
+    private final List<String> pendingMessages = new ArrayList<>();
+
+    private WebSocket webSocket;
+    private Disposable reconnectDisposable;
+    private volatile String sessionId;
+    private String resumeId;
+    private boolean helloCompleted;
+    private boolean closedByUser;
+    private int reconnectAttempts;
+
+    /**
+     * @param server        the signaling server as advertised by the signaling settings
+     * @param baseUrl       the Nextcloud server the signaling server verifies us against
+     * @param roomSessionId the session returned when joining the room through the OCS API
+     */
+    public WebSocketSignalingTransport(OkHttpClient okHttpClient, String server, String baseUrl, String userId,
+                                       String ticket, String roomToken, String roomSessionId,
+                                       Scheduler observeOnScheduler, Listener listener) {
+        this.okHttpClient = okHttpClient;
+        this.webSocketUrl = getWebSocketUrl(server);
+        this.backendUrl = baseUrl + "/ocs/v2.php/apps/spreed/api/v1/signaling/backend";
+        this.userId = userId;
+        this.ticket = ticket;
+        this.roomToken = roomToken;
+        this.roomSessionId = roomSessionId;
+        this.observeOnScheduler = observeOnScheduler;
+        this.listener = listener;
+    }
+
+    static String getWebSocketUrl(String server) {
+        String url = server;
+        if (url.startsWith("https://")) {
+            url = "wss://" + url.substring("https://".length());
+        } else if (url.startsWith("http://")) {
+            url = "ws://" + url.substring("http://".length());
+        }
+
+        while (url.endsWith("/")) {
+            url = url.substring(0, url.length() - 1);
+        }
+
+        if (!url.endsWith("/spreed")) {
+            url += "/spreed";
+        }
+
+        return url;
+    }
+
+    @Override
+    public synchronized void connect() {
+        closedByUser = false;
+        helloCompleted = false;
+        webSocket = okHttpClient.newWebSocket(new Request.Builder().url(webSocketUrl).build(), this);
+    }
+
+    @Override
+    public synchronized void disconnect() {
+        closedByUser = true;
+        pendingMessages.clear();
+
+        if (reconnectDisposable != null && !reconnectDisposable.isDisposed()) {
+            reconnectDisposable.dispose();
+        }
+
+        if (webSocket != null) {
+            webSocket.close(NORMAL_CLOSURE, "Bye");
+            webSocket = null;
+        }
+    }
+
+    @Override
+    public synchronized void sendMessage(NCSignalingMessage ncSignalingMessage) {
+        ActorWebSocketMessage recipient = new ActorWebSocketMessage();
+        recipient.setType("session");
+        recipient.setSessionId(ncSignalingMessage.getTo());
+
+        CallWebSocketMessage callWebSocketMessage = new CallWebSocketMessage();
+        callWebSocketMessage.setRecipientWebSocketMessage(recipient);
+        callWebSocketMessage.setNcSignalingMessage(ncSignalingMessage);
+
+        CallOverallWebSocketMessage callOverallWebSocketMessage = new CallOverallWebSocketMessage();
+        callOverallWebSocketMessage.setType("message");
+        callOverallWebSocketMessage.setCallWebSocketMessage(callWebSocketMessage);
+
+        try {
+            String message = LoganSquare.serialize(callOverallWebSocketMessage);
+            if (helloCompleted && webSocket != null) {
+                webSocket.send(message);
+            } else {
+                pendingMessages.add(message);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to serialize signaling message");
+        }
+    }
+
+    @Override
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    @Override
+    public void onOpen(WebSocket webSocket, Response response) {
+        HelloWebSocketMessage helloWebSocketMessage = new HelloWebSocketMessage();
+        helloWebSocketMessage.setVersion(PROTOCOL_VERSION);
+
+        synchronized (this) {
+            if (resumeId != null) {
+                helloWebSocketMessage.setResumeid(resumeId);
+            } else {
+                AuthParametersWebSocketMessage authParametersWebSocketMessage = new AuthParametersWebSocketMessage();
+                authParametersWebSocketMessage.setUserid(userId);
+                authParametersWebSocketMessage.setTicket(ticket);
+
+                AuthWebSocketMessage authWebSocketMessage = new AuthWebSocketMessage();
+                authWebSocketMessage.setUrl(backendUrl);
+                authWebSocketMessage.setAuthParametersWebSocketMessage(authParametersWebSocketMessage);
+                helloWebSocketMessage.setAuthWebSocketMessage(authWebSocketMessage);
+            }
+        }
+
+        HelloOverallWebSocketMessage helloOverallWebSocketMessage = new HelloOverallWebSocketMessage();
+        helloOverallWebSocketMessage.setType("hello");
+        helloOverallWebSocketMessage.setHelloWebSocketMessage(helloWebSocketMessage);
+
+        try {
+            webSocket.send(LoganSquare.serialize(helloOverallWebSocketMessage));
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to serialize hello message");
+        }
+    }
+
+    @Override
+    public void onMessage(WebSocket webSocket, String text) {
+        try {
+            BaseWebSocketMessage baseWebSocketMessage = LoganSquare.parse(text, BaseWebSocketMessage.class);
+            if (baseWebSocketMessage.getType() == null) {
+                return;
+            }
+
+            switch (baseWebSocketMessage.getType()) {
+                case "hello":
+                    onHelloResponse(webSocket, LoganSquare.parse(text, HelloResponseOverallWebSocketMessage.class));
+                    break;
+                case "message":
+                    onCallMessage(LoganSquare.parse(text, CallOverallWebSocketMessage.class));
+                    break;
+                case "event":
+                    onEvent(LoganSquare.parse(text, EventOverallWebSocketMessage.class));
+                    break;
+                case "error":
+                    onError(webSocket, LoganSquare.parse(text, ErrorOverallWebSocketMessage.class));
+                    break;
+                default:
+                    break;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to parse message from the signaling server");
+        }
+    }
+
+    @Override
+    public void onClosing(WebSocket webSocket, int code, String reason) {
+        webSocket.close(NORMAL_CLOSURE, null);
+    }
+
+    @Override
+    public void onClosed(WebSocket webSocket, int code, String reason) {
+        scheduleReconnect(webSocket);
+    }
+
+    @Override
+    public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+        Log.d(TAG, "Connection to the signaling server failed");
+        scheduleReconnect(webSocket);
+    }
+
+    private void onHelloResponse(WebSocket webSocket, HelloResponseOverallWebSocketMessage response) {
+        if (response.getHelloResponseWebSocketMessage() == null) {
+            return;
+        }
+
+        List<String> messagesToSend;
+        boolean resumed;
+        synchronized (this) {
+            resumed = resumeId != null && resumeId.equals(response.getHelloResponseWebSocketMessage().getResumeId());
+            sessionId = response.getHelloResponseWebSocketMessage().getSessionId();
+            resumeId = response.getHelloResponseWebSocketMessage().getResumeId();
+            helloCompleted = true;
+            reconnectAttempts = 0;
+            messagesToSend = new ArrayList<>(pendingMessages);
+            pendingMessages.clear();
+        }
+
+        if (!resumed) {
+            RoomWebSocketMessage roomWebSocketMessage = new RoomWebSocketMessage();
+            roomWebSocketMessage.setRoomId(roomToken);
+            roomWebSocketMessage.setSessionId(roomSessionId);
+
+            RoomOverallWebSocketMessage roomOverallWebSocketMessage = new RoomOverallWebSocketMessage();
+            roomOverallWebSocketMessage.setType("room");
+            roomOverallWebSocketMessage.setRoomWebSocketMessage(roomWebSocketMessage);
+
+            try {
+                webSocket.send(LoganSquare.serialize(roomOverallWebSocketMessage));
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to serialize room message");
+            }
+        }
+
+        for (String message : messagesToSend) {
+            webSocket.send(message);
+        }
+    }
+
+    private void onCallMessage(CallOverallWebSocketMessage callOverallWebSocketMessage) {
+        CallWebSocketMessage callWebSocketMessage = callOverallWebSocketMessage.getCallWebSocketMessage();
+        if (callWebSocketMessage == null || callWebSocketMessage.getNcSignalingMessage() == null) {
+            return;
+        }
+
+        NCSignalingMessage ncSignalingMessage = callWebSocketMessage.getNcSignalingMessage();
+        if (ncSignalingMessage.getFrom() == null && callWebSocketMessage.getSenderWebSocketMessage() != null) {
+            ncSignalingMessage.setFrom(callWebSocketMessage.getSenderWebSocketMessage().getSessionId());
+        }
+
+        observeOnScheduler.scheduleDirect(() -> listener.onSignalingMessage(ncSignalingMessage));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void onEvent(EventOverallWebSocketMessage eventOverallWebSocketMessage) {
+        Map<String, Object> eventMap = eventOverallWebSocketMessage.getEventMap();
+        if (eventMap == null) {
+            return;
+        }
+
+        if ("participants".equals(eventMap.get("target")) && "update".equals(eventMap.get("type"))) {
+            Map<String, Object> updateMap = (Map<String, Object>) eventMap.get("update");
+            if (updateMap != null && updateMap.get("users") instanceof List) {
+                List<Participant> participants = new ArrayList<>();
+                for (Object user : (List<Object>) updateMap.get("users")) {
+                    if (user instanceof Map) {
+                        participants.add(SignalingDecoder.toParticipant((Map<String, Object>) user));
+                    }
+                }
+                observeOnScheduler.scheduleDirect(() -> listener.onUsersInRoom(participants));
+            }
+        }
+    }
+
+    private void onError(WebSocket webSocket, ErrorOverallWebSocketMessage errorOverallWebSocketMessage) {
+        if (errorOverallWebSocketMessage.getErrorWebSocketMessage() == null) {
+            return;
+        }
+
+        String code = errorOverallWebSocketMessage.getErrorWebSocketMessage().getCode();
+        Log.d(TAG, "Received error from the signaling server: " + code);
+
+        if ("no_such_session".equals(code)) {
+            // The session can't be resumed, start over with a fresh hello
+            synchronized (this) {
+                resumeId = null;
+            }
+            onOpen(webSocket, null);
+        }
+    }
+
+    private synchronized void scheduleReconnect(WebSocket closedWebSocket) {
+        if (closedByUser || closedWebSocket != webSocket) {
+            return;
+        }
+
+        helloCompleted = false;
+        long ceiling = Math.min(MAX_RECONNECT_DELAY_MS, MIN_RECONNECT_DELAY_MS << Math.min(reconnectAttempts++, 16));
+        long delay = ceiling / 2 + (long) (Math.random() * (ceiling / 2));
+
+        reconnectDisposable = Observable.timer(delay, TimeUnit.MILLISECONDS, Schedulers.computation())
+                .subscribe(tick -> {
+                    synchronized (WebSocketSignalingTransport.this) {
+                        if (!closedByUser) {
+                            webSocket = okHttpClient.newWebSocket(new Request.Builder().url(webSocketUrl).build(),
+                                    WebSocketSignalingTransport.this);
+                        }
+                    }
+                });
+    }
+}
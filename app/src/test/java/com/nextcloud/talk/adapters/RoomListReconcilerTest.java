@@ -0,0 +1,224 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.adapters;
+
+import com.nextcloud.talk.adapters.items.CallItem;
+import com.nextcloud.talk.api.models.json.participants.Participant;
+import com.nextcloud.talk.api.models.json.rooms.Room;
+
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RoomListReconcilerTest {
+
+    @Test
+    public void sameRoomsGiveEmptyDiff() {
+        List<Room> rooms = Arrays.asList(room("a", "A", 1), room("b", "B", 2));
+
+        RoomListReconciler.Diff diff = RoomListReconciler.calculateDiff(rooms,
+                Arrays.asList(room("a", "A", 1), room("b", "B", 2)));
+
+        assertTrue(diff.isEmpty());
+        assertEquals(rooms, diff.getRooms());
+    }
+
+    @Test
+    public void insertsRemovesMovesAndChanges() {
+        List<Room> previous = Arrays.asList(room("a", "A", 1), room("b", "B", 1), room("c", "C", 1),
+                room("d", "D", 1));
+        List<Room> next = Arrays.asList(room("d", "D", 1), room("e", "E", 1), room("b", "Renamed", 1),
+                room("a", "A", 1));
+
+        assertAppliesTo(previous, next);
+    }
+
+    @Test
+    public void fromAndToEmptyList() {
+        List<Room> rooms = Arrays.asList(room("a", "A", 1), room("b", "B", 1));
+
+        assertAppliesTo(Collections.<Room>emptyList(), rooms);
+        assertAppliesTo(rooms, Collections.<Room>emptyList());
+    }
+
+    @Test
+    public void randomListsReconcile() {
+        Random random = new Random(42);
+        for (int iteration = 0; iteration < 500; iteration++) {
+            List<Room> previous = randomRooms(random);
+            List<Room> next = randomRooms(random);
+
+            assertAppliesTo(previous, next);
+        }
+    }
+
+    @Test
+    public void lastPingOnlyChangeRebindsLastPing() {
+        RoomListReconciler.Diff diff = RoomListReconciler.calculateDiff(
+                Arrays.asList(room("a", "A", 1), room("b", "B", 1)),
+                Arrays.asList(room("a", "A", 1), room("b", "B", 2)));
+
+        assertEquals(1, diff.getOperations().size());
+        RoomListReconciler.Operation operation = diff.getOperations().get(0);
+        assertEquals(RoomListReconciler.Operation.CHANGE, operation.getType());
+        assertEquals(1, operation.getToPosition());
+        assertEquals(CallItem.PAYLOAD_LAST_PING, operation.getPayload());
+        assertEquals(2, operation.getRoom().getLastPing());
+    }
+
+    @Test
+    public void otherChangesRebindEverything() {
+        RoomListReconciler.Diff diff = RoomListReconciler.calculateDiff(
+                Collections.singletonList(room("a", "A", 1)),
+                Collections.singletonList(room("a", "Renamed", 2)));
+
+        assertEquals(1, diff.getOperations().size());
+        assertEquals(RoomListReconciler.Operation.CHANGE, diff.getOperations().get(0).getType());
+        assertNull(diff.getOperations().get(0).getPayload());
+    }
+
+    @Test
+    public void moveAloneDoesNotRebind() {
+        RoomListReconciler.Diff diff = RoomListReconciler.calculateDiff(
+                Arrays.asList(room("a", "A", 1), room("b", "B", 1)),
+                Arrays.asList(room("b", "B", 1), room("a", "A", 1)));
+
+        for (RoomListReconciler.Operation operation : diff.getOperations()) {
+            assertEquals(RoomListReconciler.Operation.MOVE, operation.getType());
+        }
+    }
+
+    @Test
+    public void participantsChangeRebindsLastPing() {
+        Room next = room("a", "A", 1);
+        next.setParticipants(Collections.singletonList(new Participant()));
+
+        RoomListReconciler.Diff diff = RoomListReconciler.calculateDiff(
+                Collections.singletonList(room("a", "A", 1)), Collections.singletonList(next));
+
+        assertEquals(1, diff.getOperations().size());
+        assertEquals(CallItem.PAYLOAD_LAST_PING, diff.getOperations().get(0).getPayload());
+        assertEquals(next, diff.getOperations().get(0).getRoom());
+    }
+
+    @Test
+    public void copyOfCopiesEveryField() throws Exception {
+        Room room = new Room();
+        List<Field> fields = new ArrayList<>();
+        for (Field field : Room.class.getDeclaredFields()) {
+            if (!Modifier.isStatic(field.getModifiers())) {
+                field.setAccessible(true);
+                field.set(room, sampleValue(field));
+                fields.add(field);
+            }
+        }
+
+        Room copy = RoomListReconciler.copyOf(room);
+
+        for (Field field : fields) {
+            assertEquals("RoomListReconciler.copyOf() misses Room." + field.getName(), field.get(room),
+                    field.get(copy));
+        }
+        assertEquals(room, copy);
+    }
+
+    /**
+     * @return a value that differs from the default of a new room
+     */
+    private static Object sampleValue(Field field) {
+        Class<?> type = field.getType();
+        if (type == String.class) {
+            return field.getName();
+        } else if (type == long.class) {
+            return 42L;
+        } else if (type == int.class) {
+            return 42;
+        } else if (type == boolean.class) {
+            return true;
+        } else if (type.isEnum()) {
+            Object[] constants = type.getEnumConstants();
+            return constants[constants.length - 1];
+        } else if (type == List.class) {
+            return Collections.singletonList(new Participant());
+        }
+
+        throw new AssertionError("No sample value for Room." + field.getName() + " of type " + type.getName());
+    }
+
+    private static void assertAppliesTo(List<Room> previous, List<Room> next) {
+        RoomListReconciler.Diff diff = RoomListReconciler.calculateDiff(previous, next);
+
+        // The same steps Diff.applyTo takes on the adapter
+        List<Room> rooms = new ArrayList<>(previous);
+        for (RoomListReconciler.Operation operation : diff.getOperations()) {
+            switch (operation.getType()) {
+                case RoomListReconciler.Operation.REMOVE:
+                    rooms.remove(operation.getFromPosition());
+                    break;
+                case RoomListReconciler.Operation.MOVE:
+                    rooms.add(operation.getToPosition(), rooms.remove(operation.getFromPosition()));
+                    break;
+                case RoomListReconciler.Operation.INSERT:
+                    rooms.add(operation.getToPosition(), operation.getRoom());
+                    break;
+                case RoomListReconciler.Operation.CHANGE:
+                    rooms.set(operation.getToPosition(), operation.getRoom());
+                    break;
+                default:
+                    throw new AssertionError("Unknown operation " + operation.getType());
+            }
+        }
+
+        assertEquals(next, rooms);
+        assertEquals(next, diff.getRooms());
+    }
+
+    private static List<Room> randomRooms(Random random) {
+        List<Room> rooms = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            if (random.nextBoolean()) {
+                rooms.add(room(Integer.toString(i), random.nextInt(4) == 0 ? "Renamed" : "Room",
+                        random.nextInt(3)));
+            }
+        }
+        Collections.shuffle(rooms, random);
+        return rooms;
+    }
+
+    private static Room room(String token, String name, long lastPing) {
+        Room room = new Room();
+        room.setToken(token);
+        room.setName(name);
+        room.setDisplayName(name);
+        room.setLastPing(lastPing);
+        return room;
+    }
+}
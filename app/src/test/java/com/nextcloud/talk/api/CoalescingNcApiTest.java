@@ -0,0 +1,119 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.api;
+
+import com.nextcloud.talk.api.models.json.sharees.ShareesOverall;
+import com.nextcloud.talk.utils.network.ConditionalRequestInterceptor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Observable;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.TestScheduler;
+import io.reactivex.subjects.PublishSubject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CoalescingNcApiTest {
+    private TestScheduler testScheduler;
+    private Map<String, PublishSubject<ShareesOverall>> searches;
+    private List<String> cancelled;
+    private NcApi ncApi;
+
+    @Before
+    public void setUp() {
+        testScheduler = new TestScheduler();
+        searches = new HashMap<>();
+        cancelled = new ArrayList<>();
+
+        // Only the sharee search is answered, anything else isn't expected to be called
+        NcApi server = (NcApi) Proxy.newProxyInstance(NcApi.class.getClassLoader(), new Class[]{NcApi.class},
+                (proxy, method, args) -> {
+                    if (!"getContactsWithSearchParam".equals(method.getName())) {
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+
+                    @SuppressWarnings("unchecked")
+                    String search = ((Map<String, String>) args[2]).get("search");
+                    // Like Retrofit, the request is only sent on subscription
+                    return Observable.defer(() -> {
+                        PublishSubject<ShareesOverall> response = PublishSubject.create();
+                        searches.put(search, response);
+                        return response.doOnDispose(() -> cancelled.add(search));
+                    });
+                });
+        ncApi = new CoalescingNcApi(server, 60 * 1000, new ConditionalRequestInterceptor());
+    }
+
+    @Test
+    public void supersededSearchIsCancelled() {
+        // What ShareeRepository.search does for every keystroke, subscribed through switchMap
+        PublishSubject<String> queries = PublishSubject.create();
+        TestObserver<ShareesOverall> testObserver = queries
+                .switchMap(query -> Observable.timer(300, TimeUnit.MILLISECONDS, testScheduler)
+                        .flatMap(tick -> ncApi.getContactsWithSearchParam("alice", "sharees",
+                                Collections.singletonMap("search", query))))
+                .test();
+
+        queries.onNext("j");
+        testScheduler.advanceTimeBy(300, TimeUnit.MILLISECONDS);
+        queries.onNext("jo");
+        testScheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+        queries.onNext("joh");
+        testScheduler.advanceTimeBy(300, TimeUnit.MILLISECONDS);
+
+        // "jo" never got past the debounce, "j" was sent and cancelled
+        assertEquals(2, searches.size());
+        assertEquals(Collections.singletonList("j"), cancelled);
+        assertFalse(searches.get("j").hasObservers());
+        assertTrue(searches.get("joh").hasObservers());
+
+        ShareesOverall shareesOverall = new ShareesOverall();
+        searches.get("joh").onNext(shareesOverall);
+        testObserver.assertValue(shareesOverall);
+    }
+
+    @Test
+    public void searchIsKeptWhileAnotherSubscriberWaits() {
+        Map<String, String> options = Collections.singletonMap("search", "j");
+        TestObserver<ShareesOverall> first = ncApi.getContactsWithSearchParam("alice", "sharees", options).test();
+        TestObserver<ShareesOverall> second = ncApi.getContactsWithSearchParam("alice", "sharees", options).test();
+
+        first.dispose();
+        assertTrue(cancelled.isEmpty());
+
+        ShareesOverall shareesOverall = new ShareesOverall();
+        searches.get("j").onNext(shareesOverall);
+        searches.get("j").onComplete();
+        second.assertValue(shareesOverall);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.api;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Observable;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.subjects.PublishSubject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RequestCoalescerTest {
+
+    @Test
+    public void inFlightRequestIsShared() {
+        RequestCoalescer requestCoalescer = new RequestCoalescer(0);
+        AtomicInteger subscriptions = new AtomicInteger();
+        PublishSubject<String> response = PublishSubject.create();
+        Observable<String> source = response.doOnSubscribe(disposable -> subscriptions.incrementAndGet());
+
+        requestCoalescer.coalesce("alice url", source).test();
+        requestCoalescer.coalesce("alice url", source).test();
+        response.onNext("rooms");
+        response.onComplete();
+
+        assertEquals(1, subscriptions.get());
+        assertEquals(0, requestCoalescer.size());
+    }
+
+    @Test
+    public void resultIsKeptForTtl() {
+        RequestCoalescer requestCoalescer = new RequestCoalescer(60 * 1000);
+        AtomicInteger subscriptions = new AtomicInteger();
+        Observable<String> source = Observable.just("rooms")
+                .doOnSubscribe(disposable -> subscriptions.incrementAndGet());
+
+        requestCoalescer.coalesce("alice url", source).test().assertValue("rooms");
+        requestCoalescer.coalesce("alice url", source).test().assertValue("rooms");
+
+        assertEquals(1, subscriptions.get());
+    }
+
+    @Test
+    public void expiredResultsAreDropped() throws Exception {
+        RequestCoalescer requestCoalescer = new RequestCoalescer(1);
+        for (int i = 0; i < 10; i++) {
+            requestCoalescer.coalesce("alice url" + i, Observable.just(i)).test();
+        }
+        Thread.sleep(10);
+
+        requestCoalescer.coalesce("alice other", Observable.just(-1)).test();
+
+        assertEquals(1, requestCoalescer.size());
+    }
+
+    @Test
+    public void errorsAreNotKept() {
+        RequestCoalescer requestCoalescer = new RequestCoalescer(60 * 1000);
+
+        requestCoalescer.coalesce("alice url", Observable.error(new RuntimeException())).test();
+        requestCoalescer.coalesce("alice url", Observable.just("rooms")).test().assertValue("rooms");
+    }
+
+    @Test
+    public void invalidateDropsCompletedResultsOfTheAccount() {
+        RequestCoalescer requestCoalescer = new RequestCoalescer(60 * 1000);
+        requestCoalescer.coalesce("alice url", Observable.just("alice")).test();
+        requestCoalescer.coalesce("bob url", Observable.just("bob")).test();
+        requestCoalescer.coalesce("alice pending", PublishSubject.create()).test();
+
+        requestCoalescer.invalidate("alice");
+
+        assertEquals(2, requestCoalescer.size());
+        requestCoalescer.coalesce("alice url", Observable.just("new")).test().assertValue("new");
+        requestCoalescer.coalesce("bob url", Observable.just("new")).test().assertValue("bob");
+    }
+
+    @Test
+    public void disposingLastSubscriberCancelsRequest() {
+        RequestCoalescer requestCoalescer = new RequestCoalescer(60 * 1000);
+        AtomicInteger subscriptions = new AtomicInteger();
+        AtomicInteger cancellations = new AtomicInteger();
+        PublishSubject<String> response = PublishSubject.create();
+        Observable<String> source = response
+                .doOnSubscribe(disposable -> subscriptions.incrementAndGet())
+                .doOnDispose(cancellations::incrementAndGet);
+
+        TestObserver<String> first = requestCoalescer.coalesce("alice url", source).test();
+        TestObserver<String> second = requestCoalescer.coalesce("alice url", source).test();
+
+        first.dispose();
+        assertEquals(0, cancellations.get());
+        assertTrue(response.hasObservers());
+
+        second.dispose();
+        assertEquals(1, cancellations.get());
+        assertFalse(response.hasObservers());
+        assertEquals(0, requestCoalescer.size());
+
+        requestCoalescer.coalesce("alice url", source).test();
+        assertEquals(2, subscriptions.get());
+    }
+
+    @Test
+    public void retryAfterSharedErrorSendsNewRequest() {
+        RequestCoalescer requestCoalescer = new RequestCoalescer(60 * 1000);
+        AtomicInteger subscriptions = new AtomicInteger();
+        Observable<String> source = Observable.<String>error(new RuntimeException())
+                .doOnSubscribe(disposable -> subscriptions.incrementAndGet());
+
+        requestCoalescer.coalesce("alice url", source).retry(3).test().assertError(RuntimeException.class);
+
+        assertEquals(4, subscriptions.get());
+        assertEquals(0, requestCoalescer.size());
+    }
+
+    @Test
+    public void retryRecoversOnceServerAnswers() {
+        RequestCoalescer requestCoalescer = new RequestCoalescer(60 * 1000);
+        AtomicInteger subscriptions = new AtomicInteger();
+        Observable<String> source = Observable.defer(() -> subscriptions.incrementAndGet() < 3 ?
+                Observable.<String>error(new RuntimeException()) : Observable.just("rooms"));
+
+        requestCoalescer.coalesce("alice url", source).retry(3).test().assertValue("rooms");
+        requestCoalescer.coalesce("alice url", source).test().assertValue("rooms");
+
+        assertEquals(3, subscriptions.get());
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.api.helpers.api;
+
+import org.junit.Test;
+
+import okhttp3.HttpUrl;
+
+import static org.junit.Assert.assertEquals;
+
+public class ApiHelperTest {
+    private static final String BASE_URL = "https://cloud.example.com/nextcloud";
+
+    @Test
+    public void roomTokensAreReplaced() {
+        assertEquals("/ocs/v2.php/apps/spreed/api/v1/room/{token}",
+                route(ApiHelper.getRoom(BASE_URL, "a1b2c3d4")));
+        assertEquals("/ocs/v2.php/apps/spreed/api/v1/room/{token}/participants/active",
+                route(ApiHelper.getUrlForRoom(BASE_URL, "a1b2c3d4")));
+        assertEquals("/ocs/v2.php/apps/spreed/api/v1/room/{token}/participants/self",
+                route(ApiHelper.getUrlForRemoveSelfFromRoom(BASE_URL, "a1b2c3d4")));
+        assertEquals("/ocs/v2.php/apps/spreed/api/v1/room/{token}/public",
+                route(ApiHelper.getUrlForRoomVisibility(BASE_URL, "12345")));
+    }
+
+    @Test
+    public void callTokensAreReplaced() {
+        assertEquals("/ocs/v2.php/apps/spreed/api/v1/call/{token}",
+                route(ApiHelper.getUrlForCall(BASE_URL, "a1b2c3d4")));
+        assertEquals("/ocs/v2.php/apps/spreed/api/v1/call/{token}/ping",
+                route(ApiHelper.getUrlForCallPing(BASE_URL, "a1b2c3d4")));
+    }
+
+    @Test
+    public void routesWithoutTokensAreKept() {
+        assertEquals("/ocs/v2.php/apps/spreed/api/v1/room", route(ApiHelper.getUrlForGetRooms(BASE_URL)));
+        assertEquals("/ocs/v2.php/apps/spreed/api/v1/signaling", route(ApiHelper.getUrlForSignaling(BASE_URL)));
+        assertEquals("/ocs/v2.php/apps/spreed/api/v1/signaling/settings",
+                route(ApiHelper.getUrlForSignalingSettings(BASE_URL)));
+        assertEquals("/ocs/v2.php/apps/spreed/api/v1", ApiHelper.getRouteForPath("/ocs/v2.php/apps/spreed/api/v1"));
+        assertEquals("/ocs/v2.php/cloud/user", route(ApiHelper.getUrlForUserProfile(BASE_URL)));
+        assertEquals("/ocs/v2.php/apps/notifications/api/v2/push", route(ApiHelper.getUrlNextcloudPush(BASE_URL)));
+    }
+
+    @Test
+    public void numericIdsAreReplaced() {
+        assertEquals("/ocs/v2.php/apps/notifications/api/v2/notifications/{id}",
+                ApiHelper.getRouteForPath("/ocs/v2.php/apps/notifications/api/v2/notifications/4711"));
+        assertEquals("/ocs/v2.php/apps/spreed/api/v1/room/{token}/participants/{id}",
+                ApiHelper.getRouteForPath("/ocs/v2.php/apps/spreed/api/v1/room/a1b2c3d4/participants/42"));
+        assertEquals("/ocs/v2.php/apps/files_sharing/api/v1/shares/{id}",
+                ApiHelper.getRouteForPath("/ocs/v2.php/apps/files_sharing/api/v1/shares/7"));
+        assertEquals("/ocs/v2.php/apps/spreed/api/v1/room/{token}/v2",
+                ApiHelper.getRouteForPath("/ocs/v2.php/apps/spreed/api/v1/room/1/v2"));
+    }
+
+    @Test
+    public void otherRoutes() {
+        assertEquals("/index.php/avatar/{name}/{size}",
+                ApiHelper.getRouteForPath("/nextcloud/index.php/avatar/alice%20smith/128"));
+        assertEquals("/status.php", ApiHelper.getRouteForPath("/nextcloud/status.php"));
+        assertEquals("/devices", ApiHelper.getRouteForPath("/devices"));
+        assertEquals("other", ApiHelper.getRouteForPath("/remote.php/dav/files/alice"));
+        assertEquals("other", ApiHelper.getRouteForPath(""));
+    }
+
+    // What the latency recorder passes in
+    private static String route(String url) {
+        return ApiHelper.getRouteForPath(HttpUrl.parse(url).encodedPath());
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.utils.database.sharee;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ShareeIndexTest {
+    private static final long NOW = 1_000_000_000L;
+
+    private ShareeIndex shareeIndex;
+
+    @Before
+    public void setUp() {
+        shareeIndex = new ShareeIndex();
+        shareeIndex.merge(Arrays.asList(
+                new ShareeIndex.Entry("jsmith", "John Smith", NOW),
+                new ShareeIndex.Entry("jane", "Jane Doe", NOW),
+                new ShareeIndex.Entry("admin", "Mary Johnson", NOW)));
+    }
+
+    @Test
+    public void emptyQueryReturnsEverythingByLabel() {
+        assertEquals(Arrays.asList("jane", "jsmith", "admin"), userIds(shareeIndex.search("")));
+        assertEquals(3, shareeIndex.search(null).size());
+    }
+
+    @Test
+    public void labelPrefixMatches() {
+        assertEquals(Collections.singletonList("jane"), userIds(shareeIndex.search("jane d")));
+        assertEquals(Collections.singletonList("jsmith"), userIds(shareeIndex.search("john s")));
+    }
+
+    @Test
+    public void wordPrefixMatches() {
+        assertEquals(Collections.singletonList("jsmith"), userIds(shareeIndex.search("smi")));
+        assertEquals(Collections.singletonList("admin"), userIds(shareeIndex.search("JOHNS")));
+    }
+
+    @Test
+    public void userIdPrefixMatches() {
+        assertEquals(Collections.singletonList("admin"), userIds(shareeIndex.search("adm")));
+        assertEquals(Collections.singletonList("jsmith"), userIds(shareeIndex.search("jsm")));
+    }
+
+    @Test
+    public void noMatchIsEmpty() {
+        assertTrue(shareeIndex.search("xyz").isEmpty());
+        assertTrue(shareeIndex.search("smith john").isEmpty());
+    }
+
+    @Test
+    public void relabelReplacesKeys() {
+        ShareeIndex.Entry relabeled = new ShareeIndex.Entry("jsmith", "John Miller", NOW + 1);
+        List<ShareeIndex.Entry> changedEntries = shareeIndex.merge(Collections.singletonList(relabeled));
+
+        assertEquals(1, changedEntries.size());
+        assertSame(relabeled, changedEntries.get(0));
+        assertTrue(shareeIndex.search("smith").isEmpty());
+        assertEquals(Collections.singletonList("jsmith"), userIds(shareeIndex.search("mill")));
+        assertEquals(3, shareeIndex.size());
+    }
+
+    @Test
+    public void seenAgainIsOnlyReturnedOnceResolutionPassed() {
+        List<ShareeIndex.Entry> changedEntries = shareeIndex.merge(Collections.singletonList(
+                new ShareeIndex.Entry("jane", "Jane Doe", NOW + 1000)));
+        assertTrue(changedEntries.isEmpty());
+
+        changedEntries = shareeIndex.merge(Collections.singletonList(
+                new ShareeIndex.Entry("jane", "Jane Doe", NOW + ShareeIndex.SEEN_AT_RESOLUTION_MS)));
+        assertEquals(1, changedEntries.size());
+        assertEquals(NOW + ShareeIndex.SEEN_AT_RESOLUTION_MS, changedEntries.get(0).getSeenAt());
+
+        // Counted from what was returned last, not from when it was first seen
+        changedEntries = shareeIndex.merge(Collections.singletonList(
+                new ShareeIndex.Entry("jane", "Jane Doe", NOW + ShareeIndex.SEEN_AT_RESOLUTION_MS + 1000)));
+        assertTrue(changedEntries.isEmpty());
+    }
+
+    @Test
+    public void trimDropsLeastRecentlySeen() {
+        shareeIndex.merge(Arrays.asList(
+                new ShareeIndex.Entry("jsmith", "John Smith", NOW + 10),
+                new ShareeIndex.Entry("admin", "Mary Johnson", NOW + 20)));
+
+        List<String> removedUserIds = shareeIndex.trim(2);
+
+        assertEquals(Collections.singletonList("jane"), removedUserIds);
+        assertEquals(2, shareeIndex.size());
+        assertTrue(shareeIndex.search("jane").isEmpty());
+        assertTrue(shareeIndex.search("doe").isEmpty());
+    }
+
+    @Test
+    public void trimWithinLimitKeepsEverything() {
+        assertTrue(shareeIndex.trim(3).isEmpty());
+        assertEquals(3, shareeIndex.size());
+    }
+
+    private static List<String> userIds(List<ShareeIndex.Entry> entries) {
+        List<String> userIds = new ArrayList<>();
+        for (ShareeIndex.Entry entry : entries) {
+            userIds.add(entry.getUserId());
+        }
+        return userIds;
+    }
+}
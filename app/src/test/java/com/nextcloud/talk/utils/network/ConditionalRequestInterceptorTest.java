@@ -0,0 +1,262 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.utils.network;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.CacheControl;
+import okhttp3.Credentials;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ConditionalRequestInterceptorTest {
+    private static final String ROOMS_PATH = "/ocs/v2.php/apps/spreed/api/v1/room";
+    private static final String PROFILE_PATH = "/ocs/v2.php/cloud/user";
+    private static final String SIGNALING_PATH = "/ocs/v2.php/apps/spreed/api/v1/signaling";
+
+    private static final String ALICE = Credentials.basic("alice", "secret");
+    private static final String BOB = Credentials.basic("bob", "secret");
+
+    private MockWebServer mockWebServer;
+    private ConditionalRequestInterceptor conditionalRequestInterceptor;
+    private OkHttpClient okHttpClient;
+
+    @Before
+    public void setUp() throws Exception {
+        mockWebServer = new MockWebServer();
+        mockWebServer.start();
+
+        conditionalRequestInterceptor = new ConditionalRequestInterceptor();
+        okHttpClient = new OkHttpClient.Builder()
+                .addInterceptor(conditionalRequestInterceptor)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mockWebServer.shutdown();
+    }
+
+    @Test
+    public void notModifiedServesCachedBody() throws Exception {
+        mockWebServer.enqueue(new MockResponse().setHeader("ETag", "\"v1\"").setBody("rooms-v1"));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(304));
+
+        assertEquals("rooms-v1", get(ROOMS_PATH, ALICE));
+        assertNull(mockWebServer.takeRequest().getHeader("If-None-Match"));
+
+        assertEquals("rooms-v1", get(ROOMS_PATH, ALICE));
+        assertEquals("\"v1\"", mockWebServer.takeRequest().getHeader("If-None-Match"));
+        assertEquals(1, conditionalRequestInterceptor.getNotModifiedCount());
+    }
+
+    @Test
+    public void changedResponseReplacesCachedBody() throws Exception {
+        mockWebServer.enqueue(new MockResponse().setHeader("ETag", "\"v1\"").setBody("rooms-v1"));
+        mockWebServer.enqueue(new MockResponse().setHeader("ETag", "\"v2\"").setBody("rooms-v2"));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(304));
+
+        get(ROOMS_PATH, ALICE);
+        assertEquals("rooms-v2", get(ROOMS_PATH, ALICE));
+        assertEquals("rooms-v2", get(ROOMS_PATH, ALICE));
+
+        mockWebServer.takeRequest();
+        mockWebServer.takeRequest();
+        assertEquals("\"v2\"", mockWebServer.takeRequest().getHeader("If-None-Match"));
+    }
+
+    @Test
+    public void lastModifiedIsSentBack() throws Exception {
+        String lastModified = "Mon, 01 Jan 2018 00:00:00 GMT";
+        mockWebServer.enqueue(new MockResponse().setHeader("Last-Modified", lastModified).setBody("profile"));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(304));
+
+        get(PROFILE_PATH, ALICE);
+        assertEquals("profile", get(PROFILE_PATH, ALICE));
+
+        mockWebServer.takeRequest();
+        assertEquals(lastModified, mockWebServer.takeRequest().getHeader("If-Modified-Since"));
+    }
+
+    @Test
+    public void accountsDoNotShareValidators() throws Exception {
+        mockWebServer.enqueue(new MockResponse().setHeader("ETag", "\"alice\"").setBody("alice-rooms"));
+        mockWebServer.enqueue(new MockResponse().setHeader("ETag", "\"bob\"").setBody("bob-rooms"));
+
+        get(ROOMS_PATH, ALICE);
+        assertEquals("bob-rooms", get(ROOMS_PATH, BOB));
+
+        mockWebServer.takeRequest();
+        assertNull(mockWebServer.takeRequest().getHeader("If-None-Match"));
+    }
+
+    @Test
+    public void signalingIsNeverConditional() throws Exception {
+        mockWebServer.enqueue(new MockResponse().setHeader("ETag", "\"s1\"").setBody("messages"));
+        mockWebServer.enqueue(new MockResponse().setHeader("ETag", "\"s1\"").setBody("messages"));
+
+        get(SIGNALING_PATH, ALICE);
+        get(SIGNALING_PATH, ALICE);
+
+        mockWebServer.takeRequest();
+        assertNull(mockWebServer.takeRequest().getHeader("If-None-Match"));
+    }
+
+    @Test
+    public void staleRoomListIsServedWhileRevalidating() throws Exception {
+        conditionalRequestInterceptor.enableRoomListStaleWhileRevalidate(okHttpClient, TimeUnit.MINUTES.toMillis(1));
+        mockWebServer.enqueue(new MockResponse().setHeader("ETag", "\"v1\"").setBody("rooms-v1"));
+        mockWebServer.enqueue(new MockResponse().setHeader("ETag", "\"v2\"").setBody("rooms-v2"));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(304));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(304));
+
+        get(ROOMS_PATH, ALICE);
+        mockWebServer.takeRequest();
+
+        assertEquals("rooms-v1", get(ROOMS_PATH, ALICE));
+        assertEquals(1, conditionalRequestInterceptor.getStaleServedCount());
+
+        RecordedRequest revalidation = mockWebServer.takeRequest(5, TimeUnit.SECONDS);
+        assertNotNull(revalidation);
+        assertEquals("\"v1\"", revalidation.getHeader("If-None-Match"));
+        assertNull(revalidation.getHeader("X-Nc-Revalidation"));
+
+        // The next read picks up whatever the revalidation stored
+        long deadline = System.currentTimeMillis() + 5000;
+        String body = get(ROOMS_PATH, ALICE);
+        while (!"rooms-v2".equals(body) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            body = get(ROOMS_PATH, ALICE);
+        }
+        assertEquals("rooms-v2", body);
+    }
+
+    @Test
+    public void roomListIsNotServedStaleUnlessEnabled() throws Exception {
+        mockWebServer.enqueue(new MockResponse().setHeader("ETag", "\"v1\"").setBody("rooms-v1"));
+        mockWebServer.enqueue(new MockResponse().setHeader("ETag", "\"v2\"").setBody("rooms-v2"));
+
+        get(ROOMS_PATH, ALICE);
+
+        assertEquals("rooms-v2", get(ROOMS_PATH, ALICE));
+        assertEquals(0, conditionalRequestInterceptor.getStaleServedCount());
+    }
+
+    @Test
+    public void refreshIsNotServedStale() throws Exception {
+        conditionalRequestInterceptor.enableRoomListStaleWhileRevalidate(okHttpClient, TimeUnit.MINUTES.toMillis(1));
+        mockWebServer.enqueue(new MockResponse().setHeader("ETag", "\"v1\"").setBody("rooms-v1"));
+        mockWebServer.enqueue(new MockResponse().setHeader("ETag", "\"v2\"").setBody("rooms-v2"));
+
+        get(ROOMS_PATH, ALICE);
+        Request refresh = new Request.Builder()
+                .url(mockWebServer.url(ROOMS_PATH))
+                .header("Authorization", ALICE)
+                .cacheControl(CacheControl.FORCE_NETWORK)
+                .build();
+        try (Response response = okHttpClient.newCall(refresh).execute()) {
+            assertEquals("rooms-v2", response.body().string());
+        }
+
+        assertEquals(0, conditionalRequestInterceptor.getStaleServedCount());
+        mockWebServer.takeRequest();
+        assertEquals("\"v1\"", mockWebServer.takeRequest().getHeader("If-None-Match"));
+    }
+
+    @Test
+    public void invalidatedRoomListIsNotServedStale() throws Exception {
+        conditionalRequestInterceptor.enableRoomListStaleWhileRevalidate(okHttpClient, TimeUnit.MINUTES.toMillis(1));
+        mockWebServer.enqueue(new MockResponse().setHeader("ETag", "\"v1\"").setBody("rooms-v1"));
+        mockWebServer.enqueue(new MockResponse().setHeader("ETag", "\"v2\"").setBody("rooms-v2"));
+
+        get(ROOMS_PATH, ALICE);
+        conditionalRequestInterceptor.invalidateRooms(ALICE);
+
+        assertEquals("rooms-v2", get(ROOMS_PATH, ALICE));
+        assertEquals(0, conditionalRequestInterceptor.getStaleServedCount());
+
+        mockWebServer.takeRequest();
+        assertNull(mockWebServer.takeRequest().getHeader("If-None-Match"));
+    }
+
+    @Test
+    public void invalidationKeepsOtherAccountsAndEndpoints() throws Exception {
+        mockWebServer.enqueue(new MockResponse().setHeader("ETag", "\"alice\"").setBody("alice-rooms"));
+        mockWebServer.enqueue(new MockResponse().setHeader("ETag", "\"bob\"").setBody("bob-rooms"));
+        mockWebServer.enqueue(new MockResponse().setHeader("ETag", "\"p1\"").setBody("profile"));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(304));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(304));
+
+        get(ROOMS_PATH, ALICE);
+        get(ROOMS_PATH, BOB);
+        get(PROFILE_PATH, ALICE);
+        conditionalRequestInterceptor.invalidateRooms(ALICE);
+
+        assertEquals("bob-rooms", get(ROOMS_PATH, BOB));
+        assertEquals("profile", get(PROFILE_PATH, ALICE));
+
+        mockWebServer.takeRequest();
+        mockWebServer.takeRequest();
+        mockWebServer.takeRequest();
+        assertEquals("\"bob\"", mockWebServer.takeRequest().getHeader("If-None-Match"));
+        assertEquals("\"p1\"", mockWebServer.takeRequest().getHeader("If-None-Match"));
+    }
+
+    @Test
+    public void oversizedBodyOfUnknownLengthIsNotKept() throws Exception {
+        StringBuilder largeBody = new StringBuilder();
+        while (largeBody.length() <= 600 * 1024) {
+            largeBody.append("0123456789abcdef");
+        }
+        mockWebServer.enqueue(new MockResponse().setHeader("ETag", "\"big\"")
+                .setChunkedBody(largeBody.toString(), 8192));
+        mockWebServer.enqueue(new MockResponse().setHeader("ETag", "\"big\"").setBody("small"));
+
+        assertEquals(largeBody.toString(), get(PROFILE_PATH, ALICE));
+        get(PROFILE_PATH, ALICE);
+
+        mockWebServer.takeRequest();
+        assertNull(mockWebServer.takeRequest().getHeader("If-None-Match"));
+    }
+
+    private String get(String path, String authorization) throws Exception {
+        Request request = new Request.Builder()
+                .url(mockWebServer.url(path))
+                .header("Authorization", authorization)
+                .build();
+        try (Response response = okHttpClient.newCall(request).execute()) {
+            assertEquals(200, response.code());
+            return response.body().string();
+        }
+    }
+}
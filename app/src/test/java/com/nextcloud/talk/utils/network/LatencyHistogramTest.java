@@ -0,0 +1,151 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.utils.network;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void smallValuesHaveTheirOwnBucket() {
+        for (int value = 0; value < 8; value++) {
+            assertEquals(value, LatencyHistogram.getBucketIndex(value));
+            assertEquals(value, LatencyHistogram.getBucketLowerBound(value));
+        }
+        assertEquals(0, LatencyHistogram.getBucketIndex(-5));
+    }
+
+    @Test
+    public void bucketBoundaries() {
+        // 8 to 15 are still exact, from 16 on every power of two is split in eight
+        assertEquals(8, LatencyHistogram.getBucketIndex(8));
+        assertEquals(15, LatencyHistogram.getBucketIndex(15));
+        assertEquals(16, LatencyHistogram.getBucketIndex(16));
+        assertEquals(16, LatencyHistogram.getBucketIndex(17));
+        assertEquals(17, LatencyHistogram.getBucketIndex(18));
+        assertEquals(23, LatencyHistogram.getBucketIndex(31));
+        assertEquals(24, LatencyHistogram.getBucketIndex(32));
+        assertEquals(24, LatencyHistogram.getBucketIndex(35));
+        assertEquals(25, LatencyHistogram.getBucketIndex(36));
+
+        assertEquals(16, LatencyHistogram.getBucketLowerBound(16));
+        assertEquals(18, LatencyHistogram.getBucketLowerBound(17));
+        assertEquals(36, LatencyHistogram.getBucketLowerBound(25));
+        assertEquals(1024, LatencyHistogram.getBucketLowerBound(LatencyHistogram.getBucketIndex(1024)));
+        assertEquals(1024, LatencyHistogram.getBucketLowerBound(LatencyHistogram.getBucketIndex(1151)));
+        assertEquals(1152, LatencyHistogram.getBucketLowerBound(LatencyHistogram.getBucketIndex(1152)));
+    }
+
+    @Test
+    public void everyValueFallsBetweenItsBucketBounds() {
+        for (long value = 0; value < 140000; value++) {
+            int index = LatencyHistogram.getBucketIndex(value);
+            long lowerBound = LatencyHistogram.getBucketLowerBound(index);
+            assertTrue(lowerBound <= value);
+            if (index < 119) {
+                long upperBound = LatencyHistogram.getBucketLowerBound(index + 1);
+                assertTrue(value < upperBound);
+                // The relative error stays under 12.5%
+                assertTrue((upperBound - lowerBound) * 8 <= Math.max(8, lowerBound));
+            }
+        }
+    }
+
+    @Test
+    public void slowValuesLandInLastBucket() {
+        assertEquals(119, LatencyHistogram.getBucketIndex(131071));
+        assertEquals(119, LatencyHistogram.getBucketIndex(131072));
+        assertEquals(119, LatencyHistogram.getBucketIndex(Long.MAX_VALUE));
+        assertEquals(122880, LatencyHistogram.getBucketLowerBound(119));
+        assertEquals(118, LatencyHistogram.getBucketIndex(122879));
+    }
+
+    @Test
+    public void emptyHistogram() {
+        LatencyHistogram latencyHistogram = new LatencyHistogram();
+
+        assertEquals(0, latencyHistogram.getPercentile(50));
+        assertEquals(0, latencyHistogram.getCount());
+        assertEquals(0, latencyHistogram.getMean());
+        assertEquals(0, latencyHistogram.getMax());
+    }
+
+    @Test
+    public void singleValueIsItsOwnPercentiles() {
+        LatencyHistogram latencyHistogram = new LatencyHistogram();
+        latencyHistogram.record(100);
+
+        assertEquals(100, latencyHistogram.getPercentile(0));
+        assertEquals(100, latencyHistogram.getPercentile(50));
+        assertEquals(100, latencyHistogram.getPercentile(100));
+    }
+
+    @Test
+    public void percentilesAreInterpolatedWithinBucket() {
+        LatencyHistogram latencyHistogram = new LatencyHistogram();
+        // Bucket 1024 to 1151 holds everything
+        for (int i = 0; i < 4; i++) {
+            latencyHistogram.record(1100);
+        }
+
+        assertEquals(1040, latencyHistogram.getPercentile(25));
+        assertEquals(1072, latencyHistogram.getPercentile(50));
+        assertEquals(1100, latencyHistogram.getPercentile(100));
+    }
+
+    @Test
+    public void percentilesOfSpreadValues() {
+        LatencyHistogram latencyHistogram = new LatencyHistogram();
+        for (int value = 1; value <= 1000; value++) {
+            latencyHistogram.record(value);
+        }
+
+        assertEquals(1000, latencyHistogram.getCount());
+        assertEquals(500, latencyHistogram.getMean());
+        assertEquals(1000, latencyHistogram.getMax());
+        assertWithin(500, latencyHistogram.getPercentile(50), 0.02);
+        assertWithin(900, latencyHistogram.getPercentile(90), 0.02);
+        assertWithin(990, latencyHistogram.getPercentile(99), 0.02);
+        assertEquals(1, latencyHistogram.getPercentile(0));
+        assertEquals(1000, latencyHistogram.getPercentile(100));
+    }
+
+    @Test
+    public void overflowIsBoundedByMax() {
+        LatencyHistogram latencyHistogram = new LatencyHistogram();
+        latencyHistogram.record(10);
+        latencyHistogram.record(200000);
+        latencyHistogram.record(400000);
+
+        assertEquals(10, latencyHistogram.getPercentile(33));
+        assertEquals(261440, latencyHistogram.getPercentile(50));
+        assertEquals(400000, latencyHistogram.getPercentile(100));
+        assertEquals(400000, latencyHistogram.getMax());
+    }
+
+    private static void assertWithin(long expected, long actual, double relativeError) {
+        assertTrue(actual + " is not within " + relativeError + " of " + expected,
+                Math.abs(actual - expected) <= expected * relativeError);
+    }
+}
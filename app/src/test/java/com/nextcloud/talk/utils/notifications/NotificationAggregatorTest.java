@@ -0,0 +1,263 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.utils.notifications;
+
+import com.nextcloud.talk.api.models.json.push.DecryptedPushMessage;
+import com.nextcloud.talk.persistence.entities.UserEntity;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.schedulers.TestScheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NotificationAggregatorTest {
+    private FakeNotificationSink notificationSink;
+    private TestScheduler testScheduler;
+    private NotificationAggregator notificationAggregator;
+
+    private UserEntity alice;
+    private UserEntity bob;
+
+    @Before
+    public void setUp() {
+        notificationSink = new FakeNotificationSink();
+        testScheduler = new TestScheduler();
+        notificationAggregator = new NotificationAggregator(notificationSink, testScheduler);
+
+        alice = user("alice");
+        bob = user("bob");
+    }
+
+    @Test
+    public void firstPushIsPostedRightAwayAndAlerts() {
+        notificationAggregator.onPush(alice, push("chat", "room1", "Hello"));
+
+        assertEquals(1, notificationSink.roomNotifications.size());
+        NotificationAggregator.RoomNotification roomNotification = notificationSink.roomNotifications.get(0);
+        assertEquals("room1", roomNotification.getRoomToken());
+        assertEquals(Arrays.asList("Hello"), roomNotification.getLines());
+        assertEquals(1, roomNotification.getMessageCount());
+        assertTrue(roomNotification.isAlert());
+
+        assertEquals(1, notificationSink.accountSummaries.size());
+        assertEquals(roomNotification.getGroupKey(), notificationSink.accountSummaries.get(0).getGroupKey());
+    }
+
+    @Test
+    public void burstIsCoalescedIntoOneUpdate() {
+        notificationAggregator.onPush(alice, push("chat", "room1", "1"));
+        testScheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+        notificationAggregator.onPush(alice, push("chat", "room1", "2"));
+        notificationAggregator.onPush(alice, push("chat", "room1", "3"));
+        notificationAggregator.onPush(alice, push("chat", "room1", "4"));
+
+        assertEquals(1, notificationSink.roomNotifications.size());
+
+        testScheduler.advanceTimeBy(NotificationAggregator.MIN_UPDATE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        assertEquals(2, notificationSink.roomNotifications.size());
+        NotificationAggregator.RoomNotification update = notificationSink.roomNotifications.get(1);
+        assertEquals(Arrays.asList("1", "2", "3", "4"), update.getLines());
+        assertEquals(4, update.getMessageCount());
+        assertFalse(update.isAlert());
+        assertEquals(notificationSink.roomNotifications.get(0).getNotificationId(), update.getNotificationId());
+    }
+
+    @Test
+    public void updatesAreRateLimited() {
+        for (int i = 0; i < 50; i++) {
+            notificationAggregator.onPush(alice, push("chat", "room1", Integer.toString(i)));
+            testScheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+        }
+        testScheduler.advanceTimeBy(NotificationAggregator.MIN_UPDATE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        // Five seconds of pushes, one post right away and then at most one per interval
+        assertTrue(notificationSink.roomNotifications.size() <= 6);
+        NotificationAggregator.RoomNotification latest =
+                notificationSink.roomNotifications.get(notificationSink.roomNotifications.size() - 1);
+        assertEquals(50, latest.getMessageCount());
+        assertEquals(NotificationAggregator.MAX_LINES, latest.getLines().size());
+        assertEquals("49", latest.getLines().get(NotificationAggregator.MAX_LINES - 1));
+    }
+
+    @Test
+    public void callIsPostedDuringBurst() {
+        notificationAggregator.onPush(alice, push("chat", "room1", "Hello"));
+        notificationAggregator.onPush(alice, push("call", "room1", "Incoming call"));
+
+        assertEquals(2, notificationSink.roomNotifications.size());
+        NotificationAggregator.RoomNotification call = notificationSink.roomNotifications.get(1);
+        assertEquals("call", call.getType());
+        assertTrue(call.isAlert());
+
+        testScheduler.advanceTimeBy(NotificationAggregator.MIN_UPDATE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        assertEquals(2, notificationSink.roomNotifications.size());
+    }
+
+    @Test
+    public void summaryIsPerAccount() {
+        notificationAggregator.onPush(alice, push("chat", "room1", "First"));
+        notificationAggregator.onPush(alice, push("chat", "room2", "Second"));
+        notificationAggregator.onPush(bob, push("chat", "room1", "Third"));
+
+        NotificationAggregator.AccountSummary aliceSummary = notificationSink.accountSummaries.get(1);
+        assertEquals(2, aliceSummary.getRoomCount());
+        assertEquals(Arrays.asList("Second", "First"), aliceSummary.getLines());
+
+        NotificationAggregator.AccountSummary bobSummary = notificationSink.accountSummaries.get(2);
+        assertEquals(1, bobSummary.getRoomCount());
+        assertNotEquals(aliceSummary.getNotificationId(), bobSummary.getNotificationId());
+        assertNotEquals(aliceSummary.getGroupKey(), bobSummary.getGroupKey());
+        assertNotEquals(notificationSink.roomNotifications.get(0).getNotificationId(),
+                notificationSink.roomNotifications.get(2).getNotificationId());
+    }
+
+    @Test
+    public void clearRoomCancelsNotificationAndPendingUpdate() {
+        notificationAggregator.onPush(alice, push("chat", "room1", "1"));
+        notificationAggregator.onPush(alice, push("chat", "room1", "2"));
+        int roomNotificationId = notificationSink.roomNotifications.get(0).getNotificationId();
+        int summaryNotificationId = notificationSink.accountSummaries.get(0).getNotificationId();
+
+        notificationAggregator.clearRoom(alice, "room1");
+        testScheduler.advanceTimeBy(NotificationAggregator.MIN_UPDATE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        assertEquals(1, notificationSink.roomNotifications.size());
+        assertEquals(Arrays.asList(roomNotificationId, summaryNotificationId), notificationSink.cancelled);
+
+        notificationAggregator.onPush(alice, push("chat", "room1", "3"));
+        NotificationAggregator.RoomNotification fresh = notificationSink.roomNotifications.get(1);
+        assertEquals(Arrays.asList("3"), fresh.getLines());
+        assertTrue(fresh.isAlert());
+    }
+
+    @Test
+    public void clearRoomKeepsSummaryOfOtherRooms() {
+        notificationAggregator.onPush(alice, push("chat", "room1", "1"));
+        notificationAggregator.onPush(alice, push("chat", "room2", "2"));
+
+        notificationAggregator.clearRoom(alice, "room1");
+
+        assertEquals(1, notificationSink.cancelled.size());
+        NotificationAggregator.AccountSummary accountSummary =
+                notificationSink.accountSummaries.get(notificationSink.accountSummaries.size() - 1);
+        assertEquals(1, accountSummary.getRoomCount());
+        assertEquals(Arrays.asList("2"), accountSummary.getLines());
+    }
+
+    @Test
+    public void clearAccountCancelsItsRoomsAndSummary() {
+        notificationAggregator.onPush(alice, push("chat", "room1", "1"));
+        notificationAggregator.onPush(alice, push("chat", "room2", "2"));
+        notificationAggregator.onPush(bob, push("chat", "room1", "3"));
+
+        notificationAggregator.clearAccount(alice);
+
+        assertEquals(Arrays.asList(notificationSink.roomNotifications.get(0).getNotificationId(),
+                notificationSink.roomNotifications.get(1).getNotificationId(),
+                notificationSink.accountSummaries.get(0).getNotificationId()), notificationSink.cancelled);
+
+        notificationAggregator.onPush(bob, push("chat", "room2", "4"));
+        NotificationAggregator.AccountSummary bobSummary =
+                notificationSink.accountSummaries.get(notificationSink.accountSummaries.size() - 1);
+        assertEquals(2, bobSummary.getRoomCount());
+    }
+
+    @Test
+    public void leastRecentlyUpdatedRoomsAreEvicted() {
+        for (int i = 0; i <= NotificationAggregator.MAX_ROOMS; i++) {
+            notificationAggregator.onPush(alice, push("chat", "room" + i, Integer.toString(i)));
+        }
+
+        assertEquals(Arrays.asList(notificationSink.roomNotifications.get(0).getNotificationId()),
+                notificationSink.cancelled);
+        NotificationAggregator.AccountSummary accountSummary =
+                notificationSink.accountSummaries.get(notificationSink.accountSummaries.size() - 1);
+        assertEquals(NotificationAggregator.MAX_ROOMS, accountSummary.getRoomCount());
+
+        // The evicted room starts over
+        notificationAggregator.onPush(alice, push("chat", "room0", "again"));
+        NotificationAggregator.RoomNotification fresh =
+                notificationSink.roomNotifications.get(notificationSink.roomNotifications.size() - 1);
+        assertEquals(1, fresh.getMessageCount());
+        assertTrue(fresh.isAlert());
+    }
+
+    @Test
+    public void evictionUpdatesSummaryOfOtherAccount() {
+        notificationAggregator.onPush(bob, push("chat", "room", "bob"));
+        for (int i = 0; i < NotificationAggregator.MAX_ROOMS; i++) {
+            notificationAggregator.onPush(alice, push("chat", "room" + i, Integer.toString(i)));
+        }
+
+        NotificationAggregator.AccountSummary bobSummary = notificationSink.accountSummaries.get(0);
+        assertEquals(Arrays.asList(notificationSink.roomNotifications.get(0).getNotificationId(),
+                bobSummary.getNotificationId()), notificationSink.cancelled);
+    }
+
+    private static UserEntity user(String username) {
+        UserEntity userEntity = new UserEntity();
+        userEntity.setUsername(username);
+        userEntity.setBaseUrl("https://cloud.example.com");
+        userEntity.setDisplayName(username);
+        return userEntity;
+    }
+
+    private static DecryptedPushMessage push(String type, String roomToken, String subject) {
+        DecryptedPushMessage decryptedPushMessage = new DecryptedPushMessage();
+        decryptedPushMessage.setApp("spreed");
+        decryptedPushMessage.setType(type);
+        decryptedPushMessage.setId(roomToken);
+        decryptedPushMessage.setSubject(subject);
+        return decryptedPushMessage;
+    }
+
+    private static class FakeNotificationSink implements NotificationSink {
+        private final List<NotificationAggregator.RoomNotification> roomNotifications = new ArrayList<>();
+        private final List<NotificationAggregator.AccountSummary> accountSummaries = new ArrayList<>();
+        private final List<Integer> cancelled = new ArrayList<>();
+
+        @Override
+        public void notifyRoom(NotificationAggregator.RoomNotification roomNotification) {
+            roomNotifications.add(roomNotification);
+        }
+
+        @Override
+        public void notifyAccountSummary(NotificationAggregator.AccountSummary accountSummary) {
+            accountSummaries.add(accountSummary);
+        }
+
+        @Override
+        public void cancel(int notificationId) {
+            cancelled.add(notificationId);
+        }
+    }
+}
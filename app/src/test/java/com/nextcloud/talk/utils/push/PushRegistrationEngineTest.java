@@ -0,0 +1,418 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.utils.push;
+
+import com.nextcloud.talk.api.models.json.push.PushConfigurationState;
+import com.nextcloud.talk.api.models.json.push.PushRegistration;
+import com.nextcloud.talk.api.models.json.push.PushRegistrationOCS;
+import com.nextcloud.talk.api.models.json.push.PushRegistrationOverall;
+import com.nextcloud.talk.persistence.entities.UserEntity;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Completable;
+import io.reactivex.Observable;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.TestScheduler;
+import io.reactivex.subjects.PublishSubject;
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import retrofit2.HttpException;
+import retrofit2.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PushRegistrationEngineTest {
+    private static final String PUSH_TOKEN = "token";
+
+    private FakeEndpoints endpoints;
+    private FakeStore store;
+    private TestScheduler testScheduler;
+    private PushRegistrationEngine pushRegistrationEngine;
+
+    @Before
+    public void setUp() {
+        endpoints = new FakeEndpoints();
+        store = new FakeStore();
+        testScheduler = new TestScheduler();
+        pushRegistrationEngine = new PushRegistrationEngine(endpoints, store, testScheduler);
+    }
+
+    @Test
+    public void registersWithServerAndProxy() {
+        UserEntity alice = user("alice", "https://one.example.com");
+        UserEntity bob = user("bob", "https://two.example.com");
+
+        List<PushRegistrationEngine.Result> results = register(alice, bob);
+
+        assertEquals(2, results.size());
+        for (PushRegistrationEngine.Result result : results) {
+            assertEquals(PushRegistrationEngine.Status.REGISTERED, result.getStatus());
+            assertFalse(result.isResumed());
+        }
+        assertEquals(Arrays.asList("alice", "bob"), endpoints.nextcloudRequests);
+        assertEquals(Arrays.asList("alice", "bob"), endpoints.proxyRequests);
+
+        PushConfigurationState state = store.states.get(alice);
+        assertEquals(PUSH_TOKEN, state.getPushToken());
+        assertEquals("device-alice", state.getDeviceIdentifier());
+        assertEquals("key-alice", state.getUserPublicKey());
+        assertFalse(state.isProxyRegistrationPending());
+        assertEquals("device-alice", endpoints.proxyMaps.get(0).get("deviceIdentifier"));
+        assertEquals(PUSH_TOKEN, endpoints.proxyMaps.get(0).get("pushToken"));
+    }
+
+    @Test
+    public void registeredAccountsAreLeftAlone() {
+        UserEntity alice = user("alice", "https://one.example.com");
+        register(alice);
+        endpoints.nextcloudRequests.clear();
+        endpoints.proxyRequests.clear();
+
+        List<PushRegistrationEngine.Result> results = register(alice);
+
+        assertEquals(PushRegistrationEngine.Status.UP_TO_DATE, results.get(0).getStatus());
+        assertTrue(endpoints.nextcloudRequests.isEmpty());
+        assertTrue(endpoints.proxyRequests.isEmpty());
+    }
+
+    @Test
+    public void newTokenRegistersAgain() {
+        UserEntity alice = user("alice", "https://one.example.com");
+        register(alice);
+
+        List<PushRegistrationEngine.Result> results = pushRegistrationEngine.register(Arrays.asList(alice),
+                "new token", new HashMap<>()).blockingGet();
+
+        assertEquals(PushRegistrationEngine.Status.REGISTERED, results.get(0).getStatus());
+        assertEquals(2, endpoints.nextcloudRequests.size());
+        assertEquals("new token", store.states.get(alice).getPushToken());
+    }
+
+    @Test
+    public void accountsScheduledForDeletionAreSkipped() {
+        UserEntity alice = user("alice", "https://one.example.com");
+        alice.setScheduledForDeletion(true);
+
+        assertTrue(register(alice).isEmpty());
+        assertTrue(endpoints.nextcloudRequests.isEmpty());
+    }
+
+    @Test
+    public void failedProxyStepResumesWithoutServerStep() {
+        UserEntity alice = user("alice", "https://one.example.com");
+        endpoints.proxyFailures.add(httpException(400));
+
+        PushRegistrationEngine.Result failed = register(alice).get(0);
+
+        assertEquals(PushRegistrationEngine.Status.FAILED, failed.getStatus());
+        assertNotNull(failed.getError());
+        assertTrue(store.states.get(alice).isProxyRegistrationPending());
+
+        PushRegistrationEngine.Result resumed = register(alice).get(0);
+
+        assertEquals(PushRegistrationEngine.Status.REGISTERED, resumed.getStatus());
+        assertTrue(resumed.isResumed());
+        assertEquals(1, endpoints.nextcloudRequests.size());
+        assertEquals(2, endpoints.proxyRequests.size());
+        assertFalse(store.states.get(alice).isProxyRegistrationPending());
+    }
+
+    @Test
+    public void clientErrorsAreNotRetried() {
+        UserEntity alice = user("alice", "https://one.example.com");
+        endpoints.nextcloudFailures.add(httpException(400));
+
+        assertEquals(PushRegistrationEngine.Status.FAILED, register(alice).get(0).getStatus());
+        assertEquals(1, endpoints.nextcloudRequests.size());
+        assertEquals(0, pushRegistrationEngine.getBackoffMs("https://one.example.com"));
+    }
+
+    @Test
+    public void serverFailuresAreRetriedWithExponentialBackoff() {
+        UserEntity alice = user("alice", "https://one.example.com");
+        endpoints.nextcloudFailures.add(new IOException("timeout"));
+        endpoints.nextcloudFailures.add(httpException(503));
+
+        TestObserver<List<PushRegistrationEngine.Result>> testObserver = pushRegistrationEngine.register(
+                Arrays.asList(alice), PUSH_TOKEN, new HashMap<>()).test();
+        assertEquals(1, endpoints.nextcloudRequests.size());
+
+        testScheduler.advanceTimeBy(PushRegistrationEngine.INITIAL_BACKOFF_MS - 1, TimeUnit.MILLISECONDS);
+        assertEquals(1, endpoints.nextcloudRequests.size());
+        testScheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+        assertEquals(2, endpoints.nextcloudRequests.size());
+
+        testScheduler.advanceTimeBy(2 * PushRegistrationEngine.INITIAL_BACKOFF_MS - 1, TimeUnit.MILLISECONDS);
+        assertEquals(2, endpoints.nextcloudRequests.size());
+        testScheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+        assertEquals(3, endpoints.nextcloudRequests.size());
+
+        testObserver.assertValueCount(1);
+        PushRegistrationEngine.Result result = testObserver.values().get(0).get(0);
+        assertEquals(PushRegistrationEngine.Status.REGISTERED, result.getStatus());
+        assertEquals(3 * PushRegistrationEngine.INITIAL_BACKOFF_MS, result.getDurationMs());
+        assertEquals(0, pushRegistrationEngine.getBackoffMs("https://one.example.com"));
+    }
+
+    @Test
+    public void backoffIsSharedByAccountsOnTheSameServer() {
+        UserEntity alice = user("alice", "https://one.example.com");
+        UserEntity bob = user("bob", "https://one.example.com");
+        UserEntity carol = user("carol", "https://two.example.com");
+        failServer(PushRegistrationEngine.MAX_ATTEMPTS);
+
+        long backoffMs = pushRegistrationEngine.getBackoffMs("https://one.example.com");
+        assertEquals(PushRegistrationEngine.INITIAL_BACKOFF_MS << (PushRegistrationEngine.MAX_ATTEMPTS - 1),
+                backoffMs);
+        endpoints.pendingNextcloudRequests = new ArrayList<>();
+
+        TestObserver<List<PushRegistrationEngine.Result>> testObserver = pushRegistrationEngine.register(
+                Arrays.asList(bob, carol), PUSH_TOKEN, new HashMap<>()).test();
+        // Carol's server is fine, Bob's has to wait longer than a run does
+        assertEquals("carol", endpoints.nextcloudRequests.get(endpoints.nextcloudRequests.size() - 1));
+        endpoints.pendingNextcloudRequests.get(0).onNext(registration("carol"));
+        endpoints.pendingNextcloudRequests.get(0).onComplete();
+
+        testObserver.assertValueCount(1);
+        PushRegistrationEngine.Result deferred = testObserver.values().get(0).get(0);
+        assertSame(bob, deferred.getUserEntity());
+        assertEquals(PushRegistrationEngine.Status.DEFERRED, deferred.getStatus());
+        assertEquals(0, deferred.getDurationMs());
+        assertEquals(PushRegistrationEngine.MAX_ATTEMPTS + 1, endpoints.nextcloudRequests.size());
+    }
+
+    @Test
+    public void deferredAccountRegistersOnceBackoffIsOver() {
+        UserEntity bob = user("bob", "https://one.example.com");
+        failServer(PushRegistrationEngine.MAX_ATTEMPTS);
+        long backoffMs = pushRegistrationEngine.getBackoffMs("https://one.example.com");
+
+        testScheduler.advanceTimeBy(backoffMs - PushRegistrationEngine.MAX_WAIT_MS - 1, TimeUnit.MILLISECONDS);
+        assertEquals(PushRegistrationEngine.Status.DEFERRED, register(bob).get(0).getStatus());
+
+        testScheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+        TestObserver<List<PushRegistrationEngine.Result>> testObserver = pushRegistrationEngine.register(
+                Arrays.asList(bob), PUSH_TOKEN, new HashMap<>()).test();
+        testScheduler.advanceTimeBy(PushRegistrationEngine.MAX_WAIT_MS, TimeUnit.MILLISECONDS);
+
+        assertEquals(PushRegistrationEngine.Status.REGISTERED, testObserver.values().get(0).get(0).getStatus());
+        assertEquals(0, pushRegistrationEngine.getBackoffMs("https://one.example.com"));
+    }
+
+    @Test
+    public void runNeverWaitsLongerThanMaxWait() {
+        UserEntity alice = user("alice", "https://one.example.com");
+        failServer(PushRegistrationEngine.MAX_ATTEMPTS);
+        testScheduler.advanceTimeBy(pushRegistrationEngine.getBackoffMs("https://one.example.com"),
+                TimeUnit.MILLISECONDS);
+        for (int i = 0; i < PushRegistrationEngine.MAX_ATTEMPTS; i++) {
+            endpoints.nextcloudFailures.add(new IOException("still down"));
+        }
+
+        TestObserver<List<PushRegistrationEngine.Result>> testObserver = pushRegistrationEngine.register(
+                Arrays.asList(alice), PUSH_TOKEN, new HashMap<>()).test();
+        // The next delay would be 16s, so the run gives up after the first attempt
+        testObserver.assertValueCount(1);
+        assertEquals(PushRegistrationEngine.Status.DEFERRED, testObserver.values().get(0).get(0).getStatus());
+        assertEquals(PushRegistrationEngine.MAX_ATTEMPTS + 1, endpoints.nextcloudRequests.size());
+        assertEquals(PushRegistrationEngine.INITIAL_BACKOFF_MS << PushRegistrationEngine.MAX_ATTEMPTS,
+                pushRegistrationEngine.getBackoffMs("https://one.example.com"));
+    }
+
+    @Test
+    public void failuresAreForgottenAfterQuietPeriod() {
+        UserEntity alice = user("alice", "https://one.example.com");
+        failServer(PushRegistrationEngine.MAX_ATTEMPTS);
+        testScheduler.advanceTimeBy(pushRegistrationEngine.getBackoffMs("https://one.example.com")
+                + PushRegistrationEngine.MAX_BACKOFF_MS, TimeUnit.MILLISECONDS);
+        endpoints.nextcloudFailures.add(new IOException("down again"));
+
+        TestObserver<List<PushRegistrationEngine.Result>> testObserver = pushRegistrationEngine.register(
+                Arrays.asList(alice), PUSH_TOKEN, new HashMap<>()).test();
+
+        assertEquals(PushRegistrationEngine.INITIAL_BACKOFF_MS,
+                pushRegistrationEngine.getBackoffMs("https://one.example.com"));
+        testScheduler.advanceTimeBy(PushRegistrationEngine.INITIAL_BACKOFF_MS, TimeUnit.MILLISECONDS);
+        assertEquals(PushRegistrationEngine.Status.REGISTERED, testObserver.values().get(0).get(0).getStatus());
+    }
+
+    @Test
+    public void concurrentAccountsAreBounded() {
+        endpoints.pendingNextcloudRequests = new ArrayList<>();
+        List<UserEntity> userEntities = new ArrayList<>();
+        for (int i = 0; i < PushRegistrationEngine.MAX_CONCURRENT_ACCOUNTS + 2; i++) {
+            userEntities.add(user("user" + i, "https://one.example.com"));
+        }
+
+        TestObserver<List<PushRegistrationEngine.Result>> testObserver = pushRegistrationEngine.register(
+                userEntities, PUSH_TOKEN, new HashMap<>()).test();
+        assertEquals(PushRegistrationEngine.MAX_CONCURRENT_ACCOUNTS, endpoints.nextcloudRequests.size());
+
+        endpoints.pendingNextcloudRequests.get(0).onNext(registration("user0"));
+        endpoints.pendingNextcloudRequests.get(0).onComplete();
+        assertEquals(PushRegistrationEngine.MAX_CONCURRENT_ACCOUNTS + 1, endpoints.nextcloudRequests.size());
+
+        for (int i = 1; i < userEntities.size(); i++) {
+            endpoints.pendingNextcloudRequests.get(i).onNext(registration("user" + i));
+            endpoints.pendingNextcloudRequests.get(i).onComplete();
+        }
+        testObserver.assertValueCount(1);
+        assertEquals(userEntities.size(), testObserver.values().get(0).size());
+    }
+
+    @Test
+    public void accountRegisteringElsewhereIsNotRegisteredTwice() {
+        endpoints.pendingNextcloudRequests = new ArrayList<>();
+        UserEntity alice = user("alice", "https://one.example.com");
+
+        TestObserver<List<PushRegistrationEngine.Result>> first = pushRegistrationEngine.register(
+                Arrays.asList(alice), PUSH_TOKEN, new HashMap<>()).test();
+        List<PushRegistrationEngine.Result> second = register(alice);
+
+        assertEquals(PushRegistrationEngine.Status.IN_PROGRESS, second.get(0).getStatus());
+        assertEquals(1, endpoints.nextcloudRequests.size());
+
+        endpoints.pendingNextcloudRequests.get(0).onNext(registration("alice"));
+        endpoints.pendingNextcloudRequests.get(0).onComplete();
+        assertSame(alice, first.values().get(0).get(0).getUserEntity());
+        assertEquals(PushRegistrationEngine.Status.REGISTERED, first.values().get(0).get(0).getStatus());
+    }
+
+    /**
+     * Lets alice on https://one.example.com fail the given number of times, waiting through the delays.
+     */
+    private void failServer(int failures) {
+        for (int i = 0; i < failures; i++) {
+            endpoints.nextcloudFailures.add(new IOException("down"));
+        }
+
+        TestObserver<List<PushRegistrationEngine.Result>> testObserver = pushRegistrationEngine.register(
+                Arrays.asList(user("alice", "https://one.example.com")), PUSH_TOKEN, new HashMap<>()).test();
+        for (int i = 0; i < failures - 1; i++) {
+            testScheduler.advanceTimeBy(PushRegistrationEngine.INITIAL_BACKOFF_MS << i, TimeUnit.MILLISECONDS);
+        }
+        testObserver.assertValueCount(1);
+        assertEquals(failures, endpoints.nextcloudRequests.size());
+    }
+
+    private List<PushRegistrationEngine.Result> register(UserEntity... userEntities) {
+        return pushRegistrationEngine.register(Arrays.asList(userEntities), PUSH_TOKEN, new HashMap<>())
+                .blockingGet();
+    }
+
+    private static UserEntity user(String username, String baseUrl) {
+        UserEntity userEntity = new UserEntity();
+        userEntity.setUsername(username);
+        userEntity.setBaseUrl(baseUrl);
+        return userEntity;
+    }
+
+    private static PushRegistrationOverall registration(String username) {
+        PushRegistration pushRegistration = new PushRegistration();
+        pushRegistration.setDeviceIdentifier("device-" + username);
+        pushRegistration.setSignature("signature-" + username);
+        pushRegistration.setPublicKey("key-" + username);
+
+        PushRegistrationOCS pushRegistrationOCS = new PushRegistrationOCS();
+        pushRegistrationOCS.setData(pushRegistration);
+
+        PushRegistrationOverall pushRegistrationOverall = new PushRegistrationOverall();
+        pushRegistrationOverall.setOcs(pushRegistrationOCS);
+        return pushRegistrationOverall;
+    }
+
+    private static HttpException httpException(int code) {
+        return new HttpException(Response.error(code, ResponseBody.create(MediaType.parse("application/json"),
+                "")));
+    }
+
+    /**
+     * Stands in for the Nextcloud push endpoint and the push proxy, answering right away unless told to fail.
+     */
+    private static class FakeEndpoints implements PushRegistrationEndpoints {
+        private final List<String> nextcloudRequests = new ArrayList<>();
+        private final List<String> proxyRequests = new ArrayList<>();
+        private final List<Map<String, String>> proxyMaps = new ArrayList<>();
+        private final LinkedList<Throwable> nextcloudFailures = new LinkedList<>();
+        private final LinkedList<Throwable> proxyFailures = new LinkedList<>();
+        // When set, server requests are only answered through these
+        private List<PublishSubject<PushRegistrationOverall>> pendingNextcloudRequests;
+
+        @Override
+        public Observable<PushRegistrationOverall> registerWithNextcloud(UserEntity userEntity,
+                                                                         Map<String, String> queryMap) {
+            return Observable.defer(() -> {
+                nextcloudRequests.add(userEntity.getUsername());
+                if (pendingNextcloudRequests != null) {
+                    PublishSubject<PushRegistrationOverall> pendingRequest = PublishSubject.create();
+                    pendingNextcloudRequests.add(pendingRequest);
+                    return pendingRequest;
+                }
+                if (!nextcloudFailures.isEmpty()) {
+                    return Observable.error(nextcloudFailures.removeFirst());
+                }
+                return Observable.just(registration(userEntity.getUsername()));
+            });
+        }
+
+        @Override
+        public Completable registerWithProxy(UserEntity userEntity, Map<String, String> proxyMap) {
+            return Completable.defer(() -> {
+                proxyRequests.add(userEntity.getUsername());
+                proxyMaps.add(proxyMap);
+                if (!proxyFailures.isEmpty()) {
+                    return Completable.error(proxyFailures.removeFirst());
+                }
+                return Completable.complete();
+            });
+        }
+    }
+
+    private static class FakeStore implements PushRegistrationStore {
+        private final Map<UserEntity, PushConfigurationState> states = new IdentityHashMap<>();
+
+        @Override
+        public PushConfigurationState getState(UserEntity userEntity) {
+            return states.get(userEntity);
+        }
+
+        @Override
+        public Completable saveState(UserEntity userEntity, PushConfigurationState pushConfigurationState) {
+            return Completable.fromAction(() -> states.put(userEntity, pushConfigurationState));
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.webrtc;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.nextcloud.talk.webrtc.CaptureFormatPolicy.FORMATS;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CaptureFormatPolicyTest {
+    private CaptureFormatPolicy captureFormatPolicy;
+
+    @Before
+    public void setUp() {
+        captureFormatPolicy = new CaptureFormatPolicy();
+    }
+
+    @Test
+    public void startsWithBestFormat() {
+        assertSame(FORMATS[0], captureFormatPolicy.getCaptureFormat());
+    }
+
+    @Test
+    public void peerCountCapsFormat() {
+        assertFalse(captureFormatPolicy.onPeerCountChanged(1));
+        assertSame(FORMATS[0], captureFormatPolicy.getCaptureFormat());
+
+        assertTrue(captureFormatPolicy.onPeerCountChanged(2));
+        assertSame(FORMATS[1], captureFormatPolicy.getCaptureFormat());
+
+        assertTrue(captureFormatPolicy.onPeerCountChanged(3));
+        assertSame(FORMATS[2], captureFormatPolicy.getCaptureFormat());
+
+        assertFalse(captureFormatPolicy.onPeerCountChanged(4));
+        assertSame(FORMATS[2], captureFormatPolicy.getCaptureFormat());
+
+        assertTrue(captureFormatPolicy.onPeerCountChanged(5));
+        assertSame(FORMATS[3], captureFormatPolicy.getCaptureFormat());
+
+        assertFalse(captureFormatPolicy.onPeerCountChanged(12));
+        assertSame(FORMATS[3], captureFormatPolicy.getCaptureFormat());
+
+        // Peers leaving lift the cap right away
+        assertTrue(captureFormatPolicy.onPeerCountChanged(1));
+        assertSame(FORMATS[0], captureFormatPolicy.getCaptureFormat());
+    }
+
+    @Test
+    public void downgradeIsImmediate() {
+        captureFormatPolicy.onPeerCountChanged(1);
+
+        assertTrue(captureFormatPolicy.onOutboundBandwidthMeasured(1000));
+        assertSame(FORMATS[1], captureFormatPolicy.getCaptureFormat());
+
+        assertTrue(captureFormatPolicy.onOutboundBandwidthMeasured(100));
+        assertSame(FORMATS[3], captureFormatPolicy.getCaptureFormat());
+    }
+
+    @Test
+    public void bandwidthIsSharedByPeers() {
+        captureFormatPolicy.onPeerCountChanged(2);
+
+        // 500 kbps per peer only affords the third format
+        assertTrue(captureFormatPolicy.onOutboundBandwidthMeasured(1000));
+        assertSame(FORMATS[2], captureFormatPolicy.getCaptureFormat());
+    }
+
+    @Test
+    public void upgradeNeedsThreeSamplesWithHeadroom() {
+        captureFormatPolicy.onPeerCountChanged(1);
+        captureFormatPolicy.onOutboundBandwidthMeasured(1000);
+
+        // 1500 kbps is enough for the best format, but not with 1.3 times headroom
+        for (int i = 0; i < 10; i++) {
+            assertFalse(captureFormatPolicy.onOutboundBandwidthMeasured(1949));
+        }
+        assertSame(FORMATS[1], captureFormatPolicy.getCaptureFormat());
+
+        assertFalse(captureFormatPolicy.onOutboundBandwidthMeasured(1950));
+        assertFalse(captureFormatPolicy.onOutboundBandwidthMeasured(1950));
+        assertTrue(captureFormatPolicy.onOutboundBandwidthMeasured(1950));
+        assertSame(FORMATS[0], captureFormatPolicy.getCaptureFormat());
+    }
+
+    @Test
+    public void upgradeSamplesMustBeInARow() {
+        captureFormatPolicy.onPeerCountChanged(1);
+        captureFormatPolicy.onOutboundBandwidthMeasured(1000);
+
+        assertFalse(captureFormatPolicy.onOutboundBandwidthMeasured(2000));
+        assertFalse(captureFormatPolicy.onOutboundBandwidthMeasured(2000));
+        assertFalse(captureFormatPolicy.onOutboundBandwidthMeasured(1000));
+        assertFalse(captureFormatPolicy.onOutboundBandwidthMeasured(2000));
+        assertFalse(captureFormatPolicy.onOutboundBandwidthMeasured(2000));
+        assertSame(FORMATS[1], captureFormatPolicy.getCaptureFormat());
+
+        assertTrue(captureFormatPolicy.onOutboundBandwidthMeasured(2000));
+        assertSame(FORMATS[0], captureFormatPolicy.getCaptureFormat());
+    }
+
+    @Test
+    public void upgradeGoesOneFormatAtATime() {
+        captureFormatPolicy.onPeerCountChanged(1);
+        captureFormatPolicy.onOutboundBandwidthMeasured(100);
+        assertSame(FORMATS[3], captureFormatPolicy.getCaptureFormat());
+
+        for (int level = 2; level >= 0; level--) {
+            assertFalse(captureFormatPolicy.onOutboundBandwidthMeasured(10000));
+            assertFalse(captureFormatPolicy.onOutboundBandwidthMeasured(10000));
+            assertTrue(captureFormatPolicy.onOutboundBandwidthMeasured(10000));
+            assertSame(FORMATS[level], captureFormatPolicy.getCaptureFormat());
+        }
+    }
+
+    @Test
+    public void noUpgradeAbovePeerCountCap() {
+        captureFormatPolicy.onPeerCountChanged(3);
+        assertTrue(captureFormatPolicy.onOutboundBandwidthMeasured(3 * 200));
+        assertSame(FORMATS[3], captureFormatPolicy.getCaptureFormat());
+
+        // Plenty of bandwidth gets back to the cap of three peers, but not beyond
+        for (int i = 0; i < 2; i++) {
+            assertFalse(captureFormatPolicy.onOutboundBandwidthMeasured(3 * 10000));
+        }
+        assertTrue(captureFormatPolicy.onOutboundBandwidthMeasured(3 * 10000));
+        assertSame(FORMATS[2], captureFormatPolicy.getCaptureFormat());
+
+        for (int i = 0; i < 20; i++) {
+            assertFalse(captureFormatPolicy.onOutboundBandwidthMeasured(3 * 10000));
+            assertSame(FORMATS[2], captureFormatPolicy.getCaptureFormat());
+        }
+    }
+}
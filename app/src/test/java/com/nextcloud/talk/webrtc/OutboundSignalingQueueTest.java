@@ -0,0 +1,233 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.webrtc;
+
+import com.nextcloud.talk.api.models.json.participants.Participant;
+import com.nextcloud.talk.api.models.json.signaling.NCSignalingMessage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import io.reactivex.Observable;
+import io.reactivex.schedulers.TestScheduler;
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OutboundSignalingQueueTest {
+    private static final MediaType JSON = MediaType.parse("application/json");
+    private static final String EMPTY_ANSWER = "{\"ocs\":{\"meta\":{\"status\":\"ok\"},\"data\":[]}}";
+    // Every message is sent to its own session, so the order can be read back from the request
+    private static final Pattern RECIPIENT = Pattern.compile("\\\\\"to\\\\\":\\\\\"([^\\\\]*)\\\\\"");
+
+    private TestScheduler testScheduler;
+    private Deque<Observable<ResponseBody>> answers;
+    private List<List<String>> requests;
+    private List<Long> requestedAt;
+    private List<Object> received;
+    private OutboundSignalingQueue outboundSignalingQueue;
+
+    @Before
+    public void setUp() {
+        testScheduler = new TestScheduler();
+        answers = new ArrayDeque<>();
+        requests = new ArrayList<>();
+        requestedAt = new ArrayList<>();
+        received = new ArrayList<>();
+
+        outboundSignalingQueue = new OutboundSignalingQueue(messages -> {
+            List<String> recipients = new ArrayList<>();
+            Matcher matcher = RECIPIENT.matcher(messages);
+            while (matcher.find()) {
+                recipients.add(matcher.group(1));
+            }
+            requests.add(recipients);
+            requestedAt.add(testScheduler.now(TimeUnit.MILLISECONDS));
+
+            Observable<ResponseBody> answer = answers.poll();
+            return answer != null ? answer : Observable.just(ResponseBody.create(JSON, EMPTY_ANSWER));
+        }, "s-alice", testScheduler, testScheduler, new SignalingDecoder.Callback() {
+            @Override
+            public void onUsersInRoom(List<Participant> participants) {
+                received.add(participants);
+            }
+
+            @Override
+            public void onSignalingMessage(NCSignalingMessage ncSignalingMessage) {
+                received.add(ncSignalingMessage);
+            }
+        });
+    }
+
+    @Test
+    public void messagesWithinWindowAreSentTogether() {
+        outboundSignalingQueue.enqueue(message("a"), false);
+        testScheduler.advanceTimeBy(20, TimeUnit.MILLISECONDS);
+        outboundSignalingQueue.enqueue(message("b"), false);
+        testScheduler.advanceTimeBy(OutboundSignalingQueue.BATCH_WINDOW_MS - 21, TimeUnit.MILLISECONDS);
+        outboundSignalingQueue.enqueue(message("c"), false);
+
+        assertTrue(requests.isEmpty());
+
+        testScheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+        assertEquals(Arrays.asList(Arrays.asList("a", "b", "c")), requests);
+        assertEquals(OutboundSignalingQueue.BATCH_WINDOW_MS, (long) requestedAt.get(0));
+    }
+
+    @Test
+    public void urgentMessageIsSentWithEverythingBeforeIt() {
+        outboundSignalingQueue.enqueue(message("a"), false);
+        outboundSignalingQueue.enqueue(message("b"), true);
+
+        assertEquals(Arrays.asList(Arrays.asList("a", "b")), requests);
+
+        // The window of the first message was closed along with it
+        testScheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        assertEquals(1, requests.size());
+    }
+
+    @Test
+    public void fullBatchIsSentWithoutWaitingForWindow() {
+        for (int i = 0; i < OutboundSignalingQueue.MAX_BATCH_SIZE; i++) {
+            outboundSignalingQueue.enqueue(message("m" + i), false);
+        }
+
+        assertEquals(1, requests.size());
+        assertEquals(OutboundSignalingQueue.MAX_BATCH_SIZE, requests.get(0).size());
+        assertEquals("m0", requests.get(0).get(0));
+
+        testScheduler.triggerActions();
+        outboundSignalingQueue.enqueue(message("next"), false);
+        assertEquals(1, requests.size());
+        testScheduler.advanceTimeBy(OutboundSignalingQueue.BATCH_WINDOW_MS, TimeUnit.MILLISECONDS);
+        assertEquals(Arrays.asList("next"), requests.get(1));
+    }
+
+    @Test
+    public void oneRequestAtATimeInOrder() {
+        answers.add(Observable.timer(100, TimeUnit.MILLISECONDS, testScheduler)
+                .map(tick -> ResponseBody.create(JSON, EMPTY_ANSWER)));
+
+        outboundSignalingQueue.enqueue(message("a"), true);
+        for (int i = 0; i < OutboundSignalingQueue.MAX_BATCH_SIZE + 1; i++) {
+            outboundSignalingQueue.enqueue(message("m" + i), true);
+        }
+        assertEquals(1, requests.size());
+
+        testScheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+        assertEquals(3, requests.size());
+        assertEquals(OutboundSignalingQueue.MAX_BATCH_SIZE, requests.get(1).size());
+        assertEquals("m0", requests.get(1).get(0));
+        assertEquals(Arrays.asList("m" + OutboundSignalingQueue.MAX_BATCH_SIZE), requests.get(2));
+    }
+
+    @Test
+    public void failedBatchIsQueuedAgainInFront() {
+        // The first attempt and its three retries
+        for (int i = 0; i < 4; i++) {
+            answers.add(Observable.error(new IOException("offline")));
+        }
+
+        outboundSignalingQueue.enqueue(message("a"), true);
+        assertEquals(4, requests.size());
+        testScheduler.triggerActions();
+
+        outboundSignalingQueue.enqueue(message("b"), false);
+        testScheduler.advanceTimeBy(OutboundSignalingQueue.RETRY_DELAY_MS - 1, TimeUnit.MILLISECONDS);
+        assertEquals(4, requests.size());
+
+        testScheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+        assertEquals(5, requests.size());
+        assertEquals(Arrays.asList("a", "b"), requests.get(4));
+        assertEquals(OutboundSignalingQueue.RETRY_DELAY_MS, (long) requestedAt.get(4));
+    }
+
+    @Test
+    public void urgentMessageDoesNotWaitForRetry() {
+        for (int i = 0; i < 4; i++) {
+            answers.add(Observable.error(new IOException("offline")));
+        }
+
+        outboundSignalingQueue.enqueue(message("a"), true);
+        testScheduler.triggerActions();
+        outboundSignalingQueue.enqueue(message("b"), true);
+
+        assertEquals(Arrays.asList("a", "b"), requests.get(4));
+    }
+
+    @Test
+    public void answeredBatchIsNotSentAgain() {
+        answers.add(Observable.just(ResponseBody.create(JSON, "<html>Bad gateway</html>")));
+
+        outboundSignalingQueue.enqueue(message("a"), true);
+        testScheduler.advanceTimeBy(OutboundSignalingQueue.RETRY_DELAY_MS, TimeUnit.MILLISECONDS);
+
+        assertEquals(1, requests.size());
+    }
+
+    @Test
+    public void answerIsDelivered() {
+        answers.add(Observable.just(ResponseBody.create(JSON, "{\"ocs\":{\"data\":[{\"type\":\"message\","
+                + "\"data\":{\"from\":\"s-bob\",\"type\":\"answer\"}}]}}")));
+
+        outboundSignalingQueue.enqueue(message("a"), true);
+        assertTrue(received.isEmpty());
+        testScheduler.triggerActions();
+
+        assertEquals(1, received.size());
+        assertEquals("s-bob", ((NCSignalingMessage) received.get(0)).getFrom());
+    }
+
+    @Test
+    public void releaseDropsEverything() {
+        answers.add(Observable.timer(100, TimeUnit.MILLISECONDS, testScheduler)
+                .flatMap(tick -> Observable.error(new IOException("offline"))));
+
+        outboundSignalingQueue.enqueue(message("a"), true);
+        outboundSignalingQueue.enqueue(message("b"), false);
+        outboundSignalingQueue.release();
+        outboundSignalingQueue.enqueue(message("c"), true);
+        testScheduler.advanceTimeBy(1, TimeUnit.MINUTES);
+
+        assertEquals(1, requests.size());
+        assertEquals(Arrays.asList("a"), requests.get(0));
+    }
+
+    private static NCSignalingMessage message(String to) {
+        NCSignalingMessage ncSignalingMessage = new NCSignalingMessage();
+        ncSignalingMessage.setTo(to);
+        ncSignalingMessage.setType("candidate");
+        ncSignalingMessage.setRoomType("video");
+        return ncSignalingMessage;
+    }
+}
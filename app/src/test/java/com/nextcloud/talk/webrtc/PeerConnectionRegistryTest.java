@@ -0,0 +1,170 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.webrtc;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PeerConnectionRegistryTest {
+    private static final int ROSTER_SIZE = 200;
+
+    private PeerConnectionRegistry<FakePeer> peerConnectionRegistry;
+    private int createdPeers;
+
+    @Before
+    public void setUp() {
+        createdPeers = 0;
+        peerConnectionRegistry = new PeerConnectionRegistry<>(sessionId -> {
+            createdPeers++;
+            return new FakePeer(sessionId);
+        });
+    }
+
+    @Test
+    public void getOrCreateCreatesOncePerSession() {
+        FakePeer first = peerConnectionRegistry.getOrCreate("session");
+        FakePeer second = peerConnectionRegistry.getOrCreate("session");
+
+        assertSame(first, second);
+        assertEquals(1, createdPeers);
+        assertSame(first, peerConnectionRegistry.get("session"));
+    }
+
+    @Test
+    public void declinedPeerIsNotKept() {
+        PeerConnectionRegistry<FakePeer> decliningRegistry = new PeerConnectionRegistry<>(sessionId -> null);
+
+        assertNull(decliningRegistry.getOrCreate("session"));
+        assertFalse(decliningRegistry.contains("session"));
+        assertEquals(0, decliningRegistry.size());
+    }
+
+    @Test
+    public void removeDropsPeer() {
+        FakePeer peer = peerConnectionRegistry.getOrCreate("session");
+
+        assertSame(peer, peerConnectionRegistry.remove("session"));
+        assertNull(peerConnectionRegistry.get("session"));
+        assertNull(peerConnectionRegistry.remove("session"));
+        assertEquals(0, peerConnectionRegistry.size());
+    }
+
+    @Test
+    public void fullRosterJoinsEveryone() {
+        PeerConnectionRegistry.RosterDiff rosterDiff = peerConnectionRegistry.reconcile(roster(0, ROSTER_SIZE));
+
+        assertEquals(ROSTER_SIZE, rosterDiff.getJoined().size());
+        assertTrue(rosterDiff.getLeft().isEmpty());
+    }
+
+    @Test
+    public void unchangedRosterIsEmptyDiff() {
+        Set<String> roster = roster(0, ROSTER_SIZE);
+        apply(peerConnectionRegistry.reconcile(roster));
+
+        PeerConnectionRegistry.RosterDiff rosterDiff = peerConnectionRegistry.reconcile(roster);
+
+        assertTrue(rosterDiff.isEmpty());
+        assertEquals(ROSTER_SIZE, peerConnectionRegistry.size());
+        assertEquals(ROSTER_SIZE, createdPeers);
+    }
+
+    @Test
+    public void overlappingRostersOnlyReportChanges() {
+        apply(peerConnectionRegistry.reconcile(roster(0, ROSTER_SIZE)));
+
+        // 50 leave at the front, 50 join at the back
+        PeerConnectionRegistry.RosterDiff rosterDiff = peerConnectionRegistry.reconcile(roster(50, ROSTER_SIZE + 50));
+
+        assertEquals(roster(ROSTER_SIZE, ROSTER_SIZE + 50), rosterDiff.getJoined());
+        assertEquals(roster(0, 50), rosterDiff.getLeft());
+
+        apply(rosterDiff);
+        assertEquals(roster(50, ROSTER_SIZE + 50), peerConnectionRegistry.getSessionIds());
+    }
+
+    @Test
+    public void emptyRosterRemovesEveryone() {
+        apply(peerConnectionRegistry.reconcile(roster(0, ROSTER_SIZE)));
+
+        PeerConnectionRegistry.RosterDiff rosterDiff = peerConnectionRegistry.reconcile(new HashSet<>());
+
+        assertTrue(rosterDiff.getJoined().isEmpty());
+        assertEquals(ROSTER_SIZE, rosterDiff.getLeft().size());
+    }
+
+    @Test
+    public void duplicateSessionsInRosterAreCountedOnce() {
+        List<String> roster = new ArrayList<>(roster(0, ROSTER_SIZE));
+        roster.addAll(roster(0, ROSTER_SIZE));
+
+        PeerConnectionRegistry.RosterDiff rosterDiff = peerConnectionRegistry.reconcile(roster);
+
+        assertEquals(ROSTER_SIZE, rosterDiff.getJoined().size());
+    }
+
+    @Test
+    public void removeAllEmptiesRegistry() {
+        apply(peerConnectionRegistry.reconcile(roster(0, ROSTER_SIZE)));
+
+        List<FakePeer> removedPeers = peerConnectionRegistry.removeAll();
+
+        assertEquals(ROSTER_SIZE, removedPeers.size());
+        assertEquals(0, peerConnectionRegistry.size());
+    }
+
+    private void apply(PeerConnectionRegistry.RosterDiff rosterDiff) {
+        for (String sessionId : rosterDiff.getJoined()) {
+            peerConnectionRegistry.getOrCreate(sessionId);
+        }
+
+        for (String sessionId : rosterDiff.getLeft()) {
+            peerConnectionRegistry.remove(sessionId);
+        }
+    }
+
+    private static Set<String> roster(int from, int to) {
+        Set<String> sessionIds = new HashSet<>();
+        for (int i = from; i < to; i++) {
+            sessionIds.add("session-" + i);
+        }
+        return sessionIds;
+    }
+
+    private static class FakePeer {
+        private final String sessionId;
+
+        FakePeer(String sessionId) {
+            this.sessionId = sessionId;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.webrtc;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.webrtc.StatsReport;
+
+import static org.junit.Assert.assertEquals;
+
+public class PeerConnectionStatsSamplerTest {
+    private static final int UNKNOWN = PeerStatsRingBuffer.UNKNOWN;
+
+    private PeerStatsRingBuffer peerStatsRingBuffer;
+
+    @Before
+    public void setUp() {
+        peerStatsRingBuffer = new PeerStatsRingBuffer(4);
+    }
+
+    @Test
+    public void streamsAreAddedUp() {
+        PeerConnectionStatsSampler.reduce(new StatsReport[]{
+                ssrc("audio_send", "bytesSent", "1000", "googRtt", "30"),
+                ssrc("video_send", "bytesSent", "4000", "googRtt", "45"),
+                ssrc("audio_recv", "bytesReceived", "2000", "packetsReceived", "50", "packetsLost", "1",
+                        "googJitterReceived", "12"),
+                ssrc("video_recv", "bytesReceived", "6000", "packetsReceived", "50", "packetsLost", "1",
+                        "googJitterReceived", "8"),
+                report("VideoBwe", "googAvailableSendBandwidth", "1500000"),
+                report("googCandidatePair", "bytesSent", "99999")
+        }, 1000, peerStatsRingBuffer);
+
+        PeerStatsRingBuffer.Snapshot snapshot = peerStatsRingBuffer.getSnapshot();
+        assertEquals(1, snapshot.size());
+        assertEquals(1000, snapshot.getTimestamp(0));
+        assertEquals(45, snapshot.getRttMs(0));
+        assertEquals(12, snapshot.getJitterMs(0));
+        assertEquals(1500, snapshot.getAvailableSendKbps(0));
+    }
+
+    @Test
+    public void ratesComeFromCumulativeCounters() {
+        PeerConnectionStatsSampler.reduce(sample(5000, 8000, 100, 2), 1000, peerStatsRingBuffer);
+        PeerConnectionStatsSampler.reduce(sample(255000, 133000, 195, 7), 3000, peerStatsRingBuffer);
+
+        PeerStatsRingBuffer.Snapshot snapshot = peerStatsRingBuffer.getSnapshot();
+        assertEquals(1000, snapshot.getOutboundKbps(1));
+        assertEquals(500, snapshot.getInboundKbps(1));
+        assertEquals(50, snapshot.getPacketLossPermille(1));
+    }
+
+    @Test
+    public void counterResetGivesNoRate() {
+        PeerConnectionStatsSampler.reduce(sample(500000, 800000, 1000, 20), 1000, peerStatsRingBuffer);
+        PeerConnectionStatsSampler.reduce(sample(1000, 2000, 10, 0), 2000, peerStatsRingBuffer);
+        PeerConnectionStatsSampler.reduce(sample(126000, 64500, 110, 0), 3000, peerStatsRingBuffer);
+
+        PeerStatsRingBuffer.Snapshot snapshot = peerStatsRingBuffer.getSnapshot();
+        assertEquals(UNKNOWN, snapshot.getOutboundKbps(1));
+        assertEquals(UNKNOWN, snapshot.getInboundKbps(1));
+        assertEquals(UNKNOWN, snapshot.getPacketLossPermille(1));
+        assertEquals(1000, snapshot.getOutboundKbps(2));
+        assertEquals(500, snapshot.getInboundKbps(2));
+        assertEquals(0, snapshot.getPacketLossPermille(2));
+    }
+
+    @Test
+    public void missingAndMalformedValuesAreUnknown() {
+        PeerConnectionStatsSampler.reduce(new StatsReport[]{
+                ssrc("video_send", "bytesSent", "", "googRtt", "n/a")
+        }, 1000, peerStatsRingBuffer);
+
+        PeerStatsRingBuffer.Snapshot snapshot = peerStatsRingBuffer.getSnapshot();
+        // An unparsable rtt counts as 0, which is still more than unknown
+        assertEquals(0, snapshot.getRttMs(0));
+        assertEquals(UNKNOWN, snapshot.getJitterMs(0));
+        assertEquals(UNKNOWN, snapshot.getAvailableSendKbps(0));
+    }
+
+    private static StatsReport[] sample(long bytesSent, long bytesReceived, long packetsReceived, long packetsLost) {
+        return new StatsReport[]{
+                ssrc("video_send", "bytesSent", String.valueOf(bytesSent)),
+                ssrc("video_recv", "bytesReceived", String.valueOf(bytesReceived),
+                        "packetsReceived", String.valueOf(packetsReceived), "packetsLost", String.valueOf(packetsLost))
+        };
+    }
+
+    private static StatsReport ssrc(String id, String... namesAndValues) {
+        return new StatsReport(id, "ssrc", 0, values(namesAndValues));
+    }
+
+    private static StatsReport report(String type, String... namesAndValues) {
+        return new StatsReport(type, type, 0, values(namesAndValues));
+    }
+
+    private static StatsReport.Value[] values(String... namesAndValues) {
+        StatsReport.Value[] values = new StatsReport.Value[namesAndValues.length / 2];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new StatsReport.Value(namesAndValues[2 * i], namesAndValues[2 * i + 1]);
+        }
+        return values;
+    }
+}
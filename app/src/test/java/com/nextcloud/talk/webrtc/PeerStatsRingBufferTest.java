@@ -0,0 +1,120 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.webrtc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PeerStatsRingBufferTest {
+    private static final int UNKNOWN = PeerStatsRingBuffer.UNKNOWN;
+
+    @Test
+    public void firstSampleHasNoRates() {
+        PeerStatsRingBuffer peerStatsRingBuffer = new PeerStatsRingBuffer(4);
+        peerStatsRingBuffer.record(1000, 40, 5, 5000, 8000, 100, 2, 1200);
+
+        PeerStatsRingBuffer.Snapshot snapshot = peerStatsRingBuffer.getSnapshot();
+        assertEquals(1, snapshot.size());
+        assertEquals(40, snapshot.getRttMs(0));
+        assertEquals(5, snapshot.getJitterMs(0));
+        assertEquals(UNKNOWN, snapshot.getOutboundKbps(0));
+        assertEquals(UNKNOWN, snapshot.getInboundKbps(0));
+        assertEquals(UNKNOWN, snapshot.getPacketLossPermille(0));
+        assertEquals(1200, snapshot.getAvailableSendKbps(0));
+    }
+
+    @Test
+    public void ratesAreDerivedFromCumulativeCounters() {
+        PeerStatsRingBuffer peerStatsRingBuffer = new PeerStatsRingBuffer(4);
+        peerStatsRingBuffer.record(1000, 40, 5, 5000, 8000, 100, 2, UNKNOWN);
+        // 250000 bytes sent and 125000 received in 2s, 95 packets received and 5 lost
+        peerStatsRingBuffer.record(3000, 40, 5, 255000, 133000, 195, 7, UNKNOWN);
+
+        PeerStatsRingBuffer.Snapshot snapshot = peerStatsRingBuffer.getSnapshot();
+        assertEquals(1000, snapshot.getOutboundKbps(1));
+        assertEquals(500, snapshot.getInboundKbps(1));
+        assertEquals(50, snapshot.getPacketLossPermille(1));
+    }
+
+    @Test
+    public void resetCounterIsNotMistakenForARate() {
+        PeerStatsRingBuffer peerStatsRingBuffer = new PeerStatsRingBuffer(4);
+        peerStatsRingBuffer.record(1000, 40, 5, 500000, 800000, 1000, 20, UNKNOWN);
+        peerStatsRingBuffer.record(2000, 40, 5, 1000, 2000, 10, 0, UNKNOWN);
+        peerStatsRingBuffer.record(3000, 40, 5, 126000, 64500, 110, 0, UNKNOWN);
+
+        PeerStatsRingBuffer.Snapshot snapshot = peerStatsRingBuffer.getSnapshot();
+        assertEquals(UNKNOWN, snapshot.getOutboundKbps(1));
+        assertEquals(UNKNOWN, snapshot.getInboundKbps(1));
+        assertEquals(UNKNOWN, snapshot.getPacketLossPermille(1));
+
+        // The reset values are the base of the next sample
+        assertEquals(1000, snapshot.getOutboundKbps(2));
+        assertEquals(500, snapshot.getInboundKbps(2));
+        assertEquals(0, snapshot.getPacketLossPermille(2));
+    }
+
+    @Test
+    public void sampleWithoutPacketsHasUnknownLoss() {
+        PeerStatsRingBuffer peerStatsRingBuffer = new PeerStatsRingBuffer(4);
+        peerStatsRingBuffer.record(1000, UNKNOWN, UNKNOWN, 0, 0, 100, 2, UNKNOWN);
+        peerStatsRingBuffer.record(2000, UNKNOWN, UNKNOWN, 0, 0, 100, 2, UNKNOWN);
+
+        PeerStatsRingBuffer.Snapshot snapshot = peerStatsRingBuffer.getSnapshot();
+        assertEquals(0, snapshot.getOutboundKbps(1));
+        assertEquals(UNKNOWN, snapshot.getPacketLossPermille(1));
+    }
+
+    @Test
+    public void copyToUnwrapsOldestFirst() {
+        PeerStatsRingBuffer peerStatsRingBuffer = new PeerStatsRingBuffer(3);
+        for (int i = 0; i < 5; i++) {
+            peerStatsRingBuffer.record(i * 1000, i, UNKNOWN, 0, 0, 0, 0, 100 + i);
+        }
+
+        // A bigger snapshot can be reused for buffers of any smaller capacity
+        PeerStatsRingBuffer.Snapshot snapshot = new PeerStatsRingBuffer.Snapshot(8);
+        peerStatsRingBuffer.copyTo(snapshot);
+
+        assertEquals(3, snapshot.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals((i + 2) * 1000, snapshot.getTimestamp(i));
+            assertEquals(i + 2, snapshot.getRttMs(i));
+            assertEquals(102 + i, snapshot.getAvailableSendKbps(i));
+        }
+        assertEquals(104, peerStatsRingBuffer.getLatestAvailableSendKbps());
+    }
+
+    @Test
+    public void copyToBeforeWrappingAround() {
+        PeerStatsRingBuffer peerStatsRingBuffer = new PeerStatsRingBuffer(3);
+        assertEquals(UNKNOWN, peerStatsRingBuffer.getLatestAvailableSendKbps());
+        peerStatsRingBuffer.record(1000, 1, UNKNOWN, 0, 0, 0, 0, 100);
+        peerStatsRingBuffer.record(2000, 2, UNKNOWN, 0, 0, 0, 0, 101);
+
+        PeerStatsRingBuffer.Snapshot snapshot = peerStatsRingBuffer.getSnapshot();
+        assertEquals(2, snapshot.size());
+        assertEquals(1000, snapshot.getTimestamp(0));
+        assertEquals(2000, snapshot.getTimestamp(1));
+        assertEquals(101, peerStatsRingBuffer.getLatestAvailableSendKbps());
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.webrtc;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class SdpTest {
+    private String offer;
+
+    @Before
+    public void setUp() throws IOException {
+        // The fixture is shared with the benchmarks, WebRTC ends lines with CRLF
+        try (InputStream inputStream = SdpTest.class.getResourceAsStream("/fixtures/offer.sdp")) {
+            assertNotNull(inputStream);
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+            offer = new String(outputStream.toByteArray(), StandardCharsets.UTF_8)
+                    .replace("\r\n", "\n").replace("\n", "\r\n");
+        }
+    }
+
+    @Test
+    public void offerSurvivesRoundTrip() {
+        assertEquals(offer, Sdp.parse(offer).toString());
+    }
+
+    @Test
+    public void bareLineFeedsAreWrittenAsCrlf() {
+        assertEquals(offer, Sdp.parse(offer.replace("\r\n", "\n")).toString());
+    }
+
+    @Test
+    public void mediaSectionsAreParsed() {
+        List<Sdp.MediaSection> mediaSections = Sdp.parse(offer).getMediaSections();
+
+        assertEquals(2, mediaSections.size());
+        assertEquals(Sdp.AUDIO, mediaSections.get(0).getMedia());
+        assertEquals(Sdp.VIDEO, mediaSections.get(1).getMedia());
+        assertEquals(Arrays.asList("96", "97", "98", "99", "100", "101", "127", "124", "125"),
+                mediaSections.get(1).getPayloadTypes());
+        assertEquals("VP8", mediaSections.get(1).getCodec("96"));
+        assertEquals("RTX", mediaSections.get(1).getCodec("97"));
+    }
+
+    @Test
+    public void preferCodecMovesItToTheFront() {
+        String munged = Sdp.parse(offer).preferCodec(Sdp.VIDEO, "h264").toString();
+
+        assertEquals("m=video 9 UDP/TLS/RTP/SAVPF 100 96 97 98 99 101 127 124 125", getMediaLine(munged, Sdp.VIDEO));
+        // Nothing but the m= line of the video section changes
+        assertEquals(offer.replace(getMediaLine(offer, Sdp.VIDEO), getMediaLine(munged, Sdp.VIDEO)), munged);
+    }
+
+    @Test
+    public void preferCodecIgnoresUnknownCodec() {
+        assertEquals(offer, Sdp.parse(offer).preferCodec(Sdp.VIDEO, "AV1").preferCodec(Sdp.AUDIO, "VP8").toString());
+    }
+
+    @Test
+    public void setBandwidthCapsOnlyThatMedia() {
+        String munged = Sdp.parse(offer).setBandwidth(Sdp.VIDEO, 500).toString();
+
+        List<String> videoLines = getSectionLines(munged, Sdp.VIDEO);
+        assertEquals("c=IN IP4 0.0.0.0", videoLines.get(1));
+        assertEquals("b=AS:500", videoLines.get(2));
+        assertEquals("b=TIAS:500000", videoLines.get(3));
+        assertFalse(getSectionLines(munged, Sdp.AUDIO).contains("b=AS:500"));
+        assertEquals(offer, munged.replace("b=AS:500\r\nb=TIAS:500000\r\n", ""));
+    }
+
+    @Test
+    public void setBandwidthReplacesAndRemovesCap() {
+        Sdp sdp = Sdp.parse(offer).setBandwidth(Sdp.VIDEO, 500).setBandwidth(Sdp.VIDEO, 300);
+
+        List<String> videoLines = getSectionLines(sdp.toString(), Sdp.VIDEO);
+        assertFalse(videoLines.contains("b=AS:500"));
+        assertEquals("b=AS:300", videoLines.get(2));
+        assertEquals("b=TIAS:300000", videoLines.get(3));
+
+        assertEquals(offer, sdp.setBandwidth(Sdp.VIDEO, 0).toString());
+    }
+
+    @Test
+    public void retainCodecsKeepsRtxOfKeptCodec() {
+        String munged = Sdp.parse(offer).retainCodecs(Sdp.VIDEO, Collections.singleton("vp8")).toString();
+
+        assertEquals("m=video 9 UDP/TLS/RTP/SAVPF 96 97", getMediaLine(munged, Sdp.VIDEO));
+        List<String> videoLines = getSectionLines(munged, Sdp.VIDEO);
+        assertTrue(videoLines.contains("a=rtpmap:97 rtx/90000"));
+        assertTrue(videoLines.contains("a=fmtp:97 apt=96"));
+        assertRtxPaired(munged);
+        for (String payloadType : Arrays.asList("98", "99", "100", "101", "127", "124", "125")) {
+            for (String line : videoLines) {
+                assertFalse(line, line.startsWith("a=rtpmap:" + payloadType + " ")
+                        || line.startsWith("a=fmtp:" + payloadType + " ")
+                        || line.startsWith("a=rtcp-fb:" + payloadType + " "));
+            }
+        }
+
+        // Attributes that don't belong to a payload type stay
+        assertTrue(videoLines.contains("a=ssrc-group:FID 3093286346 1412208340"));
+        assertEquals(getSectionLines(offer, Sdp.AUDIO), getSectionLines(munged, Sdp.AUDIO));
+    }
+
+    @Test
+    public void retainCodecsKeepsEveryRtxPair() {
+        String munged = Sdp.parse(offer).retainCodecs(Sdp.VIDEO, Arrays.asList("VP9", "H264", "red")).toString();
+
+        assertEquals("m=video 9 UDP/TLS/RTP/SAVPF 98 99 100 101 127 124", getMediaLine(munged, Sdp.VIDEO));
+        assertRtxPaired(munged);
+    }
+
+    @Test
+    public void retainCodecsDropsAudioCodecs() {
+        String munged = Sdp.parse(offer).retainCodecs(Sdp.AUDIO, Collections.singleton("opus")).toString();
+
+        assertEquals("m=audio 9 UDP/TLS/RTP/SAVPF 111", getMediaLine(munged, Sdp.AUDIO));
+        List<String> audioLines = getSectionLines(munged, Sdp.AUDIO);
+        assertTrue(audioLines.contains("a=fmtp:111 minptime=10;useinbandfec=1"));
+        assertFalse(audioLines.contains("a=rtpmap:0 PCMU/8000"));
+        assertEquals(getSectionLines(offer, Sdp.VIDEO), getSectionLines(munged, Sdp.VIDEO));
+    }
+
+    @Test
+    public void retainCodecsKeepsSectionWithoutMatch() {
+        assertEquals(offer, Sdp.parse(offer).retainCodecs(Sdp.VIDEO, Collections.singleton("AV1")).toString());
+    }
+
+    @Test
+    public void retainCodecsKeepsStaticPayloadTypesWithoutRtpmap() {
+        String description = "v=0\r\nm=audio 9 RTP/AVP 0 111\r\na=rtpmap:111 opus/48000/2\r\n";
+
+        assertEquals("v=0\r\nm=audio 9 RTP/AVP 0\r\n",
+                Sdp.parse(description).retainCodecs(Sdp.AUDIO, Collections.singleton("PCMU")).toString());
+    }
+
+    @Test
+    public void disableMediaRejectsSection() {
+        String munged = Sdp.parse(offer).disableMedia(Sdp.VIDEO).toString();
+
+        assertEquals("m=video 0 UDP/TLS/RTP/SAVPF 96 97 98 99 100 101 127 124 125", getMediaLine(munged, Sdp.VIDEO));
+        assertEquals("m=audio 9 UDP/TLS/RTP/SAVPF 111 103 104 9 102 0 8 106 105 13 110 112 113 126",
+                getMediaLine(munged, Sdp.AUDIO));
+        assertEquals(getSectionLines(offer, Sdp.VIDEO).subList(1, getSectionLines(offer, Sdp.VIDEO).size()),
+                getSectionLines(munged, Sdp.VIDEO).subList(1, getSectionLines(munged, Sdp.VIDEO).size()));
+    }
+
+    private static String getMediaLine(String description, String media) {
+        return getSectionLines(description, media).get(0);
+    }
+
+    /**
+     * @return the lines of the first section of the media, starting with its m= line
+     */
+    private static List<String> getSectionLines(String description, String media) {
+        List<String> sectionLines = new ArrayList<>();
+        for (String line : description.split("\r\n")) {
+            if (line.startsWith("m=")) {
+                if (!sectionLines.isEmpty()) {
+                    break;
+                }
+                if (line.startsWith("m=" + media + " ")) {
+                    sectionLines.add(line);
+                }
+            } else if (!sectionLines.isEmpty()) {
+                sectionLines.add(line);
+            }
+        }
+        return sectionLines;
+    }
+
+    /**
+     * Every rtx payload type of the video section retransmits a payload type that is still offered.
+     */
+    private static void assertRtxPaired(String description) {
+        List<String> videoLines = getSectionLines(description, Sdp.VIDEO);
+        List<String> payloadTypes = Arrays.asList(videoLines.get(0).split(" ")).subList(3,
+                videoLines.get(0).split(" ").length);
+        for (String payloadType : payloadTypes) {
+            if (videoLines.contains("a=rtpmap:" + payloadType + " rtx/90000")) {
+                String apt = null;
+                for (String line : videoLines) {
+                    if (line.startsWith("a=fmtp:" + payloadType + " apt=")) {
+                        apt = line.substring(line.indexOf("apt=") + 4);
+                    }
+                }
+                assertNotNull("rtx " + payloadType + " lost its apt", apt);
+                assertTrue("rtx " + payloadType + " outlived " + apt, payloadTypes.contains(apt));
+            }
+        }
+    }
+}
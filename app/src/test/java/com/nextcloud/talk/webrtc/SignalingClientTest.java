@@ -0,0 +1,207 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.webrtc;
+
+import com.nextcloud.talk.api.models.json.participants.Participant;
+import com.nextcloud.talk.api.models.json.signaling.NCSignalingMessage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.Observable;
+import io.reactivex.schedulers.TestScheduler;
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import retrofit2.HttpException;
+import retrofit2.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SignalingClientTest {
+    private static final MediaType JSON = MediaType.parse("application/json");
+
+    // What the internal signaling endpoint answers, the roster comes with every answer
+    private static final String ROSTER_ONLY = "{\"ocs\":{\"meta\":{\"status\":\"ok\",\"statuscode\":200," +
+            "\"message\":\"OK\"},\"data\":[{\"type\":\"usersInRoom\",\"data\":[{\"userId\":\"alice\"," +
+            "\"sessionId\":\"s1\",\"inCall\":true,\"lastPing\":1516000000,\"roomId\":1}]}]}}";
+    private static final String WITH_MESSAGE = "{\"ocs\":{\"meta\":{\"status\":\"ok\",\"statuscode\":200," +
+            "\"message\":\"OK\"},\"data\":[{\"type\":\"message\",\"data\":\"{\\\"to\\\":\\\"s1\\\"," +
+            "\\\"from\\\":\\\"s2\\\",\\\"type\\\":\\\"offer\\\",\\\"roomType\\\":\\\"video\\\"," +
+            "\\\"payload\\\":{\\\"type\\\":\\\"offer\\\",\\\"sdp\\\":\\\"v=0\\\"}}\"},{\"type\":\"usersInRoom\"," +
+            "\"data\":[{\"userId\":\"alice\",\"sessionId\":\"s1\",\"inCall\":true,\"lastPing\":1516000000," +
+            "\"roomId\":1}]}]}}";
+
+    private TestScheduler testScheduler;
+    private Deque<Observable<ResponseBody>> answers;
+    private List<Long> pulledAt;
+    private List<Object> received;
+    private SignalingClient signalingClient;
+
+    @Before
+    public void setUp() {
+        testScheduler = new TestScheduler();
+        answers = new ArrayDeque<>();
+        pulledAt = new ArrayList<>();
+        received = new ArrayList<>();
+
+        Observable<ResponseBody> pullRequest = Observable.defer(() -> {
+            pulledAt.add(testScheduler.now(TimeUnit.MILLISECONDS));
+            Observable<ResponseBody> answer = answers.poll();
+            return answer != null ? answer : Observable.never();
+        });
+
+        signalingClient = new SignalingClient(pullRequest, testScheduler, testScheduler,
+                new SignalingDecoder.Callback() {
+                    @Override
+                    public void onUsersInRoom(List<Participant> participants) {
+                        received.add(participants);
+                    }
+
+                    @Override
+                    public void onSignalingMessage(NCSignalingMessage ncSignalingMessage) {
+                        received.add(ncSignalingMessage);
+                    }
+                });
+    }
+
+    @Test
+    public void messagesArePulledAgainRightAway() {
+        answers.add(answer(WITH_MESSAGE, 10));
+
+        signalingClient.start();
+        testScheduler.advanceTimeBy(10, TimeUnit.MILLISECONDS);
+
+        assertEquals(2, pulledAt.size());
+        assertEquals(10L, (long) pulledAt.get(1));
+        assertEquals(2, received.size());
+        assertEquals("offer", ((NCSignalingMessage) received.get(0)).getType());
+    }
+
+    @Test
+    public void quickAnswerWithOnlyRosterBacksOff() {
+        answers.add(answer(ROSTER_ONLY, 10));
+
+        signalingClient.start();
+        testScheduler.advanceTimeBy(10 + 124, TimeUnit.MILLISECONDS);
+
+        // The roster is delivered, but it's no reason to pull again right away
+        assertEquals(1, received.size());
+        assertEquals(1, pulledAt.size());
+
+        testScheduler.advanceTimeBy(250, TimeUnit.MILLISECONDS);
+        assertEquals(2, pulledAt.size());
+    }
+
+    @Test
+    public void backoffGrowsUpToItsCap() {
+        for (int i = 0; i < 10; i++) {
+            answers.add(answer(ROSTER_ONLY, 10));
+        }
+
+        signalingClient.start();
+        testScheduler.advanceTimeBy(1, TimeUnit.MINUTES);
+
+        assertEquals(11, pulledAt.size());
+        for (int i = 0; i < 10; i++) {
+            long pause = pulledAt.get(i + 1) - pulledAt.get(i) - 10;
+            long ceiling = Math.min(5000, 250L << i);
+            assertTrue("pause " + pause + " after poll " + i, pause >= ceiling / 2 && pause <= ceiling);
+        }
+    }
+
+    @Test
+    public void heldOpenPollIsReissuedRightAway() {
+        answers.add(answer(ROSTER_ONLY, 30000));
+
+        signalingClient.start();
+        testScheduler.advanceTimeBy(30000, TimeUnit.MILLISECONDS);
+
+        assertEquals(2, pulledAt.size());
+        assertEquals(30000L, (long) pulledAt.get(1));
+    }
+
+    @Test
+    public void messageResetsBackoff() {
+        for (int i = 0; i < 4; i++) {
+            answers.add(answer(ROSTER_ONLY, 10));
+        }
+        answers.add(answer(WITH_MESSAGE, 10));
+        answers.add(answer(ROSTER_ONLY, 10));
+
+        signalingClient.start();
+        testScheduler.advanceTimeBy(1, TimeUnit.MINUTES);
+
+        assertEquals(7, pulledAt.size());
+        assertEquals(10, pulledAt.get(5) - pulledAt.get(4));
+        // Back to the shortest pause after the message
+        long pause = pulledAt.get(6) - pulledAt.get(5) - 10;
+        assertTrue("pause " + pause, pause >= 125 && pause <= 250);
+    }
+
+    @Test
+    public void notFoundStopsPolling() {
+        answers.add(Observable.error(new HttpException(Response.error(404,
+                ResponseBody.create(JSON, "")))));
+
+        signalingClient.start();
+        testScheduler.advanceTimeBy(10, TimeUnit.MINUTES);
+
+        assertFalse(signalingClient.isRunning());
+        assertEquals(1, pulledAt.size());
+    }
+
+    @Test
+    public void otherErrorsAreRetried() {
+        answers.add(Observable.error(new HttpException(Response.error(503,
+                ResponseBody.create(JSON, "")))));
+
+        signalingClient.start();
+        testScheduler.advanceTimeBy(250, TimeUnit.MILLISECONDS);
+
+        assertTrue(signalingClient.isRunning());
+        assertEquals(2, pulledAt.size());
+    }
+
+    @Test
+    public void messagesPerPollIgnoresRoster() {
+        answers.add(answer(WITH_MESSAGE, 10));
+        answers.add(answer(ROSTER_ONLY, 30000));
+
+        signalingClient.start();
+        testScheduler.advanceTimeBy(30010, TimeUnit.MILLISECONDS);
+
+        assertEquals(2, signalingClient.getPollCount());
+        assertEquals(0.5, signalingClient.getMessagesPerPoll(), 0.001);
+    }
+
+    private Observable<ResponseBody> answer(String json, long afterMs) {
+        return Observable.timer(afterMs, TimeUnit.MILLISECONDS, testScheduler)
+                .map(tick -> ResponseBody.create(JSON, json));
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.webrtc;
+
+import com.nextcloud.talk.api.models.json.participants.Participant;
+import com.nextcloud.talk.api.models.json.signaling.NCIceCandidate;
+import com.nextcloud.talk.api.models.json.signaling.NCSignalingMessage;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SignalingDecoderTest {
+    private static final String ALICE = "{\"userId\": \"alice\", \"sessionId\": \"s-alice\", \"inCall\": true, "
+            + "\"lastPing\": 1510000100, \"roomId\": 12}";
+    private static final String OFFER = "{\"from\": \"s-bob\", \"to\": \"s-alice\", \"type\": \"offer\", "
+            + "\"roomType\": \"video\", \"payload\": {\"type\": \"offer\", \"sdp\": \"v=0\\r\\n\", "
+            + "\"nick\": \"Bob\"}}";
+
+    @Test
+    public void capturedAnswerIsDecodedInOrder() throws IOException {
+        RecordingCallback callback = new RecordingCallback();
+        int count;
+        // The fixture is shared with the benchmarks
+        try (InputStream inputStream = SignalingDecoderTest.class.getResourceAsStream("/fixtures/signaling.json")) {
+            assertNotNull(inputStream);
+            count = SignalingDecoder.decode(inputStream, callback);
+        }
+
+        assertEquals(8, count);
+        assertEquals(8, callback.entries.size());
+
+        List<Participant> participants = callback.participants(0);
+        assertEquals(8, participants.size());
+        assertEquals("user0", participants.get(0).getUserId());
+        assertEquals("s0000000000000000000000000000000000000000", participants.get(0).getSessionId());
+        assertTrue(participants.get(0).isInCall());
+        assertEquals(1510000100, participants.get(0).getLastPing());
+        assertEquals(12, participants.get(0).getRoomId());
+        assertEquals("user7", participants.get(7).getUserId());
+
+        NCSignalingMessage offer = callback.message(1);
+        assertEquals("offer", offer.getType());
+        assertEquals("s0000000000000000000000000000000000000001", offer.getFrom());
+        assertEquals("video", offer.getRoomType());
+        assertEquals("User 1", offer.getPayload().getNick());
+        assertTrue(offer.getPayload().getSdp().startsWith("v=0\r\no=- 4611731400430051336 2 IN IP4"));
+        assertTrue(offer.getPayload().getSdp().endsWith("a=ssrc:1412208340 label:ARDAMSv0\r\n"));
+
+        NCIceCandidate iceCandidate = callback.message(2).getPayload().getIceCandidate();
+        assertEquals(0, iceCandidate.getSdpMLineIndex());
+        assertEquals("audio", iceCandidate.getSdpMid());
+        assertTrue(iceCandidate.getCandidate().startsWith("candidate:842163049 1 udp"));
+        assertEquals("video", callback.message(7).getPayload().getIceCandidate().getSdpMid());
+    }
+
+    @Test
+    public void dataBeforeTypeIsKept() throws IOException {
+        RecordingCallback callback = new RecordingCallback();
+
+        int count = SignalingDecoder.decode(answer(
+                "{\"data\": [" + ALICE + "], \"type\": \"usersInRoom\"}",
+                "{\"data\": " + quote(OFFER) + ", \"type\": \"message\"}",
+                "{\"data\": " + OFFER + ", \"type\": \"message\"}"), callback);
+
+        assertEquals(3, count);
+        assertEquals("alice", callback.participants(0).get(0).getUserId());
+        assertEquals(1510000100, callback.participants(0).get(0).getLastPing());
+        assertEquals("offer", callback.message(1).getType());
+        assertEquals("v=0\r\n", callback.message(1).getPayload().getSdp());
+        assertEquals("Bob", callback.message(2).getPayload().getNick());
+    }
+
+    @Test
+    public void messageAsObjectIsDecoded() throws IOException {
+        RecordingCallback callback = new RecordingCallback();
+
+        assertEquals(1, SignalingDecoder.decode(answer("{\"type\": \"message\", \"data\": " + OFFER + "}"),
+                callback));
+        assertEquals("s-bob", callback.message(0).getFrom());
+        assertEquals("s-alice", callback.message(0).getTo());
+    }
+
+    @Test
+    public void inCallIsUnwrapped() throws IOException {
+        RecordingCallback callback = new RecordingCallback();
+
+        // Older servers send a boolean, newer ones call flags
+        SignalingDecoder.decode(answer("{\"type\": \"usersInRoom\", \"data\": ["
+                + "{\"userId\": \"a\", \"inCall\": true}, {\"userId\": \"b\", \"inCall\": false}, "
+                + "{\"userId\": \"c\", \"inCall\": 7}, {\"userId\": \"d\", \"inCall\": 0}, "
+                + "{\"userId\": \"e\"}]}"), callback);
+
+        List<Participant> participants = callback.participants(0);
+        assertEquals(5, participants.size());
+        assertTrue(participants.get(0).isInCall());
+        assertFalse(participants.get(1).isInCall());
+        assertTrue(participants.get(2).isInCall());
+        assertFalse(participants.get(3).isInCall());
+        assertFalse(participants.get(4).isInCall());
+    }
+
+    @Test
+    public void unknownParticipantFieldsAreSkipped() throws IOException {
+        RecordingCallback callback = new RecordingCallback();
+
+        SignalingDecoder.decode(answer("{\"type\": \"usersInRoom\", \"data\": [{\"participantType\": 3, "
+                + "\"flags\": {\"audio\": [1, 2]}, \"userId\": \"alice\", \"sessionId\": \"s-alice\"}]}"),
+                callback);
+
+        Participant participant = callback.participants(0).get(0);
+        assertEquals("alice", participant.getUserId());
+        assertEquals("s-alice", participant.getSessionId());
+    }
+
+    @Test
+    public void malformedEntriesAreSkipped() throws IOException {
+        RecordingCallback callback = new RecordingCallback();
+
+        int count = SignalingDecoder.decode(answer(
+                "\"not an entry\"",
+                "42",
+                "[" + ALICE + "]",
+                "{\"type\": \"control\", \"data\": {\"action\": \"forceMute\"}}",
+                "{\"type\": \"usersInRoom\", \"data\": {\"userId\": \"alice\"}}",
+                "{\"type\": \"message\", \"data\": 3}",
+                "{\"type\": \"message\", \"data\": null}",
+                "{\"data\": [" + ALICE + "]}",
+                "{\"data\": [" + ALICE + "], \"type\": null}",
+                "{\"type\": \"usersInRoom\", \"data\": [\"alice\", 3, null, " + ALICE + "]}",
+                "{\"type\": \"message\", \"data\": " + quote(OFFER) + "}"), callback);
+
+        assertEquals(2, count);
+        assertEquals(1, callback.participants(0).size());
+        assertEquals("alice", callback.participants(0).get(0).getUserId());
+        assertEquals("offer", callback.message(1).getType());
+    }
+
+    @Test
+    public void answerWithoutEntriesIsEmpty() throws IOException {
+        RecordingCallback callback = new RecordingCallback();
+
+        assertEquals(0, SignalingDecoder.decode("[]", callback));
+        assertEquals(0, SignalingDecoder.decode("{\"ocs\": {\"meta\": {\"status\": \"failure\"}}}", callback));
+        assertEquals(0, SignalingDecoder.decode("{\"ocs\": {\"data\": {}}}", callback));
+        assertEquals(0, SignalingDecoder.decode(answer(), callback));
+        assertTrue(callback.entries.isEmpty());
+    }
+
+    @Test
+    public void batchKeepsOrderAndCountsMessages() throws IOException {
+        ResponseBody responseBody = ResponseBody.create(MediaType.parse("application/json"), answer(
+                "{\"type\": \"usersInRoom\", \"data\": [" + ALICE + "]}",
+                "{\"type\": \"message\", \"data\": " + quote(OFFER) + "}",
+                "{\"type\": \"usersInRoom\", \"data\": []}"));
+
+        SignalingDecoder.Batch batch = SignalingDecoder.decode(responseBody);
+        RecordingCallback callback = new RecordingCallback();
+        batch.dispatch(callback);
+
+        assertEquals(3, batch.size());
+        assertEquals(1, batch.getMessageCount());
+        assertEquals("alice", callback.participants(0).get(0).getUserId());
+        assertEquals("offer", callback.message(1).getType());
+        assertTrue(callback.participants(2).isEmpty());
+    }
+
+    @Test
+    public void rosterEntryOfStandaloneServerIsConverted() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("userId", "alice");
+        map.put("sessionId", "s-alice");
+        map.put("inCall", 3);
+        map.put("lastPing", 1510000100.0);
+
+        Participant participant = SignalingDecoder.toParticipant(map);
+        assertEquals("alice", participant.getUserId());
+        assertEquals("s-alice", participant.getSessionId());
+        assertTrue(participant.isInCall());
+        assertEquals(1510000100, participant.getLastPing());
+
+        map.put("userId", 5);
+        map.put("inCall", false);
+        participant = SignalingDecoder.toParticipant(map);
+        assertNull(participant.getUserId());
+        assertFalse(participant.isInCall());
+    }
+
+    private static String answer(String... entries) {
+        return "{\"ocs\": {\"meta\": {\"status\": \"ok\", \"statuscode\": 200}, \"data\": ["
+                + String.join(", ", entries) + "]}}";
+    }
+
+    private static String quote(String json) {
+        return "\"" + json.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static class RecordingCallback implements SignalingDecoder.Callback {
+        private final List<Object> entries = new ArrayList<>();
+
+        @Override
+        public void onUsersInRoom(List<Participant> participants) {
+            entries.add(participants);
+        }
+
+        @Override
+        public void onSignalingMessage(NCSignalingMessage ncSignalingMessage) {
+            entries.add(ncSignalingMessage);
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<Participant> participants(int index) {
+            return (List<Participant>) entries.get(index);
+        }
+
+        private NCSignalingMessage message(int index) {
+            return (NCSignalingMessage) entries.get(index);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.webrtc;
+
+import com.nextcloud.talk.api.models.json.signaling.NCIceCandidate;
+import com.nextcloud.talk.api.models.json.signaling.NCMessagePayload;
+import com.nextcloud.talk.api.models.json.signaling.NCSignalingMessage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class SignalingMessageWriterTest {
+    private static final String SESSION_ID = "s-alice";
+
+    private SignalingMessageWriter signalingMessageWriter;
+
+    @Before
+    public void setUp() {
+        signalingMessageWriter = new SignalingMessageWriter();
+    }
+
+    @Test
+    public void offer() throws IOException {
+        assertEquals("{\"fn\":\"{\\\"payload\\\":{\\\"nick\\\":\\\"Alice\\\","
+                + "\\\"sdp\\\":\\\"v=0\\\\r\\\\no=- 1 2 IN IP4 127.0.0.1\\\\r\\\\n\\\",\\\"type\\\":\\\"offer\\\"},"
+                + "\\\"roomType\\\":\\\"video\\\",\\\"to\\\":\\\"s-bob\\\",\\\"type\\\":\\\"offer\\\"}\","
+                + "\"sessionId\":\"s-alice\",\"ev\":\"message\"}",
+                signalingMessageWriter.write(sessionDescription("offer"), SESSION_ID));
+    }
+
+    @Test
+    public void answer() throws IOException {
+        assertEquals("{\"fn\":\"{\\\"payload\\\":{\\\"nick\\\":\\\"Alice\\\","
+                + "\\\"sdp\\\":\\\"v=0\\\\r\\\\no=- 1 2 IN IP4 127.0.0.1\\\\r\\\\n\\\",\\\"type\\\":\\\"answer\\\"},"
+                + "\\\"roomType\\\":\\\"video\\\",\\\"to\\\":\\\"s-bob\\\",\\\"type\\\":\\\"answer\\\"}\","
+                + "\"sessionId\":\"s-alice\",\"ev\":\"message\"}",
+                signalingMessageWriter.write(sessionDescription("answer"), SESSION_ID));
+    }
+
+    @Test
+    public void candidate() throws IOException {
+        assertEquals("{\"fn\":\"{\\\"payload\\\":{\\\"candidate\\\":{\\\"candidate\\\":\\\"candidate:842163049 1 "
+                + "udp 2122260223 192.168.1.20 50000 typ host\\\",\\\"sdpMLineIndex\\\":1,"
+                + "\\\"sdpMid\\\":\\\"video\\\"},\\\"type\\\":\\\"candidate\\\"},\\\"roomType\\\":\\\"video\\\","
+                + "\\\"to\\\":\\\"s-bob\\\",\\\"type\\\":\\\"candidate\\\"}\","
+                + "\"sessionId\":\"s-alice\",\"ev\":\"message\"}",
+                signalingMessageWriter.write(iceCandidate(), SESSION_ID));
+    }
+
+    @Test
+    public void control() throws IOException {
+        NCSignalingMessage ncSignalingMessage = new NCSignalingMessage();
+        ncSignalingMessage.setTo("s-bob");
+        ncSignalingMessage.setType("unshareScreen");
+        ncSignalingMessage.setRoomType("screen");
+
+        assertEquals("{\"fn\":\"{\\\"roomType\\\":\\\"screen\\\",\\\"to\\\":\\\"s-bob\\\","
+                + "\\\"type\\\":\\\"unshareScreen\\\"}\",\"sessionId\":\"s-alice\",\"ev\":\"message\"}",
+                signalingMessageWriter.write(ncSignalingMessage, SESSION_ID));
+    }
+
+    @Test
+    public void controlCharactersAndNonAsciiAreEscapedTwice() throws IOException {
+        NCSignalingMessage ncSignalingMessage = sessionDescription("offer");
+        ncSignalingMessage.getPayload().setNick("Zo\u00eb \"Z\"\t\u0001\\");
+
+        assertEquals("{\"fn\":\"{\\\"payload\\\":{"
+                + "\\\"nick\\\":\\\"Zo\u00eb \\\\\\\"Z\\\\\\\"\\\\t\\\\u0001\\\\\\\\\\\","
+                + "\\\"sdp\\\":\\\"v=0\\\\r\\\\no=- 1 2 IN IP4 127.0.0.1\\\\r\\\\n\\\",\\\"type\\\":\\\"offer\\\"},"
+                + "\\\"roomType\\\":\\\"video\\\",\\\"to\\\":\\\"s-bob\\\",\\\"type\\\":\\\"offer\\\"}\","
+                + "\"sessionId\":\"s-\\\"alice\\\"\",\"ev\":\"message\"}",
+                signalingMessageWriter.write(ncSignalingMessage, "s-\"alice\""));
+    }
+
+    @Test
+    public void missingSessionIdIsWrittenEmpty() throws IOException {
+        NCSignalingMessage ncSignalingMessage = new NCSignalingMessage();
+        ncSignalingMessage.setType("unshareScreen");
+
+        assertEquals("{\"fn\":\"{\\\"type\\\":\\\"unshareScreen\\\"}\",\"sessionId\":\"\",\"ev\":\"message\"}",
+                signalingMessageWriter.write(ncSignalingMessage, null));
+    }
+
+    @Test
+    public void batch() throws IOException {
+        String offer = signalingMessageWriter.write(sessionDescription("offer"), SESSION_ID);
+        String candidate = signalingMessageWriter.write(iceCandidate(), SESSION_ID);
+
+        assertEquals("[" + offer + "," + candidate + "]", signalingMessageWriter.writeBatch(
+                Arrays.asList(sessionDescription("offer"), iceCandidate()), SESSION_ID));
+        assertEquals("[]", signalingMessageWriter.writeBatch(Collections.emptyList(), SESSION_ID));
+    }
+
+    @Test
+    public void writerIsReusable() throws IOException {
+        NCSignalingMessage ncSignalingMessage = sessionDescription("offer");
+        StringBuilder sdp = new StringBuilder();
+        while (sdp.length() < 10 * 1024) {
+            sdp.append("a=rtcp-fb:96 nack pli\r\n");
+        }
+        ncSignalingMessage.getPayload().setSdp(sdp.toString());
+
+        // Bigger than the copy chunk, so the payload is escaped in several passes
+        String first = signalingMessageWriter.write(ncSignalingMessage, SESSION_ID);
+        assertEquals(first, signalingMessageWriter.write(ncSignalingMessage, SESSION_ID));
+        assertEquals(first, new SignalingMessageWriter().write(ncSignalingMessage, SESSION_ID));
+    }
+
+    private static NCSignalingMessage sessionDescription(String type) {
+        NCMessagePayload ncMessagePayload = new NCMessagePayload();
+        ncMessagePayload.setType(type);
+        ncMessagePayload.setSdp("v=0\r\no=- 1 2 IN IP4 127.0.0.1\r\n");
+        ncMessagePayload.setNick("Alice");
+
+        NCSignalingMessage ncSignalingMessage = new NCSignalingMessage();
+        ncSignalingMessage.setTo("s-bob");
+        ncSignalingMessage.setRoomType("video");
+        ncSignalingMessage.setType(type);
+        ncSignalingMessage.setPayload(ncMessagePayload);
+        return ncSignalingMessage;
+    }
+
+    private static NCSignalingMessage iceCandidate() {
+        NCIceCandidate ncIceCandidate = new NCIceCandidate();
+        ncIceCandidate.setSdpMLineIndex(1);
+        ncIceCandidate.setSdpMid("video");
+        ncIceCandidate.setCandidate("candidate:842163049 1 udp 2122260223 192.168.1.20 50000 typ host");
+
+        NCMessagePayload ncMessagePayload = new NCMessagePayload();
+        ncMessagePayload.setType("candidate");
+        ncMessagePayload.setIceCandidate(ncIceCandidate);
+
+        NCSignalingMessage ncSignalingMessage = new NCSignalingMessage();
+        ncSignalingMessage.setTo("s-bob");
+        ncSignalingMessage.setRoomType("video");
+        ncSignalingMessage.setType("candidate");
+        ncSignalingMessage.setPayload(ncMessagePayload);
+        return ncSignalingMessage;
+    }
+}
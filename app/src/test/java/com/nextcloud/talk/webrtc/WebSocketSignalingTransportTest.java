@@ -0,0 +1,165 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.webrtc;
+
+import com.nextcloud.talk.api.models.json.participants.Participant;
+import com.nextcloud.talk.api.models.json.signaling.NCMessagePayload;
+import com.nextcloud.talk.api.models.json.signaling.NCSignalingMessage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.schedulers.Schedulers;
+import okhttp3.OkHttpClient;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class WebSocketSignalingTransportTest {
+    private static final String HELLO_RESPONSE = "{\"type\":\"hello\",\"hello\":{\"sessionid\":\"signaling-session\"," +
+            "\"resumeid\":\"resume-id\",\"userid\":\"alice\"}}";
+
+    private MockWebServer mockWebServer;
+    private final BlockingQueue<String> serverReceived = new LinkedBlockingQueue<>();
+    private final BlockingQueue<NCSignalingMessage> clientReceived = new LinkedBlockingQueue<>();
+    private final BlockingQueue<List<Participant>> clientRosters = new LinkedBlockingQueue<>();
+    private WebSocket serverWebSocket;
+    private WebSocketSignalingTransport webSocketSignalingTransport;
+
+    @Before
+    public void setUp() throws Exception {
+        mockWebServer = new MockWebServer();
+        mockWebServer.enqueue(new MockResponse().withWebSocketUpgrade(new WebSocketListener() {
+            @Override
+            public void onOpen(WebSocket webSocket, okhttp3.Response response) {
+                serverWebSocket = webSocket;
+            }
+
+            @Override
+            public void onMessage(WebSocket webSocket, String text) {
+                serverReceived.add(text);
+                if (text.contains("\"type\":\"hello\"")) {
+                    webSocket.send(HELLO_RESPONSE);
+                }
+            }
+        }));
+        mockWebServer.start();
+
+        webSocketSignalingTransport = new WebSocketSignalingTransport(new OkHttpClient(),
+                mockWebServer.url("/").toString(), "https://cloud.example.com", "alice", "ticket", "room-token",
+                "nextcloud-session", Schedulers.trampoline(), new SignalingTransport.Listener() {
+            @Override
+            public void onUsersInRoom(List<Participant> participants) {
+                clientRosters.add(participants);
+            }
+
+            @Override
+            public void onSignalingMessage(NCSignalingMessage ncSignalingMessage) {
+                clientReceived.add(ncSignalingMessage);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        webSocketSignalingTransport.disconnect();
+        mockWebServer.shutdown();
+    }
+
+    @Test
+    public void webSocketUrlIsDerivedFromServer() {
+        assertEquals("wss://signaling.example.com/spreed",
+                WebSocketSignalingTransport.getWebSocketUrl("https://signaling.example.com/"));
+        assertEquals("ws://signaling.example.com/spreed",
+                WebSocketSignalingTransport.getWebSocketUrl("http://signaling.example.com"));
+    }
+
+    @Test
+    public void handshakeJoinsRoomAndFlushesPendingMessages() throws Exception {
+        webSocketSignalingTransport.sendMessage(createOffer("peer-session"));
+        webSocketSignalingTransport.connect();
+
+        String hello = serverReceived.poll(5, TimeUnit.SECONDS);
+        assertNotNull(hello);
+        assertTrue(hello.contains("\"ticket\":\"ticket\""));
+        assertTrue(hello.contains("\"url\":\"https://cloud.example.com/ocs/v2.php/apps/spreed/api/v1/signaling/backend\""));
+
+        String room = serverReceived.poll(5, TimeUnit.SECONDS);
+        assertNotNull(room);
+        assertTrue(room.contains("\"roomid\":\"room-token\""));
+        assertTrue(room.contains("\"sessionid\":\"nextcloud-session\""));
+
+        String message = serverReceived.poll(5, TimeUnit.SECONDS);
+        assertNotNull(message);
+        assertTrue(message.contains("\"type\":\"message\""));
+        assertTrue(message.contains("\"sessionid\":\"peer-session\""));
+
+        assertEquals("signaling-session", webSocketSignalingTransport.getSessionId());
+    }
+
+    @Test
+    public void incomingMessagesAndRosterUpdatesReachListener() throws Exception {
+        webSocketSignalingTransport.connect();
+        assertNotNull(serverReceived.poll(5, TimeUnit.SECONDS));
+        assertNotNull(serverReceived.poll(5, TimeUnit.SECONDS));
+
+        serverWebSocket.send("{\"type\":\"message\",\"message\":{\"sender\":{\"type\":\"session\"," +
+                "\"sessionid\":\"peer-session\"},\"data\":{\"to\":\"signaling-session\",\"roomType\":\"video\"," +
+                "\"type\":\"offer\",\"payload\":{\"type\":\"offer\",\"sdp\":\"v=0\"}}}}");
+        serverWebSocket.send("{\"type\":\"event\",\"event\":{\"target\":\"participants\",\"type\":\"update\"," +
+                "\"update\":{\"roomid\":\"room-token\",\"users\":[{\"sessionId\":\"peer-session\",\"inCall\":7}]}}}");
+
+        NCSignalingMessage ncSignalingMessage = clientReceived.poll(5, TimeUnit.SECONDS);
+        assertNotNull(ncSignalingMessage);
+        assertEquals("peer-session", ncSignalingMessage.getFrom());
+        assertEquals("offer", ncSignalingMessage.getPayload().getType());
+
+        List<Participant> participants = clientRosters.poll(5, TimeUnit.SECONDS);
+        assertNotNull(participants);
+        assertEquals(1, participants.size());
+        assertEquals("peer-session", participants.get(0).getSessionId());
+        assertTrue(participants.get(0).isInCall());
+    }
+
+    private NCSignalingMessage createOffer(String to) {
+        NCMessagePayload ncMessagePayload = new NCMessagePayload();
+        ncMessagePayload.setType("offer");
+        ncMessagePayload.setSdp("v=0");
+
+        NCSignalingMessage ncSignalingMessage = new NCSignalingMessage();
+        ncSignalingMessage.setTo(to);
+        ncSignalingMessage.setRoomType("video");
+        ncSignalingMessage.setType("offer");
+        ncSignalingMessage.setPayload(ncMessagePayload);
+        return ncSignalingMessage;
+    }
+}
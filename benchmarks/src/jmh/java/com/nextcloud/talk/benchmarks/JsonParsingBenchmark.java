@@ -0,0 +1,73 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nextcloud.talk.benchmarks;
+
+import com.bluelinelabs.logansquare.LoganSquare;
+import com.nextcloud.talk.api.models.json.rooms.RoomsOverall;
+import com.nextcloud.talk.api.models.json.sharees.ShareesOverall;
+import com.nextcloud.talk.api.models.json.signaling.SignalingOverall;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the answers of the room list, the sharee search and the internal signaling endpoint with the
+ * generated LoganSquare mappers, as Retrofit does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonParsingBenchmark {
+
+    private String rooms;
+    private String sharees;
+    private String signaling;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        rooms = Fixtures.read("rooms.json");
+        sharees = Fixtures.read("sharees.json");
+        signaling = Fixtures.read("signaling.json");
+    }
+
+    @Benchmark
+    public RoomsOverall parseRooms() throws IOException {
+        return LoganSquare.parse(rooms, RoomsOverall.class);
+    }
+
+    @Benchmark
+    public ShareesOverall parseSharees() throws IOException {
+        return LoganSquare.parse(sharees, ShareesOverall.class);
+    }
+
+    @Benchmark
+    public SignalingOverall parseSignaling() throws IOException {
+        return LoganSquare.parse(signaling, SignalingOverall.class);
+    }
+}
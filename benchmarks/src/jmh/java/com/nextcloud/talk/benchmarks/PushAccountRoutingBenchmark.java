@@ -0,0 +1,116 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.nextcloud.talk.benchmarks;
+
+import com.nextcloud.talk.utils.push.PushAccountRouter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding the account of a push, by trying every key in turn as before and through {@link PushAccountRouter}.
+ * <p>
+ * The push is signed for the last account, the worst case when trying keys in order. {@code routeRepeatedSender}
+ * is the common case of several pushes for the same account, {@code routeRotatingSender} sends each push for
+ * the next account and shows what is left when the router has nothing to go by.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PushAccountRoutingBenchmark {
+
+    @Param({"1", "5", "20"})
+    int accounts;
+
+    private PublicKey[] publicKeys;
+    private byte[][] signatures;
+    private byte[] subject;
+    private Signature signature;
+
+    private PushAccountRouter router;
+    private int nextSender;
+
+    @Setup(Level.Trial)
+    public void setUp() throws GeneralSecurityException {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+
+        subject = "{\"app\":\"spreed\",\"type\":\"call\",\"subject\":\"Incoming call\",\"id\":\"abc123\"}"
+                .getBytes(StandardCharsets.UTF_8);
+        signature = Signature.getInstance("SHA512withRSA");
+
+        publicKeys = new PublicKey[accounts];
+        signatures = new byte[accounts][];
+        Map<Long, PublicKey> publicKeysByAccountId = new LinkedHashMap<>();
+        for (int i = 0; i < accounts; i++) {
+            KeyPair keyPair = keyPairGenerator.generateKeyPair();
+            publicKeys[i] = keyPair.getPublic();
+            publicKeysByAccountId.put((long) i, keyPair.getPublic());
+
+            signature.initSign(keyPair.getPrivate());
+            signature.update(subject);
+            signatures[i] = signature.sign();
+        }
+
+        router = new PushAccountRouter(publicKeysByAccountId, PushAccountRouter.NO_ACCOUNT);
+    }
+
+    @Benchmark
+    public long trialVerification() throws GeneralSecurityException {
+        byte[] signatureBytes = signatures[accounts - 1];
+        for (int i = 0; i < publicKeys.length; i++) {
+            signature.initVerify(publicKeys[i]);
+            signature.update(subject);
+            if (signature.verify(signatureBytes)) {
+                return i;
+            }
+        }
+        return PushAccountRouter.NO_ACCOUNT;
+    }
+
+    @Benchmark
+    public long routeRepeatedSender() throws GeneralSecurityException {
+        return router.route(signature, signatures[accounts - 1], subject);
+    }
+
+    @Benchmark
+    public long routeRotatingSender() throws GeneralSecurityException {
+        nextSender = (nextSender + 1) % accounts;
+        return router.route(signature, signatures[nextSender], subject);
+    }
+}
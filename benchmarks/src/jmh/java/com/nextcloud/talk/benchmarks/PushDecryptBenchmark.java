@@ -0,0 +1,148 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nextcloud.talk.benchmarks;
+
+import com.nextcloud.talk.utils.push.PushAccountRouter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+
+/**
+ * Verifying and decrypting one push end to end.
+ * <p>
+ * {@code perPush} rebuilds the private key from its encoding and gets a new Cipher and Signature for every push,
+ * then tries the accounts in order, as before. The key file read is left out, so the old path looks better here
+ * than on a device. {@code cached} keeps the key, the Cipher and the Signature, and routes through
+ * {@link PushAccountRouter}. The push is signed for the last account.
+ * <p>
+ * The JVM has no "RSA/None/PKCS1Padding", the ECB name is the same padding there.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PushDecryptBenchmark {
+
+    private static final String CIPHER_TRANSFORMATION = "RSA/ECB/PKCS1Padding";
+    private static final String SIGNATURE_ALGORITHM = "SHA512withRSA";
+
+    @Param({"1", "5"})
+    int accounts;
+
+    private byte[] encodedPrivateKey;
+    private PublicKey[] publicKeys;
+    private byte[] encryptedSubject;
+    private byte[] signatureBytes;
+
+    private PrivateKey privateKey;
+    private Cipher cipher;
+    private Signature signature;
+    private PushAccountRouter router;
+
+    @Setup(Level.Trial)
+    public void setUp() throws GeneralSecurityException {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+
+        KeyPair deviceKeyPair = keyPairGenerator.generateKeyPair();
+        encodedPrivateKey = deviceKeyPair.getPrivate().getEncoded();
+        privateKey = deviceKeyPair.getPrivate();
+
+        byte[] subject = "{\"app\":\"spreed\",\"type\":\"call\",\"subject\":\"Incoming call\",\"id\":\"abc123\"}"
+                .getBytes(StandardCharsets.UTF_8);
+        Cipher encryptCipher = Cipher.getInstance(CIPHER_TRANSFORMATION);
+        encryptCipher.init(Cipher.ENCRYPT_MODE, deviceKeyPair.getPublic());
+        encryptedSubject = encryptCipher.doFinal(subject);
+
+        signature = Signature.getInstance(SIGNATURE_ALGORITHM);
+        publicKeys = new PublicKey[accounts];
+        Map<Long, PublicKey> publicKeysByAccountId = new LinkedHashMap<>();
+        for (int i = 0; i < accounts; i++) {
+            KeyPair userKeyPair = keyPairGenerator.generateKeyPair();
+            publicKeys[i] = userKeyPair.getPublic();
+            publicKeysByAccountId.put((long) i, userKeyPair.getPublic());
+
+            if (i == accounts - 1) {
+                signature.initSign(userKeyPair.getPrivate());
+                signature.update(encryptedSubject);
+                signatureBytes = signature.sign();
+            }
+        }
+
+        router = new PushAccountRouter(publicKeysByAccountId, PushAccountRouter.NO_ACCOUNT);
+        cipher = Cipher.getInstance(CIPHER_TRANSFORMATION);
+    }
+
+    @Benchmark
+    public byte[] perPush() throws GeneralSecurityException {
+        PrivateKey key = KeyFactory.getInstance("RSA")
+                .generatePrivate(new PKCS8EncodedKeySpec(encodedPrivateKey));
+
+        Signature verifier = Signature.getInstance(SIGNATURE_ALGORITHM);
+        boolean verified = false;
+        for (PublicKey publicKey : publicKeys) {
+            verifier.initVerify(publicKey);
+            verifier.update(encryptedSubject);
+            if (verifier.verify(signatureBytes)) {
+                verified = true;
+                break;
+            }
+        }
+
+        if (!verified) {
+            return null;
+        }
+
+        Cipher decryptCipher = Cipher.getInstance(CIPHER_TRANSFORMATION);
+        decryptCipher.init(Cipher.DECRYPT_MODE, key);
+        return decryptCipher.doFinal(encryptedSubject);
+    }
+
+    @Benchmark
+    public byte[] cached() throws GeneralSecurityException {
+        if (router.route(signature, signatureBytes, encryptedSubject) == PushAccountRouter.NO_ACCOUNT) {
+            return null;
+        }
+
+        cipher.init(Cipher.DECRYPT_MODE, privateKey);
+        return cipher.doFinal(encryptedSubject);
+    }
+}
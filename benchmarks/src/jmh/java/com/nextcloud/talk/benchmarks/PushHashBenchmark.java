@@ -0,0 +1,73 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nextcloud.talk.benchmarks;
+
+import com.nextcloud.talk.utils.push.PushTokenHasher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashing a push token for the registration, and the hex encoding on its own.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PushHashBenchmark {
+
+    private static final String TOKEN_CHARACTERS =
+            "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789-_";
+
+    private String pushToken;
+    private byte[] digest;
+
+    @Setup(Level.Trial)
+    public void setUp() throws NoSuchAlgorithmException {
+        // Same length and alphabet as a Firebase token
+        Random random = new Random(42);
+        StringBuilder stringBuilder = new StringBuilder("f3Tk9vQ2aXo:APA91b");
+        while (stringBuilder.length() < 152) {
+            stringBuilder.append(TOKEN_CHARACTERS.charAt(random.nextInt(TOKEN_CHARACTERS.length())));
+        }
+        pushToken = stringBuilder.toString();
+        digest = MessageDigest.getInstance("SHA-512").digest(pushToken.getBytes());
+    }
+
+    @Benchmark
+    public String sha512Hex() throws NoSuchAlgorithmException {
+        return PushTokenHasher.sha512Hex(pushToken);
+    }
+
+    @Benchmark
+    public String bytesToHex() {
+        return PushTokenHasher.bytesToHex(digest);
+    }
+}
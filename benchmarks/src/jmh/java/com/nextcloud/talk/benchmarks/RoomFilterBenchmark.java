@@ -0,0 +1,69 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nextcloud.talk.benchmarks;
+
+import com.bluelinelabs.logansquare.LoganSquare;
+import com.nextcloud.talk.adapters.items.RoomFilter;
+import com.nextcloud.talk.api.models.json.rooms.Room;
+import com.nextcloud.talk.api.models.json.rooms.RoomsOverall;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filtering the room list for one keystroke of the search, which runs {@link RoomFilter} on every room.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RoomFilterBenchmark {
+
+    @Param({"t", "team", "nomatch"})
+    String constraint;
+
+    private List<Room> rooms;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        rooms = LoganSquare.parse(Fixtures.read("rooms.json"), RoomsOverall.class).getOcs().getData();
+    }
+
+    @Benchmark
+    public int filter() {
+        int matches = 0;
+        for (int i = 0; i < rooms.size(); i++) {
+            if (RoomFilter.matches(rooms.get(i), constraint)) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Nextcloud Talk application
+ *
+ * @author Mario Danic
+ * Copyright (C) 2017 Mario Danic <mario@lovelyhq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.nextcloud.talk.benchmarks;
+
+import com.bluelinelabs.logansquare.LoganSquare;
+import com.nextcloud.talk.api.models.json.participants.Participant;
+import com.nextcloud.talk.api.models.json.signaling.NCSignalingMessage;
+import com.nextcloud.talk.api.models.json.signaling.Signaling;
+import com.nextcloud.talk.api.models.json.signaling.SignalingOverall;
+import com.nextcloud.talk.webrtc.SignalingDecoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding a batch of signaling with a roster, an offer and its candidates, through the untyped
+ * {@link SignalingOverall} plus a second parse of every message as before, and through {@link SignalingDecoder}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SignalingDecodeBenchmark {
+
+    private String signaling;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        signaling = Fixtures.read("signaling.json");
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public void parseTwice(Blackhole blackhole) throws IOException {
+        SignalingOverall signalingOverall = LoganSquare.parse(signaling, SignalingOverall.class);
+        for (Signaling entry : signalingOverall.getOcs().getSignalings()) {
+            if ("usersInRoom".equals(entry.getType())) {
+                blackhole.consume((List<HashMap<String, Object>>) entry.getMessageWrapper());
+            } else if ("message".equals(entry.getType())) {
+                blackhole.consume(LoganSquare.parse(entry.getMessageWrapper().toString(),
+                        NCSignalingMessage.class));
+            }
+        }
+    }
+
+    @Benchmark
+    public int decodeStreaming(final Blackhole blackhole) throws IOException {
+        return SignalingDecoder.decode(signaling, new SignalingDecoder.Callback() {
+            @Override
+            public void onUsersInRoom(List<Participant> participants) {
+                blackhole.consume(participants);
+            }
+
+            @Override
+            public void onSignalingMessage(NCSignalingMessage ncSignalingMessage) {
+                blackhole.consume(ncSignalingMessage);
+            }
+        });
+    }
+}